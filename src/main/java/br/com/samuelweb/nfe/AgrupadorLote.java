@@ -0,0 +1,189 @@
+package br.com.samuelweb.nfe;
+
+import br.com.samuelweb.nfe.exception.NfeException;
+import br.com.samuelweb.nfe.util.ConstantesUtil;
+import br.com.samuelweb.nfe.util.XmlUtil;
+import br.inf.portalfiscal.nfe.schema_4.enviNFe.TEnviNFe;
+import br.inf.portalfiscal.nfe.schema_4.enviNFe.TNFe;
+
+import javax.xml.bind.JAXBException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Agrupa NFes já montadas e assinadas em lotes para a NFeAutorizacao.
+ * <p>
+ * O lote é fechado quando chega a {@link #MAXIMO_NFE} NFes, quando a próxima NFe ultrapassaria
+ * {@link #TAMANHO_MAXIMO_BYTES} ou quando a primeira NFe do lote aguardou o tempo de espera informado. Lotes com uma
+ * única NFe são enviados síncronos (indSinc=1); os demais, assíncronos (indSinc=0).
+ * <p>
+ * Os lotes fechados são entregues ao Consumer (ex. {@link Autorizador#envia(TEnviNFe)}).
+ * <p>
+ * Um lote só pode conter NFes do mesmo modelo e do mesmo emitente, por isso cada AgrupadorLote atende um único
+ * emitente/modelo, definido pela primeira NFe adicionada. A mudança do tpEmis (entrada ou saída da contingência) fecha
+ * o lote atual, para que cada lote seja enviado inteiro à Sefaz da UF ou ao SVC.
+ *
+ * @author Samuel Oliveira - samuk.exe@hotmail.com - www.samuelweb.com.br
+ */
+public class AgrupadorLote {
+
+	/**
+	 * NFes por lote.
+	 */
+	public static final int MAXIMO_NFE = 50;
+
+	/**
+	 * Tamanho máximo da mensagem (500 KB), com folga para o enviNFe e o envelope SOAP.
+	 */
+	public static final int TAMANHO_MAXIMO_BYTES = 500 * 1024 - 2 * 1024;
+
+	private static final AtomicLong SEQUENCIA_LOTE = new AtomicLong(System.currentTimeMillis());
+
+	private final ScheduledExecutorService agendador;
+	private final long esperaMillis;
+	private final Consumer<TEnviNFe> envio;
+
+	private List<TNFe> nfes = new ArrayList<>();
+	private int tamanho;
+	private String tpEmis;
+
+	private String mod;
+	private String emitente;
+
+	/**
+	 * @param agendador
+	 *            agenda o fechamento dos lotes pelo tempo de espera
+	 * @param esperaMillis
+	 *            tempo máximo que a primeira NFe aguarda no lote
+	 * @param envio
+	 *            recebe os lotes fechados
+	 */
+	public AgrupadorLote(ScheduledExecutorService agendador, long esperaMillis, Consumer<TEnviNFe> envio) {
+		this.agendador = agendador;
+		this.esperaMillis = esperaMillis;
+		this.envio = envio;
+	}
+
+	/**
+	 * Adiciona a NFe ao lote atual.
+	 *
+	 * @param nfe
+	 *            NFe assinada
+	 * @throws NfeException
+	 *             se a NFe sozinha ultrapassar o tamanho máximo ou for de outro modelo/emitente
+	 */
+	public void adiciona(TNFe nfe) throws NfeException {
+
+		int tamanhoNfe;
+		try {
+			tamanhoNfe = XmlUtil.objectToXmlBytes(nfe).length;
+		} catch (JAXBException e) {
+			throw new NfeException(e.getMessage());
+		}
+		if (tamanhoNfe > TAMANHO_MAXIMO_BYTES) {
+			throw new NfeException("NFe " + nfe.getInfNFe().getId() + " com " + tamanhoNfe
+					+ " bytes ultrapassa o tamanho máximo do lote.");
+		}
+
+		List<List<TNFe>> fechados = new ArrayList<>(2);
+		List<TNFe> agendar = null;
+		synchronized (this) {
+			confereEmitente(nfe);
+			if (!nfes.isEmpty() && (tamanho + tamanhoNfe > TAMANHO_MAXIMO_BYTES
+					|| !Objects.equals(tpEmis, nfe.getInfNFe().getIde().getTpEmis()))) {
+				fechados.add(fecha());
+			}
+			nfes.add(nfe);
+			tamanho += tamanhoNfe;
+			tpEmis = nfe.getInfNFe().getIde().getTpEmis();
+			if (nfes.size() >= MAXIMO_NFE) {
+				fechados.add(fecha());
+			} else if (nfes.size() == 1) {
+				agendar = nfes;
+			}
+		}
+
+		for (List<TNFe> fechado : fechados) {
+			envia(fechado);
+		}
+		if (agendar != null) {
+			agenda(agendar);
+		}
+	}
+
+	/**
+	 * Fecha e envia o lote atual, se houver NFes.
+	 */
+	public void descarrega() {
+		List<TNFe> fechado;
+		synchronized (this) {
+			fechado = nfes.isEmpty() ? null : fecha();
+		}
+		if (fechado != null) {
+			envia(fechado);
+		}
+	}
+
+	private void agenda(List<TNFe> lote) {
+		try {
+			agendador.schedule(() -> descarrega(lote), esperaMillis, TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			descarrega(lote);
+		}
+	}
+
+	/**
+	 * Fecha o lote pelo tempo de espera, se ainda for o lote atual.
+	 */
+	private void descarrega(List<TNFe> lote) {
+		List<TNFe> fechado = null;
+		synchronized (this) {
+			if (nfes == lote && !nfes.isEmpty()) {
+				fechado = fecha();
+			}
+		}
+		if (fechado != null) {
+			envia(fechado);
+		}
+	}
+
+	/**
+	 * O primeiro modelo/emitente adicionado fica sendo o do agrupador.
+	 */
+	private void confereEmitente(TNFe nfe) throws NfeException {
+		String modNfe = nfe.getInfNFe().getIde().getMod();
+		String emitenteNfe = nfe.getInfNFe().getEmit().getCNPJ() != null ? nfe.getInfNFe().getEmit().getCNPJ()
+				: nfe.getInfNFe().getEmit().getCPF();
+		if (mod == null) {
+			mod = modNfe;
+			emitente = emitenteNfe;
+		} else if (!mod.equals(modNfe) || !Objects.equals(emitente, emitenteNfe)) {
+			throw new NfeException("NFe " + nfe.getInfNFe().getId() + " (modelo " + modNfe + ", emitente "
+					+ emitenteNfe + ") não pode ser agrupada com as NFes do modelo " + mod + ", emitente " + emitente
+					+ ".");
+		}
+	}
+
+	private List<TNFe> fecha() {
+		List<TNFe> fechado = nfes;
+		nfes = new ArrayList<>();
+		tamanho = 0;
+		return fechado;
+	}
+
+	private void envia(List<TNFe> lote) {
+		TEnviNFe enviNFe = new TEnviNFe();
+		enviNFe.setVersao(ConstantesUtil.VERSAO.NFE);
+		enviNFe.setIdLote(String.valueOf(SEQUENCIA_LOTE.incrementAndGet()));
+		enviNFe.setIndSinc(lote.size() == 1 ? "1" : "0");
+		enviNFe.getNFe().addAll(lote);
+		envio.accept(enviNFe);
+	}
+
+}
@@ -0,0 +1,354 @@
+package br.com.samuelweb.nfe;
+
+import br.com.samuelweb.certificado.Certificado;
+import br.com.samuelweb.certificado.CertificadoService;
+import br.com.samuelweb.certificado.exception.CertificadoException;
+import br.com.samuelweb.nfe.util.IdentidadeCertificado;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+import javax.xml.XMLConstants;
+import javax.xml.crypto.MarshalException;
+import javax.xml.crypto.dsig.*;
+import javax.xml.crypto.dsig.dom.DOMSignContext;
+import javax.xml.crypto.dsig.keyinfo.KeyInfo;
+import javax.xml.crypto.dsig.keyinfo.KeyInfoFactory;
+import javax.xml.crypto.dsig.keyinfo.X509Data;
+import javax.xml.crypto.dsig.spec.C14NMethodParameterSpec;
+import javax.xml.crypto.dsig.spec.TransformParameterSpec;
+import java.security.*;
+import java.security.cert.X509Certificate;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Dados de assinatura de um Certificado: chave privada, KeyInfo e XMLSignatureFactory.
+ * <p>
+ * A instância é imutável e pode ser usada por várias threads ao mesmo tempo. Fica guardada pela origem do Certificado
+ * ({@link IdentidadeCertificado#origem}), por isso um novo objeto Certificado do mesmo pfx usa a chave já carregada.
+ * É recriada quando o certificado vence ou quando a origem muda: alias alterado ou pfx substituído, mesmo que renovado
+ * com o mesmo alias. O SignatureMethod, o
+ * CanonicalizationMethod e os Transforms são criados a cada assinatura: as implementações do JDK guardam neles o
+ * java.security.Signature e o canonicalizador usados, e não podem ser compartilhados entre threads.
+ * <p>
+ * Lotes com várias notas (ou eventos) são assinados em paralelo no ForkJoinPool: cada infNFe é copiado para um
+ * Document próprio, assinado em uma tarefa e a Signature gerada é incluída no Document original ao final.
+ *
+ * @author Samuel Oliveira - samuk.exe@hotmail.com - www.samuelweb.com.br
+ */
+final class Assinador {
+
+    /**
+     * A partir desta quantidade de elementos o lote é assinado em paralelo no ForkJoinPool comum.
+     */
+    static final int MINIMO_PARALELO = 4;
+
+    private static final String C14N = "http://www.w3.org/TR/2001/REC-xml-c14n-20010315";
+
+    /**
+     * Assinadores pela origem do certificado. Ao carregar um novo, os vencidos e os do pfx substituído são descartados.
+     */
+    private static final Map<String, Assinador> ASSINADORES = new ConcurrentHashMap<>();
+
+    private final String local;
+    private final Date validade;
+    private final PrivateKey privateKey;
+    private final KeyInfo keyInfo;
+    private final XMLSignatureFactory signatureFactory;
+    private final DigestMethod digestMethod;
+
+    private Assinador(Certificado certificado) throws KeyStoreException, NoSuchAlgorithmException,
+            UnrecoverableEntryException, CertificadoException, InvalidAlgorithmParameterException {
+
+        local = IdentidadeCertificado.local(certificado);
+
+        // A implementação DOM do JDK não guarda estado nos métodos de criação, a factory é compartilhada
+        signatureFactory = XMLSignatureFactory.getInstance("DOM");
+
+        KeyStore keyStore = CertificadoService.getKeyStore(certificado);
+        KeyStore.PrivateKeyEntry pkEntry = (KeyStore.PrivateKeyEntry) keyStore.getEntry(certificado.getNome(),
+                new KeyStore.PasswordProtection(certificado.getSenha().toCharArray()));
+        privateKey = pkEntry.getPrivateKey();
+
+        X509Certificate x509 = CertificadoService.getCertificate(certificado, keyStore);
+        KeyInfoFactory keyInfoFactory = signatureFactory.getKeyInfoFactory();
+        X509Data x509Data = keyInfoFactory.newX509Data(Collections.singletonList(x509));
+        keyInfo = keyInfoFactory.newKeyInfo(Collections.singletonList(x509Data));
+
+        digestMethod = signatureFactory.newDigestMethod(DigestMethod.SHA1, null);
+
+        validade = x509.getNotAfter();
+    }
+
+    /**
+     * Retorna o Assinador do Certificado, carregando a chave do KeyStore apenas na primeira vez
+     * ou quando o anterior não for mais válido.
+     *
+     * @param certificado
+     * @return Assinador
+     */
+    static Assinador getAssinador(Certificado certificado) throws KeyStoreException, NoSuchAlgorithmException,
+            UnrecoverableEntryException, CertificadoException, InvalidAlgorithmParameterException {
+
+        // Calculada antes de abrir o KeyStore: se o pfx for trocado durante a carga, a próxima chamada recarrega
+        String origem = IdentidadeCertificado.origem(certificado);
+        Assinador assinador = ASSINADORES.get(origem);
+        if (assinador == null || !assinador.isValido()) {
+            Assinador novo = new Assinador(certificado);
+            ASSINADORES.entrySet().removeIf(e -> !e.getKey().equals(origem)
+                    && (!e.getValue().isValido() || e.getValue().local.equals(novo.local)));
+            ASSINADORES.put(origem, novo);
+            assinador = novo;
+        }
+        return assinador;
+    }
+
+    private boolean isValido() {
+        return new Date().before(validade);
+    }
+
+    /**
+     * Assina todos os elementos do tipo informado no Document. A partir de {@link #MINIMO_PARALELO} elementos a
+     * assinatura é feita em paralelo no ForkJoinPool comum.
+     *
+     * @param document
+     * @param tipo     ('NFe' para nfe normal , 'infInut' para inutilizacao, 'evento'
+     *                 para eventos)
+     */
+    void assina(Document document, String tipo) throws MarshalException, XMLSignatureException,
+            NoSuchAlgorithmException, InvalidAlgorithmParameterException {
+
+        List<Alvo> alvos = indexa(document, tipo);
+        assina(document, alvos, alvos.size() >= MINIMO_PARALELO ? ForkJoinPool.commonPool() : null);
+    }
+
+    /**
+     * Assina todos os elementos do tipo informado no Document.
+     *
+     * @param document
+     * @param tipo     ('NFe' para nfe normal , 'infInut' para inutilizacao, 'evento'
+     *                 para eventos)
+     * @param pool     ForkJoinPool das assinaturas em paralelo, null para assinar na thread atual
+     */
+    void assina(Document document, String tipo, ForkJoinPool pool) throws MarshalException,
+            XMLSignatureException, NoSuchAlgorithmException, InvalidAlgorithmParameterException {
+
+        assina(document, indexa(document, tipo), pool);
+    }
+
+    private void assina(Document document, List<Alvo> alvos, ForkJoinPool pool) throws MarshalException,
+            XMLSignatureException, NoSuchAlgorithmException, InvalidAlgorithmParameterException {
+
+        if (pool == null || alvos.size() < 2 || !isIndependentes(alvos)) {
+            for (Alvo alvo : alvos) {
+                assina(alvo.elemento, alvo.pai);
+            }
+            return;
+        }
+
+        // O DOM não é seguro para leitura por várias threads (expande nós ao ler): as cópias são feitas aqui
+        List<ForkJoinTask<Element>> tarefas = new ArrayList<>(alvos.size());
+        for (Alvo alvo : alvos) {
+            alvo.elemento.setIdAttribute("Id", true);
+            Element copia = isola(alvo);
+            tarefas.add(pool.submit(() -> {
+                assina(copia, copia.getParentNode());
+                return (Element) copia.getParentNode().getLastChild();
+            }));
+        }
+
+        // As Signatures só entram no Document depois que todas as assinaturas terminaram
+        List<Element> assinaturas = new ArrayList<>(tarefas.size());
+        for (ForkJoinTask<Element> tarefa : tarefas) {
+            assinaturas.add(resultado(tarefa));
+        }
+        for (int i = 0; i < alvos.size(); i++) {
+            alvos.get(i).pai.appendChild(document.importNode(assinaturas.get(i), true));
+        }
+    }
+
+    private void assina(Element elemento, Node pai) throws MarshalException, XMLSignatureException,
+            NoSuchAlgorithmException, InvalidAlgorithmParameterException {
+
+        String id = elemento.getAttribute("Id");
+
+        elemento.setIdAttribute("Id", true);
+
+        TransformParameterSpec tps = null;
+        List<Transform> transformList = new ArrayList<>(2);
+        transformList.add(signatureFactory.newTransform(Transform.ENVELOPED, tps));
+        transformList.add(signatureFactory.newTransform(C14N, tps));
+
+        Reference ref = signatureFactory.newReference("#" + id, digestMethod, transformList, null, null);
+
+        SignedInfo si = signatureFactory.newSignedInfo(
+                signatureFactory.newCanonicalizationMethod(CanonicalizationMethod.INCLUSIVE,
+                        (C14NMethodParameterSpec) null),
+                signatureFactory.newSignatureMethod(SignatureMethod.RSA_SHA1, null),
+                Collections.singletonList(ref));
+
+        XMLSignature signature = signatureFactory.newXMLSignature(si, keyInfo);
+
+        DOMSignContext dsc = new DOMSignContext(privateKey, pai);
+
+        dsc.setBaseURI("ok");
+
+        signature.sign(dsc);
+    }
+
+    /**
+     * Localiza, em uma única passagem pelo Document, os elementos do tipo (onde a Signature é incluída) e os
+     * elementos assinados (infNFe, infEvento ou infInut), pareados pela ordem no documento.
+     */
+    private static List<Alvo> indexa(Document document, String tipo) throws XMLSignatureException {
+
+        String assinado;
+        switch (tipo) {
+            case Assinar.EVENTO:
+                assinado = "infEvento";
+                break;
+            case Assinar.INFINUT:
+                assinado = "infInut";
+                break;
+            default:
+                assinado = "infNFe";
+        }
+
+        Element raiz = document.getDocumentElement();
+        List<Element> pais = new ArrayList<>();
+        List<Element> elementos = new ArrayList<>();
+        Node no = raiz;
+        while (no != null) {
+            if (no.getNodeType() == Node.ELEMENT_NODE) {
+                String nomeNo = no.getNodeName();
+                if (nomeNo.equals(assinado)) {
+                    elementos.add((Element) no);
+                }
+                if (no != raiz && nomeNo.equals(tipo)) {
+                    pais.add((Element) no);
+                }
+            }
+            no = proximo(no, raiz);
+        }
+
+        if (elementos.size() < pais.size()) {
+            throw new XMLSignatureException("Elemento " + assinado + " não encontrado em todos os elementos " + tipo
+                    + ".");
+        }
+
+        List<Alvo> alvos = new ArrayList<>(pais.size());
+        for (int i = 0; i < pais.size(); i++) {
+            // A Signature da inutilização fica na raiz do documento
+            alvos.add(new Alvo(elementos.get(i), tipo.equals(Assinar.INFINUT) ? document.getFirstChild()
+                    : pais.get(i)));
+        }
+        return alvos;
+    }
+
+    /**
+     * Próximo nó em pré-ordem dentro da raiz, null ao final.
+     */
+    private static Node proximo(Node no, Node raiz) {
+
+        if (no.getNodeType() == Node.ELEMENT_NODE && no.getFirstChild() != null) {
+            return no.getFirstChild();
+        }
+        while (no != raiz) {
+            if (no.getNextSibling() != null) {
+                return no.getNextSibling();
+            }
+            no = no.getParentNode();
+        }
+        return null;
+    }
+
+    /**
+     * Cada elemento assinado é filho direto do seu elemento pai e os pais são distintos: as assinaturas não
+     * dependem umas das outras.
+     */
+    private static boolean isIndependentes(List<Alvo> alvos) {
+
+        Set<Node> pais = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Alvo alvo : alvos) {
+            if (alvo.elemento.getParentNode() != alvo.pai || !pais.add(alvo.pai)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Copia o elemento assinado para um Document próprio, dentro de uma cópia rasa do pai. Os namespaces e atributos
+     * xml: herdados dos ancestrais entram na forma canônica do elemento e do SignedInfo, por isso são declarados na
+     * cópia do pai.
+     *
+     * @return cópia do elemento assinado
+     */
+    private static Element isola(Alvo alvo) {
+
+        Document isolado = alvo.pai.getOwnerDocument().getImplementation().createDocument(null, null, null);
+        Element pai = (Element) isolado.importNode(alvo.pai, false);
+        for (Node ancestral = alvo.pai.getParentNode(); ancestral instanceof Element;
+             ancestral = ancestral.getParentNode()) {
+            NamedNodeMap atributos = ancestral.getAttributes();
+            for (int i = 0; i < atributos.getLength(); i++) {
+                Node atributo = atributos.item(i);
+                String namespace = atributo.getNamespaceURI();
+                boolean herdado = XMLConstants.XMLNS_ATTRIBUTE_NS_URI.equals(namespace)
+                        || XMLConstants.XML_NS_URI.equals(namespace);
+                if (herdado && !pai.hasAttribute(atributo.getNodeName())) {
+                    pai.setAttributeNS(namespace, atributo.getNodeName(), atributo.getNodeValue());
+                }
+            }
+        }
+        Element elemento = (Element) isolado.importNode(alvo.elemento, true);
+        pai.appendChild(elemento);
+        isolado.appendChild(pai);
+        return elemento;
+    }
+
+    private static Element resultado(ForkJoinTask<Element> tarefa) throws MarshalException, XMLSignatureException {
+
+        try {
+            return tarefa.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new XMLSignatureException(e);
+        } catch (ExecutionException e) {
+            Throwable causa = e.getCause();
+            if (causa instanceof MarshalException) {
+                throw (MarshalException) causa;
+            }
+            if (causa instanceof XMLSignatureException) {
+                throw (XMLSignatureException) causa;
+            }
+            if (causa instanceof RuntimeException) {
+                throw (RuntimeException) causa;
+            }
+            if (causa instanceof Error) {
+                throw (Error) causa;
+            }
+            throw new XMLSignatureException(causa);
+        }
+    }
+
+    /**
+     * Elemento assinado e o elemento onde a Signature é incluída.
+     */
+    private static final class Alvo {
+
+        private final Element elemento;
+        private final Node pai;
+
+        Alvo(Element elemento, Node pai) {
+            this.elemento = elemento;
+            this.pai = pai;
+        }
+    }
+
+}
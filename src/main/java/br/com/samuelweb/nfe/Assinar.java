@@ -1,37 +1,31 @@
 package br.com.samuelweb.nfe;
 
-import br.com.samuelweb.certificado.Certificado;
-import br.com.samuelweb.certificado.CertificadoService;
 import br.com.samuelweb.certificado.exception.CertificadoException;
 import br.com.samuelweb.nfe.dom.ConfiguracoesNfe;
 import br.com.samuelweb.nfe.exception.NfeException;
 import br.com.samuelweb.nfe.util.XmlUtil;
 import org.w3c.dom.Document;
-import org.w3c.dom.NodeList;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 
+import javax.xml.bind.JAXBException;
 import javax.xml.crypto.MarshalException;
 import javax.xml.crypto.dsig.*;
-import javax.xml.crypto.dsig.dom.DOMSignContext;
-import javax.xml.crypto.dsig.keyinfo.KeyInfo;
-import javax.xml.crypto.dsig.keyinfo.KeyInfoFactory;
-import javax.xml.crypto.dsig.keyinfo.X509Data;
-import javax.xml.crypto.dsig.spec.C14NMethodParameterSpec;
-import javax.xml.crypto.dsig.spec.TransformParameterSpec;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.OutputKeys;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerException;
 import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.security.*;
-import java.security.cert.X509Certificate;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
+import java.util.Arrays;
 
 /**
  * Classe Responsavel Por Assinar O Xml.
@@ -43,9 +37,10 @@ class Assinar {
     static final String INFINUT = "infInut";
     static final String EVENTO = "evento";
 
-    private static PrivateKey privateKey;
+    private static final String CDATA_INICIO = "<![CDATA[";
+    private static final String CDATA_FIM = "]]>";
 
-    private static KeyInfo keyInfo;
+    private static final byte[] STANDALONE = " standalone=\"no\"".getBytes(StandardCharsets.US_ASCII);
 
     Assinar assinarXMLsCertfificadoA1;
 
@@ -58,9 +53,41 @@ class Assinar {
      */
     public static String assinaNfe(ConfiguracoesNfe config, String stringXml, String tipo) throws NfeException {
 
-        stringXml = assinaDocNFe(config, stringXml, tipo);
+        return new String(assinaDocNFe(config, stringXml.getBytes(StandardCharsets.UTF_8), tipo), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param xml  Xml em UTF-8
+     * @param tipo ('NFe' para nfe normal , 'infInut' para inutilizacao, 'evento'
+     *             para eventos)
+     * @return Xml Assinado em UTF-8
+     * @throws NfeException
+     */
+    public static byte[] assinaNfe(ConfiguracoesNfe config, byte[] xml, String tipo) throws NfeException {
+
+        return assinaDocNFe(config, xml, tipo);
+    }
+
+    /**
+     * Gera o XML do objeto direto em um Document e assina, sem converter para String.
+     *
+     * @param objeto objeto do schema (ex: TEnviNFe)
+     * @param tipo   ('NFe' para nfe normal , 'infInut' para inutilizacao, 'evento'
+     *               para eventos)
+     * @return Documento assinado e seus bytes em UTF-8
+     * @throws NfeException
+     */
+    public static XmlAssinado assinaNfe(ConfiguracoesNfe config, Object objeto, String tipo) throws NfeException {
+
+        try {
+            Document document = XmlUtil.objectToDocument(objeto);
+            removeAcentos(document.getDocumentElement());
+            assinaDocumento(config, document, tipo);
 
-        return stringXml;
+            return new XmlAssinado(document, outputXML(document));
+        } catch (JAXBException e) {
+            throw new NfeException("Erro ao Assinar Nfe" + e.getMessage());
+        }
     }
 
     /**
@@ -68,131 +95,132 @@ class Assinar {
      *
      * @param Conteudo do Xml
      * @param Nome     do Certificado Digital
-     * @return String do XMl Assinado
+     * @return Xml Assinado em UTF-8
      * @throws Exception
      */
-    private static String assinaDocNFe(ConfiguracoesNfe config, String xml, String tipo) throws NfeException {
+    private static byte[] assinaDocNFe(ConfiguracoesNfe config, byte[] xml, String tipo) throws NfeException {
 
         try {
             Document document = documentFactory(XmlUtil.removeAcentos(xml));
-            XMLSignatureFactory signatureFactory = XMLSignatureFactory.getInstance("DOM");
-            ArrayList<Transform> transformList = signatureFactory(signatureFactory);
-            loadCertificates(config, signatureFactory);
-
-            for (int i = 0; i < document.getDocumentElement().getElementsByTagName(tipo).getLength(); i++) {
-                assinarNFe(tipo, signatureFactory, transformList, privateKey, keyInfo, document, i);
-            }
+            assinaDocumento(config, document, tipo);
 
             return outputXML(document);
-        } catch (SAXException | IOException | ParserConfigurationException | NoSuchAlgorithmException
-                | InvalidAlgorithmParameterException | KeyStoreException | UnrecoverableEntryException
-                | CertificadoException | MarshalException
-                | XMLSignatureException e) {
+        } catch (SAXException | IOException | ParserConfigurationException e) {
             throw new NfeException("Erro ao Assinar Nfe" + e.getMessage());
         }
     }
 
-    private static void assinarNFe(String tipo, XMLSignatureFactory fac, ArrayList<Transform> transformList,
-                                   PrivateKey privateKey, KeyInfo ki, Document document, int indexNFe) throws NoSuchAlgorithmException,
-            InvalidAlgorithmParameterException, MarshalException, XMLSignatureException {
-
-        NodeList elements;
-        switch (tipo) {
-            case EVENTO:
-                elements = document.getElementsByTagName("infEvento");
-                break;
-            case INFINUT:
-                elements = document.getElementsByTagName("infInut");
-                break;
-            default:
-                elements = document.getElementsByTagName("infNFe");
-        }
-
-        org.w3c.dom.Element el = (org.w3c.dom.Element) elements.item(indexNFe);
-        String id = el.getAttribute("Id");
+    private static void assinaDocumento(ConfiguracoesNfe config, Document document, String tipo) throws NfeException {
 
-        el.setIdAttribute("Id", true);
-
-        Reference ref = fac.newReference("#" + id, fac.newDigestMethod(DigestMethod.SHA1, null), transformList, null,
-                null);
-
-        SignedInfo si = fac.newSignedInfo(
-                fac.newCanonicalizationMethod(CanonicalizationMethod.INCLUSIVE, (C14NMethodParameterSpec) null),
-                fac.newSignatureMethod(SignatureMethod.RSA_SHA1, null), Collections.singletonList(ref));
-
-        XMLSignature signature = fac.newXMLSignature(si, ki);
+        try {
+            Assinador.getAssinador(config.getCertificado()).assina(document, tipo);
+        } catch (NoSuchAlgorithmException | InvalidAlgorithmParameterException | KeyStoreException
+                | UnrecoverableEntryException | CertificadoException | MarshalException
+                | XMLSignatureException e) {
+            throw new NfeException("Erro ao Assinar Nfe" + e.getMessage());
+        }
+    }
 
-        DOMSignContext dsc;
+    /**
+     * Aplica no Document o mesmo tratamento do {@link XmlUtil#removeAcentos(String)} feito no XML antes da assinatura:
+     * textos e atributos sem acentos, textos formados só por espaços removidos e o CDATA do qrCode como seção CDATA.
+     */
+    private static void removeAcentos(Element elemento) {
 
-        if (tipo.equals(INFINUT)) {
-            dsc = new DOMSignContext(privateKey, document.getFirstChild());
-        } else {
-            dsc = new DOMSignContext(privateKey,
-                    document.getDocumentElement().getElementsByTagName(tipo).item(indexNFe));
+        NamedNodeMap atributos = elemento.getAttributes();
+        for (int i = 0; i < atributos.getLength(); i++) {
+            Node atributo = atributos.item(i);
+            atributo.setNodeValue(XmlUtil.removeAcentos(atributo.getNodeValue()));
         }
 
-        dsc.setBaseURI("ok");
-
-        signature.sign(dsc);
+        Node filho = elemento.getFirstChild();
+        while (filho != null) {
+            Node proximo = filho.getNextSibling();
+            if (filho.getNodeType() == Node.ELEMENT_NODE) {
+                removeAcentos((Element) filho);
+            } else if (filho.getNodeType() == Node.TEXT_NODE) {
+                String texto = filho.getNodeValue();
+                if (isEspacos(texto)) {
+                    elemento.removeChild(filho);
+                } else {
+                    texto = XmlUtil.removeAcentos(texto);
+                    if (texto.startsWith(CDATA_INICIO) && texto.endsWith(CDATA_FIM)) {
+                        elemento.replaceChild(elemento.getOwnerDocument().createCDATASection(
+                                texto.substring(CDATA_INICIO.length(), texto.length() - CDATA_FIM.length())), filho);
+                    } else {
+                        filho.setNodeValue(texto);
+                    }
+                }
+            }
+            filho = proximo;
+        }
     }
 
-    private static ArrayList<Transform> signatureFactory(XMLSignatureFactory signatureFactory)
-            throws NoSuchAlgorithmException, InvalidAlgorithmParameterException {
-
-        ArrayList<Transform> transformList = new ArrayList<Transform>();
-        TransformParameterSpec tps = null;
-        Transform envelopedTransform = signatureFactory.newTransform(Transform.ENVELOPED, tps);
-        Transform c14NTransform = signatureFactory.newTransform("http://www.w3.org/TR/2001/REC-xml-c14n-20010315", tps);
+    private static boolean isEspacos(String texto) {
 
-        transformList.add(envelopedTransform);
-        transformList.add(c14NTransform);
-        return transformList;
+        for (int i = 0; i < texto.length(); i++) {
+            char c = texto.charAt(i);
+            if (c != ' ' && c != '\u000B' && c != '\f' && c != '\r' && c != '\n' && c != '\t') {
+                return false;
+            }
+        }
+        return true;
     }
 
-    private static Document documentFactory(String xml) throws SAXException, IOException, ParserConfigurationException {
+    private static Document documentFactory(byte[] xml) throws SAXException, IOException, ParserConfigurationException {
 
         DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
         factory.setNamespaceAware(true);
-        InputStream is = new ByteArrayInputStream(xml.getBytes());
-        Reader reader = new InputStreamReader(is, "UTF-8");
-        InputSource io = new InputSource(reader);
+        InputSource io = new InputSource(new ByteArrayInputStream(xml));
         io.setEncoding("UTF-8");
         return factory.newDocumentBuilder().parse(io);
     }
 
-    private static void loadCertificates(ConfiguracoesNfe config, XMLSignatureFactory signatureFactory)
-            throws KeyStoreException, NoSuchAlgorithmException, UnrecoverableEntryException, CertificadoException {
-
-        Certificado certificado = config.getCertificado();
-        KeyStore keyStore = CertificadoService.getKeyStore(certificado);
-
-        KeyStore.PrivateKeyEntry pkEntry = (KeyStore.PrivateKeyEntry) keyStore.getEntry(certificado.getNome(),
-                new KeyStore.PasswordProtection(certificado.getSenha().toCharArray()));
-        privateKey = pkEntry.getPrivateKey();
-
-        KeyInfoFactory keyInfoFactory = signatureFactory.getKeyInfoFactory();
-        List<X509Certificate> x509Content = new ArrayList<X509Certificate>();
-
-        x509Content.add(CertificadoService.getCertificate(certificado, keyStore));
-        X509Data x509Data = keyInfoFactory.newX509Data(x509Content);
-        keyInfo = keyInfoFactory.newKeyInfo(Collections.singletonList(x509Data));
-    }
-
-    private static String outputXML(Document doc) throws NfeException {
+    private static byte[] outputXML(Document doc) throws NfeException {
 
         try {
             ByteArrayOutputStream os = new ByteArrayOutputStream();
             TransformerFactory tf = TransformerFactory.newInstance();
             Transformer trans = tf.newTransformer();
+            trans.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
             trans.transform(new DOMSource(doc), new StreamResult(os));
-            String xml = os.toString();
-            xml = xml.replaceAll("\\r\\n", "");
-            xml = xml.replaceAll(" standalone=\"no\"", "");
-            return xml;
+            return removeQuebrasEStandalone(os.toByteArray());
         } catch (TransformerException e) {
             throw new NfeException("Erro ao Transformar Documento:" + e.getMessage());
         }
 
     }
 
+    /**
+     * Remove as quebras \r\n e o standalone="no" gerados pelo Transformer, direto nos bytes.
+     */
+    private static byte[] removeQuebrasEStandalone(byte[] xml) {
+
+        byte[] retorno = new byte[xml.length];
+        int pos = 0;
+        for (int i = 0; i < xml.length; i++) {
+            if (xml[i] == '\r' && i + 1 < xml.length && xml[i + 1] == '\n') {
+                i++;
+            } else if (xml[i] == ' ' && inicia(xml, i, STANDALONE)) {
+                i += STANDALONE.length - 1;
+            } else {
+                retorno[pos++] = xml[i];
+            }
+        }
+        return Arrays.copyOf(retorno, pos);
+    }
+
+    private static boolean inicia(byte[] xml, int inicio, byte[] valor) {
+
+        if (inicio + valor.length > xml.length) {
+            return false;
+        }
+        for (int i = 0; i < valor.length; i++) {
+            if (xml[inicio + i] != valor[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
 }
\ No newline at end of file
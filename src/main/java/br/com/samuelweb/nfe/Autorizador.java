@@ -0,0 +1,321 @@
+package br.com.samuelweb.nfe;
+
+import br.com.samuelweb.nfe.dom.ConfiguracoesNfe;
+import br.com.samuelweb.nfe.dom.Enum.StatusEnum;
+import br.com.samuelweb.nfe.exception.NfeException;
+import br.com.samuelweb.nfe.util.CertificadoUtil;
+import br.com.samuelweb.nfe.util.ConstantesUtil;
+import br.com.samuelweb.nfe.util.ExecutorSefaz;
+import br.com.samuelweb.nfe.util.XmlUtil;
+import br.inf.portalfiscal.nfe.schema_4.enviNFe.TEnviNFe;
+import br.inf.portalfiscal.nfe.schema_4.enviNFe.TNFe;
+import br.inf.portalfiscal.nfe.schema_4.enviNFe.TRetEnviNFe;
+import br.inf.portalfiscal.nfe.schema_4.retConsReciNFe.TProtNFe;
+import br.inf.portalfiscal.nfe.schema_4.retConsReciNFe.TRetConsReciNFe;
+
+import javax.xml.bind.JAXBException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Autorização automática dos lotes: envia o lote já assinado, consulta o recibo até o processamento e entrega o
+ * nfeProc de cada NFe autorizada (ou a rejeição) ao {@link Retorno}.
+ * <p>
+ * A primeira consulta do recibo é feita após o tMed informado pela Sefaz no retorno do envio. Enquanto o lote estiver
+ * em processamento (105) o intervalo entre as consultas dobra, até {@link #INTERVALO_MAXIMO_SEGUNDOS}. As consultas
+ * de todos os recibos são agendadas no mesmo ScheduledExecutorService, que só dispara os agendamentos; as chamadas à
+ * Sefaz são executadas pelo {@link ExecutorSefaz}, com os seus limites por UF e serviço.
+ * <p>
+ * O lote é enviado ao SVC quando todas as NFes foram emitidas em contingência SVC (tpEmis 6 ou 7), e o recibo é
+ * consultado no mesmo ambiente (UF ou SVC) em que o lote foi enviado.
+ *
+ * @author Samuel Oliveira - samuk.exe@hotmail.com - www.samuelweb.com.br
+ */
+public class Autorizador {
+
+	/**
+	 * Intervalo máximo entre as consultas de um recibo.
+	 */
+	public static final int INTERVALO_MAXIMO_SEGUNDOS = 30;
+
+	/**
+	 * Consultas do recibo (em processamento ou com falha de comunicação) antes de desistir do lote.
+	 */
+	public static final int MAXIMO_CONSULTAS = 20;
+
+	private final ConfiguracoesNfe config;
+	private final String tipo;
+	private final ExecutorSefaz executor;
+	private final ScheduledExecutorService agendador;
+	private final Retorno retorno;
+
+	private final AtomicInteger emProcessamento = new AtomicInteger();
+
+	/**
+	 * Retorno das NFes do lote. Os métodos são chamados pelas threads do ExecutorSefaz. Uma RuntimeException no
+	 * tratamento do retorno (inclusive lançada por estes métodos) finaliza o lote, entregando as NFes restantes em
+	 * {@link #erro(String, String, NfeException)} com o recibo, quando houver.
+	 */
+	public interface Retorno {
+
+		/**
+		 * @param chave
+		 * @param nfeProc
+		 *            xml do nfeProc (NFe + protNFe)
+		 */
+		void autorizada(String chave, String nfeProc);
+
+		/**
+		 * @param chave
+		 * @param cStat
+		 *            cStat do protNFe, ou do lote quando o lote inteiro foi rejeitado
+		 * @param xMotivo
+		 */
+		void rejeitada(String chave, String cStat, String xMotivo);
+
+		/**
+		 * Falha de comunicação ou de leitura do retorno. Se o lote já tinha sido recebido, o recibo é informado para
+		 * consulta posterior.
+		 *
+		 * @param chave
+		 * @param recibo
+		 *            null se o lote não foi recebido
+		 * @param e
+		 */
+		void erro(String chave, String recibo, NfeException e);
+	}
+
+	/**
+	 * @param config
+	 * @param tipo
+	 *            ConstantesUtil.NFE ou ConstantesUtil.NFCE
+	 * @param executor
+	 *            executa as chamadas à Sefaz
+	 * @param agendador
+	 *            agenda as consultas dos recibos
+	 * @param retorno
+	 */
+	public Autorizador(ConfiguracoesNfe config, String tipo, ExecutorSefaz executor,
+			ScheduledExecutorService agendador, Retorno retorno) {
+		this.config = config;
+		this.tipo = tipo;
+		this.executor = executor;
+		this.agendador = agendador;
+		this.retorno = retorno;
+	}
+
+	/**
+	 * Envia o lote. O lote deve estar montado e assinado (Nfe.montaNfe).
+	 *
+	 * @param enviNFe
+	 */
+	public void envia(TEnviNFe enviNFe) {
+
+		Lote lote = new Lote(enviNFe);
+		emProcessamento.incrementAndGet();
+
+		executor.executa(config, uf(), ConstantesUtil.SERVICOS.ENVIO, () -> {
+			lote.contingencia = Enviar.contingencia(config, enviNFe, tipo);
+			return Enviar.enviaNfe(CertificadoUtil.iniciaConfiguracoes(config), enviNFe, tipo, lote.contingencia);
+		})
+				.whenComplete((ret, e) -> {
+					if (e != null) {
+						finaliza(lote, null, e);
+						return;
+					}
+					try {
+						trataEnvio(lote, ret);
+					} catch (RuntimeException ex) {
+						finaliza(lote, lote.recibo, ex);
+					}
+				});
+	}
+
+	/**
+	 * @return lotes enviados que ainda não tiveram todas as NFes entregues ao Retorno
+	 */
+	public int getEmProcessamento() {
+		return emProcessamento.get();
+	}
+
+	private void trataEnvio(Lote lote, TRetEnviNFe ret) {
+
+		if (StatusEnum.LOTE_PROCESSADO.getCodigo().equals(ret.getCStat()) && ret.getProtNFe() != null) {
+			// Envio síncrono
+			protocolo(lote, ret.getProtNFe().getInfProt().getChNFe(), ret.getProtNFe().getInfProt().getCStat(),
+					ret.getProtNFe().getInfProt().getXMotivo(), ret.getProtNFe());
+			finaliza(lote, null, null);
+
+		} else if (StatusEnum.LOTE_RECEBIDO.getCodigo().equals(ret.getCStat())) {
+			lote.recibo = ret.getInfRec().getNRec();
+			lote.intervalo = Math.max(tempoMedio(ret.getInfRec().getTMed()), 1);
+			agenda(lote);
+
+		} else {
+			rejeitaLote(lote, ret.getCStat(), ret.getXMotivo());
+		}
+	}
+
+	private void agenda(Lote lote) {
+		try {
+			agendador.schedule(() -> consulta(lote), lote.intervalo, TimeUnit.SECONDS);
+		} catch (RejectedExecutionException e) {
+			finaliza(lote, lote.recibo, e);
+		}
+	}
+
+	private void consulta(Lote lote) {
+		executor.executa(config, uf(), ConstantesUtil.SERVICOS.CONSULTA_RECIBO,
+				() -> ConsultaRecibo.reciboNfe(CertificadoUtil.iniciaConfiguracoes(config), lote.recibo, tipo,
+						lote.contingencia))
+				.whenComplete((ret, e) -> {
+					try {
+						trataConsulta(lote, ret, e);
+					} catch (RuntimeException ex) {
+						finaliza(lote, lote.recibo, ex);
+					}
+				});
+	}
+
+	private void trataConsulta(Lote lote, TRetConsReciNFe ret, Throwable e) {
+
+		lote.consultas++;
+		boolean processando = e == null && StatusEnum.LOTE_EM_PROCESSAMENTO.getCodigo().equals(ret.getCStat());
+
+		if (e != null || processando) {
+			if (lote.consultas >= MAXIMO_CONSULTAS) {
+				finaliza(lote, lote.recibo, e != null ? e
+						: new NfeException("Lote " + lote.recibo + " ainda em processamento após " + lote.consultas
+								+ " consultas."));
+				return;
+			}
+			lote.intervalo = Math.min(lote.intervalo * 2, INTERVALO_MAXIMO_SEGUNDOS);
+			agenda(lote);
+
+		} else if (StatusEnum.LOTE_PROCESSADO.getCodigo().equals(ret.getCStat())) {
+			for (TProtNFe prot : ret.getProtNFe()) {
+				protocolo(lote, prot.getInfProt().getChNFe(), prot.getInfProt().getCStat(),
+						prot.getInfProt().getXMotivo(), prot);
+			}
+			finaliza(lote, lote.recibo, new NfeException("Protocolo não retornado no lote " + lote.recibo + "."));
+
+		} else {
+			rejeitaLote(lote, ret.getCStat(), ret.getXMotivo());
+		}
+	}
+
+	/**
+	 * Entrega a NFe do protocolo ao Retorno. O protNFe é associado à NFe do lote pela chave.
+	 */
+	private void protocolo(Lote lote, String chave, String cStat, String xMotivo, Object prot) {
+
+		TNFe nfe = lote.pendentes.remove(chave);
+		if (nfe == null) {
+			return;
+		}
+
+		if (StatusEnum.AUTORIZADO.getCodigo().equals(cStat)
+				|| StatusEnum.AUTORIZADO_FORA_PRAZO.getCodigo().equals(cStat)) {
+			try {
+				retorno.autorizada(chave, XmlUtil.criaNfeProc(nfe, prot));
+			} catch (JAXBException | NfeException e) {
+				retorno.erro(chave, lote.recibo, new NfeException(e.getMessage()));
+			}
+		} else {
+			retorno.rejeitada(chave, cStat, xMotivo);
+		}
+	}
+
+	private void rejeitaLote(Lote lote, String cStat, String xMotivo) {
+		if (lote.finalizado) {
+			return;
+		}
+		lote.finalizado = true;
+		try {
+			Iterator<String> it = lote.pendentes.keySet().iterator();
+			while (it.hasNext()) {
+				String chave = it.next();
+				it.remove();
+				try {
+					retorno.rejeitada(chave, cStat, xMotivo);
+				} catch (RuntimeException ignored) {
+					// A falha do Retorno em uma NFe não impede a entrega das demais
+				}
+			}
+		} finally {
+			emProcessamento.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Finaliza o lote. As NFes sem protocolo são entregues como erro. Só tem efeito na primeira chamada, inclusive
+	 * quando o tratamento do retorno falhou depois de finalizar o lote.
+	 */
+	private void finaliza(Lote lote, String recibo, Throwable e) {
+		if (lote.finalizado) {
+			return;
+		}
+		lote.finalizado = true;
+		try {
+			NfeException erro = lote.pendentes.isEmpty() ? null : erro(e);
+			Iterator<String> it = lote.pendentes.keySet().iterator();
+			while (it.hasNext()) {
+				String chave = it.next();
+				it.remove();
+				try {
+					retorno.erro(chave, recibo, erro);
+				} catch (RuntimeException ignored) {
+					// A falha do Retorno em uma NFe não impede a entrega das demais
+				}
+			}
+		} finally {
+			emProcessamento.decrementAndGet();
+		}
+	}
+
+	private static NfeException erro(Throwable e) {
+		Throwable causa = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+		if (causa instanceof NfeException) {
+			return (NfeException) causa;
+		}
+		return new NfeException(causa == null ? "Protocolo não retornado." : causa.getMessage());
+	}
+
+	private static int tempoMedio(String tMed) {
+		try {
+			return Integer.parseInt(tMed.trim());
+		} catch (NullPointerException | NumberFormatException e) {
+			return 1;
+		}
+	}
+
+	private String uf() {
+		return config.getEstado().toString();
+	}
+
+	/**
+	 * Lote enviado. Só é acessado por uma chamada de cada vez (envio, depois cada consulta em sequência).
+	 */
+	private static class Lote {
+
+		private final Map<String, TNFe> pendentes = new LinkedHashMap<>();
+		private volatile String recibo;
+		private volatile boolean contingencia;
+		private volatile int intervalo;
+		private volatile int consultas;
+		private volatile boolean finalizado;
+
+		Lote(TEnviNFe enviNFe) {
+			for (TNFe nfe : enviNFe.getNFe()) {
+				pendentes.put(nfe.getInfNFe().getId().substring(3), nfe);
+			}
+		}
+	}
+
+}
@@ -23,9 +23,7 @@ class CartaCorrecao {
 			xml = xml.replaceAll(" xmlns:ns2=\"http://www.w3.org/2000/09/xmldsig#\"", "");
 			xml = xml.replaceAll("<evento v", "<evento xmlns=\"http://www.portalfiscal.inf.br/nfe\" v");
 
-			xml = Eventos.enviarEvento(config, xml, ConstantesUtil.EVENTO.CCE, valida, tipo);
-
-			return XmlUtil.xmlToObject(xml, TRetEnvEvento.class);
+			return Eventos.enviarEvento(config, xml, ConstantesUtil.EVENTO.CCE, valida, tipo, TRetEnvEvento.class);
 
 		} catch (JAXBException e) {
 			throw new NfeException(e.getMessage());
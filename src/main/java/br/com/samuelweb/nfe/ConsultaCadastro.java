@@ -1,18 +1,21 @@
 package br.com.samuelweb.nfe;
 
 import java.rmi.RemoteException;
+import java.util.Arrays;
 
 import javax.xml.bind.JAXBException;
 import javax.xml.stream.XMLStreamException;
 
 import org.apache.axiom.om.OMElement;
 import org.apache.axiom.om.util.AXIOMUtil;
-import org.apache.axis2.transport.http.HTTPConstants;
 
 import br.com.samuelweb.nfe.dom.ConfiguracoesNfe;
 import br.com.samuelweb.nfe.exception.NfeException;
+import br.com.samuelweb.nfe.util.ConstantesUtil;
 import br.com.samuelweb.nfe.util.Estados;
-import br.com.samuelweb.nfe.util.ObjetoUtil;
+import br.com.samuelweb.nfe.util.LimiteConsultas;
+import br.com.samuelweb.nfe.util.StubUtil;
+import br.com.samuelweb.nfe.util.TransporteSoap;
 import br.com.samuelweb.nfe.util.WebServiceUtil;
 import br.com.samuelweb.nfe.util.XmlUtil;
 import br.inf.portalfiscal.nfe.schema.consCad.TConsCad;
@@ -44,6 +47,14 @@ class ConsultaCadastro {
 	static TRetConsCad consultaCadastro(ConfiguracoesNfe config, String tipo, String cnpjCpf, Estados estado)
 			throws NfeException {
 
+		return LimiteConsultas.consultaUnica(config, ConstantesUtil.SERVICOS.CONSULTA_CADASTRO,
+				Arrays.asList(tipo, cnpjCpf, estado), () -> consulta(config, tipo, cnpjCpf, estado));
+
+	}
+
+	private static TRetConsCad consulta(ConfiguracoesNfe config, String tipo, String cnpjCpf, Estados estado)
+			throws NfeException {
+
 		try {
 
 			TConsCad consCad = new TConsCad();
@@ -65,47 +76,39 @@ class ConsultaCadastro {
 			if (config.isLog()) {
 				System.out.println("Xml Consulta: " + xml);
 			}
+			String url = WebServiceUtil.getUrlConsultaCadastro(config, estado.toString());
+
+			if (config.isTransporteSoap()) {
+				return TransporteSoap.executa(config, ConstantesUtil.SERVICOS.CONSULTA_CADASTRO,
+						estado.equals(Estados.RS) ? TransporteSoap.Operacao.CONSULTA_CADASTRO_RS
+								: TransporteSoap.Operacao.CONSULTA_CADASTRO,
+						url, xml, TRetConsCad.class);
+			}
+
 			OMElement ome = AXIOMUtil.stringToOM(xml);
 
 			if (estado.equals(Estados.RS)) {
 				CadConsultaCadastro4StubRs.NfeDadosMsg_type0 dadosMsgRS = new CadConsultaCadastro4StubRs.NfeDadosMsg_type0();
 				dadosMsgRS.setExtraElement(ome);
 
-				CadConsultaCadastro4StubRs stubRS = new CadConsultaCadastro4StubRs(
-						WebServiceUtil.getUrlConsultaCadastro(config, estado.toString()));
-
-				// Timeout
-				if (!ObjetoUtil.isEmpty(config.getTimeout())) {
-					stubRS._getServiceClient().getOptions().setProperty(HTTPConstants.SO_TIMEOUT, config.getTimeout());
-					stubRS._getServiceClient().getOptions().setProperty(HTTPConstants.CONNECTION_TIMEOUT,
-							config.getTimeout());
-				}
-
 				CadConsultaCadastro4StubRs.ConsultaCadastro consultaCadastro = new CadConsultaCadastro4StubRs.ConsultaCadastro();
 				consultaCadastro.setNfeDadosMsg(dadosMsgRS);
 
-				CadConsultaCadastro4StubRs.NfeResultMsg resultRS = stubRS.consultaCadastro(consultaCadastro);
+				CadConsultaCadastro4StubRs.NfeResultMsg resultRS = StubUtil.executa(config,
+						ConstantesUtil.SERVICOS.CONSULTA_CADASTRO, CadConsultaCadastro4StubRs.class, url,
+						stub -> stub.consultaCadastro(consultaCadastro));
 
-				return XmlUtil.xmlToObject(resultRS.getConsultaCadastroResult().getExtraElement().toString(),
-						TRetConsCad.class);
+				return XmlUtil.xmlToObject(resultRS.getConsultaCadastroResult().getExtraElement(), TRetConsCad.class);
 
 			} else {
 				CadConsultaCadastro4Stub.NfeDadosMsg dadosMsg = new CadConsultaCadastro4Stub.NfeDadosMsg();
 				dadosMsg.setExtraElement(ome);
 
-				CadConsultaCadastro4Stub stub = new CadConsultaCadastro4Stub(
-						WebServiceUtil.getUrlConsultaCadastro(config, estado.toString()));
-
-				// Timeout
-				if (!ObjetoUtil.isEmpty(config.getTimeout())) {
-					stub._getServiceClient().getOptions().setProperty(HTTPConstants.SO_TIMEOUT, config.getTimeout());
-					stub._getServiceClient().getOptions().setProperty(HTTPConstants.CONNECTION_TIMEOUT,
-							config.getTimeout());
-				}
-
-				CadConsultaCadastro4Stub.NfeResultMsg result = stub.consultaCadastro(dadosMsg);
+				CadConsultaCadastro4Stub.NfeResultMsg result = StubUtil.executa(config,
+						ConstantesUtil.SERVICOS.CONSULTA_CADASTRO, CadConsultaCadastro4Stub.class, url,
+						stub -> stub.consultaCadastro(dadosMsg));
 
-				return XmlUtil.xmlToObject(result.getExtraElement().toString(), TRetConsCad.class);
+				return XmlUtil.xmlToObject(result.getExtraElement(), TRetConsCad.class);
 			}
 
 		} catch (RemoteException | XMLStreamException | JAXBException e) {
@@ -1,18 +1,20 @@
 package br.com.samuelweb.nfe;
 
 import java.rmi.RemoteException;
+import java.util.Arrays;
 
 import javax.xml.bind.JAXBException;
 import javax.xml.stream.XMLStreamException;
 
 import org.apache.axiom.om.OMElement;
 import org.apache.axiom.om.util.AXIOMUtil;
-import org.apache.axis2.transport.http.HTTPConstants;
 
 import br.com.samuelweb.nfe.dom.ConfiguracoesNfe;
 import br.com.samuelweb.nfe.exception.NfeException;
 import br.com.samuelweb.nfe.util.ConstantesUtil;
-import br.com.samuelweb.nfe.util.ObjetoUtil;
+import br.com.samuelweb.nfe.util.LimiteConsultas;
+import br.com.samuelweb.nfe.util.StubUtil;
+import br.com.samuelweb.nfe.util.TransporteSoap;
 import br.com.samuelweb.nfe.util.WebServiceUtil;
 import br.com.samuelweb.nfe.util.XmlUtil;
 import br.inf.portalfiscal.nfe.schema_4.consReciNFe.TConsReciNFe;
@@ -38,6 +40,24 @@ class ConsultaRecibo {
 
 	static TRetConsReciNFe reciboNfe(ConfiguracoesNfe config, String recibo, String tipo) throws NfeException {
 
+		return reciboNfe(config, recibo, tipo, config.isContigenciaSCAN());
+
+	}
+
+	/**
+	 * Consulta o recibo no mesmo ambiente (Sefaz da UF ou SVC) em que o lote foi enviado.
+	 */
+	static TRetConsReciNFe reciboNfe(ConfiguracoesNfe config, String recibo, String tipo, boolean contingencia)
+			throws NfeException {
+
+		return LimiteConsultas.consultaUnica(config, ConstantesUtil.SERVICOS.CONSULTA_RECIBO,
+				Arrays.asList(recibo, tipo, contingencia), () -> consulta(config, recibo, tipo, contingencia));
+
+	}
+
+	private static TRetConsReciNFe consulta(ConfiguracoesNfe config, String recibo, String tipo, boolean contingencia)
+			throws NfeException {
+
 		try {
 
 			/**
@@ -51,22 +71,26 @@ class ConsultaRecibo {
 
 			String xml = XmlUtil.objectToXml(consReciNFe);
 
+			String url = tipo.equals(ConstantesUtil.NFCE)
+					? WebServiceUtil.getUrl(config, ConstantesUtil.NFCE, ConstantesUtil.SERVICOS.CONSULTA_RECIBO,
+							contingencia)
+					: WebServiceUtil.getUrl(config, ConstantesUtil.NFE, ConstantesUtil.SERVICOS.CONSULTA_RECIBO,
+							contingencia);
+
+			if (config.isTransporteSoap()) {
+				return TransporteSoap.executa(config, ConstantesUtil.SERVICOS.CONSULTA_RECIBO,
+						TransporteSoap.Operacao.RET_AUTORIZACAO, url, xml, TRetConsReciNFe.class);
+			}
+
 			OMElement ome = AXIOMUtil.stringToOM(xml);
 			NFeRetAutorizacao4Stub.NfeDadosMsg dadosMsg = new NFeRetAutorizacao4Stub.NfeDadosMsg();
 			dadosMsg.setExtraElement(ome);
 
-			NFeRetAutorizacao4Stub stub = new NFeRetAutorizacao4Stub(tipo.equals(ConstantesUtil.NFCE)
-					? WebServiceUtil.getUrl(config, ConstantesUtil.NFCE, ConstantesUtil.SERVICOS.CONSULTA_RECIBO)
-					: WebServiceUtil.getUrl(config, ConstantesUtil.NFE, ConstantesUtil.SERVICOS.CONSULTA_RECIBO));
-			// Timeout
-			if (!ObjetoUtil.isEmpty(config.getTimeout())) {
-				stub._getServiceClient().getOptions().setProperty(HTTPConstants.SO_TIMEOUT, config.getTimeout());
-				stub._getServiceClient().getOptions().setProperty(HTTPConstants.CONNECTION_TIMEOUT,
-						config.getTimeout());
-			}
-			NFeRetAutorizacao4Stub.NfeResultMsg result = stub.nfeRetAutorizacaoLote(dadosMsg);
+			NFeRetAutorizacao4Stub.NfeResultMsg result = StubUtil.executa(config,
+					ConstantesUtil.SERVICOS.CONSULTA_RECIBO, NFeRetAutorizacao4Stub.class, url,
+					stub -> stub.nfeRetAutorizacaoLote(dadosMsg));
 
-			return XmlUtil.xmlToObject(result.getExtraElement().toString(), TRetConsReciNFe.class);
+			return XmlUtil.xmlToObject(result.getExtraElement(), TRetConsReciNFe.class);
 
 		} catch (RemoteException | XMLStreamException | JAXBException e) {
 			throw new NfeException(e.getMessage());
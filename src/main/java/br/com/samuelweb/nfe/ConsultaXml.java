@@ -1,18 +1,20 @@
 package br.com.samuelweb.nfe;
 
 import java.rmi.RemoteException;
+import java.util.Arrays;
 
 import javax.xml.bind.JAXBException;
 import javax.xml.stream.XMLStreamException;
 
 import org.apache.axiom.om.OMElement;
 import org.apache.axiom.om.util.AXIOMUtil;
-import org.apache.axis2.transport.http.HTTPConstants;
 
 import br.com.samuelweb.nfe.dom.ConfiguracoesNfe;
 import br.com.samuelweb.nfe.exception.NfeException;
 import br.com.samuelweb.nfe.util.ConstantesUtil;
-import br.com.samuelweb.nfe.util.ObjetoUtil;
+import br.com.samuelweb.nfe.util.LimiteConsultas;
+import br.com.samuelweb.nfe.util.StubUtil;
+import br.com.samuelweb.nfe.util.TransporteSoap;
 import br.com.samuelweb.nfe.util.WebServiceUtil;
 import br.com.samuelweb.nfe.util.XmlUtil;
 import br.inf.portalfiscal.nfe.schema_4.consSitNFe.TConsSitNFe;
@@ -37,6 +39,13 @@ class ConsultaXml {
 	 */
 	static TRetConsSitNFe consultaXml(ConfiguracoesNfe config, String chave, String tipo) throws NfeException {
 
+		return LimiteConsultas.consultaUnica(config, ConstantesUtil.SERVICOS.CONSULTA_XML,
+				Arrays.asList(chave, tipo, config.isContigenciaSCAN()), () -> consulta(config, chave, tipo));
+
+	}
+
+	private static TRetConsSitNFe consulta(ConfiguracoesNfe config, String chave, String tipo) throws NfeException {
+
 		try {
 
 			TConsSitNFe consSitNFe = new TConsSitNFe();
@@ -50,23 +59,25 @@ class ConsultaXml {
 			if (config.isLog()) {
 				System.out.println("Xml Consulta: " + xml);
 			}
+			String url = tipo.equals(ConstantesUtil.NFCE)
+					? WebServiceUtil.getUrl(config, ConstantesUtil.NFCE, ConstantesUtil.SERVICOS.CONSULTA_XML)
+					: WebServiceUtil.getUrl(config, ConstantesUtil.NFE, ConstantesUtil.SERVICOS.CONSULTA_XML);
+
+			if (config.isTransporteSoap()) {
+				return TransporteSoap.executa(config, ConstantesUtil.SERVICOS.CONSULTA_XML,
+						TransporteSoap.Operacao.CONSULTA_PROTOCOLO, url, xml, TRetConsSitNFe.class);
+			}
+
 			OMElement ome = AXIOMUtil.stringToOM(xml);
 
 			NFeConsultaProtocolo4Stub.NfeDadosMsg dadosMsg = new NFeConsultaProtocolo4Stub.NfeDadosMsg();
 			dadosMsg.setExtraElement(ome);
 
-			NFeConsultaProtocolo4Stub stub = new NFeConsultaProtocolo4Stub(tipo.equals(ConstantesUtil.NFCE)
-					? WebServiceUtil.getUrl(config, ConstantesUtil.NFCE, ConstantesUtil.SERVICOS.CONSULTA_XML)
-					: WebServiceUtil.getUrl(config, ConstantesUtil.NFE, ConstantesUtil.SERVICOS.CONSULTA_XML));
-			// Timeout
-			if (!ObjetoUtil.isEmpty(config.getTimeout())) {
-				stub._getServiceClient().getOptions().setProperty(HTTPConstants.SO_TIMEOUT, config.getTimeout());
-				stub._getServiceClient().getOptions().setProperty(HTTPConstants.CONNECTION_TIMEOUT,
-						config.getTimeout());
-			}
-			NFeConsultaProtocolo4Stub.NfeResultMsg result = stub.nfeConsultaNF(dadosMsg);
+			NFeConsultaProtocolo4Stub.NfeResultMsg result = StubUtil.executa(config,
+					ConstantesUtil.SERVICOS.CONSULTA_XML, NFeConsultaProtocolo4Stub.class, url,
+					stub -> stub.nfeConsultaNF(dadosMsg));
 
-			return XmlUtil.xmlToObject(result.getExtraElement().toString(), TRetConsSitNFe.class);
+			return XmlUtil.xmlToObject(result.getExtraElement(), TRetConsSitNFe.class);
 
 		} catch (RemoteException | XMLStreamException | JAXBException e) {
 			throw new NfeException(e.getMessage());
@@ -1,18 +1,20 @@
 package br.com.samuelweb.nfe;
 
 import java.rmi.RemoteException;
+import java.util.Arrays;
 
 import javax.xml.bind.JAXBException;
 import javax.xml.stream.XMLStreamException;
 
 import org.apache.axiom.om.OMElement;
 import org.apache.axiom.om.util.AXIOMUtil;
-import org.apache.axis2.transport.http.HTTPConstants;
 
 import br.com.samuelweb.nfe.dom.ConfiguracoesNfe;
 import br.com.samuelweb.nfe.exception.NfeException;
 import br.com.samuelweb.nfe.util.ConstantesUtil;
-import br.com.samuelweb.nfe.util.ObjetoUtil;
+import br.com.samuelweb.nfe.util.LimiteConsultas;
+import br.com.samuelweb.nfe.util.StubUtil;
+import br.com.samuelweb.nfe.util.TransporteSoap;
 import br.com.samuelweb.nfe.util.WebServiceUtil;
 import br.com.samuelweb.nfe.util.XmlUtil;
 import br.inf.portalfiscal.nfe.schema.distdfeint.DistDFeInt;
@@ -36,6 +38,15 @@ class DistribuicaoDFe {
 	static RetDistDFeInt consultaNfe(ConfiguracoesNfe config, String tipoCliente, String cpfCnpj, String tipoConsulta,
 			String nsuChave) throws NfeException {
 
+		return LimiteConsultas.consultaUnica(config, ConstantesUtil.SERVICOS.DISTRIBUICAO_DFE,
+				Arrays.asList(tipoCliente, cpfCnpj, tipoConsulta, nsuChave),
+				() -> consulta(config, tipoCliente, cpfCnpj, tipoConsulta, nsuChave));
+
+	}
+
+	private static RetDistDFeInt consulta(ConfiguracoesNfe config, String tipoCliente, String cpfCnpj,
+			String tipoConsulta, String nsuChave) throws NfeException {
+
 		try {
 
 			DistDFeInt distDFeInt = new DistDFeInt();
@@ -65,6 +76,13 @@ class DistribuicaoDFe {
 				System.out.println("Xml: " + xml);
 			}
 
+			String url = WebServiceUtil.getUrl(config, ConstantesUtil.NFE, ConstantesUtil.SERVICOS.DISTRIBUICAO_DFE);
+
+			if (config.isTransporteSoap()) {
+				return TransporteSoap.executa(config, ConstantesUtil.SERVICOS.DISTRIBUICAO_DFE,
+						TransporteSoap.Operacao.DISTRIBUICAO_DFE, url, xml, RetDistDFeInt.class);
+			}
+
 			OMElement ome = AXIOMUtil.stringToOM(xml);
 
 			NFeDistribuicaoDFeStub.NfeDadosMsg_type0 dadosMsgType0 = new NFeDistribuicaoDFeStub.NfeDadosMsg_type0();
@@ -73,18 +91,11 @@ class DistribuicaoDFe {
 			NFeDistribuicaoDFeStub.NfeDistDFeInteresse distDFeInteresse = new NFeDistribuicaoDFeStub.NfeDistDFeInteresse();
 			distDFeInteresse.setNfeDadosMsg(dadosMsgType0);
 
-			NFeDistribuicaoDFeStub stub = new NFeDistribuicaoDFeStub(
-					WebServiceUtil.getUrl(config, ConstantesUtil.NFE, ConstantesUtil.SERVICOS.DISTRIBUICAO_DFE));
-			// Timeout
-			if (!ObjetoUtil.isEmpty(config.getTimeout())) {
-				stub._getServiceClient().getOptions().setProperty(HTTPConstants.SO_TIMEOUT, config.getTimeout());
-				stub._getServiceClient().getOptions().setProperty(HTTPConstants.CONNECTION_TIMEOUT,
-						config.getTimeout());
-			}
-			NFeDistribuicaoDFeStub.NfeDistDFeInteresseResponse result = stub.nfeDistDFeInteresse(distDFeInteresse);
+			NFeDistribuicaoDFeStub.NfeDistDFeInteresseResponse result = StubUtil.executa(config,
+					ConstantesUtil.SERVICOS.DISTRIBUICAO_DFE, NFeDistribuicaoDFeStub.class, url,
+					stub -> stub.nfeDistDFeInteresse(distDFeInteresse));
 
-			return XmlUtil.xmlToObject(result.getNfeDistDFeInteresseResult().getExtraElement().toString(),
-					RetDistDFeInt.class);
+			return XmlUtil.xmlToObject(result.getNfeDistDFeInteresseResult().getExtraElement(), RetDistDFeInt.class);
 
 		} catch (RemoteException | XMLStreamException | JAXBException e) {
 			throw new NfeException(e.getMessage());
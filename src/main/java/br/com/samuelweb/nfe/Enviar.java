@@ -1,7 +1,12 @@
 package br.com.samuelweb.nfe;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
 import java.rmi.RemoteException;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 
 import javax.xml.bind.JAXBException;
 import javax.xml.stream.XMLStreamException;
@@ -10,17 +15,21 @@ import org.apache.axiom.om.OMAbstractFactory;
 import org.apache.axiom.om.OMElement;
 import org.apache.axiom.om.OMFactory;
 import org.apache.axiom.om.OMText;
-import org.apache.axiom.om.util.AXIOMUtil;
-import org.apache.axis2.transport.http.HTTPConstants;
+import org.apache.axiom.om.OMXMLBuilderFactory;
 
 import br.com.samuelweb.nfe.dom.ConfiguracoesNfe;
+import br.com.samuelweb.nfe.dom.Enum.StatusEnum;
 import br.com.samuelweb.nfe.exception.NfeException;
 import br.com.samuelweb.nfe.exception.NfeValidacaoException;
+import br.com.samuelweb.nfe.util.CircuitoContingencia;
 import br.com.samuelweb.nfe.util.ConstantesUtil;
 import br.com.samuelweb.nfe.util.ObjetoUtil;
+import br.com.samuelweb.nfe.util.StubUtil;
+import br.com.samuelweb.nfe.util.TransporteSoap;
 import br.com.samuelweb.nfe.util.WebServiceUtil;
 import br.com.samuelweb.nfe.util.XmlUtil;
 import br.inf.portalfiscal.nfe.schema_4.enviNFe.TEnviNFe;
+import br.inf.portalfiscal.nfe.schema_4.enviNFe.TNFe;
 import br.inf.portalfiscal.nfe.schema_4.enviNFe.TRetEnviNFe;
 import br.inf.portalfiscal.www.nfe_400.wsdl.NFeAutorizacao.NFeAutorizacao4Stub;
 
@@ -31,6 +40,13 @@ import br.inf.portalfiscal.www.nfe_400.wsdl.NFeAutorizacao.NFeAutorizacao4Stub;
  */
 class Enviar {
 
+	private static final String CDATA_INICIO = "<![CDATA[";
+	private static final String CDATA_FIM = "]]>";
+
+	private static final byte[] TAG_NFE = "<NFe>".getBytes(StandardCharsets.UTF_8);
+	private static final byte[] TAG_NFE_NAMESPACE = "<NFe xmlns=\"http://www.portalfiscal.inf.br/nfe\">"
+			.getBytes(StandardCharsets.UTF_8);
+
 	/**
 	 * Metodo para Montar a NFE
 	 *
@@ -41,125 +57,271 @@ class Enviar {
 	 */
 	static TEnviNFe montaNfe(ConfiguracoesNfe config, TEnviNFe enviNFe, boolean valida) throws NfeException {
 
-		try {
-
-			/**
-			 * Cria o xml
-			 */
-			String xml = XmlUtil.objectToXml(enviNFe);
+		/**
+		 * Cria e Assina o Xml
+		 */
+		XmlAssinado assinado = Assinar.assinaNfe(config, enviNFe, "NFe");
 
-			/**
-			 * Assina o Xml
-			 */
-			xml = Assinar.assinaNfe(config, xml, "NFe");
+		if (config.isLog()) {
+			System.out.println("Xml Assinado: " + new String(assinado.getXml(), StandardCharsets.UTF_8));
+		}
 
-			if (config.isLog()) {
-				System.out.println("Xml Assinado: " + xml);
+		/**
+		 * Valida o Xml caso sejá selecionado True
+		 */
+		if (valida) {
+			String erros = Validar.validaXml(config, assinado.getDocumento(), Validar.ENVIO);
+			if (!ObjetoUtil.isEmpty(erros)) {
+				throw new NfeValidacaoException("Erro Na Validação do Xml: " + erros);
 			}
+		}
 
-			/**
-			 * Valida o Xml caso sejá selecionado True
-			 */
-			if (valida) {
-				String erros = Validar.validaXml(config, xml, Validar.ENVIO);
-				if (!ObjetoUtil.isEmpty(erros)) {
-					throw new NfeValidacaoException("Erro Na Validação do Xml: " + erros);
-				}
-			}
+		return assinado.getObjeto(TEnviNFe.class);
 
-			return XmlUtil.xmlToObject(xml, TEnviNFe.class);
+	}
 
-		} catch (JAXBException e) {
-			throw new NfeException(e.getMessage());
+	/**
+	 * Metodo para Enviar a NFE.
+	 *
+	 * @param enviNFe
+	 * @param tipo
+	 * @return
+	 * @throws NfeException
+	 */
+	static TRetEnviNFe enviaNfe(ConfiguracoesNfe config, TEnviNFe enviNFe, String tipo) throws NfeException {
+
+		return enviaNfe(config, enviNFe, tipo, contingencia(config, enviNFe, tipo));
+
+	}
+
+	/**
+	 * Decide se o lote vai para o SVC: contigenciaSCAN da configuração ou, na NFe, todas as NFes do lote emitidas em
+	 * contingência SVC (tpEmis 6 - SVC-AN ou 7 - SVC-RS). O SVC só aceita essas NFes e a Sefaz da UF as recusa, por
+	 * isso o lote que mistura NFes SVC e não SVC não é enviado.
+	 *
+	 * @param config
+	 * @param enviNFe
+	 * @param tipo
+	 * @return true para enviar ao SVC
+	 * @throws NfeException
+	 *             se o lote misturar NFes SVC e não SVC
+	 */
+	static boolean contingencia(ConfiguracoesNfe config, TEnviNFe enviNFe, String tipo) throws NfeException {
+
+		if (config.isContigenciaSCAN()) {
+			return true;
 		}
+		if (!tipo.equals(ConstantesUtil.NFE)) {
+			return false;
+		}
+
+		int svc = 0;
+		for (TNFe nfe : enviNFe.getNFe()) {
+			if (isSvc(nfe.getInfNFe().getIde().getTpEmis())) {
+				svc++;
+			}
+		}
+		if (svc > 0 && svc < enviNFe.getNFe().size()) {
+			throw new NfeException("Lote " + enviNFe.getIdLote()
+					+ " com NFes em contingência SVC (tpEmis 6/7) e NFes de outro tipo de emissão.");
+		}
+		return svc > 0;
 
 	}
 
+	private static boolean isSvc(String tpEmis) {
+		return ConstantesUtil.TIPO_EMISSAO.SVC_AN.equals(tpEmis) || ConstantesUtil.TIPO_EMISSAO.SVC_RS.equals(tpEmis);
+	}
+
 	/**
-	 * Metodo para Enviar a NFE.
+	 * O resultado só indica a situação da Sefaz da UF quando o lote de emissão normal (tpEmis 1) foi enviado a ela.
+	 */
+	private static boolean isEmissaoNormal(TEnviNFe enviNFe) {
+		for (TNFe nfe : enviNFe.getNFe()) {
+			if (!ConstantesUtil.TIPO_EMISSAO.NORMAL.equals(nfe.getInfNFe().getIde().getTpEmis())) {
+				return false;
+			}
+		}
+		return !enviNFe.getNFe().isEmpty();
+	}
+
+	/**
+	 * Metodo para Enviar a NFE na Sefaz da UF ou no SVC. O resultado dos envios de lotes de emissão normal (tpEmis 1)
+	 * à Sefaz da UF é informado ao CircuitoContingencia da configuração.
 	 *
 	 * @param enviNFe
 	 * @param tipo
+	 * @param contingencia
 	 * @return
 	 * @throws NfeException
 	 */
-	static TRetEnviNFe enviaNfe(ConfiguracoesNfe config, TEnviNFe enviNFe, String tipo) throws NfeException {
+	static TRetEnviNFe enviaNfe(ConfiguracoesNfe config, TEnviNFe enviNFe, String tipo, boolean contingencia)
+			throws NfeException {
 
+		CircuitoContingencia circuito = contingencia || !tipo.equals(ConstantesUtil.NFE) || !isEmissaoNormal(enviNFe)
+				? null : config.getCircuitoContingencia();
 		boolean nfce = tipo.equals(ConstantesUtil.NFCE);
-		String qrCode = "";
 
 		try {
-			if (nfce) {
-				qrCode = enviNFe.getNFe().get(0).getInfNFeSupl().getQrCode();
-				enviNFe.getNFe().get(0).getInfNFeSupl().setQrCode("");
+			String url = nfce ? WebServiceUtil.getUrl(config, ConstantesUtil.NFCE, ConstantesUtil.SERVICOS.ENVIO, contingencia)
+					: WebServiceUtil.getUrl(config, ConstantesUtil.NFE, ConstantesUtil.SERVICOS.ENVIO, contingencia);
+
+			TRetEnviNFe retEnviNFe;
+			try {
+				retEnviNFe = config.isTransporteSoap() ? enviaTransporteSoap(config, enviNFe, nfce, url)
+						: enviaAxis2(config, enviNFe, nfce, url);
+			} catch (RemoteException e) {
+				if (circuito != null) {
+					circuito.registraFalha(config.getEstado());
+				}
+				throw e;
 			}
 
-			String xml = XmlUtil.objectToXml(enviNFe);
+			if (circuito != null) {
+				if (StatusEnum.SERVICO_PARALISADO_MOMENTANEAMENTE.getCodigo().equals(retEnviNFe.getCStat())
+						|| StatusEnum.SERVICO_PARALISADO_SEM_PREVISAO.getCodigo().equals(retEnviNFe.getCStat())) {
+					circuito.registraFalha(config.getEstado());
+				} else {
+					circuito.registraSucesso(config.getEstado());
+				}
+			}
+
+			return retEnviNFe;
+
+		} catch (RemoteException | XMLStreamException | JAXBException e) {
+			throw new NfeException(e.getMessage());
+		}
+
+	}
+
+	/**
+	 * Envio pelo Axis2: o namespace de cada NFe e o CDATA do qrCode da NFC-e são incluídos no OM.
+	 */
+	private static TRetEnviNFe enviaAxis2(ConfiguracoesNfe config, TEnviNFe enviNFe, boolean nfce, String url)
+			throws RemoteException, XMLStreamException, JAXBException, NfeException {
 
-			if (nfce) {
-				enviNFe.getNFe().get(0).getInfNFeSupl().setQrCode(qrCode);
+		List<String> qrCodes = new ArrayList<>();
+
+		if (nfce) {
+			for (TNFe nfe : enviNFe.getNFe()) {
+				qrCodes.add(nfe.getInfNFeSupl().getQrCode());
+				nfe.getInfNFeSupl().setQrCode("");
+			}
+		}
+
+		byte[] xml = XmlUtil.objectToXmlBytes(enviNFe);
+
+		if (nfce) {
+			for (int i = 0; i < qrCodes.size(); i++) {
+				enviNFe.getNFe().get(i).getInfNFeSupl().setQrCode(qrCodes.get(i));
 			}
+		}
 
-			OMElement ome = AXIOMUtil.stringToOM(xml);
-
-			Iterator<?> children = ome.getChildrenWithLocalName("NFe");
-			while (children.hasNext()) {
-				OMElement omElementNFe = (OMElement) children.next();
-				if ((omElementNFe != null) && ("NFe".equals(omElementNFe.getLocalName()))) {
-					omElementNFe.addAttribute("xmlns", "http://www.portalfiscal.inf.br/nfe", null);
-					if (nfce) {
-
-						OMFactory f = OMAbstractFactory.getOMFactory();
-						OMText omt = f.createOMText(qrCode, OMElement.CDATA_SECTION_NODE);
-
-						Iterator<?> itInfSupl = omElementNFe.getChildrenWithLocalName("infNFeSupl");
-						while (itInfSupl.hasNext()) {
-							Object elementInfSupl = itInfSupl.next();
-							if (elementInfSupl instanceof OMElement) {
-								OMElement omElementInfSupl = (OMElement) elementInfSupl;
-								Iterator<?> itqrCode = omElementInfSupl.getChildrenWithLocalName("qrCode");
-								while (itqrCode.hasNext()) {
-									Object elementQrCode = itqrCode.next();
-									if (elementQrCode instanceof OMElement) {
-										OMElement omElementQrCode = (OMElement) elementQrCode;
-										omElementQrCode.addChild(omt);
-									}
+		OMElement ome = OMXMLBuilderFactory.createOMBuilder(new ByteArrayInputStream(xml)).getDocumentElement();
+
+		// As NFes do OM estão na mesma ordem da lista do lote
+		int indiceNFe = 0;
+		Iterator<?> children = ome.getChildrenWithLocalName("NFe");
+		while (children.hasNext()) {
+			OMElement omElementNFe = (OMElement) children.next();
+			if ((omElementNFe != null) && ("NFe".equals(omElementNFe.getLocalName()))) {
+				omElementNFe.addAttribute("xmlns", "http://www.portalfiscal.inf.br/nfe", null);
+				if (nfce) {
+
+					OMFactory f = OMAbstractFactory.getOMFactory();
+					OMText omt = f.createOMText(qrCodes.get(indiceNFe++), OMElement.CDATA_SECTION_NODE);
+
+					Iterator<?> itInfSupl = omElementNFe.getChildrenWithLocalName("infNFeSupl");
+					while (itInfSupl.hasNext()) {
+						Object elementInfSupl = itInfSupl.next();
+						if (elementInfSupl instanceof OMElement) {
+							OMElement omElementInfSupl = (OMElement) elementInfSupl;
+							Iterator<?> itqrCode = omElementInfSupl.getChildrenWithLocalName("qrCode");
+							while (itqrCode.hasNext()) {
+								Object elementQrCode = itqrCode.next();
+								if (elementQrCode instanceof OMElement) {
+									OMElement omElementQrCode = (OMElement) elementQrCode;
+									omElementQrCode.addChild(omt);
 								}
 							}
 						}
 					}
 				}
 			}
+		}
 
-			// Adicionado CDATA após OM
-			if (nfce) {
-				enviNFe.getNFe().get(0).getInfNFeSupl().setQrCode("<![CDATA[" + qrCode + "]]>");
+		// Adicionado CDATA após OM
+		if (nfce) {
+			for (int i = 0; i < qrCodes.size(); i++) {
+				enviNFe.getNFe().get(i).getInfNFeSupl().setQrCode("<![CDATA[" + qrCodes.get(i) + "]]>");
 			}
+		}
 
-			if (config.isLog()) {
-				System.out.println("Xml para Envio: " + ome.toString());
-			}
+		if (config.isLog()) {
+			System.out.println("Xml para Envio: " + ome.toString());
+		}
+
+		NFeAutorizacao4Stub.NfeDadosMsg dadosMsg = new NFeAutorizacao4Stub.NfeDadosMsg();
+		dadosMsg.setExtraElement(ome);
+
+		NFeAutorizacao4Stub.NfeResultMsg result = StubUtil.executa(config, ConstantesUtil.SERVICOS.ENVIO,
+				NFeAutorizacao4Stub.class, url, stub -> stub.nfeAutorizacaoLote(dadosMsg));
+
+		return XmlUtil.xmlToObject(result.getExtraElement(), TRetEnviNFe.class);
+	}
+
+	/**
+	 * Envio pelo TransporteSoap: o xml do lote já é gerado com o qrCode da NFC-e em CDATA e recebe o namespace em
+	 * cada NFe, como no OM do envio pelo Axis2.
+	 */
+	private static TRetEnviNFe enviaTransporteSoap(ConfiguracoesNfe config, TEnviNFe enviNFe, boolean nfce,
+			String url) throws RemoteException, XMLStreamException, JAXBException, NfeException {
 
-			NFeAutorizacao4Stub.NfeDadosMsg dadosMsg = new NFeAutorizacao4Stub.NfeDadosMsg();
-			dadosMsg.setExtraElement(ome);
-
-			NFeAutorizacao4Stub stub = new NFeAutorizacao4Stub(
-					nfce ? WebServiceUtil.getUrl(config, ConstantesUtil.NFCE, ConstantesUtil.SERVICOS.ENVIO)
-							: WebServiceUtil.getUrl(config, ConstantesUtil.NFE, ConstantesUtil.SERVICOS.ENVIO));
-			// Timeout
-			if (!ObjetoUtil.isEmpty(config.getTimeout())) {
-				stub._getServiceClient().getOptions().setProperty(HTTPConstants.SO_TIMEOUT, config.getTimeout());
-				stub._getServiceClient().getOptions().setProperty(HTTPConstants.CONNECTION_TIMEOUT,
-						config.getTimeout());
+		if (nfce) {
+			for (TNFe nfe : enviNFe.getNFe()) {
+				String qrCode = nfe.getInfNFeSupl().getQrCode();
+				if (!qrCode.startsWith(CDATA_INICIO)) {
+					nfe.getInfNFeSupl().setQrCode(CDATA_INICIO + qrCode + CDATA_FIM);
+				}
 			}
-			NFeAutorizacao4Stub.NfeResultMsg result = stub.nfeAutorizacaoLote(dadosMsg);
+		}
 
-			return XmlUtil.xmlToObject(result.getExtraElement().toString(), TRetEnviNFe.class);
+		byte[] xml = declaraNamespaceNFe(XmlUtil.objectToXmlBytes(enviNFe));
 
-		} catch (RemoteException | XMLStreamException | JAXBException e) {
-			throw new NfeException(e.getMessage());
+		if (config.isLog()) {
+			System.out.println("Xml para Envio: " + new String(xml, StandardCharsets.UTF_8));
 		}
 
+		return TransporteSoap.executa(config, ConstantesUtil.SERVICOS.ENVIO, TransporteSoap.Operacao.AUTORIZACAO, url,
+				xml, TRetEnviNFe.class);
+	}
+
+	/**
+	 * Troca cada &lt;NFe&gt; por &lt;NFe xmlns="..."&gt;.
+	 */
+	private static byte[] declaraNamespaceNFe(byte[] xml) {
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream(xml.length + 1024);
+		int inicio = 0;
+		for (int i = 0; i <= xml.length - TAG_NFE.length; i++) {
+			if (xml[i] == '<' && regionMatches(xml, i, TAG_NFE)) {
+				out.write(xml, inicio, i - inicio);
+				out.write(TAG_NFE_NAMESPACE, 0, TAG_NFE_NAMESPACE.length);
+				i += TAG_NFE.length - 1;
+				inicio = i + 1;
+			}
+		}
+		out.write(xml, inicio, xml.length - inicio);
+		return out.toByteArray();
+	}
+
+	private static boolean regionMatches(byte[] xml, int inicio, byte[] trecho) {
+		for (int i = 0; i < trecho.length; i++) {
+			if (xml[inicio + i] != trecho[i]) {
+				return false;
+			}
+		}
+		return true;
 	}
 
 }
\ No newline at end of file
@@ -5,19 +5,30 @@ import br.com.samuelweb.nfe.exception.NfeException;
 import br.com.samuelweb.nfe.exception.NfeValidacaoException;
 import br.com.samuelweb.nfe.util.ConstantesUtil;
 import br.com.samuelweb.nfe.util.ObjetoUtil;
+import br.com.samuelweb.nfe.util.StubUtil;
+import br.com.samuelweb.nfe.util.TransporteSoap;
 import br.com.samuelweb.nfe.util.WebServiceUtil;
+import br.com.samuelweb.nfe.util.XmlUtil;
 import br.inf.portalfiscal.www.nfe_400.wsdl.NFeRecepcaoEvento.NFeRecepcaoEvento4Stub;
 import org.apache.axiom.om.OMElement;
 import org.apache.axiom.om.util.AXIOMUtil;
-import org.apache.axis2.transport.http.HTTPConstants;
 
+import javax.xml.bind.JAXBException;
 import javax.xml.stream.XMLStreamException;
 import java.rmi.RemoteException;
 
 class Eventos {
 
-    static String enviarEvento(ConfiguracoesNfe config, String xml, String tipoEvento, boolean valida, String tipo)
-            throws NfeException {
+    /**
+     * Assina, valida e envia o evento.
+     *
+     * @param xml      xml do envEvento
+     * @param retorno  classe do TRetEnvEvento do pacote do evento
+     * @return retorno da Sefaz
+     * @throws NfeException
+     */
+    static <T> T enviarEvento(ConfiguracoesNfe config, String xml, String tipoEvento, boolean valida, String tipo,
+            Class<T> retorno) throws NfeException {
 
         try {
 
@@ -51,29 +62,32 @@ class Eventos {
                 System.out.println("Xml Evento: " + xml);
             }
 
-            OMElement ome = AXIOMUtil.stringToOM(xml);
-
-            NFeRecepcaoEvento4Stub.NfeDadosMsg dadosMsg = new NFeRecepcaoEvento4Stub.NfeDadosMsg();
-            dadosMsg.setExtraElement(ome);
-
+            String servico;
             String url;
             if (tipoEvento.equals(ConstantesUtil.EVENTO.MANIFESTACAO)) {
-                url = WebServiceUtil.getUrl(config, ConstantesUtil.NFE, ConstantesUtil.SERVICOS.MANIFESTACAO);
+                servico = ConstantesUtil.SERVICOS.MANIFESTACAO;
+                url = WebServiceUtil.getUrl(config, ConstantesUtil.NFE, servico);
             } else {
-                url = WebServiceUtil.getUrl(config, tipo, ConstantesUtil.SERVICOS.EVENTO);
+                servico = ConstantesUtil.SERVICOS.EVENTO;
+                url = WebServiceUtil.getUrl(config, tipo, servico);
             }
 
-            NFeRecepcaoEvento4Stub stub = new NFeRecepcaoEvento4Stub(url);
-            // Timeout
-            if (!ObjetoUtil.isEmpty(config.getTimeout())) {
-                stub._getServiceClient().getOptions().setProperty(HTTPConstants.SO_TIMEOUT, config.getTimeout());
-                stub._getServiceClient().getOptions().setProperty(HTTPConstants.CONNECTION_TIMEOUT,
-                        config.getTimeout());
+            if (config.isTransporteSoap()) {
+                return TransporteSoap.executa(config, servico, TransporteSoap.Operacao.RECEPCAO_EVENTO, url, xml,
+                        retorno);
             }
-            NFeRecepcaoEvento4Stub.NfeResultMsg result = stub.nfeRecepcaoEvento(dadosMsg);
 
-            return result.getExtraElement().toString();
-        } catch (RemoteException | XMLStreamException e) {
+            OMElement ome = AXIOMUtil.stringToOM(xml);
+
+            NFeRecepcaoEvento4Stub.NfeDadosMsg dadosMsg = new NFeRecepcaoEvento4Stub.NfeDadosMsg();
+            dadosMsg.setExtraElement(ome);
+
+            NFeRecepcaoEvento4Stub.NfeResultMsg result = StubUtil.executa(config,
+                    servico, NFeRecepcaoEvento4Stub.class, url,
+                    stub -> stub.nfeRecepcaoEvento(dadosMsg));
+
+            return XmlUtil.xmlToObject(result.getExtraElement(), retorno);
+        } catch (RemoteException | XMLStreamException | JAXBException e) {
             throw new NfeException(e.getMessage());
         }
 
@@ -5,6 +5,8 @@ import br.com.samuelweb.nfe.exception.NfeException;
 import br.com.samuelweb.nfe.exception.NfeValidacaoException;
 import br.com.samuelweb.nfe.util.ConstantesUtil;
 import br.com.samuelweb.nfe.util.ObjetoUtil;
+import br.com.samuelweb.nfe.util.StubUtil;
+import br.com.samuelweb.nfe.util.TransporteSoap;
 import br.com.samuelweb.nfe.util.WebServiceUtil;
 import br.com.samuelweb.nfe.util.XmlUtil;
 import br.inf.portalfiscal.nfe.schema_4.inutNFe.TInutNFe;
@@ -12,7 +14,6 @@ import br.inf.portalfiscal.nfe.schema_4.inutNFe.TRetInutNFe;
 import br.inf.portalfiscal.www.nfe_400.wsdl.NFeInutilizacao.NFeInutilizacao4Stub;
 import org.apache.axiom.om.OMElement;
 import org.apache.axiom.om.util.AXIOMUtil;
-import org.apache.axis2.transport.http.HTTPConstants;
 
 import javax.xml.bind.JAXBException;
 import javax.xml.stream.XMLStreamException;
@@ -72,24 +73,23 @@ class Inutilizar {
 			if (config.isLog()) {
 				System.out.println("Xml Inutilizar: " + xml);
 			}
+			String url = WebServiceUtil.getUrl(config, tipo, ConstantesUtil.SERVICOS.INUTILIZACAO);
+
+			if (config.isTransporteSoap()) {
+				return TransporteSoap.executa(config, ConstantesUtil.SERVICOS.INUTILIZACAO,
+						TransporteSoap.Operacao.INUTILIZACAO, url, xml, TRetInutNFe.class);
+			}
+
 			OMElement ome = AXIOMUtil.stringToOM(xml);
 
 			NFeInutilizacao4Stub.NfeDadosMsg dadosMsg = new NFeInutilizacao4Stub.NfeDadosMsg();
 			dadosMsg.setExtraElement(ome);
 
-			NFeInutilizacao4Stub stub = new NFeInutilizacao4Stub(
-					WebServiceUtil.getUrl(config, tipo, ConstantesUtil.SERVICOS.INUTILIZACAO));
-
-			// Timeout
-			if (!ObjetoUtil.isEmpty(config.getTimeout())) {
-				stub._getServiceClient().getOptions().setProperty(HTTPConstants.SO_TIMEOUT, config.getTimeout());
-				stub._getServiceClient().getOptions().setProperty(HTTPConstants.CONNECTION_TIMEOUT,
-						config.getTimeout());
-			}
-
-			NFeInutilizacao4Stub.NfeResultMsg result = stub.nfeInutilizacaoNF(dadosMsg);
+			NFeInutilizacao4Stub.NfeResultMsg result = StubUtil.executa(config,
+					ConstantesUtil.SERVICOS.INUTILIZACAO, NFeInutilizacao4Stub.class, url,
+					stub -> stub.nfeInutilizacaoNF(dadosMsg));
 
-			return XmlUtil.xmlToObject(result.getExtraElement().toString(), TRetInutNFe.class);
+			return XmlUtil.xmlToObject(result.getExtraElement(), TRetInutNFe.class);
 		} catch (RemoteException | XMLStreamException | JAXBException e) {
 			throw new NfeException(e.getMessage());
 		}
@@ -0,0 +1,242 @@
+package br.com.samuelweb.nfe;
+
+import br.com.samuelweb.nfe.dom.ConfiguracoesNfe;
+import br.com.samuelweb.nfe.dom.Enum.TipoManifestacao;
+import br.com.samuelweb.nfe.util.CertificadoUtil;
+import br.com.samuelweb.nfe.util.ConstantesUtil;
+import br.com.samuelweb.nfe.util.Estados;
+import br.com.samuelweb.nfe.util.ExecutorSefaz;
+import br.inf.portalfiscal.nfe.schema.envEventoCancNFe.TEnvEvento;
+import br.inf.portalfiscal.nfe.schema.envEventoCancNFe.TRetEnvEvento;
+import br.inf.portalfiscal.nfe.schema.retConsCad.TRetConsCad;
+import br.inf.portalfiscal.nfe.schema.retdistdfeint.RetDistDFeInt;
+import br.inf.portalfiscal.nfe.schema_4.enviNFe.TEnviNFe;
+import br.inf.portalfiscal.nfe.schema_4.enviNFe.TRetEnviNFe;
+import br.inf.portalfiscal.nfe.schema_4.inutNFe.TRetInutNFe;
+import br.inf.portalfiscal.nfe.schema_4.retConsReciNFe.TRetConsReciNFe;
+import br.inf.portalfiscal.nfe.schema_4.retConsSitNFe.TRetConsSitNFe;
+import br.inf.portalfiscal.nfe.schema_4.retConsStatServ.TRetConsStatServ;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Versão assíncrona do Nfe/NfeWeb. Cada método retorna imediatamente um CompletableFuture, completado com o retorno
+ * da Sefaz ou com a NfeException.
+ * <p>
+ * As chamadas são executadas no Executor informado, com limite de chamadas simultâneas por UF e por serviço da UF
+ * (ver {@link ExecutorSefaz}). As chamadas que excedem o limite aguardam na fila sem ocupar thread do Executor, assim
+ * como as que aguardam a vez no LimiteConsultas, reservada antes do despacho.
+ * <p>
+ * O transporte continua bloqueante: cada chamada em andamento ocupa uma thread do Executor até o retorno da Sefaz ou o
+ * timeout. A classe não dispensa as threads, ela só limita quantas ficam presas esperando cada UF.
+ *
+ * @author Samuel Oliveira - samuk.exe@hotmail.com - www.samuelweb.com.br
+ */
+public class NfeAsync {
+
+	private final ExecutorSefaz executor;
+
+	/**
+	 * @param executor
+	 *            Executor onde as chamadas serão executadas (cada chamada em andamento ocupa uma thread)
+	 * @param limitePorUf
+	 *            chamadas simultâneas para a mesma UF, somando todos os serviços
+	 * @param limitePorServico
+	 *            chamadas simultâneas para o mesmo serviço da mesma UF
+	 */
+	public NfeAsync(Executor executor, int limitePorUf, int limitePorServico) {
+		this.executor = new ExecutorSefaz(executor, limitePorUf, limitePorServico);
+	}
+
+	/**
+	 * Consulta a Distribuição DFe no Ambiente Nacional.
+	 *
+	 * @param tipoCliente
+	 *            Informar DistribuicaoDFe.CPF ou DistribuicaoDFe.CNPJ
+	 * @param cpfCnpj
+	 * @param tipoConsulta
+	 *            Informar DistribuicaoDFe.NSU ou DistribuicaoDFe.CHAVE
+	 * @param nsuChave
+	 * @return
+	 */
+	public CompletableFuture<RetDistDFeInt> distribuicaoDfe(ConfiguracoesNfe config, String tipoCliente,
+			String cpfCnpj, String tipoConsulta, String nsuChave) {
+
+		return executor.executa(config, ExecutorSefaz.AMBIENTE_NACIONAL, ConstantesUtil.SERVICOS.DISTRIBUICAO_DFE,
+				() -> DistribuicaoDFe.consultaNfe(CertificadoUtil.iniciaConfiguracoes(config), tipoCliente, cpfCnpj,
+						tipoConsulta, nsuChave));
+
+	}
+
+	/**
+	 * Status de Serviço da Sefaz. No tipo Informar ConstantesUtil.NFE ou ConstantesUtil.NFCE
+	 *
+	 * @param tipo
+	 * @return
+	 */
+	public CompletableFuture<TRetConsStatServ> statusServico(ConfiguracoesNfe config, String tipo) {
+
+		return executor.executa(config, uf(config), ConstantesUtil.SERVICOS.STATUS_SERVICO,
+				() -> Status.statusServico(CertificadoUtil.iniciaConfiguracoes(config), tipo));
+
+	}
+
+	/**
+	 * Consulta a situação da NFE. No tipo Informar ConstantesUtil.NFE ou ConstantesUtil.NFCE
+	 *
+	 * @param chave
+	 * @param tipo
+	 * @return
+	 */
+	public CompletableFuture<TRetConsSitNFe> consultaXml(ConfiguracoesNfe config, String chave, String tipo) {
+
+		return executor.executa(config, uf(config), ConstantesUtil.SERVICOS.CONSULTA_XML,
+				() -> ConsultaXml.consultaXml(CertificadoUtil.iniciaConfiguracoes(config), chave, tipo));
+
+	}
+
+	/**
+	 * Consulta o cadastro do Cnpj/CPF. O limite por UF é o do estado consultado.
+	 *
+	 * @param tipo
+	 *            Usar ConsultaCadastro.CNPJ ou ConsultaCadastro.CPF
+	 * @param cnpjCpf
+	 * @param estado
+	 * @return
+	 */
+	public CompletableFuture<TRetConsCad> consultaCadastro(ConfiguracoesNfe config, String tipo, String cnpjCpf,
+			Estados estado) {
+
+		return executor.executa(config, estado.toString(), ConstantesUtil.SERVICOS.CONSULTA_CADASTRO,
+				() -> ConsultaCadastro.consultaCadastro(CertificadoUtil.iniciaConfiguracoes(config), tipo, cnpjCpf,
+						estado));
+
+	}
+
+	/**
+	 * Consulta o retorno do lote. No tipo Informar ConstantesUtil.NFE ou ConstantesUtil.NFCE
+	 *
+	 * @param recibo
+	 * @param tipo
+	 * @return
+	 */
+	public CompletableFuture<TRetConsReciNFe> consultaRecibo(ConfiguracoesNfe config, String recibo, String tipo) {
+
+		return executor.executa(config, uf(config), ConstantesUtil.SERVICOS.CONSULTA_RECIBO,
+				() -> ConsultaRecibo.reciboNfe(CertificadoUtil.iniciaConfiguracoes(config), recibo, tipo));
+
+	}
+
+	/**
+	 * Inutiliza a numeração. No tipo Informar ConstantesUtil.NFE ou ConstantesUtil.NFCE
+	 *
+	 * @param id
+	 * @param motivo
+	 * @param tipo
+	 * @param validar
+	 * @return
+	 */
+	public CompletableFuture<TRetInutNFe> inutilizacao(ConfiguracoesNfe config, String id, String motivo, String tipo,
+			boolean validar) {
+
+		return executor.executa(config, uf(config), ConstantesUtil.SERVICOS.INUTILIZACAO,
+				() -> Inutilizar.inutiliza(CertificadoUtil.iniciaConfiguracoes(config), id, motivo, tipo, validar));
+
+	}
+
+	/**
+	 * Envia o lote de NFE. No tipo Informar ConstantesUtil.NFE ou ConstantesUtil.NFCE
+	 *
+	 * @param enviNFe
+	 * @param tipo
+	 * @return
+	 */
+	public CompletableFuture<TRetEnviNFe> enviarNfe(ConfiguracoesNfe config, TEnviNFe enviNFe, String tipo) {
+
+		return executor.executa(config, uf(config), ConstantesUtil.SERVICOS.ENVIO,
+				() -> Enviar.enviaNfe(CertificadoUtil.iniciaConfiguracoes(config), enviNFe, tipo));
+
+	}
+
+	/**
+	 * Cancela a NFE. No tipo Informar ConstantesUtil.NFE ou ConstantesUtil.NFCE
+	 *
+	 * @param envEvento
+	 * @param valida
+	 * @param tipo
+	 * @return
+	 */
+	public CompletableFuture<TRetEnvEvento> cancelarNfe(ConfiguracoesNfe config, TEnvEvento envEvento,
+			boolean valida, String tipo) {
+
+		return executor.executa(config, uf(config), ConstantesUtil.SERVICOS.EVENTO,
+				() -> Cancelar.eventoCancelamento(CertificadoUtil.iniciaConfiguracoes(config), envEvento, valida,
+						tipo));
+
+	}
+
+	/**
+	 * Envia a Carta De Correção. No tipo Informar ConstantesUtil.NFE ou ConstantesUtil.NFCE
+	 *
+	 * @param evento
+	 * @param valida
+	 * @param tipo
+	 * @return
+	 */
+	public CompletableFuture<br.inf.portalfiscal.nfe.schema.envcce.TRetEnvEvento> cce(ConfiguracoesNfe config,
+			br.inf.portalfiscal.nfe.schema.envcce.TEnvEvento evento, boolean valida, String tipo) {
+
+		return executor.executa(config, uf(config), ConstantesUtil.SERVICOS.EVENTO,
+				() -> CartaCorrecao.eventoCCe(CertificadoUtil.iniciaConfiguracoes(config), evento, valida, tipo));
+
+	}
+
+	/**
+	 * Manifestação do Destinatário no Ambiente Nacional.
+	 *
+	 * @param chave
+	 * @param manifestacao
+	 * @param cnpj
+	 * @param motivo
+	 * @param data
+	 * @return
+	 */
+	public CompletableFuture<br.inf.portalfiscal.nfe.schema.envConfRecebto.TRetEnvEvento> manifestacao(
+			ConfiguracoesNfe config, String chave, TipoManifestacao manifestacao, String cnpj, String motivo,
+			String data) {
+
+		return executor.executa(config, ExecutorSefaz.AMBIENTE_NACIONAL, ConstantesUtil.SERVICOS.MANIFESTACAO,
+				() -> ManifestacaoDestinatario.eventoManifestacao(CertificadoUtil.iniciaConfiguracoes(config), chave,
+						manifestacao, cnpj, data, motivo));
+
+	}
+
+	/**
+	 * Envia o EPEC. No tipo Informar ConstantesUtil.NFE ou ConstantesUtil.NFCE
+	 *
+	 * @param envEvento
+	 * @param valida
+	 * @param tipo
+	 * @return
+	 */
+	public CompletableFuture<br.inf.portalfiscal.nfe.schema.envEpec.TRetEnvEvento> enviarEpec(ConfiguracoesNfe config,
+			br.inf.portalfiscal.nfe.schema.envEpec.TEnvEvento envEvento, boolean valida, String tipo) {
+
+		return executor.executa(config, uf(config), ConstantesUtil.SERVICOS.EVENTO,
+				() -> Epec.eventoEpec(CertificadoUtil.iniciaConfiguracoes(config), envEvento, valida, tipo));
+
+	}
+
+	/**
+	 * @return chamadas aguardando na fila por causa dos limites
+	 */
+	public int getPendentes() {
+		return executor.getPendentes();
+	}
+
+	private static String uf(ConfiguracoesNfe config) {
+		return config.getEstado().toString();
+	}
+
+}
@@ -1,6 +1,7 @@
 package br.com.samuelweb.nfe;
 
 import java.rmi.RemoteException;
+import java.util.Arrays;
 
 import javax.xml.bind.JAXBException;
 import javax.xml.stream.XMLStreamException;
@@ -11,6 +12,9 @@ import org.apache.axiom.om.util.AXIOMUtil;
 import br.com.samuelweb.nfe.dom.ConfiguracoesNfe;
 import br.com.samuelweb.nfe.exception.NfeException;
 import br.com.samuelweb.nfe.util.ConstantesUtil;
+import br.com.samuelweb.nfe.util.LimiteConsultas;
+import br.com.samuelweb.nfe.util.StubUtil;
+import br.com.samuelweb.nfe.util.TransporteSoap;
 import br.com.samuelweb.nfe.util.WebServiceUtil;
 import br.com.samuelweb.nfe.util.XmlUtil;
 import br.inf.portalfiscal.nfe.schema_4.consStatServ.TConsStatServ;
@@ -35,6 +39,13 @@ class Status {
 	 */
 	static TRetConsStatServ statusServico(ConfiguracoesNfe config, String tipo) throws NfeException {
 
+		return LimiteConsultas.consultaUnica(config, ConstantesUtil.SERVICOS.STATUS_SERVICO,
+				Arrays.asList(tipo, config.isContigenciaSCAN()), () -> consultaStatus(config, tipo));
+
+	}
+
+	private static TRetConsStatServ consultaStatus(ConfiguracoesNfe config, String tipo) throws NfeException {
+
 		try {
 
 			TConsStatServ consStatServ = new TConsStatServ();
@@ -47,17 +58,25 @@ class Status {
 			if (config.isLog()) {
 				System.out.println("Xml Status: " + xml);
 			}
+			String url = tipo.equals(ConstantesUtil.NFCE)
+					? WebServiceUtil.getUrl(config, ConstantesUtil.NFCE, ConstantesUtil.SERVICOS.STATUS_SERVICO)
+					: WebServiceUtil.getUrl(config, ConstantesUtil.NFE, ConstantesUtil.SERVICOS.STATUS_SERVICO);
+
+			if (config.isTransporteSoap()) {
+				return TransporteSoap.executa(config, ConstantesUtil.SERVICOS.STATUS_SERVICO,
+						TransporteSoap.Operacao.STATUS_SERVICO, url, xml, TRetConsStatServ.class);
+			}
+
 			OMElement ome = AXIOMUtil.stringToOM(xml);
 
 			NFeStatusServico4Stub.NfeDadosMsg dadosMsg = new NFeStatusServico4Stub.NfeDadosMsg();
 			dadosMsg.setExtraElement(ome);
 
-			NFeStatusServico4Stub stub = new NFeStatusServico4Stub(tipo.equals(ConstantesUtil.NFCE)
-					? WebServiceUtil.getUrl(config, ConstantesUtil.NFCE, ConstantesUtil.SERVICOS.STATUS_SERVICO)
-					: WebServiceUtil.getUrl(config, ConstantesUtil.NFE, ConstantesUtil.SERVICOS.STATUS_SERVICO));
-			NFeStatusServico4Stub.NfeResultMsg result = stub.nfeStatusServicoNF(dadosMsg);
+			NFeStatusServico4Stub.NfeResultMsg result = StubUtil.executa(config,
+					ConstantesUtil.SERVICOS.STATUS_SERVICO, NFeStatusServico4Stub.class, url,
+					stub -> stub.nfeStatusServicoNF(dadosMsg));
 
-			return XmlUtil.xmlToObject(result.getExtraElement().toString(), TRetConsStatServ.class);
+			return XmlUtil.xmlToObject(result.getExtraElement(), TRetConsStatServ.class);
 
 		} catch (RemoteException | XMLStreamException | JAXBException e) {
 			throw new NfeException(e.getMessage());
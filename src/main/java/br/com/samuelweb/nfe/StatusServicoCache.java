@@ -0,0 +1,267 @@
+package br.com.samuelweb.nfe;
+
+import br.com.samuelweb.nfe.dom.ConfiguracoesNfe;
+import br.com.samuelweb.nfe.dom.Enum.StatusEnum;
+import br.com.samuelweb.nfe.exception.NfeException;
+import br.com.samuelweb.nfe.util.CertificadoUtil;
+import br.com.samuelweb.nfe.util.Estados;
+import br.com.samuelweb.nfe.util.ObjetoUtil;
+import br.inf.portalfiscal.nfe.schema_4.retConsStatServ.TRetConsStatServ;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cache do Status de Serviço da Sefaz por (UF, ambiente, NFe/NFCe).
+ * <p>
+ * Cada chave monitorada é consultada em segundo plano no intervalo informado; a leitura do status é feita da memória,
+ * sem chamada à Sefaz. O intervalo até a próxima consulta nunca é menor que o tMed retornado e, com o serviço
+ * paralisado, aguarda o dhRetorno previsto. Com a rejeição 656 (consumo indevido) a próxima consulta só é feita após
+ * {@link #ESPERA_CONSUMO_INDEVIDO_SEGUNDOS}, mantendo o último status obtido.
+ * <p>
+ * O último status só vale como "em operação" enquanto a última consulta não tiver falhado e o retorno não for mais
+ * antigo que a validade informada; depois disso {@link Situacao#isEmOperacao()} retorna false até uma nova consulta
+ * com sucesso.
+ *
+ * @author Samuel Oliveira - samuk.exe@hotmail.com - www.samuelweb.com.br
+ */
+public class StatusServicoCache {
+
+	/**
+	 * Bloqueio da Sefaz após a rejeição 656.
+	 */
+	public static final long ESPERA_CONSUMO_INDEVIDO_SEGUNDOS = 3600;
+
+	private final ScheduledExecutorService agendador;
+	private final long intervaloSegundos;
+	private final long validadeSegundos;
+
+	private final Map<String, Monitor> monitores = new ConcurrentHashMap<>();
+
+	/**
+	 * Status da última consulta de uma chave.
+	 */
+	public static class Situacao {
+
+		private final TRetConsStatServ retorno;
+		private final Instant consultadoEm;
+		private final NfeException erro;
+		private final long validadeSegundos;
+
+		Situacao(TRetConsStatServ retorno, Instant consultadoEm, NfeException erro, long validadeSegundos) {
+			this.retorno = retorno;
+			this.consultadoEm = consultadoEm;
+			this.erro = erro;
+			this.validadeSegundos = validadeSegundos;
+		}
+
+		/**
+		 * @return último retorno válido da Sefaz, null se ainda não houve
+		 */
+		public TRetConsStatServ getRetorno() {
+			return retorno;
+		}
+
+		/**
+		 * @return momento do último retorno válido
+		 */
+		public Instant getConsultadoEm() {
+			return consultadoEm;
+		}
+
+		/**
+		 * @return erro da última consulta, null se a última consulta teve retorno
+		 */
+		public NfeException getErro() {
+			return erro;
+		}
+
+		/**
+		 * @return true se o último retorno foi 107 (Serviço em Operação), a última consulta não falhou e o retorno
+		 *         ainda está dentro da validade
+		 */
+		public boolean isEmOperacao() {
+			return erro == null && retorno != null
+					&& StatusEnum.SERVICO_EM_OPERACAO.getCodigo().equals(retorno.getCStat())
+					&& !Instant.now().isAfter(consultadoEm.plusSeconds(validadeSegundos));
+		}
+	}
+
+	/**
+	 * @param agendador
+	 *            executa as consultas em segundo plano
+	 * @param intervaloSegundos
+	 *            intervalo entre as consultas de cada chave. O status vale por duas vezes o intervalo.
+	 */
+	public StatusServicoCache(ScheduledExecutorService agendador, long intervaloSegundos) {
+		this(agendador, intervaloSegundos, intervaloSegundos * 2);
+	}
+
+	/**
+	 * @param agendador
+	 *            executa as consultas em segundo plano
+	 * @param intervaloSegundos
+	 *            intervalo entre as consultas de cada chave
+	 * @param validadeSegundos
+	 *            tempo em que o último retorno vale como "em operação"
+	 */
+	public StatusServicoCache(ScheduledExecutorService agendador, long intervaloSegundos, long validadeSegundos) {
+		this.agendador = agendador;
+		this.intervaloSegundos = intervaloSegundos;
+		this.validadeSegundos = validadeSegundos;
+	}
+
+	/**
+	 * Passa a monitorar o status do estado e ambiente da configuração. A primeira consulta é feita imediatamente.
+	 * Chamar novamente para a mesma chave não faz nada.
+	 *
+	 * @param config
+	 * @param tipo
+	 *            ConstantesUtil.NFE ou ConstantesUtil.NFCE
+	 */
+	public void monitora(ConfiguracoesNfe config, String tipo) {
+		String chave = chave(config.getEstado(), config.getAmbiente(), tipo);
+		monitores.computeIfAbsent(chave, k -> {
+			Monitor monitor = new Monitor(config, tipo);
+			monitor.agenda(0);
+			return monitor;
+		});
+	}
+
+	/**
+	 * Para de monitorar a chave.
+	 */
+	public void para(Estados estado, String ambiente, String tipo) {
+		Monitor monitor = monitores.remove(chave(estado, ambiente, tipo));
+		if (monitor != null) {
+			monitor.cancela();
+		}
+	}
+
+	/**
+	 * Para de monitorar todas as chaves.
+	 */
+	public void encerra() {
+		for (String chave : monitores.keySet()) {
+			Monitor monitor = monitores.remove(chave);
+			if (monitor != null) {
+				monitor.cancela();
+			}
+		}
+	}
+
+	/**
+	 * @return status da memória, null se a chave não é monitorada
+	 */
+	public Situacao getSituacao(Estados estado, String ambiente, String tipo) {
+		Monitor monitor = monitores.get(chave(estado, ambiente, tipo));
+		return monitor == null ? null : monitor.situacao;
+	}
+
+	/**
+	 * @return true se a chave está em operação (ver {@link Situacao#isEmOperacao()})
+	 */
+	public boolean isEmOperacao(Estados estado, String ambiente, String tipo) {
+		Situacao situacao = getSituacao(estado, ambiente, tipo);
+		return situacao != null && situacao.isEmOperacao();
+	}
+
+	private static String chave(Estados estado, String ambiente, String tipo) {
+		return estado + "|" + ambiente + "|" + tipo;
+	}
+
+	/**
+	 * Segundos até a próxima consulta conforme o retorno.
+	 */
+	long proximaConsulta(TRetConsStatServ retorno, Instant agora) {
+
+		if (StatusEnum.CONSUMO_INDEVIDO.getCodigo().equals(retorno.getCStat())) {
+			return ESPERA_CONSUMO_INDEVIDO_SEGUNDOS;
+		}
+
+		long espera = Math.max(intervaloSegundos, segundos(retorno.getTMed()));
+
+		if (!ObjetoUtil.isEmpty(retorno.getDhRetorno())) {
+			try {
+				Instant dhRetorno = OffsetDateTime.parse(retorno.getDhRetorno()).toInstant();
+				espera = Math.max(espera, Duration.between(agora, dhRetorno).getSeconds());
+			} catch (DateTimeParseException e) {
+				// dhRetorno inválido: mantém o intervalo
+			}
+		}
+		return espera;
+	}
+
+	private static long segundos(String tMed) {
+		try {
+			return tMed == null ? 0 : Long.parseLong(tMed.trim());
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	private class Monitor {
+
+		private final ConfiguracoesNfe config;
+		private final String tipo;
+
+		private volatile Situacao situacao = new Situacao(null, null, null, validadeSegundos);
+		private volatile ScheduledFuture<?> agendamento;
+		private volatile boolean cancelado;
+
+		Monitor(ConfiguracoesNfe config, String tipo) {
+			this.config = config;
+			this.tipo = tipo;
+		}
+
+		void agenda(long segundos) {
+			if (cancelado) {
+				return;
+			}
+			try {
+				agendamento = agendador.schedule(this::consulta, segundos, TimeUnit.SECONDS);
+			} catch (RejectedExecutionException e) {
+				cancelado = true;
+			}
+		}
+
+		void cancela() {
+			cancelado = true;
+			ScheduledFuture<?> atual = agendamento;
+			if (atual != null) {
+				atual.cancel(false);
+			}
+		}
+
+		private void consulta() {
+			long espera = intervaloSegundos;
+			try {
+				TRetConsStatServ retorno = Status.statusServico(CertificadoUtil.iniciaConfiguracoes(config), tipo);
+				Instant agora = Instant.now();
+				espera = proximaConsulta(retorno, agora);
+				if (StatusEnum.CONSUMO_INDEVIDO.getCodigo().equals(retorno.getCStat())) {
+					situacao = new Situacao(situacao.retorno, situacao.consultadoEm,
+							new NfeException(retorno.getCStat() + " - " + retorno.getXMotivo()), validadeSegundos);
+				} else {
+					situacao = new Situacao(retorno, agora, null, validadeSegundos);
+				}
+			} catch (NfeException e) {
+				situacao = new Situacao(situacao.retorno, situacao.consultadoEm, e, validadeSegundos);
+			} catch (RuntimeException e) {
+				situacao = new Situacao(situacao.retorno, situacao.consultadoEm, new NfeException(e.getMessage()),
+						validadeSegundos);
+			} finally {
+				agenda(espera);
+			}
+		}
+	}
+
+}
@@ -3,14 +3,25 @@ package br.com.samuelweb.nfe;
 import br.com.samuelweb.nfe.dom.ConfiguracoesNfe;
 import br.com.samuelweb.nfe.exception.NfeException;
 import br.com.samuelweb.nfe.util.SchemaUtil;
+import org.w3c.dom.Document;
 import org.xml.sax.ErrorHandler;
+import org.xml.sax.SAXException;
 import org.xml.sax.SAXParseException;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.XMLConstants;
+import javax.xml.transform.Source;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
+import javax.xml.validation.Validator;
 import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 class Validar implements ErrorHandler {
 
@@ -25,7 +36,17 @@ class Validar implements ErrorHandler {
     static final String CCE = "br/inf/portalfiscal/nfe/schema/cce";
     static final String EPEC = "epec";
     static final String CONSULTA_RECIBO = "consultaRecibo";
-    private static String xsd;
+
+    /**
+     * Schemas compilados, por caminho do xsd. Schema é thread-safe e pode ser compartilhado.
+     */
+    private static final ConcurrentMap<String, Schema> SCHEMAS = new ConcurrentHashMap<>();
+
+    /**
+     * Validator não é thread-safe, cada thread mantém um por xsd.
+     */
+    private static final ThreadLocal<Map<String, Validator>> VALIDATORS = ThreadLocal.withInitial(HashMap::new);
+
     private String listaComErrosDeValidacao;
 
     /**
@@ -37,7 +58,23 @@ class Validar implements ErrorHandler {
 
     static String validaXml(ConfiguracoesNfe config, String xml, String tipo) throws NfeException {
 
+        return validaXml(config, xml.getBytes(StandardCharsets.UTF_8), tipo);
+    }
+
+    static String validaXml(ConfiguracoesNfe config, byte[] xml, String tipo) throws NfeException {
+
+        return validaXml(config, new StreamSource(new ByteArrayInputStream(xml)), tipo);
+    }
+
+    static String validaXml(ConfiguracoesNfe config, Document document, String tipo) throws NfeException {
+
+        return validaXml(config, new DOMSource(document), tipo);
+    }
+
+    private static String validaXml(ConfiguracoesNfe config, Source source, String tipo) throws NfeException {
+
         String errosValidacao;
+        String xsd = null;
 
         switch (tipo) {
             case STATUS:
@@ -77,42 +114,63 @@ class Validar implements ErrorHandler {
                 break;
         }
 
-        if (!new File(xsd).exists()) {
+        if (xsd == null || !new File(xsd).exists()) {
             throw new NfeException("Schema Nfe não Localizado: " + xsd);
         }
 
         Validar validar = new Validar();
 
-        errosValidacao = validar.validateXml(xml, xsd);
+        errosValidacao = validar.validateXml(source, xsd);
 
         return errosValidacao;
     }
 
-    private String validateXml(String xml, String xsd) throws NfeException {
+    private String validateXml(Source source, String xsd) throws NfeException {
 
-        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-        factory.setNamespaceAware(true);
-        factory.setValidating(true);
-        factory.setAttribute("http://java.sun.com/xml/jaxp/properties/schemaLanguage",
-                "http://www.w3.org/2001/XMLSchema");
-        factory.setAttribute("http://java.sun.com/xml/jaxp/properties/schemaSource", xsd);
-        DocumentBuilder builder;
-        try {
-            builder = factory.newDocumentBuilder();
-            builder.setErrorHandler(this);
-        } catch (ParserConfigurationException ex) {
-            throw new NfeException(ex.getMessage());
-        }
+        Validator validator = getValidator(xsd);
+        validator.setErrorHandler(this);
 
         try {
-            builder.parse(new ByteArrayInputStream(xml.getBytes()));
+            validator.validate(source);
         } catch (Exception ex) {
             throw new NfeException(ex.toString());
+        } finally {
+            validator.setErrorHandler(null);
         }
 
         return this.getListaComErrosDeValidacao();
     }
 
+    private static Validator getValidator(String xsd) throws NfeException {
+
+        Map<String, Validator> validators = VALIDATORS.get();
+        Validator validator = validators.get(xsd);
+        if (validator == null) {
+            validator = getSchema(xsd).newValidator();
+            validators.put(xsd, validator);
+        } else {
+            validator.reset();
+        }
+        return validator;
+    }
+
+    private static Schema getSchema(String xsd) throws NfeException {
+
+        Schema schema = SCHEMAS.get(xsd);
+        if (schema == null) {
+            try {
+                schema = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI).newSchema(new File(xsd));
+            } catch (SAXException ex) {
+                throw new NfeException(ex.getMessage());
+            }
+            Schema existente = SCHEMAS.putIfAbsent(xsd, schema);
+            if (existente != null) {
+                schema = existente;
+            }
+        }
+        return schema;
+    }
+
     public void error(SAXParseException exception) {
 
         if (isError(exception)) {
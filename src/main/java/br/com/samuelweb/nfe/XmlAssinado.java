@@ -0,0 +1,61 @@
+package br.com.samuelweb.nfe;
+
+import br.com.samuelweb.nfe.exception.NfeException;
+import br.com.samuelweb.nfe.util.XmlUtil;
+import org.w3c.dom.Document;
+
+import javax.xml.bind.JAXBException;
+
+/**
+ * Resultado da assinatura feita direto no Document.
+ * Guarda o Document assinado, o XML em UTF-8 e, quando solicitado, o objeto lido do Document.
+ *
+ * @author Samuel Oliveira - samuk.exe@hotmail.com - www.samuelweb.com.br
+ */
+public class XmlAssinado {
+
+    private final Document documento;
+
+    private final byte[] xml;
+
+    private Object objeto;
+
+    XmlAssinado(Document documento, byte[] xml) {
+        this.documento = documento;
+        this.xml = xml;
+    }
+
+    /**
+     * @return Document assinado
+     */
+    public Document getDocumento() {
+        return documento;
+    }
+
+    /**
+     * @return Xml assinado em UTF-8
+     */
+    public byte[] getXml() {
+        return xml;
+    }
+
+    /**
+     * Converte o Document assinado no objeto do schema. A conversão é feita apenas na primeira chamada.
+     *
+     * @param classe
+     * @return T
+     * @throws NfeException
+     */
+    public synchronized <T> T getObjeto(Class<T> classe) throws NfeException {
+
+        if (!classe.isInstance(objeto)) {
+            try {
+                objeto = XmlUtil.xmlToObject(documento, classe);
+            } catch (JAXBException e) {
+                throw new NfeException(e.getMessage());
+            }
+        }
+        return classe.cast(objeto);
+    }
+
+}
@@ -0,0 +1,291 @@
+package br.com.samuelweb.nfe.dom;
+
+import br.com.samuelweb.certificado.Certificado;
+import br.com.samuelweb.nfe.exception.NfeException;
+import br.com.samuelweb.nfe.util.CircuitoContingencia;
+import br.com.samuelweb.nfe.util.ConstantesUtil;
+import br.com.samuelweb.nfe.util.Estados;
+import br.com.samuelweb.nfe.util.ProxyUtil;
+import br.com.samuelweb.nfe.util.SslUtil;
+
+import javax.net.ssl.SSLContext;
+
+/**
+ * Configuração imutável de um emitente, para várias empresas na mesma JVM.
+ * <p>
+ * Cada certificado tem o próprio SSLContext no {@link SslUtil}, carregado no {@link Builder#build()}, ou o SSLContext
+ * informado em {@link Builder#sslContext(SSLContext)}. As chamadas não alteram o estado SSL global da JVM, por isso
+ * emitentes diferentes podem chamar a Sefaz em paralelo. Use com o {@link RegistroEmitentes} e o NfeAsync.
+ *
+ * @author Samuel Oliveira
+ */
+public final class ConfiguracoesEmitente implements ConfiguracoesNfe {
+
+	private final String cnpj;
+	private final Estados estado;
+	private final String ambiente;
+	private final Certificado certificado;
+	private final String pastaSchemas;
+	private final ProxyUtil proxyUtil;
+	private final Integer timeout;
+	private final Integer conexoesPorHost;
+	private final CircuitoContingencia circuitoContingencia;
+	private final SSLContext sslContext;
+	private final boolean transporteSoap;
+	private final boolean contigenciaSCAN;
+	private final boolean log;
+
+	private ConfiguracoesEmitente(Builder builder, boolean contigenciaSCAN) {
+		this.cnpj = builder.cnpj;
+		this.estado = builder.estado;
+		this.ambiente = builder.ambiente;
+		this.certificado = builder.certificado;
+		this.pastaSchemas = builder.pastaSchemas;
+		this.proxyUtil = builder.proxyUtil;
+		this.timeout = builder.timeout;
+		this.conexoesPorHost = builder.conexoesPorHost;
+		this.circuitoContingencia = builder.circuitoContingencia;
+		this.sslContext = builder.sslContext;
+		this.transporteSoap = builder.transporteSoap;
+		this.log = builder.log;
+		this.contigenciaSCAN = contigenciaSCAN;
+	}
+
+	/**
+	 * @param cnpj
+	 *            CNPJ (ou CPF) do emitente, chave no RegistroEmitentes
+	 * @param estado
+	 * @param ambiente
+	 *            ConstantesUtil.AMBIENTE
+	 * @param certificado
+	 * @return Builder da configuração
+	 */
+	public static Builder builder(String cnpj, Estados estado, String ambiente, Certificado certificado) {
+		return new Builder(cnpj, estado, ambiente, certificado);
+	}
+
+	/**
+	 * @param contigenciaSCAN
+	 * @return cópia da configuração com a contingência SCAN informada
+	 */
+	public ConfiguracoesEmitente comContigenciaSCAN(boolean contigenciaSCAN) {
+		if (contigenciaSCAN == this.contigenciaSCAN) {
+			return this;
+		}
+		return new ConfiguracoesEmitente(toBuilder(), contigenciaSCAN);
+	}
+
+	private Builder toBuilder() {
+		Builder builder = new Builder(cnpj, estado, ambiente, certificado);
+		builder.pastaSchemas = pastaSchemas;
+		builder.proxyUtil = proxyUtil;
+		builder.timeout = timeout;
+		builder.conexoesPorHost = conexoesPorHost;
+		builder.circuitoContingencia = circuitoContingencia;
+		builder.sslContext = sslContext;
+		builder.transporteSoap = transporteSoap;
+		builder.log = log;
+		return builder;
+	}
+
+	/**
+	 * @return CNPJ (ou CPF) do emitente
+	 */
+	public String getCnpj() {
+		return cnpj;
+	}
+
+	@Override
+	public String getPastaSchemas() {
+		return pastaSchemas;
+	}
+
+	@Override
+	public String getVersaoNfe() {
+		return ConstantesUtil.VERSAO.NFE;
+	}
+
+	@Override
+	public String getAmbiente() {
+		return ambiente;
+	}
+
+	@Override
+	public Certificado getCertificado() {
+		return certificado;
+	}
+
+	@Override
+	public ProxyUtil getProxy() {
+		return proxyUtil;
+	}
+
+	@Override
+	public boolean isContigenciaSCAN() {
+		return contigenciaSCAN;
+	}
+
+	@Override
+	public Estados getEstado() {
+		return estado;
+	}
+
+	@Override
+	public boolean isLog() {
+		return log;
+	}
+
+	@Override
+	public ProxyUtil getProxyUtil() {
+		return proxyUtil;
+	}
+
+	@Override
+	public Integer getTimeout() {
+		return timeout;
+	}
+
+	@Override
+	public Integer getConexoesPorHost() {
+		return conexoesPorHost;
+	}
+
+	@Override
+	public CircuitoContingencia getCircuitoContingencia() {
+		return circuitoContingencia;
+	}
+
+	@Override
+	public boolean isTransporteSoap() {
+		return transporteSoap;
+	}
+
+	@Override
+	public SSLContext getSslContext() {
+		return sslContext;
+	}
+
+	/**
+	 * Monta a ConfiguracoesEmitente. O Builder não deve ser compartilhado entre threads.
+	 */
+	public static final class Builder {
+
+		private final String cnpj;
+		private final Estados estado;
+		private final String ambiente;
+		private final Certificado certificado;
+		private String pastaSchemas;
+		private ProxyUtil proxyUtil;
+		private Integer timeout;
+		private Integer conexoesPorHost;
+		private CircuitoContingencia circuitoContingencia;
+		private SSLContext sslContext;
+		private boolean transporteSoap;
+		private boolean contigenciaSCAN;
+		private boolean log = true;
+
+		private Builder(String cnpj, Estados estado, String ambiente, Certificado certificado) {
+			this.cnpj = cnpj;
+			this.estado = estado;
+			this.ambiente = ambiente;
+			this.certificado = certificado;
+		}
+
+		public Builder pastaSchemas(String pastaSchemas) {
+			this.pastaSchemas = pastaSchemas;
+			return this;
+		}
+
+		public Builder proxy(String ip, int porta, String usuario, String senha) {
+			this.proxyUtil = new ProxyUtil(ip, porta, usuario, senha);
+			return this;
+		}
+
+		/**
+		 * @param timeout
+		 *            timeout de conexão e leitura em milissegundos
+		 */
+		public Builder timeout(Integer timeout) {
+			this.timeout = timeout;
+			return this;
+		}
+
+		/**
+		 * @param conexoesPorHost
+		 *            conexões simultâneas por host da Sefaz
+		 */
+		public Builder conexoesPorHost(Integer conexoesPorHost) {
+			this.conexoesPorHost = conexoesPorHost;
+			return this;
+		}
+
+		/**
+		 * @param circuitoContingencia
+		 *            entrada e saída automática da contingência SVC na autorização da NFe
+		 */
+		public Builder circuitoContingencia(CircuitoContingencia circuitoContingencia) {
+			this.circuitoContingencia = circuitoContingencia;
+			return this;
+		}
+
+		/**
+		 * @param sslContext
+		 *            SSLContext próprio do emitente (ex. truststore ou KeyManager específicos), usado pelos Stubs e
+		 *            pelo TransporteSoap no lugar do SSLContext do certificado. O certificado continua sendo usado
+		 *            na assinatura
+		 */
+		public Builder sslContext(SSLContext sslContext) {
+			this.sslContext = sslContext;
+			return this;
+		}
+
+		/**
+		 * @param transporteSoap
+		 *            chama os WebServices pelo TransporteSoap (HttpsURLConnection) em vez do Axis2
+		 */
+		public Builder transporteSoap(boolean transporteSoap) {
+			this.transporteSoap = transporteSoap;
+			return this;
+		}
+
+		public Builder contigenciaSCAN(boolean contigenciaSCAN) {
+			this.contigenciaSCAN = contigenciaSCAN;
+			return this;
+		}
+
+		public Builder log(boolean log) {
+			this.log = log;
+			return this;
+		}
+
+		/**
+		 * Carrega o SSLContext do certificado, quando não informado um SSLContext próprio, e cria a configuração.
+		 *
+		 * @return ConfiguracoesEmitente
+		 * @throws NfeException
+		 *             se faltar algum dado obrigatório ou o certificado não puder ser carregado
+		 */
+		public ConfiguracoesEmitente build() throws NfeException {
+			if (cnpj == null || cnpj.isEmpty()) {
+				throw new NfeException("CNPJ do emitente não informado.");
+			}
+			if (estado == null || ambiente == null || certificado == null) {
+				throw new NfeException("Estado, ambiente e certificado do emitente " + cnpj + " são obrigatórios.");
+			}
+			if (sslContext == null) {
+				SslUtil.getContextoCertificado(certificado);
+			}
+			ConfiguracoesEmitente config = new ConfiguracoesEmitente(this, contigenciaSCAN);
+			if (log) {
+				System.out.println("Api Java Nfe Versão 4.00.9 - Samuel Olivera - samuk.exe@hotmail.com");
+				System.out.println("Emitente: " + cnpj + " - Certificado: " + certificado.getTipo().toUpperCase()
+						+ " - " + certificado.getNome().toUpperCase() + " - Vencimento: "
+						+ certificado.getVencimento());
+				System.out.println("Ambiente: " + (ambiente.equals("1") ? "Produção" : "Homologação") + " - Estado: "
+						+ estado.getNome());
+			}
+			return config;
+		}
+	}
+
+}
@@ -5,6 +5,7 @@ package br.com.samuelweb.nfe.dom;
 
 import br.com.samuelweb.certificado.Certificado;
 import br.com.samuelweb.nfe.exception.NfeException;
+import br.com.samuelweb.nfe.util.CircuitoContingencia;
 import br.com.samuelweb.nfe.util.ConstantesUtil;
 import br.com.samuelweb.nfe.util.Estados;
 import br.com.samuelweb.nfe.util.ProxyUtil;
@@ -13,37 +14,31 @@ import br.com.samuelweb.nfe.util.ProxyUtil;
  * @author Samuel Oliveira
  *         <p>
  *         Inicia Configurações Nfe.
+ *         <p>
+ *         A instância é publicada já preenchida e pode ser lida por várias threads. Um novo iniciaConfiguracoes
+ *         troca a instância para as próximas chamadas; as chamadas em andamento continuam com a anterior. Os
+ *         setters valem para as chamadas seguintes.
  */
 public class ConfiguracoesIniciaisNfe implements ConfiguracoesNfe {
-	private static ConfiguracoesIniciaisNfe instance;
+	private static volatile ConfiguracoesIniciaisNfe instance;
 
 	private Estados estado;
-	private String ambiente;
-	private Certificado certificado;
+	private volatile String ambiente;
+	private volatile Certificado certificado;
 	private String pastaSchemas;
 	private String versaoNfe;
-	private ProxyUtil proxyUtil;
-	private Integer timeout;
-	private boolean contigenciaSCAN;
-	private boolean log = true;
+	private volatile ProxyUtil proxyUtil;
+	private volatile Integer timeout;
+	private volatile Integer conexoesPorHost;
+	private volatile CircuitoContingencia circuitoContingencia;
+	private volatile boolean transporteSoap;
+	private volatile boolean contigenciaSCAN;
+	private volatile boolean log = true;
 
 	// Construtor Singleton
 	private ConfiguracoesIniciaisNfe() {
 	}
 
-	// Construtor Privado
-    private ConfiguracoesIniciaisNfe(Estados estado, String ambiente, Certificado certificado, String pastaSchemas, Boolean log) {
-
-		instance = new ConfiguracoesIniciaisNfe();
-		instance.setEstado(estado);
-		instance.setAmbiente(ambiente);
-		instance.setCertificado(certificado);
-		instance.setPastaSchemas(pastaSchemas);
-        instance.setVersaoNfe();
-        instance.setLog(log);
-
-	}
-
 	public static ConfiguracoesIniciaisNfe iniciaConfiguracoes(Estados estado, String ambiente, Certificado certificado,
 			String pastaSchemas) {
         return iniciaConfiguracoes(estado, ambiente, certificado, pastaSchemas, true);
@@ -52,7 +47,15 @@ public class ConfiguracoesIniciaisNfe implements ConfiguracoesNfe {
 
 	public static ConfiguracoesIniciaisNfe iniciaConfiguracoes(Estados estado, String ambiente, Certificado certificado,
 			String pastaSchemas, Boolean log) {
-        new ConfiguracoesIniciaisNfe(estado, ambiente, certificado, pastaSchemas, log);
+		// A instância só é publicada depois de preenchida
+		ConfiguracoesIniciaisNfe configuracoes = new ConfiguracoesIniciaisNfe();
+		configuracoes.setEstado(estado);
+		configuracoes.setAmbiente(ambiente);
+		configuracoes.setCertificado(certificado);
+		configuracoes.setPastaSchemas(pastaSchemas);
+		configuracoes.setVersaoNfe();
+		configuracoes.setLog(log);
+		instance = configuracoes;
 		if (log) {
             System.out.println("Api Java Nfe Versão 4.00.9 - Samuel Olivera - samuk.exe@hotmail.com");
 			System.out.println("Certificado: " + certificado.getTipo().toUpperCase() + " - "
@@ -60,15 +63,16 @@ public class ConfiguracoesIniciaisNfe implements ConfiguracoesNfe {
 			System.out.println("Ambiente: " + (ambiente.equals("1") ? "Produção" : "Homologação") + " - Estado: "
 					+ estado.getNome());
 		}
-		return instance;
+		return configuracoes;
 	}
 
 	public static ConfiguracoesIniciaisNfe getInstance() throws NfeException {
-		if (instance == null) {
+		ConfiguracoesIniciaisNfe configuracoes = instance;
+		if (configuracoes == null) {
 			throw new NfeException("Configurações Não Foram Inicializadas.");
 		}
 
-		return instance;
+		return configuracoes;
 	}
 
 	public void setProxy(String ip, int porta, String usuario, String senha) {
@@ -194,4 +198,43 @@ public class ConfiguracoesIniciaisNfe implements ConfiguracoesNfe {
 		this.timeout = timeout;
 	}
 
+	@Override
+	public Integer getConexoesPorHost() {
+		return conexoesPorHost;
+	}
+
+	/**
+	 * @param conexoesPorHost
+	 *            conexões simultâneas por host da Sefaz. Vale para o certificado a partir da primeira chamada.
+	 */
+	public void setConexoesPorHost(Integer conexoesPorHost) {
+		this.conexoesPorHost = conexoesPorHost;
+	}
+
+	@Override
+	public CircuitoContingencia getCircuitoContingencia() {
+		return circuitoContingencia;
+	}
+
+	/**
+	 * @param circuitoContingencia
+	 *            entrada e saída automática da contingência SVC na autorização da NFe
+	 */
+	public void setCircuitoContingencia(CircuitoContingencia circuitoContingencia) {
+		this.circuitoContingencia = circuitoContingencia;
+	}
+
+	@Override
+	public boolean isTransporteSoap() {
+		return transporteSoap;
+	}
+
+	/**
+	 * @param transporteSoap
+	 *            chama os WebServices pelo TransporteSoap (HttpsURLConnection) em vez do Axis2
+	 */
+	public void setTransporteSoap(boolean transporteSoap) {
+		this.transporteSoap = transporteSoap;
+	}
+
 }
@@ -4,9 +4,12 @@
 package br.com.samuelweb.nfe.dom;
 
 import br.com.samuelweb.certificado.Certificado;
+import br.com.samuelweb.nfe.util.CircuitoContingencia;
 import br.com.samuelweb.nfe.util.Estados;
 import br.com.samuelweb.nfe.util.ProxyUtil;
 
+import javax.net.ssl.SSLContext;
+
 /**
  * @author Samuel Oliveira
  *         <p>
@@ -55,4 +58,32 @@ public interface ConfiguracoesNfe {
 
     Integer getTimeout();
 
+	/**
+	 * @return conexões simultâneas por host da Sefaz para cada certificado, null para o padrão do StubUtil
+	 */
+	default Integer getConexoesPorHost() {
+		return null;
+	}
+
+	/**
+	 * @return circuito de contingência SVC automática, null para usar apenas o contigenciaSCAN
+	 */
+	default CircuitoContingencia getCircuitoContingencia() {
+		return null;
+	}
+
+	/**
+	 * @return true para chamar os WebServices pelo TransporteSoap, false para usar o Axis2
+	 */
+	default boolean isTransporteSoap() {
+		return false;
+	}
+
+	/**
+	 * @return SSLContext próprio da configuração. Null para usar o SSLContext do certificado guardado no SslUtil
+	 */
+	default SSLContext getSslContext() {
+		return null;
+	}
+
 }
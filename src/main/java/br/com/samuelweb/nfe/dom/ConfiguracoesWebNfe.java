@@ -4,6 +4,7 @@
 package br.com.samuelweb.nfe.dom;
 
 import br.com.samuelweb.certificado.Certificado;
+import br.com.samuelweb.nfe.util.CircuitoContingencia;
 import br.com.samuelweb.nfe.util.ConstantesUtil;
 import br.com.samuelweb.nfe.util.Estados;
 import br.com.samuelweb.nfe.util.ProxyUtil;
@@ -22,6 +23,9 @@ public class ConfiguracoesWebNfe implements ConfiguracoesNfe {
 	private String versaoNfe;
 	private ProxyUtil proxyUtil;
 	private Integer timeout;
+	private Integer conexoesPorHost;
+	private CircuitoContingencia circuitoContingencia;
+	private boolean transporteSoap;
 	private boolean contigenciaSCAN;
 	private boolean log = true;
     private boolean removeAcentos = true;
@@ -177,6 +181,45 @@ public class ConfiguracoesWebNfe implements ConfiguracoesNfe {
 		this.timeout = timeout;
 	}
 
+	@Override
+	public Integer getConexoesPorHost() {
+		return conexoesPorHost;
+	}
+
+	/**
+	 * @param conexoesPorHost
+	 *            conexões simultâneas por host da Sefaz. Vale para o certificado a partir da primeira chamada.
+	 */
+	public void setConexoesPorHost(Integer conexoesPorHost) {
+		this.conexoesPorHost = conexoesPorHost;
+	}
+
+	@Override
+	public CircuitoContingencia getCircuitoContingencia() {
+		return circuitoContingencia;
+	}
+
+	/**
+	 * @param circuitoContingencia
+	 *            entrada e saída automática da contingência SVC na autorização da NFe
+	 */
+	public void setCircuitoContingencia(CircuitoContingencia circuitoContingencia) {
+		this.circuitoContingencia = circuitoContingencia;
+	}
+
+	@Override
+	public boolean isTransporteSoap() {
+		return transporteSoap;
+	}
+
+	/**
+	 * @param transporteSoap
+	 *            chama os WebServices pelo TransporteSoap (HttpsURLConnection) em vez do Axis2
+	 */
+	public void setTransporteSoap(boolean transporteSoap) {
+		this.transporteSoap = transporteSoap;
+	}
+
 
     public boolean removeAcentos() {
         return removeAcentos;
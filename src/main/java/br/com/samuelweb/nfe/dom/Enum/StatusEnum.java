@@ -21,6 +21,8 @@ public enum StatusEnum {
 	LOTE_PROCESSADO("104"),
 	LOTE_EM_PROCESSAMENTO("105"),
     SERVICO_EM_OPERACAO("107"),
+	SERVICO_PARALISADO_MOMENTANEAMENTE("108"),
+	SERVICO_PARALISADO_SEM_PREVISAO("109"),
 	CADASTRO_ENCONTRADO("111"),
 	LOTE_EVENTO_PROCESSADO("128"),
 	EVENTO_VINCULADO("135"),
@@ -0,0 +1,81 @@
+package br.com.samuelweb.nfe.dom;
+
+import br.com.samuelweb.nfe.exception.NfeException;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Registro das configurações dos emitentes por CNPJ, no lugar do singleton ConfiguracoesIniciaisNfe quando a mesma
+ * JVM emite para várias empresas.
+ * <p>
+ * As configurações são imutáveis: para alterar um emitente registre uma nova configuração, que substitui a anterior
+ * para as próximas chamadas. As chamadas já em andamento continuam com a configuração que receberam.
+ *
+ * @author Samuel Oliveira
+ */
+public class RegistroEmitentes {
+
+	private final ConcurrentMap<String, ConfiguracoesEmitente> emitentes = new ConcurrentHashMap<>();
+
+	/**
+	 * Registra a configuração, substituindo a anterior do mesmo CNPJ.
+	 *
+	 * @param config
+	 * @return a configuração registrada
+	 */
+	public ConfiguracoesEmitente registra(ConfiguracoesEmitente config) {
+		emitentes.put(config.getCnpj(), config);
+		return config;
+	}
+
+	/**
+	 * @param cnpj
+	 * @return configuração do emitente
+	 * @throws NfeException
+	 *             se o emitente não estiver registrado
+	 */
+	public ConfiguracoesEmitente get(String cnpj) throws NfeException {
+		ConfiguracoesEmitente config = emitentes.get(cnpj);
+		if (config == null) {
+			throw new NfeException("Emitente " + cnpj + " não registrado.");
+		}
+		return config;
+	}
+
+	/**
+	 * Liga ou desliga a contingência SCAN do emitente.
+	 *
+	 * @param cnpj
+	 * @param contigenciaSCAN
+	 * @return a nova configuração do emitente
+	 * @throws NfeException
+	 *             se o emitente não estiver registrado
+	 */
+	public ConfiguracoesEmitente contigenciaSCAN(String cnpj, boolean contigenciaSCAN) throws NfeException {
+		ConfiguracoesEmitente config = emitentes.computeIfPresent(cnpj,
+				(k, atual) -> atual.comContigenciaSCAN(contigenciaSCAN));
+		if (config == null) {
+			throw new NfeException("Emitente " + cnpj + " não registrado.");
+		}
+		return config;
+	}
+
+	/**
+	 * @param cnpj
+	 * @return configuração removida, null se não estava registrada
+	 */
+	public ConfiguracoesEmitente remove(String cnpj) {
+		return emitentes.remove(cnpj);
+	}
+
+	/**
+	 * @return configurações registradas
+	 */
+	public Collection<ConfiguracoesEmitente> getEmitentes() {
+		return Collections.unmodifiableCollection(emitentes.values());
+	}
+
+}
@@ -3,118 +3,370 @@
  */
 package br.com.samuelweb.nfe.util;
 
-import javax.net.ssl.*;
-import java.io.*;
-import java.security.*;
-import java.security.cert.CertificateEncodingException;
+import br.com.samuelweb.nfe.exception.NfeException;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.cert.Certificate;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 /**
+ * Gera o Cacert (truststore) com as cadeias de certificados dos WebServices.
+ * <p>
+ * Os handshakes são feitos em paralelo e cada host tem um prazo próprio: um host lento ou fora do ar é informado em
+ * {@link Resultado#getFalhas()} sem atrasar os demais. As cadeias são mescladas em um KeyStore base (um Cacert
+ * existente, o cacerts do JRE ou vazio) e apenas os hosts cuja cadeia mudou são regravados.
+ *
+ * <pre>
+ * CacertUtil.Resultado resultado = CacertUtil.builder()
+ *         .hostsPadrao()
+ *         .base(new File("Cacert"), CacertUtil.SENHA_PADRAO)
+ *         .grava(new File("Cacert"), CacertUtil.SENHA_PADRAO);
+ * SslUtil.atualizaTruststore(resultado.getKeyStore());
+ * </pre>
+ *
  * @author Samuel Oliveira
  */
 public class CacertUtil {
 
-    private static final int TIMEOUT_WS = 30;
-    private static final int PORTA = 443;
-    private static final String CACERT = "d:/java/util/Cacert/Cacert-16-12-2018";
-    private static String cacert;
+    public static final String SENHA_PADRAO = "changeit";
+    public static final int PORTA_PADRAO = 443;
+    public static final int TIMEOUT_PADRAO = 10000;
+    public static final int PARALELISMO_PADRAO = 32;
+
+    private static final ThreadFactory DAEMON = r -> {
+        Thread thread = new Thread(r, "CacertUtil");
+        thread.setDaemon(true);
+        return thread;
+    };
+
+    private final Set<String> hosts = new LinkedHashSet<>();
+    private int timeout = TIMEOUT_PADRAO;
+    private int paralelismo = PARALELISMO_PADRAO;
+    private KeyStore base;
+
+    private CacertUtil() {
+    }
+
+    /**
+     * Gera o arquivo Cacert: CacertUtil &lt;arquivo&gt; [host[:porta] ...]
+     * <p>
+     * Sem hosts usa a listagem padrão. Se o arquivo existir, é usado como base; senão a base é o cacerts do JRE.
+     */
+    public static void main(String[] args) throws NfeException {
+        if (args.length == 0) {
+            System.out.println("Uso: CacertUtil <arquivo Cacert> [host[:porta] ...]");
+            return;
+        }
+        File arquivo = new File(args[0]);
+        CacertUtil builder = CacertUtil.builder();
+        if (args.length > 1) {
+            builder.hosts(Arrays.asList(args).subList(1, args.length));
+        } else {
+            builder.hostsPadrao();
+        }
+        if (arquivo.isFile()) {
+            builder.base(arquivo, SENHA_PADRAO);
+        } else {
+            builder.baseJre();
+        }
+
+        Resultado resultado = builder.grava(arquivo, SENHA_PADRAO);
+        resultado.getAlterados().forEach(host -> info("| Cadeia atualizada: " + host));
+        resultado.getFalhas().forEach((host, erro) -> error("| " + host + ": " + erro));
+        info("| " + resultado.getAlterados().size() + " atualizados, " + resultado.getInalterados().size()
+                + " sem alteração, " + resultado.getFalhas().size() + " com falha. Arquivo: " + arquivo);
+    }
 
-    public static void main(String[] args) {
-        List<String> lista = new ArrayList<>();
-        gerarCacert(lista);
+    public static CacertUtil builder() {
+        return new CacertUtil();
     }
 
     /**
-     * Metodo que gerar o arquivo Cacert com a lista de WebServices Enviada
-     * Informe null na Lista De Endereços para usar a listagem Padrão
+     * @param host host ou host:porta (padrão 443)
+     */
+    public CacertUtil host(String host) {
+        hosts.add(host.trim().toLowerCase(Locale.ROOT));
+        return this;
+    }
+
+    public CacertUtil hosts(Collection<String> hosts) {
+        hosts.forEach(this::host);
+        return this;
+    }
+
+    /**
+     * Adiciona os WebServices de NFe, NFCe, CTe, MDFe, eSocial e EFD-Reinf.
+     */
+    public CacertUtil hostsPadrao() {
+        return hosts(listaPadraoWebService());
+    }
+
+    /**
+     * @param timeout prazo de cada host, em milissegundos, para conexão e handshake
+     */
+    public CacertUtil timeout(int timeout) {
+        if (timeout < 1) {
+            throw new IllegalArgumentException("Timeout inválido: " + timeout);
+        }
+        this.timeout = timeout;
+        return this;
+    }
+
+    /**
+     * @param paralelismo handshakes simultâneos
+     */
+    public CacertUtil paralelismo(int paralelismo) {
+        if (paralelismo < 1) {
+            throw new IllegalArgumentException("Paralelismo inválido: " + paralelismo);
+        }
+        this.paralelismo = paralelismo;
+        return this;
+    }
+
+    /**
+     * KeyStore onde as cadeias serão mescladas. As entradas de certificados confiáveis são copiadas, o KeyStore
+     * informado não é alterado.
+     */
+    public CacertUtil base(KeyStore base) {
+        this.base = base;
+        return this;
+    }
+
+    /**
+     * @param arquivo Cacert existente
+     * @param senha
+     */
+    public CacertUtil base(File arquivo, String senha) throws NfeException {
+        try (InputStream in = new FileInputStream(arquivo)) {
+            KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
+            keyStore.load(in, senha.toCharArray());
+            this.base = keyStore;
+            return this;
+        } catch (GeneralSecurityException | IOException e) {
+            throw new NfeException(e.getMessage());
+        }
+    }
+
+    /**
+     * Usa como base o cacerts do JRE em execução.
+     */
+    public CacertUtil baseJre() throws NfeException {
+        return base(new File(System.getProperty("java.home"), "lib" + File.separator + "security" + File.separator
+                + "cacerts"), SENHA_PADRAO);
+    }
+
+    /**
+     * Obtém as cadeias dos hosts e monta o KeyStore em memória.
      *
-     * @param listaEnderecos
+     * @return Resultado com o KeyStore e os hosts alterados, sem alteração e com falha
+     * @throws NfeException se o KeyStore não puder ser montado ou a thread for interrompida
      */
-    private static void gerarCacert(List<String> listaEnderecos) {
-        cacert = CacertUtil.CACERT;
-        try {
+    public Resultado gera() throws NfeException {
+        List<String> lista = new ArrayList<>(hosts.isEmpty() ? listaPadraoWebService() : hosts);
 
-            // Se não For informado Nenhuma LIsta, carrega a padrão
-            if (listaEnderecos == null || listaEnderecos.isEmpty()) {
-                listaEnderecos = listaPadraoWebService();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(paralelismo, lista.size())),
+                DAEMON);
+        ScheduledExecutorService prazos = Executors.newSingleThreadScheduledExecutor(DAEMON);
+        try {
+            Map<String, Future<X509Certificate[]>> cadeias = new LinkedHashMap<>();
+            for (String host : lista) {
+                cadeias.put(host, executor.submit(() -> cadeia(host, prazos)));
             }
 
-            char[] senha = "changeit".toCharArray();
-            File arquivoCacert = new File(cacert);
+            Resultado resultado = new Resultado(copiaBase());
+            for (Map.Entry<String, Future<X509Certificate[]>> entry : cadeias.entrySet()) {
+                String host = entry.getKey();
+                try {
+                    if (mescla(resultado.keyStore, host, entry.getValue().get())) {
+                        resultado.alterados.add(host);
+                    } else {
+                        resultado.inalterados.add(host);
+                    }
+                } catch (ExecutionException e) {
+                    Throwable causa = e.getCause();
+                    resultado.falhas.put(host, causa.getMessage() != null ? causa.getMessage() : causa.toString());
+                }
+            }
+            return resultado;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new NfeException("Geração do Cacert interrompida.");
+        } catch (GeneralSecurityException | IOException e) {
+            throw new NfeException(e.getMessage());
+        } finally {
+            executor.shutdownNow();
+            prazos.shutdownNow();
+        }
+    }
 
-            if (arquivoCacert.isFile()) {
-                arquivoCacert.delete();
+    /**
+     * Gera o KeyStore e grava no arquivo. A gravação é feita em um arquivo temporário renomeado ao final, para que
+     * o arquivo nunca fique incompleto.
+     *
+     * @param arquivo
+     * @param senha
+     * @return Resultado
+     * @throws NfeException
+     */
+    public Resultado grava(File arquivo, String senha) throws NfeException {
+        Resultado resultado = gera();
+        File pasta = arquivo.getAbsoluteFile().getParentFile();
+        try {
+            File temporario = File.createTempFile(arquivo.getName(), ".tmp", pasta);
+            try {
+                try (OutputStream out = new FileOutputStream(temporario)) {
+                    resultado.keyStore.store(out, senha.toCharArray());
+                }
+                Files.move(temporario.toPath(), arquivo.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temporario.toPath());
             }
+        } catch (GeneralSecurityException | IOException e) {
+            throw new NfeException(e.getMessage());
+        }
+        return resultado;
+    }
 
-            if (!arquivoCacert.isFile()) {
-                File dir = new File("C:\\Program Files\\Java\\jre1.8.0_171" + File.separatorChar + "lib" + File.separatorChar + "security");
-                arquivoCacert = new File(dir, "cacerts");
+    private KeyStore copiaBase() throws GeneralSecurityException, IOException {
+        KeyStore keyStore = KeyStore.getInstance(base != null ? base.getType() : KeyStore.getDefaultType());
+        keyStore.load(null, null);
+        if (base != null) {
+            Enumeration<String> aliases = base.aliases();
+            while (aliases.hasMoreElements()) {
+                String alias = aliases.nextElement();
+                if (base.isCertificateEntry(alias)) {
+                    keyStore.setCertificateEntry(alias, base.getCertificate(alias));
+                }
             }
+        }
+        return keyStore;
+    }
+
+    /**
+     * Faz o handshake apenas até receber a cadeia do servidor. O socket é fechado no prazo, mesmo que o servidor
+     * continue respondendo aos poucos.
+     */
+    private X509Certificate[] cadeia(String host, ScheduledExecutorService prazos) throws IOException,
+            GeneralSecurityException {
 
-            InputStream in = new FileInputStream(arquivoCacert);
-            KeyStore ks = KeyStore.getInstance(KeyStore.getDefaultType());
-            ks.load(in, senha);
-            in.close();
+        int separador = host.lastIndexOf(':');
+        String nome = separador > 0 ? host.substring(0, separador) : host;
+        int porta = separador > 0 ? Integer.parseInt(host.substring(separador + 1)) : PORTA_PADRAO;
 
-            listaEnderecos.forEach(endereco -> {
-                get(endereco, ks);
-            });
+        CapturaCadeia captura = new CapturaCadeia();
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(null, new TrustManager[]{captura}, null);
 
-            OutputStream out = new FileOutputStream(cacert);
-            ks.store(out, senha);
-            out.close();
+        Socket socket = new Socket();
+        ScheduledFuture<?> prazo = prazos.schedule(() -> fecha(socket), timeout, TimeUnit.MILLISECONDS);
+        try {
+            socket.connect(new InetSocketAddress(nome, porta), timeout);
+            socket.setSoTimeout(timeout);
+            try (SSLSocket ssl = (SSLSocket) context.getSocketFactory().createSocket(socket, nome, porta, true)) {
+                ssl.startHandshake();
+            } catch (SSLException e) {
+                // Esperado: a CapturaCadeia interrompe o handshake ao receber a cadeia
+                if (captura.cadeia == null) {
+                    throw e;
+                }
+            }
+        } catch (IOException e) {
+            if (prazo.isDone() && !prazo.isCancelled()) {
+                throw new SocketTimeoutException("Prazo de " + timeout + " ms esgotado.");
+            }
+            throw e;
+        } finally {
+            prazo.cancel(false);
+            fecha(socket);
+        }
 
-        } catch (Exception e) {
-            e.printStackTrace();
+        if (captura.cadeia == null) {
+            throw new IOException("Não pode obter cadeia de certificados.");
         }
+        return captura.cadeia;
     }
 
-    private static void get(String host, KeyStore ks) {
-        try {
-            SSLContext context = SSLContext.getInstance("TLS");
-            TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
-            tmf.init(ks);
-            X509TrustManager defaultTrustManager = (X509TrustManager) tmf.getTrustManagers()[0];
-            SavingTrustManager tm = new SavingTrustManager(defaultTrustManager);
-            context.init(null, new TrustManager[]{tm}, null);
-            SSLSocketFactory factory = context.getSocketFactory();
-
-            SSLSocket socket = (SSLSocket) factory.createSocket(host, PORTA);
-            socket.setSoTimeout(TIMEOUT_WS * 1000);
-            try {
-                socket.startHandshake();
-                socket.close();
-            } catch (SSLHandshakeException e) {
-                /**
-                 * PKIX path building failed:
-                 * sun.security.provider.certpath.SunCertPathBuilderException:
-                 * Não tratado, pois sempre ocorre essa exception quando o
-                 * cacert nao esta gerado.
-                 */
-            } catch (SSLException e) {
-                error("| " + e.toString());
+    /**
+     * Grava a cadeia como host-0, host-1... apenas se for diferente da existente.
+     *
+     * @return true se a cadeia do host foi alterada
+     */
+    private static boolean mescla(KeyStore keyStore, String host, X509Certificate[] cadeia)
+            throws GeneralSecurityException {
+
+        String prefixo = host + "-";
+        List<String> existentes = new ArrayList<>();
+        Enumeration<String> aliases = keyStore.aliases();
+        while (aliases.hasMoreElements()) {
+            String alias = aliases.nextElement();
+            if (alias.startsWith(prefixo) && alias.substring(prefixo.length()).matches("\\d+")) {
+                existentes.add(alias);
             }
+        }
 
-            X509Certificate[] chain = tm.chain;
-            if (chain == null) {
-                error("| Não pode obter cadeia de certificados");
-            } else {
-                MessageDigest sha1 = MessageDigest.getInstance("SHA1");
-                MessageDigest md5 = MessageDigest.getInstance("MD5");
-                for (int i = 0; i < chain.length; i++) {
-                    X509Certificate cert = chain[i];
-                    sha1.update(cert.getEncoded());
-                    md5.update(cert.getEncoded());
-
-                    String alias = host + "-" + (i);
-                    ks.setCertificateEntry(alias, cert);
-                }
+        if (existentes.size() == cadeia.length) {
+            boolean igual = true;
+            for (int i = 0; i < cadeia.length && igual; i++) {
+                Certificate atual = keyStore.getCertificate(prefixo + i);
+                igual = cadeia[i].equals(atual);
+            }
+            if (igual) {
+                return false;
             }
-        } catch (NoSuchAlgorithmException | KeyStoreException | CertificateEncodingException | KeyManagementException | IOException e) {
-            error("| " + e.toString());
+        }
+
+        for (String alias : existentes) {
+            keyStore.deleteEntry(alias);
+        }
+        for (int i = 0; i < cadeia.length; i++) {
+            keyStore.setCertificateEntry(prefixo + i, cadeia[i]);
+        }
+        return true;
+    }
+
+    private static void fecha(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Ignora: o socket já está sendo descartado
         }
     }
 
@@ -226,14 +478,53 @@ public class CacertUtil {
         return listaWebServices;
     }
 
-    private static class SavingTrustManager implements X509TrustManager {
-        private final X509TrustManager tm;
-        private X509Certificate[] chain;
+    /**
+     * KeyStore gerado e situação de cada host.
+     */
+    public static class Resultado {
+
+        private final KeyStore keyStore;
+        private final List<String> alterados = new ArrayList<>();
+        private final List<String> inalterados = new ArrayList<>();
+        private final Map<String, String> falhas = new LinkedHashMap<>();
 
-        SavingTrustManager(X509TrustManager tm) {
-            this.tm = tm;
+        Resultado(KeyStore keyStore) {
+            this.keyStore = keyStore;
         }
 
+        public KeyStore getKeyStore() {
+            return keyStore;
+        }
+
+        /**
+         * @return hosts com cadeia nova ou alterada
+         */
+        public List<String> getAlterados() {
+            return Collections.unmodifiableList(alterados);
+        }
+
+        /**
+         * @return hosts com a mesma cadeia da base
+         */
+        public List<String> getInalterados() {
+            return Collections.unmodifiableList(inalterados);
+        }
+
+        /**
+         * @return hosts sem cadeia obtida e o motivo. A entrada da base, se houver, é mantida.
+         */
+        public Map<String, String> getFalhas() {
+            return Collections.unmodifiableMap(falhas);
+        }
+    }
+
+    /**
+     * Guarda a cadeia do servidor e interrompe o handshake: só a cadeia interessa.
+     */
+    private static class CapturaCadeia implements X509TrustManager {
+
+        private X509Certificate[] cadeia;
+
         public X509Certificate[] getAcceptedIssuers() {
             return new X509Certificate[0];
         }
@@ -243,8 +534,8 @@ public class CacertUtil {
         }
 
         public void checkServerTrusted(X509Certificate[] chain, String authType) throws CertificateException {
-            this.chain = chain;
-            this.tm.checkServerTrusted(chain, authType);
+            this.cadeia = chain;
+            throw new CertificateException("Cadeia obtida.");
         }
     }
 }
@@ -1,14 +1,16 @@
 package br.com.samuelweb.nfe.util;
 
 import br.com.samuelweb.certificado.Certificado;
-import br.com.samuelweb.certificado.CertificadoService;
 import br.com.samuelweb.certificado.exception.CertificadoException;
 import br.com.samuelweb.nfe.dom.ConfiguracoesIniciaisNfe;
+import br.com.samuelweb.nfe.dom.ConfiguracoesNfe;
 import br.com.samuelweb.nfe.dom.ConfiguracoesWebNfe;
 import br.com.samuelweb.nfe.exception.NfeException;
 
 /**
  * Classe Responsavel Por Carregar as informações do Certificado Digital
+ * <p>
+ * O certificado é carregado uma única vez no SslUtil; as chamadas seguintes apenas conferem a validade.
  * 
  * @author Samuel Oliveira
  * 
@@ -17,27 +19,35 @@ public class CertificadoUtil {
 
 	public static ConfiguracoesIniciaisNfe iniciaConfiguracoes() throws NfeException {
 
+		// A instância é lida uma única vez: um novo iniciaConfiguracoes não afeta esta chamada
+		ConfiguracoesIniciaisNfe config = ConfiguracoesIniciaisNfe.getInstance();
 		try {
-			Certificado certificado = ConfiguracoesIniciaisNfe.getInstance().getCertificado();
+			Certificado certificado = config.getCertificado();
 			if (!certificado.isValido()) {
 				throw new CertificadoException("Certificado vencido.");
 			}
-			CertificadoService.inicializaCertificado(certificado, CertificadoUtil.class.getResourceAsStream("/Cacert"));
+			SslUtil.getContextoCertificado(certificado);
 		} catch (CertificadoException e) {
 			throw new NfeException(e.getMessage());
 		}
 
-		return ConfiguracoesIniciaisNfe.getInstance();
+		return config;
 	}
 
     public static ConfiguracoesWebNfe iniciaConfiguracoes(ConfiguracoesWebNfe config) throws NfeException {
 
+        iniciaConfiguracoes((ConfiguracoesNfe) config);
+        return config;
+    }
+
+    public static ConfiguracoesNfe iniciaConfiguracoes(ConfiguracoesNfe config) throws NfeException {
+
         try {
             Certificado certificado = config.getCertificado();
             if (!certificado.isValido()) {
                 throw new CertificadoException("Certificado vencido.");
             }
-            CertificadoService.inicializaCertificado(certificado, CertificadoUtil.class.getResourceAsStream("/Cacert"));
+            SslUtil.getContexto(config);
         } catch (CertificadoException e) {
             throw new NfeException(e.getMessage());
         }
@@ -0,0 +1,127 @@
+package br.com.samuelweb.nfe.util;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Indica, por UF, quando passar a emitir a NFe em contingência SVC (SVC-AN/SVC-RS) e quando voltar à emissão normal.
+ * <p>
+ * Após {@code falhasParaContingencia} falhas seguidas na autorização da UF (falha de comunicação, timeout, ou retorno
+ * 108/109 - serviço paralisado) a UF entra em contingência. Decorrida a espera, {@link #usaContingencia(Estados)}
+ * libera uma única NFe em emissão normal, cujo envio testa a Sefaz da UF: com sucesso a UF sai da contingência; com
+ * nova falha, permanece em contingência por mais uma espera.
+ * <p>
+ * O circuito não muda o endereço de nenhum envio: o lote vai para o SVC apenas quando todas as suas NFes foram
+ * emitidas com tpEmis 6 ou 7. Por isso consulte {@link #usaContingencia(Estados)} antes de montar cada NFe, para
+ * decidir o tpEmis. Só o envio de lotes com tpEmis 1 à Sefaz da UF é registrado no circuito.
+ *
+ * @author Samuel Oliveira
+ */
+public class CircuitoContingencia {
+
+	public static final int FALHAS_PADRAO = 3;
+	public static final long ESPERA_PADRAO_SEGUNDOS = 60;
+
+	private enum Situacao {
+		NORMAL, CONTINGENCIA, TESTANDO
+	}
+
+	private final int falhasParaContingencia;
+	private final long esperaNanos;
+
+	private final Map<Estados, Circuito> circuitos = new EnumMap<>(Estados.class);
+
+	public CircuitoContingencia() {
+		this(FALHAS_PADRAO, ESPERA_PADRAO_SEGUNDOS);
+	}
+
+	/**
+	 * @param falhasParaContingencia
+	 *            falhas seguidas para entrar em contingência
+	 * @param esperaSegundos
+	 *            tempo em contingência antes de testar novamente a Sefaz da UF
+	 */
+	public CircuitoContingencia(int falhasParaContingencia, long esperaSegundos) {
+		this.falhasParaContingencia = falhasParaContingencia;
+		this.esperaNanos = TimeUnit.SECONDS.toNanos(esperaSegundos);
+		for (Estados estado : Estados.values()) {
+			circuitos.put(estado, new Circuito());
+		}
+	}
+
+	/**
+	 * @return true se a UF está em contingência (não altera o circuito)
+	 */
+	public boolean isContingencia(Estados estado) {
+		Circuito circuito = circuitos.get(estado);
+		synchronized (circuito) {
+			return circuito.situacao != Situacao.NORMAL;
+		}
+	}
+
+	/**
+	 * Decide o tipo de emissão de uma NFe. Quando a espera terminou, a NFe que recebe false é o teste da Sefaz da UF:
+	 * deve ser emitida com tpEmis 1, e o resultado do seu envio é informado em {@link #registraSucesso(Estados)} ou
+	 * {@link #registraFalha(Estados)}.
+	 *
+	 * @return true para emitir em contingência SVC (tpEmis 6 ou 7)
+	 */
+	public boolean usaContingencia(Estados estado) {
+		Circuito circuito = circuitos.get(estado);
+		synchronized (circuito) {
+			if (circuito.situacao == Situacao.NORMAL) {
+				return false;
+			}
+			long agora = System.nanoTime();
+			if (agora - circuito.desde >= esperaNanos) {
+				// Sem retorno do teste anterior após a espera, libera outro
+				circuito.situacao = Situacao.TESTANDO;
+				circuito.desde = agora;
+				return false;
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Envio de lote com tpEmis 1 à Sefaz da UF com retorno.
+	 */
+	public void registraSucesso(Estados estado) {
+		Circuito circuito = circuitos.get(estado);
+		synchronized (circuito) {
+			circuito.situacao = Situacao.NORMAL;
+			circuito.falhas = 0;
+		}
+	}
+
+	/**
+	 * Envio de lote com tpEmis 1 à Sefaz da UF sem retorno ou com serviço paralisado.
+	 */
+	public void registraFalha(Estados estado) {
+		Circuito circuito = circuitos.get(estado);
+		synchronized (circuito) {
+			switch (circuito.situacao) {
+				case NORMAL:
+					if (++circuito.falhas >= falhasParaContingencia) {
+						circuito.situacao = Situacao.CONTINGENCIA;
+						circuito.desde = System.nanoTime();
+					}
+					break;
+				case TESTANDO:
+					circuito.situacao = Situacao.CONTINGENCIA;
+					circuito.desde = System.nanoTime();
+					break;
+				default:
+					break;
+			}
+		}
+	}
+
+	private static class Circuito {
+		private Situacao situacao = Situacao.NORMAL;
+		private int falhas;
+		private long desde;
+	}
+
+}
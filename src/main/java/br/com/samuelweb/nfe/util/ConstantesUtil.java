@@ -48,6 +48,12 @@ public interface ConstantesUtil {
 		String HOMOLOGACAO = "2";
 		String PRODUCAO = "1";
 	}
+
+	interface TIPO_EMISSAO {
+		String NORMAL = "1";
+		String SVC_AN = "6";
+		String SVC_RS = "7";
+	}
 	
 	interface VERSAO{
 		String NFE = "4.00";
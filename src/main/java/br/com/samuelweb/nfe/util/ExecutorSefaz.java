@@ -0,0 +1,238 @@
+package br.com.samuelweb.nfe.util;
+
+import br.com.samuelweb.nfe.dom.ConfiguracoesNfe;
+import br.com.samuelweb.nfe.exception.NfeException;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Executa chamadas à Sefaz no Executor informado, limitando as chamadas simultâneas por UF e por serviço da UF.
+ * <p>
+ * A chamada em si continua bloqueante (Stub Axis2 ou TransporteSoap): cada chamada despachada ocupa uma thread do
+ * Executor durante toda a ida e volta do SOAP, até o timeout configurado. O que o ExecutorSefaz garante é o limite: no
+ * máximo {@code limitePorUf} threads por UF, e o Executor deve ter threads para a soma dos limites das UFs usadas.
+ * <p>
+ * As chamadas acima do limite ficam na fila, sem ocupar thread do Executor, e são despachadas na ordem de chegada
+ * assim que uma chamada da mesma UF/serviço termina. Uma chamada cancelada antes de ser despachada não é executada;
+ * depois de despachada, o cancelamento do CompletableFuture não interrompe a chamada.
+ * <p>
+ * Quando a configuração é informada em {@link #executa(ConfiguracoesNfe, String, String, Chamada)}, a vez no
+ * {@link LimiteConsultas} é reservada antes do despacho. A chamada limitada aguarda agendada, fora da fila, e só entra
+ * na fila quando o token estiver disponível: a espera não ocupa thread do Executor nem vaga da UF, e não atrasa as
+ * chamadas de outros serviços (ex. o envio dos lotes enquanto as consultas estão limitadas). Se a espera ultrapassar
+ * a espera máxima do limite, o CompletableFuture falha na hora.
+ *
+ * @author Samuel Oliveira
+ */
+public class ExecutorSefaz {
+
+	/**
+	 * Chave da UF para os serviços do Ambiente Nacional (Distribuição DFe e Manifestação).
+	 */
+	public static final String AMBIENTE_NACIONAL = "AN";
+
+	private final Executor executor;
+	private final int limitePorUf;
+	private final int limitePorServico;
+
+	private final Deque<Tarefa<?>> pendentes = new ArrayDeque<>();
+	private final Map<String, Integer> emExecucaoUf = new HashMap<>();
+	private final Map<String, Integer> emExecucaoServico = new HashMap<>();
+	private int aguardandoLimite;
+
+	/**
+	 * Chamada à Sefaz executada no Executor.
+	 */
+	public interface Chamada<R> {
+		R executa() throws NfeException;
+	}
+
+	/**
+	 * @param executor
+	 *            Executor onde as chamadas serão executadas (cada chamada em andamento ocupa uma thread)
+	 * @param limitePorUf
+	 *            chamadas simultâneas para a mesma UF, somando todos os serviços
+	 * @param limitePorServico
+	 *            chamadas simultâneas para o mesmo serviço da mesma UF
+	 */
+	public ExecutorSefaz(Executor executor, int limitePorUf, int limitePorServico) {
+		if (executor == null) {
+			throw new IllegalArgumentException("Executor não informado.");
+		}
+		if (limitePorUf < 1 || limitePorServico < 1) {
+			throw new IllegalArgumentException("Os limites de chamadas simultâneas devem ser maiores que zero.");
+		}
+		this.executor = executor;
+		this.limitePorUf = limitePorUf;
+		this.limitePorServico = limitePorServico;
+	}
+
+	/**
+	 * Enfileira a chamada. O CompletableFuture é completado com o retorno da Sefaz ou com a NfeException lançada.
+	 * Quando despachada, a chamada é executada de forma bloqueante em uma thread do Executor.
+	 *
+	 * @param uf
+	 *            UF do WebService (ou {@link #AMBIENTE_NACIONAL})
+	 * @param servico
+	 *            ConstantesUtil.SERVICOS
+	 * @param chamada
+	 * @return CompletableFuture com o retorno da chamada
+	 */
+	public <R> CompletableFuture<R> executa(String uf, String servico, Chamada<R> chamada) {
+		Tarefa<R> tarefa = new Tarefa<>(uf, servico, chamada, false);
+		enfileira(tarefa);
+		return tarefa.retorno;
+	}
+
+	/**
+	 * Reserva a vez da chamada no {@link LimiteConsultas} e a enfileira quando o token estiver disponível. O
+	 * CompletableFuture falha com a NfeException do limite se a espera ultrapassar a espera máxima.
+	 *
+	 * @param config
+	 *            configuração da chamada, identifica o certificado no LimiteConsultas
+	 * @param uf
+	 *            UF do WebService (ou {@link #AMBIENTE_NACIONAL})
+	 * @param servico
+	 *            ConstantesUtil.SERVICOS
+	 * @param chamada
+	 * @return CompletableFuture com o retorno da chamada
+	 */
+	public <R> CompletableFuture<R> executa(ConfiguracoesNfe config, String uf, String servico, Chamada<R> chamada) {
+		long espera;
+		try {
+			espera = LimiteConsultas.reserva(config, servico);
+		} catch (NfeException e) {
+			CompletableFuture<R> retorno = new CompletableFuture<>();
+			retorno.completeExceptionally(e);
+			return retorno;
+		}
+
+		Tarefa<R> tarefa = new Tarefa<>(uf, servico, chamada, espera != LimiteConsultas.SEM_LIMITE);
+		if (espera <= 0) {
+			enfileira(tarefa);
+			return tarefa.retorno;
+		}
+
+		synchronized (this) {
+			aguardandoLimite++;
+		}
+		Agendador.INSTANCIA.schedule(() -> {
+			synchronized (this) {
+				aguardandoLimite--;
+			}
+			enfileira(tarefa);
+		}, espera, TimeUnit.NANOSECONDS);
+		return tarefa.retorno;
+	}
+
+	/**
+	 * @return chamadas aguardando na fila ou a vez no LimiteConsultas
+	 */
+	public synchronized int getPendentes() {
+		return pendentes.size() + aguardandoLimite;
+	}
+
+	private void enfileira(Tarefa<?> tarefa) {
+		synchronized (this) {
+			pendentes.addLast(tarefa);
+		}
+		despacha();
+	}
+
+	private void despacha() {
+		List<Tarefa<?>> liberadas = new ArrayList<>();
+		synchronized (this) {
+			Iterator<Tarefa<?>> it = pendentes.iterator();
+			while (it.hasNext()) {
+				Tarefa<?> tarefa = it.next();
+				if (tarefa.retorno.isDone()) {
+					it.remove();
+				} else if (emExecucaoUf.getOrDefault(tarefa.uf, 0) < limitePorUf
+						&& emExecucaoServico.getOrDefault(tarefa.ufServico, 0) < limitePorServico) {
+					it.remove();
+					emExecucaoUf.merge(tarefa.uf, 1, Integer::sum);
+					emExecucaoServico.merge(tarefa.ufServico, 1, Integer::sum);
+					liberadas.add(tarefa);
+				}
+			}
+		}
+
+		boolean rejeitada = false;
+		for (Tarefa<?> tarefa : liberadas) {
+			try {
+				executor.execute(() -> executa(tarefa));
+			} catch (RejectedExecutionException e) {
+				tarefa.retorno.completeExceptionally(e);
+				libera(tarefa);
+				rejeitada = true;
+			}
+		}
+		if (rejeitada) {
+			despacha();
+		}
+	}
+
+	private <R> void executa(Tarefa<R> tarefa) {
+		try {
+			if (!tarefa.retorno.isDone()) {
+				tarefa.retorno.complete(tarefa.reservada
+						? LimiteConsultas.executaReservado(tarefa.servico, tarefa.chamada)
+						: tarefa.chamada.executa());
+			}
+		} catch (Throwable e) {
+			tarefa.retorno.completeExceptionally(e);
+		} finally {
+			libera(tarefa);
+			despacha();
+		}
+	}
+
+	private synchronized void libera(Tarefa<?> tarefa) {
+		emExecucaoUf.computeIfPresent(tarefa.uf, (k, v) -> v == 1 ? null : v - 1);
+		emExecucaoServico.computeIfPresent(tarefa.ufServico, (k, v) -> v == 1 ? null : v - 1);
+	}
+
+	/**
+	 * Agenda a entrada na fila das chamadas que aguardam a vez no LimiteConsultas. A thread só dispara os
+	 * agendamentos.
+	 */
+	private static class Agendador {
+
+		private static final ScheduledExecutorService INSTANCIA = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "ExecutorSefaz");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	private static class Tarefa<R> {
+
+		private final String uf;
+		private final String servico;
+		private final String ufServico;
+		private final Chamada<R> chamada;
+		private final boolean reservada;
+		private final CompletableFuture<R> retorno = new CompletableFuture<>();
+
+		Tarefa(String uf, String servico, Chamada<R> chamada, boolean reservada) {
+			this.uf = uf;
+			this.servico = servico;
+			this.ufServico = uf + "|" + servico;
+			this.chamada = chamada;
+			this.reservada = reservada;
+		}
+	}
+
+}
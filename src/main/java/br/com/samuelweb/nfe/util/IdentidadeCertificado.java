@@ -0,0 +1,82 @@
+package br.com.samuelweb.nfe.util;
+
+import br.com.samuelweb.certificado.Certificado;
+
+import java.io.File;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.cert.X509Certificate;
+
+/**
+ * Identificação dos certificados para os caches de assinatura, SSLContext e limite de consultas.
+ * <p>
+ * A {@link #origem(Certificado)} é calculada sem abrir o KeyStore, e muda quando o pfx é substituído mesmo que o
+ * alias continue o mesmo. A {@link #impressaoDigital(X509Certificate)} identifica o certificado carregado.
+ *
+ * @author Samuel Oliveira
+ */
+public final class IdentidadeCertificado {
+
+	private IdentidadeCertificado() {
+	}
+
+	/**
+	 * @param certificado
+	 * @return tipo, alias e vencimento do certificado e a origem do pfx: caminho, data de alteração e tamanho do
+	 *         arquivo, ou SHA-256 dos bytes
+	 */
+	public static String origem(Certificado certificado) {
+		StringBuilder origem = new StringBuilder(128).append(certificado.getTipo()).append('|')
+				.append(certificado.getNome()).append('|').append(certificado.getVencimento());
+		if (certificado.getArquivoBytes() != null) {
+			origem.append("|bytes:").append(sha256(certificado.getArquivoBytes()));
+		} else if (certificado.getArquivo() != null) {
+			File arquivo = new File(certificado.getArquivo());
+			origem.append("|arquivo:").append(arquivo.getAbsolutePath()).append('|').append(arquivo.lastModified())
+					.append('|').append(arquivo.length());
+		}
+		return origem.toString();
+	}
+
+	/**
+	 * Parte da {@link #origem(Certificado)} que não muda quando o pfx é substituído, usada para descartar dos caches
+	 * as entradas da origem anterior. O pfx renovado pode vir com outro alias, por isso o arquivo é identificado só
+	 * pelo caminho.
+	 *
+	 * @param certificado
+	 * @return tipo e caminho do arquivo, ou tipo e alias para pfx em bytes e repositórios do sistema
+	 */
+	public static String local(Certificado certificado) {
+		StringBuilder local = new StringBuilder(96).append(certificado.getTipo()).append('|');
+		if (certificado.getArquivoBytes() == null && certificado.getArquivo() != null) {
+			return local.append("arquivo:").append(new File(certificado.getArquivo()).getAbsolutePath()).toString();
+		}
+		return local.append(certificado.getNome()).toString();
+	}
+
+	/**
+	 * @param x509
+	 * @return SHA-256 do certificado, em hexadecimal
+	 * @throws GeneralSecurityException
+	 */
+	public static String impressaoDigital(X509Certificate x509) throws GeneralSecurityException {
+		return hex(MessageDigest.getInstance("SHA-256").digest(x509.getEncoded()));
+	}
+
+	private static String sha256(byte[] conteudo) {
+		try {
+			return hex(MessageDigest.getInstance("SHA-256").digest(conteudo));
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String hex(byte[] hash) {
+		StringBuilder hex = new StringBuilder(hash.length * 2);
+		for (byte b : hash) {
+			hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		}
+		return hex.toString();
+	}
+
+}
@@ -0,0 +1,165 @@
+/**
+ *
+ */
+package br.com.samuelweb.nfe.util;
+
+import br.com.samuelweb.nfe.exception.NfeException;
+import br.inf.portalfiscal.nfe.schema.consCad.TConsCad;
+import br.inf.portalfiscal.nfe.schema.distdfeint.DistDFeInt;
+import br.inf.portalfiscal.nfe.schema.retConsCad.TRetConsCad;
+import br.inf.portalfiscal.nfe.schema.retdistdfeint.RetDistDFeInt;
+import br.inf.portalfiscal.nfe.schema_4.consReciNFe.TConsReciNFe;
+import br.inf.portalfiscal.nfe.schema_4.consSitNFe.TConsSitNFe;
+import br.inf.portalfiscal.nfe.schema_4.consStatServ.TConsStatServ;
+import br.inf.portalfiscal.nfe.schema_4.enviNFe.TEnviNFe;
+import br.inf.portalfiscal.nfe.schema_4.enviNFe.TNFe;
+import br.inf.portalfiscal.nfe.schema_4.enviNFe.TNfeProc;
+import br.inf.portalfiscal.nfe.schema_4.enviNFe.TRetEnviNFe;
+import br.inf.portalfiscal.nfe.schema_4.inutNFe.TInutNFe;
+import br.inf.portalfiscal.nfe.schema_4.inutNFe.TProcInutNFe;
+import br.inf.portalfiscal.nfe.schema_4.inutNFe.TRetInutNFe;
+import br.inf.portalfiscal.nfe.schema_4.retConsReciNFe.TRetConsReciNFe;
+import br.inf.portalfiscal.nfe.schema_4.retConsSitNFe.TRetConsSitNFe;
+import br.inf.portalfiscal.nfe.schema_4.retConsStatServ.TRetConsStatServ;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.bind.Unmarshaller;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Registro dos JAXBContext utilizados pela Api.
+ * <p>
+ * O JAXBContext é criado uma única vez por classe de schema e compartilhado
+ * entre as threads. Marshaller e Unmarshaller não são thread-safe, por isso
+ * cada thread mantém as suas próprias instâncias, criadas sob demanda.
+ *
+ * @author Samuel Oliveira
+ */
+public final class JaxbUtil {
+
+    /**
+     * Classes de schema utilizadas pela Api, carregadas em {@link #iniciaContextos()}.
+     */
+    private static final List<Class<?>> CLASSES = Collections.unmodifiableList(Arrays.<Class<?>>asList(
+            TConsStatServ.class,
+            TRetConsStatServ.class,
+            TEnviNFe.class,
+            TRetEnviNFe.class,
+            TNFe.class,
+            TNfeProc.class,
+            br.inf.portalfiscal.nfe.schema_4.enviNFe.TProtNFe.class,
+            TConsSitNFe.class,
+            TRetConsSitNFe.class,
+            br.inf.portalfiscal.nfe.schema_4.retConsSitNFe.TProtNFe.class,
+            TConsReciNFe.class,
+            TRetConsReciNFe.class,
+            br.inf.portalfiscal.nfe.schema_4.retConsReciNFe.TProtNFe.class,
+            TConsCad.class,
+            TRetConsCad.class,
+            DistDFeInt.class,
+            RetDistDFeInt.class,
+            TInutNFe.class,
+            TRetInutNFe.class,
+            TProcInutNFe.class,
+            br.inf.portalfiscal.nfe.schema.envEventoCancNFe.TEnvEvento.class,
+            br.inf.portalfiscal.nfe.schema.envEventoCancNFe.TRetEnvEvento.class,
+            br.inf.portalfiscal.nfe.schema.envEventoCancNFe.TProcEvento.class,
+            br.inf.portalfiscal.nfe.schema.envcce.TEnvEvento.class,
+            br.inf.portalfiscal.nfe.schema.envcce.TRetEnvEvento.class,
+            br.inf.portalfiscal.nfe.schema.envcce.TProcEvento.class,
+            br.inf.portalfiscal.nfe.schema.envEpec.TEnvEvento.class,
+            br.inf.portalfiscal.nfe.schema.envEpec.TRetEnvEvento.class,
+            br.inf.portalfiscal.nfe.schema.envEpec.TProcEvento.class,
+            br.inf.portalfiscal.nfe.schema.envConfRecebto.TEnvEvento.class,
+            br.inf.portalfiscal.nfe.schema.envConfRecebto.TRetEnvEvento.class));
+
+    private static final ConcurrentMap<Class<?>, JAXBContext> CONTEXTOS = new ConcurrentHashMap<>();
+
+    private static final ThreadLocal<Map<Class<?>, Marshaller>> MARSHALLERS = ThreadLocal.withInitial(HashMap::new);
+
+    private static final ThreadLocal<Map<Class<?>, Unmarshaller>> UNMARSHALLERS = ThreadLocal.withInitial(HashMap::new);
+
+    private JaxbUtil() {
+    }
+
+    /**
+     * Cria antecipadamente os JAXBContext de todas as classes de schema da Api.
+     * Pode ser chamado na inicialização da aplicação para evitar o custo na primeira emissão.
+     *
+     * @throws NfeException
+     */
+    public static void iniciaContextos() throws NfeException {
+        try {
+            for (Class<?> classe : CLASSES) {
+                getContexto(classe);
+            }
+        } catch (JAXBException e) {
+            throw new NfeException(e.getMessage());
+        }
+    }
+
+    /**
+     * Retorna o JAXBContext da classe, criando-o na primeira chamada.
+     *
+     * @param classe
+     * @return JAXBContext
+     * @throws JAXBException
+     */
+    public static JAXBContext getContexto(Class<?> classe) throws JAXBException {
+        JAXBContext context = CONTEXTOS.get(classe);
+        if (context == null) {
+            context = JAXBContext.newInstance(classe);
+            JAXBContext existente = CONTEXTOS.putIfAbsent(classe, context);
+            if (existente != null) {
+                context = existente;
+            }
+        }
+        return context;
+    }
+
+    /**
+     * Retorna o Marshaller da thread atual para a classe, já configurado para a geração dos XMLs da Nfe.
+     *
+     * @param classe
+     * @return Marshaller
+     * @throws JAXBException
+     */
+    public static Marshaller getMarshaller(Class<?> classe) throws JAXBException {
+        Map<Class<?>, Marshaller> marshallers = MARSHALLERS.get();
+        Marshaller marshaller = marshallers.get(classe);
+        if (marshaller == null) {
+            marshaller = getContexto(classe).createMarshaller();
+            marshaller.setProperty("jaxb.encoding", "Unicode");
+            marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, Boolean.FALSE);
+            marshaller.setProperty(Marshaller.JAXB_FRAGMENT, Boolean.TRUE);
+            marshallers.put(classe, marshaller);
+        }
+        return marshaller;
+    }
+
+    /**
+     * Retorna o Unmarshaller da thread atual para a classe.
+     *
+     * @param classe
+     * @return Unmarshaller
+     * @throws JAXBException
+     */
+    public static Unmarshaller getUnmarshaller(Class<?> classe) throws JAXBException {
+        Map<Class<?>, Unmarshaller> unmarshallers = UNMARSHALLERS.get();
+        Unmarshaller unmarshaller = unmarshallers.get(classe);
+        if (unmarshaller == null) {
+            unmarshaller = getContexto(classe).createUnmarshaller();
+            unmarshallers.put(classe, unmarshaller);
+        }
+        return unmarshaller;
+    }
+
+}
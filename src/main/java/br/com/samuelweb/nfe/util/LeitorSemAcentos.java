@@ -0,0 +1,91 @@
+package br.com.samuelweb.nfe.util;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.util.StreamReaderDelegate;
+
+/**
+ * XMLStreamReader que entrega os textos e atributos já sem acentos, para o Unmarshaller ler o retorno direto do
+ * stream com o mesmo resultado do {@link XmlUtil#xmlToObject(String, Class)}.
+ * <p>
+ * A remoção é feita em cada texto já decodificado, por isso uma entidade (&amp;amp;) vira E, e não Eamp; como na
+ * remoção sobre o xml bruto.
+ *
+ * @author Samuel Oliveira
+ */
+class LeitorSemAcentos extends StreamReaderDelegate {
+
+	private char[] texto;
+
+	LeitorSemAcentos(XMLStreamReader reader) {
+		super(reader);
+	}
+
+	@Override
+	public int next() throws XMLStreamException {
+		texto = null;
+		return super.next();
+	}
+
+	@Override
+	public int nextTag() throws XMLStreamException {
+		texto = null;
+		return super.nextTag();
+	}
+
+	@Override
+	public String getText() {
+		return new String(texto());
+	}
+
+	@Override
+	public char[] getTextCharacters() {
+		return texto();
+	}
+
+	@Override
+	public int getTextCharacters(int sourceStart, char[] target, int targetStart, int length) {
+		char[] atual = texto();
+		int copiar = Math.min(length, atual.length - sourceStart);
+		if (copiar <= 0) {
+			return 0;
+		}
+		System.arraycopy(atual, sourceStart, target, targetStart, copiar);
+		return copiar;
+	}
+
+	@Override
+	public int getTextStart() {
+		return 0;
+	}
+
+	@Override
+	public int getTextLength() {
+		return texto().length;
+	}
+
+	@Override
+	public String getElementText() throws XMLStreamException {
+		texto = null;
+		return TransliteradorUtil.removeAcentos(super.getElementText());
+	}
+
+	@Override
+	public String getAttributeValue(int index) {
+		return TransliteradorUtil.removeAcentos(super.getAttributeValue(index));
+	}
+
+	@Override
+	public String getAttributeValue(String namespaceURI, String localName) {
+		String valor = super.getAttributeValue(namespaceURI, localName);
+		return valor == null ? null : TransliteradorUtil.removeAcentos(valor);
+	}
+
+	private char[] texto() {
+		if (texto == null) {
+			texto = TransliteradorUtil.removeAcentos(super.getText()).toCharArray();
+		}
+		return texto;
+	}
+
+}
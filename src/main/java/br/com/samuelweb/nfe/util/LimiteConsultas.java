@@ -0,0 +1,278 @@
+package br.com.samuelweb.nfe.util;
+
+import br.com.samuelweb.certificado.Certificado;
+import br.com.samuelweb.nfe.dom.ConfiguracoesNfe;
+import br.com.samuelweb.nfe.exception.NfeException;
+import org.apache.axis2.AxisFault;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limite de chamadas por certificado (CNPJ) e serviço, para evitar o bloqueio da Sefaz por consumo indevido (656).
+ * <p>
+ * Cada serviço de {@link ConstantesUtil.SERVICOS} pode ter um limite configurado em {@link #configura}. O limite é
+ * um token bucket por certificado: até {@code rajada} chamadas imediatas, repostas à taxa de
+ * {@code chamadasPorMinuto}. Acima do limite a chamada aguarda a vez, até a espera máxima configurada; se a espera
+ * for maior, a chamada falha sem ser enviada. Serviços sem limite configurado não são limitados.
+ * <p>
+ * Nas chamadas síncronas a vez é aguardada na própria thread, antes do envio. No {@link ExecutorSefaz} a vez é
+ * reservada antes do despacho e a chamada só entra na fila quando o token estiver disponível, sem ocupar thread do
+ * Executor nem vaga da UF durante a espera.
+ * <p>
+ * As consultas iguais feitas ao mesmo tempo (mesmo certificado, ambiente, UF, serviço e parâmetros) são agrupadas em
+ * {@link #consultaUnica}: apenas uma vai à Sefaz e o retorno é entregue a todos. O objeto retornado é o mesmo para
+ * todos e não deve ser alterado.
+ * <p>
+ * O certificado é identificado pela {@link IdentidadeCertificado#origem(Certificado)}, e não pelo objeto: objetos
+ * Certificado diferentes do mesmo pfx (ex. um por requisição) compartilham o limite e as consultas em andamento.
+ *
+ * @author Samuel Oliveira
+ */
+public class LimiteConsultas {
+
+	private static final Map<String, Limite> LIMITES = new ConcurrentHashMap<>();
+
+	private static final ConcurrentMap<String, ConcurrentMap<String, Balde>> BALDES = new ConcurrentHashMap<>();
+
+	private static final ConcurrentMap<List<Object>, CompletableFuture<Object>> EM_ANDAMENTO = new ConcurrentHashMap<>();
+
+	/**
+	 * Serviço com a vez já reservada pelo ExecutorSefaz para a chamada em execução na thread.
+	 */
+	private static final ThreadLocal<String> RESERVADO = new ThreadLocal<>();
+
+	/**
+	 * Retorno de {@link #reserva} para serviço sem limite configurado.
+	 */
+	static final long SEM_LIMITE = -1;
+
+	/**
+	 * Consulta executada uma única vez para as chamadas iguais.
+	 */
+	public interface Consulta<R> {
+		R executa() throws NfeException;
+	}
+
+	private LimiteConsultas() {
+	}
+
+	/**
+	 * Configura o limite do serviço. Vale para os baldes criados a partir da configuração.
+	 *
+	 * @param servico
+	 *            ConstantesUtil.SERVICOS
+	 * @param chamadasPorMinuto
+	 *            taxa de reposição
+	 * @param rajada
+	 *            chamadas imediatas permitidas com o balde cheio
+	 * @param esperaMaximaMillis
+	 *            espera máxima pela vez antes de falhar
+	 */
+	public static void configura(String servico, double chamadasPorMinuto, int rajada, long esperaMaximaMillis) {
+		if (chamadasPorMinuto <= 0 || rajada < 1 || esperaMaximaMillis < 0) {
+			throw new IllegalArgumentException("Limite inválido para " + servico);
+		}
+		LIMITES.put(servico, new Limite(chamadasPorMinuto, rajada, esperaMaximaMillis));
+		limpaBaldes(servico);
+	}
+
+	/**
+	 * Remove o limite do serviço.
+	 *
+	 * @param servico
+	 *            ConstantesUtil.SERVICOS
+	 */
+	public static void remove(String servico) {
+		LIMITES.remove(servico);
+		limpaBaldes(servico);
+	}
+
+	/**
+	 * Aguarda a vez da chamada ao serviço, conforme o limite configurado. Não aguarda se a vez já foi reservada pelo
+	 * ExecutorSefaz.
+	 *
+	 * @throws AxisFault
+	 *             se a espera ultrapassar a espera máxima ou a thread for interrompida
+	 */
+	static void aguarda(ConfiguracoesNfe config, String servico) throws AxisFault {
+
+		if (servico.equals(RESERVADO.get())) {
+			// A reserva vale para uma única chamada
+			RESERVADO.remove();
+			return;
+		}
+
+		Limite limite = LIMITES.get(servico);
+		if (limite == null) {
+			return;
+		}
+
+		long esperaNanos = balde(config, servico, limite).reserva();
+		if (esperaNanos <= 0) {
+			return;
+		}
+		try {
+			TimeUnit.NANOSECONDS.sleep(esperaNanos);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new AxisFault("Espera do limite de " + servico + " interrompida.", e);
+		}
+	}
+
+	/**
+	 * Reserva a vez da chamada ao serviço sem aguardar. O token é consumido na hora.
+	 *
+	 * @return nanos até a vez da chamada, ou {@link #SEM_LIMITE}
+	 * @throws NfeException
+	 *             se a espera ultrapassar a espera máxima (o token não é consumido)
+	 */
+	static long reserva(ConfiguracoesNfe config, String servico) throws NfeException {
+
+		Limite limite = LIMITES.get(servico);
+		if (limite == null) {
+			return SEM_LIMITE;
+		}
+		try {
+			return balde(config, servico, limite).reserva();
+		} catch (AxisFault e) {
+			throw new NfeException(e.getMessage());
+		}
+	}
+
+	/**
+	 * Executa a chamada com a vez do serviço já reservada em {@link #reserva}: a primeira chamada ao serviço feita
+	 * pela thread não aguarda o limite de novo.
+	 */
+	static <R> R executaReservado(String servico, ExecutorSefaz.Chamada<R> chamada) throws NfeException {
+		RESERVADO.set(servico);
+		try {
+			return chamada.executa();
+		} finally {
+			RESERVADO.remove();
+		}
+	}
+
+	/**
+	 * Executa a consulta uma única vez para as chamadas iguais simultâneas.
+	 *
+	 * @param config
+	 * @param servico
+	 *            ConstantesUtil.SERVICOS
+	 * @param parametros
+	 *            parâmetros que identificam a consulta (chave, recibo, nsu...)
+	 * @param consulta
+	 * @return retorno compartilhado da consulta
+	 * @throws NfeException
+	 */
+	@SuppressWarnings("unchecked")
+	public static <R> R consultaUnica(ConfiguracoesNfe config, String servico, List<?> parametros,
+			Consulta<R> consulta) throws NfeException {
+
+		List<Object> chave = Arrays.asList(certificado(config), config.getAmbiente(), config.getEstado(), servico,
+				parametros);
+
+		CompletableFuture<Object> nova = new CompletableFuture<>();
+		CompletableFuture<Object> atual = EM_ANDAMENTO.putIfAbsent(chave, nova);
+
+		if (atual == null) {
+			try {
+				R retorno = consulta.executa();
+				nova.complete(retorno);
+				return retorno;
+			} catch (Throwable e) {
+				nova.completeExceptionally(e);
+				throw e;
+			} finally {
+				EM_ANDAMENTO.remove(chave, nova);
+			}
+		}
+
+		try {
+			return (R) atual.get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			if (e.getCause() instanceof Error) {
+				throw (Error) e.getCause();
+			}
+			throw new NfeException(e.getCause().getMessage());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new NfeException(e.getMessage());
+		}
+	}
+
+	private static String certificado(ConfiguracoesNfe config) {
+		return config.getCertificado() == null ? "" : IdentidadeCertificado.origem(config.getCertificado());
+	}
+
+	private static Balde balde(ConfiguracoesNfe config, String servico, Limite limite) {
+		ConcurrentMap<String, Balde> baldes = BALDES.computeIfAbsent(certificado(config),
+				k -> new ConcurrentHashMap<>());
+		return baldes.computeIfAbsent(servico, k -> new Balde(limite));
+	}
+
+	private static void limpaBaldes(String servico) {
+		for (ConcurrentMap<String, Balde> baldes : BALDES.values()) {
+			baldes.remove(servico);
+		}
+	}
+
+	private static class Limite {
+
+		private final double tokensPorNano;
+		private final int rajada;
+		private final long esperaMaximaNanos;
+
+		Limite(double chamadasPorMinuto, int rajada, long esperaMaximaMillis) {
+			this.tokensPorNano = chamadasPorMinuto / TimeUnit.MINUTES.toNanos(1);
+			this.rajada = rajada;
+			this.esperaMaximaNanos = TimeUnit.MILLISECONDS.toNanos(esperaMaximaMillis);
+		}
+	}
+
+	/**
+	 * Token bucket com reserva: a chamada consome o token na hora e aguarda até o momento em que ele estaria
+	 * disponível.
+	 */
+	private static class Balde {
+
+		private final Limite limite;
+		private double tokens;
+		private long atualizadoEm;
+
+		Balde(Limite limite) {
+			this.limite = limite;
+			this.tokens = limite.rajada;
+			this.atualizadoEm = System.nanoTime();
+		}
+
+		/**
+		 * @return nanos a aguardar antes da chamada
+		 * @throws AxisFault
+		 *             se a espera ultrapassar a espera máxima (o token não é consumido)
+		 */
+		synchronized long reserva() throws AxisFault {
+			long agora = System.nanoTime();
+			tokens = Math.min(limite.rajada, tokens + (agora - atualizadoEm) * limite.tokensPorNano);
+			atualizadoEm = agora;
+
+			long espera = tokens >= 1 ? 0 : (long) Math.ceil((1 - tokens) / limite.tokensPorNano);
+			if (espera > limite.esperaMaximaNanos) {
+				throw new AxisFault("Limite de consultas excedido. Aguarde "
+						+ TimeUnit.NANOSECONDS.toSeconds(espera) + " segundos.");
+			}
+			tokens -= 1;
+			return espera;
+		}
+	}
+
+}
@@ -0,0 +1,183 @@
+package br.com.samuelweb.nfe.util;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * ContentHandler que recebe os eventos do Marshaller e escreve o XML já no formato aceito pela Sefaz,
+ * em uma única passada.
+ * <p>
+ * Substitui a cadeia de replaceAll aplicada sobre o XML gerado: remove os prefixos ns2/ns3, remove a
+ * declaração do namespace da assinatura da raiz e a declaração em branco do ns3, declara o namespace
+ * no elemento Signature e grava o conteúdo dos campos sem escape (como o CDATA do qrCode da NFC-e).
+ *
+ * @author Samuel Oliveira
+ */
+class NfeXmlWriter extends DefaultHandler {
+
+    private static final String NS_NFE = "http://www.portalfiscal.inf.br/nfe";
+    private static final String NS_ASSINATURA = "http://www.w3.org/2000/09/xmldsig#";
+
+    private final Writer out;
+    private final boolean procEvento;
+    private final List<String[]> namespacesPendentes = new ArrayList<>();
+    private boolean iniciado;
+    private boolean tagAberta;
+
+    /**
+     * @param out        destino do XML
+     * @param procEvento renomeia o elemento procEvento para procEventoNFe
+     */
+    NfeXmlWriter(Writer out, boolean procEvento) {
+        this.out = out;
+        this.procEvento = procEvento;
+    }
+
+    @Override
+    public void endDocument() throws SAXException {
+        try {
+            out.flush();
+        } catch (IOException e) {
+            throw new SAXException(e);
+        }
+    }
+
+    @Override
+    public void startPrefixMapping(String prefix, String uri) {
+        namespacesPendentes.add(new String[]{prefix, uri});
+    }
+
+    @Override
+    public void startElement(String uri, String localName, String qName, Attributes atts) throws SAXException {
+        // O Marshaller trabalha como fragmento, a declaração é escrita antes do elemento raiz
+        if (!iniciado) {
+            escreve("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+            iniciado = true;
+        }
+        fechaTag();
+        String nome = nomeElemento(qName);
+        escreve('<');
+        escreve(nome);
+
+        boolean declarouNamespace = false;
+        for (int i = 0; i < namespacesPendentes.size(); i++) {
+            String prefixo = namespacesPendentes.get(i)[0];
+            String namespace = namespacesPendentes.get(i)[1];
+            if ("ns2".equals(prefixo) && NS_ASSINATURA.equals(namespace)) {
+                continue;
+            }
+            if (prefixo.isEmpty() && namespace.isEmpty() && i + 1 < namespacesPendentes.size()
+                    && "ns3".equals(namespacesPendentes.get(i + 1)[0])
+                    && NS_NFE.equals(namespacesPendentes.get(i + 1)[1])) {
+                i++;
+                continue;
+            }
+            escreve(prefixo.isEmpty() ? " xmlns=\"" : " xmlns:" + prefixo + "=\"");
+            escreve(namespace);
+            escreve('"');
+            declarouNamespace = true;
+        }
+        namespacesPendentes.clear();
+
+        if ("Signature".equals(nome) && !declarouNamespace && atts.getLength() == 0) {
+            escreve(" xmlns=\"" + NS_ASSINATURA + "\"");
+        }
+
+        for (int i = 0; i < atts.getLength(); i++) {
+            escreve(' ');
+            escreve(removePrefixo(atts.getQName(i)));
+            escreve("=\"");
+            escreveConteudo(atts.getValue(i), true);
+            escreve('"');
+        }
+        tagAberta = true;
+    }
+
+    @Override
+    public void endElement(String uri, String localName, String qName) throws SAXException {
+        fechaTag();
+        escreve("</");
+        escreve(nomeElemento(qName));
+        escreve('>');
+    }
+
+    @Override
+    public void characters(char[] ch, int start, int length) throws SAXException {
+        fechaTag();
+        escreveConteudo(new String(ch, start, length), false);
+    }
+
+    @Override
+    public void ignorableWhitespace(char[] ch, int start, int length) throws SAXException {
+        characters(ch, start, length);
+    }
+
+    private void fechaTag() throws SAXException {
+        if (tagAberta) {
+            escreve('>');
+            tagAberta = false;
+        }
+    }
+
+    private String nomeElemento(String qName) {
+        String nome = removePrefixo(qName);
+        return procEvento ? nome.replace("procEvento", "procEventoNFe") : nome;
+    }
+
+    private static String removePrefixo(String qName) {
+        if (qName.startsWith("ns2:") || qName.startsWith("ns3:")) {
+            return qName.substring(4);
+        }
+        return qName;
+    }
+
+    /**
+     * Grava o conteúdo sem escape, mantendo o mesmo resultado do XML anterior: apenas as aspas dos
+     * atributos são escapadas e a sequência &amp;gt; é gravada como &gt;.
+     */
+    private void escreveConteudo(String valor, boolean atributo) throws SAXException {
+        try {
+            int inicio = 0;
+            int tamanho = valor.length();
+            for (int i = 0; i < tamanho; i++) {
+                char c = valor.charAt(i);
+                if (atributo && c == '"') {
+                    out.write(valor, inicio, i - inicio);
+                    out.write("&quot;");
+                    inicio = i + 1;
+                } else if (c == '&' && valor.startsWith("&gt;", i)) {
+                    out.write(valor, inicio, i - inicio);
+                    out.write('>');
+                    i += 3;
+                    inicio = i + 1;
+                }
+            }
+            out.write(valor, inicio, tamanho - inicio);
+        } catch (IOException e) {
+            throw new SAXException(e);
+        }
+    }
+
+    private void escreve(String valor) throws SAXException {
+        try {
+            out.write(valor);
+        } catch (IOException e) {
+            throw new SAXException(e);
+        }
+    }
+
+    private void escreve(char c) throws SAXException {
+        try {
+            out.write(c);
+        } catch (IOException e) {
+            throw new SAXException(e);
+        }
+    }
+
+}
@@ -0,0 +1,409 @@
+package br.com.samuelweb.nfe.util;
+
+import br.com.samuelweb.certificado.Certificado;
+import br.com.samuelweb.certificado.CertificadoService;
+import br.com.samuelweb.certificado.exception.CertificadoException;
+import br.com.samuelweb.nfe.dom.ConfiguracoesNfe;
+import br.com.samuelweb.nfe.exception.NfeException;
+import org.apache.commons.httpclient.ConnectTimeoutException;
+import org.apache.commons.httpclient.params.HttpConnectionParams;
+import org.apache.commons.httpclient.protocol.Protocol;
+import org.apache.commons.httpclient.protocol.ProtocolSocketFactory;
+import org.apache.commons.httpclient.protocol.SecureProtocolSocketFactory;
+
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.TrustManagerFactory;
+import javax.net.ssl.X509ExtendedKeyManager;
+import javax.net.ssl.X509KeyManager;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.Principal;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+import java.util.Objects;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * SSLContext dos Certificados, sem alterar o estado global da JVM (System properties e o Protocol https registrado
+ * pelo CertificadoService.inicializaCertificado).
+ * <p>
+ * O truststore /Cacert é carregado uma única vez. O SSLContext de cada certificado é criado uma vez e guardado pela
+ * impressão digital (SHA-256) do certificado e pela versão do truststore; é usado por todos os Stubs do Axis2 (pelo
+ * {@link #getProtocolo(ConfiguracoesNfe)}) e pelo TransporteSoap. O contexto é recriado quando o truststore é
+ * trocado em {@link #atualizaTruststore(KeyStore)}, e é descartado quando o certificado vence.
+ * <p>
+ * A busca é feita primeiro pela {@link IdentidadeCertificado#origem(Certificado)}, calculada sem decodificar o pfx:
+ * um novo objeto Certificado do mesmo pfx encontra o contexto sem abrir o KeyStore, e o pfx só é decodificado de novo
+ * quando a origem muda (alias alterado ou pfx substituído). Ao carregar um contexto, as entradas vencidas e as do
+ * mesmo pfx com a origem anterior são descartadas, junto com os contextos que só elas usavam.
+ *
+ * @author Samuel Oliveira
+ */
+public class SslUtil {
+
+	/**
+	 * Acesso rápido pela origem do certificado, sem decodificar o pfx. Cada entrada é também a trava da sua carga.
+	 * Guarda apenas a origem atual de cada pfx.
+	 */
+	private static final ConcurrentMap<String, Entrada> POR_ORIGEM = new ConcurrentHashMap<>();
+
+	/**
+	 * Contextos por impressão digital, compartilhados pelos objetos Certificado do mesmo certificado.
+	 */
+	private static final ConcurrentMap<String, ContextoCertificado> POR_IMPRESSAO_DIGITAL = new ConcurrentHashMap<>();
+
+	/**
+	 * SSLSocketFactory e Protocol dos SSLContext informados na configuração ({@link ConfiguracoesNfe#getSslContext()}).
+	 * Usar sempre o mesmo SSLSocketFactory permite reaproveitar as conexões abertas.
+	 */
+	private static final Map<SSLContext, SSLSocketFactory> SOCKET_FACTORIES = Collections
+			.synchronizedMap(new WeakHashMap<>());
+
+	private static final Map<SSLContext, Protocol> PROTOCOLOS = Collections.synchronizedMap(new WeakHashMap<>());
+
+	private static volatile Truststore truststore;
+
+	private SslUtil() {
+	}
+
+	/**
+	 * @param config
+	 * @return SSLContext da configuração, se informado, ou o do certificado
+	 * @throws NfeException
+	 *             se o certificado estiver vencido ou não puder ser carregado
+	 */
+	public static SSLContext getContexto(ConfiguracoesNfe config) throws NfeException {
+		if (config.getSslContext() != null) {
+			return config.getSslContext();
+		}
+		return contextoCertificado(config.getCertificado()).contexto;
+	}
+
+	/**
+	 * @param certificado
+	 * @return SSLContext do certificado, criado na primeira chamada
+	 * @throws NfeException
+	 *             se o certificado estiver vencido ou não puder ser carregado
+	 */
+	public static SSLContext getContextoCertificado(Certificado certificado) throws NfeException {
+		return contextoCertificado(certificado).contexto;
+	}
+
+	static SSLSocketFactory getSocketFactory(ConfiguracoesNfe config) throws NfeException {
+		SSLContext sslContext = config.getSslContext();
+		if (sslContext == null) {
+			return contextoCertificado(config.getCertificado()).socketFactory;
+		}
+		synchronized (SOCKET_FACTORIES) {
+			return SOCKET_FACTORIES.computeIfAbsent(sslContext, SSLContext::getSocketFactory);
+		}
+	}
+
+	/**
+	 * Protocol https do commons-httpclient com o SSLContext da configuração, para o
+	 * HTTPConstants.CUSTOM_PROTOCOL_HANDLER do Stub. É sempre o mesmo objeto enquanto o contexto não muda.
+	 *
+	 * @param config
+	 * @return Protocol https
+	 * @throws NfeException
+	 */
+	static Protocol getProtocolo(ConfiguracoesNfe config) throws NfeException {
+		SSLContext sslContext = config.getSslContext();
+		if (sslContext == null) {
+			return contextoCertificado(config.getCertificado()).protocolo;
+		}
+		SSLSocketFactory socketFactory = getSocketFactory(config);
+		synchronized (PROTOCOLOS) {
+			return PROTOCOLOS.computeIfAbsent(sslContext, k -> protocolo(socketFactory));
+		}
+	}
+
+	/**
+	 * Troca o truststore usado nas conexões. Os contextos dos certificados são recriados na próxima chamada.
+	 *
+	 * @param trustStore
+	 *            truststore a usar, ou null para voltar ao /Cacert
+	 * @throws NfeException
+	 */
+	public static void atualizaTruststore(KeyStore trustStore) throws NfeException {
+		synchronized (SslUtil.class) {
+			Truststore atual = truststore;
+			truststore = new Truststore(trustStore == null ? carregaCacert() : trustStore,
+					atual == null ? 1 : atual.versao + 1);
+		}
+		POR_ORIGEM.clear();
+		POR_IMPRESSAO_DIGITAL.clear();
+	}
+
+	private static ContextoCertificado contextoCertificado(Certificado certificado) throws NfeException {
+		String origem = IdentidadeCertificado.origem(certificado);
+		Entrada entrada = POR_ORIGEM.computeIfAbsent(origem,
+				k -> new Entrada(IdentidadeCertificado.local(certificado)));
+		ContextoCertificado contexto = entrada.contexto;
+		if (contexto != null && contexto.isValido()) {
+			return contexto;
+		}
+		// Evita que várias threads decodifiquem o mesmo pfx ao mesmo tempo
+		synchronized (entrada) {
+			contexto = entrada.contexto;
+			if (contexto != null && contexto.isValido()) {
+				return contexto;
+			}
+			contexto = carrega(certificado);
+			entrada.contexto = contexto;
+			descartaSubstituidos(origem, entrada);
+			return contexto;
+		}
+	}
+
+	/**
+	 * Remove as entradas vencidas e as do mesmo pfx com outra origem (pfx substituído), e os contextos que não são
+	 * mais usados por nenhuma entrada.
+	 */
+	private static void descartaSubstituidos(String origem, Entrada atual) {
+		Date agora = new Date();
+		POR_ORIGEM.entrySet().removeIf(e -> !e.getKey().equals(origem) && (e.getValue().local.equals(atual.local)
+				|| e.getValue().contexto != null && !agora.before(e.getValue().contexto.validade)));
+		POR_IMPRESSAO_DIGITAL.values().removeIf(contexto -> !agora.before(contexto.validade)
+				|| POR_ORIGEM.values().stream().noneMatch(e -> e.contexto == contexto));
+	}
+
+	private static ContextoCertificado carrega(Certificado certificado) throws NfeException {
+		try {
+			KeyStore keyStore = CertificadoService.getKeyStore(certificado);
+			X509Certificate x509 = CertificadoService.getCertificate(certificado, keyStore);
+			if (x509 == null) {
+				throw new NfeException("Certificado " + certificado.getNome() + " não encontrado no KeyStore.");
+			}
+			String impressaoDigital = IdentidadeCertificado.impressaoDigital(x509);
+
+			if (!new Date().before(x509.getNotAfter())) {
+				POR_IMPRESSAO_DIGITAL.remove(impressaoDigital);
+				throw new NfeException("Certificado vencido.");
+			}
+
+			ContextoCertificado contexto = POR_IMPRESSAO_DIGITAL.get(impressaoDigital);
+			if (contexto == null || !contexto.isValido() || !Objects.equals(contexto.alias, certificado.getNome())) {
+				contexto = new ContextoCertificado(certificado, keyStore, x509.getNotAfter(), truststore());
+				POR_IMPRESSAO_DIGITAL.put(impressaoDigital, contexto);
+			}
+			return contexto;
+		} catch (CertificadoException | GeneralSecurityException e) {
+			throw new NfeException(e.getMessage());
+		}
+	}
+
+	private static Truststore truststore() throws NfeException {
+		Truststore atual = truststore;
+		if (atual == null) {
+			synchronized (SslUtil.class) {
+				atual = truststore;
+				if (atual == null) {
+					atual = new Truststore(carregaCacert(), 1);
+					truststore = atual;
+				}
+			}
+		}
+		return atual;
+	}
+
+	private static KeyStore carregaCacert() throws NfeException {
+		try (InputStream cacert = SslUtil.class.getResourceAsStream("/Cacert")) {
+			if (cacert == null) {
+				throw new NfeException("Arquivo Cacert não encontrado.");
+			}
+			KeyStore trustStore = KeyStore.getInstance(KeyStore.getDefaultType());
+			trustStore.load(cacert, "changeit".toCharArray());
+			return trustStore;
+		} catch (GeneralSecurityException | IOException e) {
+			throw new NfeException(e.getMessage());
+		}
+	}
+
+	private static Protocol protocolo(SSLSocketFactory socketFactory) {
+		return new Protocol("https", (ProtocolSocketFactory) new SocketFactoryContexto(socketFactory), 443);
+	}
+
+	/**
+	 * TrustManagers do truststore e a versão, incrementada a cada troca.
+	 */
+	private static class Truststore {
+
+		private final TrustManager[] trustManagers;
+		private final int versao;
+
+		Truststore(KeyStore trustStore, int versao) throws NfeException {
+			try {
+				TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+				tmf.init(trustStore);
+				this.trustManagers = tmf.getTrustManagers();
+			} catch (GeneralSecurityException e) {
+				throw new NfeException(e.getMessage());
+			}
+			this.versao = versao;
+		}
+	}
+
+	/**
+	 * Contexto da origem de um certificado.
+	 */
+	private static final class Entrada {
+
+		private final String local;
+		private volatile ContextoCertificado contexto;
+
+		Entrada(String local) {
+			this.local = local;
+		}
+	}
+
+	/**
+	 * SSLContext, SSLSocketFactory e Protocol de um certificado para uma versão do truststore.
+	 */
+	private static class ContextoCertificado {
+
+		private final String alias;
+		private final Date validade;
+		private final int versaoTruststore;
+		private final SSLContext contexto;
+		private final SSLSocketFactory socketFactory;
+		private final Protocol protocolo;
+
+		ContextoCertificado(Certificado certificado, KeyStore keyStore, Date validade, Truststore truststore)
+				throws GeneralSecurityException {
+			KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+			kmf.init(keyStore, certificado.getSenha().toCharArray());
+			KeyManager[] keyManagers = kmf.getKeyManagers();
+			for (int i = 0; i < keyManagers.length; i++) {
+				if (keyManagers[i] instanceof X509KeyManager) {
+					keyManagers[i] = new KeyManagerAlias((X509KeyManager) keyManagers[i], certificado.getNome());
+				}
+			}
+
+			contexto = SSLContext.getInstance("TLS");
+			contexto.init(keyManagers, truststore.trustManagers, null);
+			socketFactory = contexto.getSocketFactory();
+			protocolo = protocolo(socketFactory);
+			alias = certificado.getNome();
+			this.validade = validade;
+			this.versaoTruststore = truststore.versao;
+		}
+
+		boolean isValido() {
+			Truststore atual = truststore;
+			return atual != null && atual.versao == versaoTruststore && new Date().before(validade);
+		}
+	}
+
+	/**
+	 * SecureProtocolSocketFactory sobre o SSLSocketFactory do contexto, respeitando o timeout de conexão.
+	 */
+	private static class SocketFactoryContexto implements SecureProtocolSocketFactory {
+
+		private final SSLSocketFactory socketFactory;
+
+		SocketFactoryContexto(SSLSocketFactory socketFactory) {
+			this.socketFactory = socketFactory;
+		}
+
+		@Override
+		public Socket createSocket(String host, int port, InetAddress localAddress, int localPort,
+				HttpConnectionParams params) throws IOException {
+			int timeout = params == null ? 0 : params.getConnectionTimeout();
+			Socket socket = socketFactory.createSocket();
+			try {
+				socket.bind(new InetSocketAddress(localAddress, localPort));
+				socket.connect(new InetSocketAddress(host, port), timeout);
+			} catch (SocketTimeoutException e) {
+				socket.close();
+				throw new ConnectTimeoutException("Tempo esgotado na conexão com " + host + ":" + port);
+			} catch (IOException e) {
+				socket.close();
+				throw e;
+			}
+			return socket;
+		}
+
+		@Override
+		public Socket createSocket(String host, int port, InetAddress localAddress, int localPort)
+				throws IOException {
+			return socketFactory.createSocket(host, port, localAddress, localPort);
+		}
+
+		@Override
+		public Socket createSocket(String host, int port) throws IOException {
+			return socketFactory.createSocket(host, port);
+		}
+
+		@Override
+		public Socket createSocket(Socket socket, String host, int port, boolean autoClose) throws IOException {
+			return socketFactory.createSocket(socket, host, port, autoClose);
+		}
+	}
+
+	/**
+	 * Usa sempre o alias do certificado da configuração (o KeyStore A3 pode ter vários certificados).
+	 */
+	private static class KeyManagerAlias extends X509ExtendedKeyManager {
+
+		private final X509KeyManager keyManager;
+		private final String alias;
+
+		KeyManagerAlias(X509KeyManager keyManager, String alias) {
+			this.keyManager = keyManager;
+			this.alias = alias;
+		}
+
+		@Override
+		public String chooseClientAlias(String[] keyType, Principal[] issuers, Socket socket) {
+			return alias;
+		}
+
+		@Override
+		public String chooseEngineClientAlias(String[] keyType, Principal[] issuers, SSLEngine engine) {
+			return alias;
+		}
+
+		@Override
+		public String[] getClientAliases(String keyType, Principal[] issuers) {
+			return keyManager.getClientAliases(keyType, issuers);
+		}
+
+		@Override
+		public String[] getServerAliases(String keyType, Principal[] issuers) {
+			return keyManager.getServerAliases(keyType, issuers);
+		}
+
+		@Override
+		public String chooseServerAlias(String keyType, Principal[] issuers, Socket socket) {
+			return keyManager.chooseServerAlias(keyType, issuers, socket);
+		}
+
+		@Override
+		public X509Certificate[] getCertificateChain(String alias) {
+			return keyManager.getCertificateChain(alias);
+		}
+
+		@Override
+		public PrivateKey getPrivateKey(String alias) {
+			return keyManager.getPrivateKey(alias);
+		}
+	}
+
+}
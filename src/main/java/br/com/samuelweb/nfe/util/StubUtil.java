@@ -0,0 +1,289 @@
+package br.com.samuelweb.nfe.util;
+
+import br.com.samuelweb.certificado.Certificado;
+import br.com.samuelweb.nfe.dom.ConfiguracoesNfe;
+import br.com.samuelweb.nfe.exception.NfeException;
+import org.apache.axis2.AxisFault;
+import org.apache.axis2.client.Options;
+import org.apache.axis2.client.Stub;
+import org.apache.axis2.context.ConfigurationContext;
+import org.apache.axis2.context.ConfigurationContextFactory;
+import org.apache.axis2.transport.http.HTTPConstants;
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.protocol.Protocol;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.InvocationTargetException;
+import java.rmi.RemoteException;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Pool dos Stubs do Axis2 por (serviço, url, certificado).
+ * <p>
+ * Criar um Stub por chamada gera um novo AxisService, um novo HttpClient e, a cada chamada, uma nova conexão com
+ * handshake TLS completo. Aqui todos os Stubs usam o mesmo ConfigurationContext e, para cada Certificado, um único
+ * HttpClient com MultiThreadedHttpConnectionManager, que mantém as conexões abertas (keep-alive) com os hosts da
+ * Sefaz. As conexões de um Certificado nunca são usadas por outro.
+ * <p>
+ * Um Stub (ServiceClient) não pode ser usado por duas threads ao mesmo tempo: cada chamada retira um Stub livre do
+ * pool, ou cria um novo, e o devolve ao final. O número de conexões simultâneas por host é limitado pelo
+ * {@link ConfiguracoesNfe#getConexoesPorHost()}.
+ * <p>
+ * Os Stubs https usam o SSLContext do certificado ({@link SslUtil}) pelo HTTPConstants.CUSTOM_PROTOCOL_HANDLER, sem
+ * depender do Protocol https global.
+ * <p>
+ * Cada Stub registra um AxisService no ConfigurationContext compartilhado, por isso todo Stub descartado passa pelo
+ * cleanup(): falha na chamada, troca do SSLContext, excesso de Stubs livres (no máximo um por conexão) e pool de um
+ * Certificado que foi coletado pelo GC, que também tem o connection manager encerrado.
+ *
+ * @author Samuel Oliveira
+ */
+public class StubUtil {
+
+	/**
+	 * Conexões simultâneas por host quando não informado na configuração.
+	 */
+	public static final int CONEXOES_POR_HOST_PADRAO = 10;
+
+	private static final Map<Certificado, PoolCertificado> POOLS = Collections.synchronizedMap(new WeakHashMap<>());
+
+	/**
+	 * Recebe as referências dos Certificados coletados, para encerrar os pools que ficaram sem uso.
+	 */
+	private static final ReferenceQueue<Certificado> DESCARTADOS = new ReferenceQueue<>();
+
+	private static final Set<ReferenciaPool> REFERENCIAS = ConcurrentHashMap.newKeySet();
+
+	private static volatile ConfigurationContext configurationContext;
+
+	/**
+	 * Chamada ao WebService feita com um Stub do pool.
+	 */
+	public interface Chamada<S extends Stub, R> {
+		R executa(S stub) throws RemoteException;
+	}
+
+	/**
+	 * Executa a chamada com um Stub livre do pool (ou um novo) para a url e o certificado da configuração.
+	 * Ao final a conexão é liberada e o Stub volta para o pool. Se a chamada falhar o Stub é descartado.
+	 * Antes da chamada é aguardada a vez no {@link LimiteConsultas} do serviço.
+	 *
+	 * @param config
+	 * @param servico
+	 *            ConstantesUtil.SERVICOS
+	 * @param classe
+	 *            Classe do Stub gerado (ex. NFeStatusServico4Stub.class)
+	 * @param url
+	 * @param chamada
+	 * @return retorno da chamada
+	 * @throws RemoteException
+	 */
+	public static <S extends Stub, R> R executa(ConfiguracoesNfe config, String servico, Class<S> classe, String url,
+			Chamada<S, R> chamada) throws RemoteException {
+
+		LimiteConsultas.aguarda(config, servico);
+
+		PoolCertificado pool = getPool(config);
+		Protocol protocolo = null;
+		if (url.startsWith("https")) {
+			protocolo = getProtocolo(config);
+			pool.atualizaProtocolo(protocolo);
+		}
+		String chave = classe.getName() + "|" + url + "|" + config.getTimeout();
+
+		Deque<Stub> livres = pool.stubs.computeIfAbsent(chave, k -> new ConcurrentLinkedDeque<>());
+		Stub stub = livres.pollFirst();
+		if (stub == null) {
+			stub = criaStub(config, classe, url, pool.httpClient, protocolo);
+		}
+
+		boolean sucesso = false;
+		try {
+			R retorno = chamada.executa(classe.cast(stub));
+			sucesso = true;
+			return retorno;
+		} finally {
+			stub._getServiceClient().cleanupTransport();
+			if (!sucesso || !pool.devolve(livres, stub, protocolo)) {
+				descarta(stub);
+			}
+		}
+	}
+
+	private static PoolCertificado getPool(ConfiguracoesNfe config) {
+		fechaDescartados();
+		synchronized (POOLS) {
+			PoolCertificado pool = POOLS.get(config.getCertificado());
+			if (pool == null) {
+				pool = new PoolCertificado(config.getConexoesPorHost() == null ? CONEXOES_POR_HOST_PADRAO
+						: config.getConexoesPorHost());
+				POOLS.put(config.getCertificado(), pool);
+				REFERENCIAS.add(new ReferenciaPool(config.getCertificado(), pool));
+			}
+			return pool;
+		}
+	}
+
+	/**
+	 * Encerra os pools dos Certificados já coletados: os Stubs livres e as conexões.
+	 */
+	private static void fechaDescartados() {
+		Reference<? extends Certificado> referencia;
+		while ((referencia = DESCARTADOS.poll()) != null) {
+			REFERENCIAS.remove(referencia);
+			((ReferenciaPool) referencia).pool.fecha();
+		}
+	}
+
+	private static void descarta(Stub stub) {
+		try {
+			stub._getServiceClient().cleanup();
+		} catch (AxisFault e) {
+			// O Stub já não será usado
+		}
+	}
+
+	private static Protocol getProtocolo(ConfiguracoesNfe config) throws AxisFault {
+		try {
+			return SslUtil.getProtocolo(config);
+		} catch (NfeException e) {
+			throw new AxisFault(e.getMessage(), e);
+		}
+	}
+
+	private static <S extends Stub> Stub criaStub(ConfiguracoesNfe config, Class<S> classe, String url,
+			HttpClient httpClient, Protocol protocolo) throws AxisFault {
+		try {
+			S stub = classe.getConstructor(ConfigurationContext.class, String.class)
+					.newInstance(getConfigurationContext(), url);
+
+			Options options = stub._getServiceClient().getOptions();
+			options.setProperty(HTTPConstants.REUSE_HTTP_CLIENT, Boolean.TRUE);
+			options.setProperty(HTTPConstants.CACHED_HTTP_CLIENT, httpClient);
+			// SSLContext do certificado no lugar do Protocol https global
+			if (protocolo != null) {
+				options.setProperty(HTTPConstants.CUSTOM_PROTOCOL_HANDLER, protocolo);
+			}
+			// Timeout
+			if (!ObjetoUtil.isEmpty(config.getTimeout())) {
+				options.setProperty(HTTPConstants.SO_TIMEOUT, config.getTimeout());
+				options.setProperty(HTTPConstants.CONNECTION_TIMEOUT, config.getTimeout());
+			}
+			return stub;
+		} catch (InvocationTargetException e) {
+			throw e.getCause() instanceof AxisFault ? (AxisFault) e.getCause()
+					: new AxisFault(Objects.toString(e.getCause().getMessage(), e.getCause().toString()), e.getCause());
+		} catch (NoSuchMethodException | InstantiationException | IllegalAccessException e) {
+			throw new AxisFault(e.getMessage(), e);
+		}
+	}
+
+	private static ConfigurationContext getConfigurationContext() throws AxisFault {
+		ConfigurationContext context = configurationContext;
+		if (context == null) {
+			synchronized (StubUtil.class) {
+				context = configurationContext;
+				if (context == null) {
+					context = ConfigurationContextFactory.createConfigurationContextFromFileSystem(null, null);
+					configurationContext = context;
+				}
+			}
+		}
+		return context;
+	}
+
+	/**
+	 * Referência fraca ao Certificado de um pool, enfileirada em DESCARTADOS quando o Certificado é coletado.
+	 */
+	private static class ReferenciaPool extends WeakReference<Certificado> {
+
+		private final PoolCertificado pool;
+
+		ReferenciaPool(Certificado certificado, PoolCertificado pool) {
+			super(certificado, DESCARTADOS);
+			this.pool = pool;
+		}
+	}
+
+	/**
+	 * HttpClient e Stubs livres de um Certificado.
+	 */
+	private static class PoolCertificado {
+
+		private final MultiThreadedHttpConnectionManager connectionManager;
+		private final HttpClient httpClient;
+		private final int maximoLivres;
+
+		/**
+		 * Protocol https dos Stubs do pool. Quando o SSLContext do certificado é recriado, os Stubs livres são
+		 * descartados.
+		 */
+		private volatile Protocol protocolo;
+
+		private final ConcurrentMap<String, Deque<Stub>> stubs = new ConcurrentHashMap<>();
+
+		PoolCertificado(int conexoesPorHost) {
+			connectionManager = new MultiThreadedHttpConnectionManager();
+			connectionManager.getParams().setDefaultMaxConnectionsPerHost(conexoesPorHost);
+			// Um certificado normalmente fala com poucos hosts (UF, AN, SVC-AN/SVC-RS)
+			connectionManager.getParams().setMaxTotalConnections(Math.max(conexoesPorHost * 4, 20));
+			httpClient = new HttpClient(connectionManager);
+			// Mais Stubs livres que conexões por host não seriam usados ao mesmo tempo
+			maximoLivres = conexoesPorHost;
+		}
+
+		/**
+		 * Devolve o Stub ao pool, se ele ainda usa o Protocol atual e há espaço entre os livres.
+		 *
+		 * @return false se o Stub deve ser descartado
+		 */
+		synchronized boolean devolve(Deque<Stub> livres, Stub stub, Protocol protocoloStub) {
+			if ((protocoloStub != null && protocoloStub != protocolo) || livres.size() >= maximoLivres) {
+				return false;
+			}
+			livres.offerFirst(stub);
+			return true;
+		}
+
+		void atualizaProtocolo(Protocol atual) {
+			if (protocolo != atual) {
+				synchronized (this) {
+					if (protocolo != atual) {
+						descartaLivres();
+						// As conexões do contexto anterior não serão reaproveitadas
+						if (protocolo != null) {
+							httpClient.getHttpConnectionManager().closeIdleConnections(0);
+						}
+						protocolo = atual;
+					}
+				}
+			}
+		}
+
+		synchronized void fecha() {
+			descartaLivres();
+			connectionManager.shutdown();
+		}
+
+		private void descartaLivres() {
+			for (Deque<Stub> livres : stubs.values()) {
+				Stub stub;
+				while ((stub = livres.pollFirst()) != null) {
+					descarta(stub);
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,171 @@
+package br.com.samuelweb.nfe.util;
+
+import org.ini4j.Profile;
+import org.ini4j.Wini;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Endereços do WebServicesNfe.ini já resolvidos por (modelo, estado, ambiente, contingência, serviço).
+ * <p>
+ * O INI é lido uma única vez. Os redirecionamentos "usar", o SVC-RS/SVC-AN da contingência e o Ambiente Nacional
+ * da distribuição e manifestação são resolvidos na montagem, seguindo as mesmas regras que o WebServiceUtil aplicava
+ * a cada chamada. A instância é imutável; para trocar o INI uma nova tabela é montada e substitui a anterior.
+ *
+ * @author Samuel Oliveira
+ */
+final class TabelaWebServices {
+
+	private static final String AMBIENTE_NACIONAL = "AN";
+	private static final String SVC_RS = "SVRS";
+	private static final String SVC_AN = "SVAN";
+
+	/**
+	 * Estados que usam o SVC-RS na contingência. Os demais usam o SVC-AN.
+	 */
+	private static final Estados[] CONTINGENCIA_SVRS = { Estados.GO, Estados.AM, Estados.BA, Estados.CE, Estados.MA,
+			Estados.MS, Estados.MT, Estados.PA, Estados.PE, Estados.PI, Estados.PR };
+
+	/**
+	 * Estados com a consulta cadastro no SVRS.
+	 */
+	private static final Estados[] CADASTRO_SVRS = { Estados.AC, Estados.RN, Estados.PB, Estados.SC };
+
+	private static final String DISTRIBUICAO_DFE = chave(ConstantesUtil.SERVICOS.DISTRIBUICAO_DFE);
+	private static final String MANIFESTACAO = chave(ConstantesUtil.SERVICOS.MANIFESTACAO);
+	private static final String EVENTO = chave(ConstantesUtil.SERVICOS.EVENTO);
+	private static final String CONSULTA_CADASTRO = chave(ConstantesUtil.SERVICOS.CONSULTA_CADASTRO);
+
+	/**
+	 * modelo -> estado -> [ambiente + contingência] -> serviço -> url. Os índices 0 a 3 já consideram o "usar"; os
+	 * índices 4 a 7 são a seção do próprio estado (ou do SVC), usada nas urls de QRCode e Consulta NFCe.
+	 */
+	private final Map<String, Map<Estados, Map<String, String>[]>> rotas;
+
+	/**
+	 * [ambiente] -> serviço -> url do Ambiente Nacional (Distribuição DFe e Manifestação)
+	 */
+	private final Map<String, String>[] ambienteNacional;
+
+	/**
+	 * [ambiente] -> UF -> url da Consulta Cadastro
+	 */
+	private final Map<String, String>[] cadastro;
+
+	@SuppressWarnings("unchecked")
+	private TabelaWebServices(Wini ini) {
+		Map<String, Map<String, String>> secoes = new HashMap<>();
+		Map<String, Map<Estados, Map<String, String>[]>> rotasModelo = new HashMap<>();
+		for (String nome : ini.keySet()) {
+			Profile.Section secao = ini.get(nome);
+			Map<String, String> valores = new HashMap<>();
+			for (String opcao : secao.keySet()) {
+				valores.put(chave(opcao), secao.get(opcao));
+			}
+			secoes.put(nome, Collections.unmodifiableMap(valores));
+			rotasModelo.putIfAbsent(nome.substring(0, Math.max(nome.indexOf('_'), 0)), null);
+		}
+
+		ambienteNacional = new Map[2];
+		cadastro = new Map[2];
+		for (int ambiente = 0; ambiente < 2; ambiente++) {
+			String sufixo = ambiente == 0 ? "H" : "P";
+
+			Map<String, String> nacional = new HashMap<>();
+			Map<String, String> secaoAN = secao(secoes, ConstantesUtil.NFE + "_" + AMBIENTE_NACIONAL + "_" + sufixo);
+			nacional.put(DISTRIBUICAO_DFE, secaoAN.get(DISTRIBUICAO_DFE));
+			nacional.put(MANIFESTACAO, secaoAN.get(EVENTO));
+			ambienteNacional[ambiente] = Collections.unmodifiableMap(nacional);
+
+			Map<String, String> cadastroAmbiente = new HashMap<>();
+			for (Estados estado : Estados.values()) {
+				String secao = ConstantesUtil.NFE + "_" + (contem(CADASTRO_SVRS, estado) ? SVC_RS : estado.toString())
+						+ "_" + sufixo;
+				cadastroAmbiente.put(estado.toString(), secao(secoes, secao).get(CONSULTA_CADASTRO));
+			}
+			cadastro[ambiente] = Collections.unmodifiableMap(cadastroAmbiente);
+		}
+
+		for (String modelo : rotasModelo.keySet()) {
+			Map<Estados, Map<String, String>[]> porEstado = new EnumMap<>(Estados.class);
+			for (Estados estado : Estados.values()) {
+				Map<String, String>[] variacoes = new Map[8];
+				for (int ambiente = 0; ambiente < 2; ambiente++) {
+					String sufixo = ambiente == 0 ? "H" : "P";
+					Map<String, String> propria = secao(secoes, modelo + "_" + estado + "_" + sufixo);
+					String svc = modelo + "_" + (contem(CONTINGENCIA_SVRS, estado) ? SVC_RS : SVC_AN) + "_" + sufixo;
+					String usar = propria.get("usar");
+
+					variacoes[indice(ambiente, false) + 4] = propria;
+					variacoes[indice(ambiente, true) + 4] = secao(secoes, svc);
+					variacoes[indice(ambiente, false)] = usar != null ? secao(secoes, usar) : propria;
+					variacoes[indice(ambiente, true)] = usar != null ? secao(secoes, usar) : secao(secoes, svc);
+				}
+				porEstado.put(estado, variacoes);
+			}
+			rotasModelo.put(modelo, Collections.unmodifiableMap(porEstado));
+		}
+		rotas = Collections.unmodifiableMap(rotasModelo);
+	}
+
+	static TabelaWebServices carrega(InputStream is) throws IOException {
+		Wini ini = new Wini();
+		ini.getConfig().setLowerCaseOption(true);
+		ini.load(is);
+		return new TabelaWebServices(ini);
+	}
+
+	String getUrl(String modelo, Estados estado, boolean homologacao, boolean contingencia, String servico) {
+		if (servico.equals(ConstantesUtil.SERVICOS.DISTRIBUICAO_DFE)
+				|| servico.equals(ConstantesUtil.SERVICOS.MANIFESTACAO)) {
+			return ambienteNacional[ambiente(homologacao)].get(chave(servico));
+		}
+		Map<Estados, Map<String, String>[]> porEstado = rotas.get(modelo);
+		if (porEstado == null) {
+			return null;
+		}
+		int indice = indice(ambiente(homologacao), contingencia);
+		if (servico.equals(ConstantesUtil.SERVICOS.URL_CONSULTANFCE)
+				|| servico.equals(ConstantesUtil.SERVICOS.URL_QRCODE)) {
+			indice += 4;
+		}
+		return porEstado.get(estado)[indice].get(chave(servico));
+	}
+
+	String getUrlConsultaCadastro(boolean homologacao, String uf) {
+		return cadastro[ambiente(homologacao)].get(uf.toUpperCase());
+	}
+
+	private static Map<String, String> secao(Map<String, Map<String, String>> secoes, String nome) {
+		Map<String, String> secao = secoes.get(nome);
+		return secao == null ? Collections.<String, String>emptyMap() : secao;
+	}
+
+	private static int ambiente(boolean homologacao) {
+		return homologacao ? 0 : 1;
+	}
+
+	private static int indice(int ambiente, boolean contingencia) {
+		return ambiente + (contingencia ? 2 : 0);
+	}
+
+	private static boolean contem(Estados[] estados, Estados estado) {
+		for (Estados e : estados) {
+			if (e == estado) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static String chave(String servico) {
+		return servico.toLowerCase(Locale.ROOT);
+	}
+
+}
@@ -0,0 +1,260 @@
+/**
+ *
+ */
+package br.com.samuelweb.nfe.util;
+
+import java.text.Normalizer;
+import java.util.Arrays;
+
+/**
+ * Remove acentos e caracteres especiais do XML em uma única leitura.
+ * <p>
+ * Produz o mesmo resultado da sequência de replaceAll + Normalizer que era feita em
+ * {@link XmlUtil#removeAcentos(String)}: remove CR, LF e TAB, troca &amp; por E, remove os espaços
+ * entre tags, decompõe os caracteres (NFKD) e mantém apenas o que for ASCII.
+ * A decomposição de cada caractere é calculada uma única vez na carga da classe e o texto é
+ * montado em um buffer reaproveitado por thread. O resultado é sempre ASCII, por isso a versão em
+ * bytes lê o UTF-8 diretamente e grava um byte por caractere.
+ *
+ * @author Samuel Oliveira
+ */
+public final class TransliteradorUtil {
+
+    private static final char[] VAZIO = new char[0];
+
+    /**
+     * Resultado ASCII da decomposição NFKD de cada caractere não ASCII do plano básico.
+     */
+    private static final char[][] TABELA = new char[0x10000][];
+
+    private static final ThreadLocal<char[]> BUFFER = ThreadLocal.withInitial(() -> new char[8192]);
+
+    private static final ThreadLocal<byte[]> BUFFER_BYTES = ThreadLocal.withInitial(() -> new byte[8192]);
+
+    static {
+        for (int c = 0x80; c < 0x10000; c++) {
+            if (!Character.isSurrogate((char) c)) {
+                TABELA[c] = decompoe(String.valueOf((char) c));
+            }
+        }
+    }
+
+    private TransliteradorUtil() {
+    }
+
+    /**
+     * Remove Acentos e caracteres especiais do texto.
+     *
+     * @param str
+     * @return String
+     */
+    public static String removeAcentos(String str) {
+
+        int tamanho = str.length();
+        char[] buffer = BUFFER.get();
+        if (buffer.length < tamanho) {
+            buffer = new char[Math.max(tamanho, buffer.length * 2)];
+            BUFFER.set(buffer);
+        }
+
+        int pos = 0;
+        // posição no buffer do primeiro espaço após um '>' ou -1 quando não há tag aberta
+        int inicioEspacos = -1;
+        boolean aposTag = false;
+
+        for (int i = 0; i < tamanho; i++) {
+            char c = str.charAt(i);
+
+            if (c == '\r' || c == '\n' || c == '\t') {
+                continue;
+            }
+
+            if (c == ' ' || c == '\u000B' || c == '\f') {
+                if (aposTag && inicioEspacos < 0) {
+                    inicioEspacos = pos;
+                }
+                buffer[pos++] = c;
+                continue;
+            }
+
+            if (c == '<' && inicioEspacos >= 0) {
+                pos = inicioEspacos;
+            }
+            aposTag = c == '>';
+            inicioEspacos = -1;
+
+            if (c < 0x80) {
+                buffer[pos++] = c == '&' ? 'E' : c;
+                continue;
+            }
+
+            char[] ascii = TABELA[c];
+            if (Character.isHighSurrogate(c)) {
+                // CR, LF e TAB são removidos antes da decomposição, por isso são ignorados entre as metades do par
+                int j = i + 1;
+                while (j < tamanho && (str.charAt(j) == '\r' || str.charAt(j) == '\n' || str.charAt(j) == '\t')) {
+                    j++;
+                }
+                if (j < tamanho && Character.isLowSurrogate(str.charAt(j))) {
+                    ascii = decompoe(new String(new char[]{c, str.charAt(j)}));
+                    i = j;
+                }
+            }
+
+            if (ascii != null && ascii.length > 0) {
+                // a decomposição pode ser maior que o caractere original, ex: ½ -> 12
+                if (pos + ascii.length + (tamanho - i) > buffer.length) {
+                    char[] maior = new char[(pos + ascii.length + tamanho - i) * 2];
+                    System.arraycopy(buffer, 0, maior, 0, pos);
+                    buffer = maior;
+                    BUFFER.set(buffer);
+                }
+                System.arraycopy(ascii, 0, buffer, pos, ascii.length);
+                pos += ascii.length;
+            }
+        }
+
+        return new String(buffer, 0, pos);
+    }
+
+    /**
+     * Remove Acentos e caracteres especiais do XML em UTF-8.
+     * Sequências UTF-8 inválidas são descartadas, como acontece ao converter para String.
+     *
+     * @param xml
+     * @return byte[]
+     */
+    public static byte[] removeAcentos(byte[] xml) {
+
+        int tamanho = xml.length;
+        byte[] buffer = BUFFER_BYTES.get();
+        if (buffer.length < tamanho) {
+            buffer = new byte[Math.max(tamanho, buffer.length * 2)];
+            BUFFER_BYTES.set(buffer);
+        }
+
+        int pos = 0;
+        int inicioEspacos = -1;
+        boolean aposTag = false;
+
+        for (int i = 0; i < tamanho; i++) {
+            int b = xml[i];
+
+            if (b >= 0) {
+                if (b == '\r' || b == '\n' || b == '\t') {
+                    continue;
+                }
+                if (b == ' ' || b == '\u000B' || b == '\f') {
+                    if (aposTag && inicioEspacos < 0) {
+                        inicioEspacos = pos;
+                    }
+                    buffer[pos++] = (byte) b;
+                    continue;
+                }
+                if (b == '<' && inicioEspacos >= 0) {
+                    pos = inicioEspacos;
+                }
+                aposTag = b == '>';
+                inicioEspacos = -1;
+                buffer[pos++] = b == '&' ? (byte) 'E' : (byte) b;
+                continue;
+            }
+
+            aposTag = false;
+            inicioEspacos = -1;
+
+            int bytes = tamanhoSequencia(xml, i);
+            if (bytes == 0) {
+                continue;
+            }
+            int codePoint = decodifica(xml, i, bytes);
+            i += bytes - 1;
+
+            char[] ascii = codePoint < 0x10000 ? TABELA[codePoint] : decompoe(new String(Character.toChars(codePoint)));
+            if (ascii != null && ascii.length > 0) {
+                if (pos + ascii.length + (tamanho - i) > buffer.length) {
+                    byte[] maior = new byte[(pos + ascii.length + tamanho - i) * 2];
+                    System.arraycopy(buffer, 0, maior, 0, pos);
+                    buffer = maior;
+                    BUFFER_BYTES.set(buffer);
+                }
+                for (char c : ascii) {
+                    buffer[pos++] = (byte) c;
+                }
+            }
+        }
+
+        return Arrays.copyOf(buffer, pos);
+    }
+
+    /**
+     * Retorna o tamanho da sequência UTF-8 iniciada em inicio, ou 0 quando o byte não inicia uma sequência válida.
+     */
+    private static int tamanhoSequencia(byte[] xml, int inicio) {
+
+        int b = xml[inicio] & 0xFF;
+        int bytes;
+        int minimo;
+        if (b >= 0xC2 && b <= 0xDF) {
+            bytes = 2;
+            minimo = 0x80;
+        } else if (b >= 0xE0 && b <= 0xEF) {
+            bytes = 3;
+            minimo = 0x800;
+        } else if (b >= 0xF0 && b <= 0xF4) {
+            bytes = 4;
+            minimo = 0x10000;
+        } else {
+            return 0;
+        }
+
+        if (inicio + bytes > xml.length) {
+            return 0;
+        }
+        for (int i = 1; i < bytes; i++) {
+            if ((xml[inicio + i] & 0xC0) != 0x80) {
+                return 0;
+            }
+        }
+
+        int codePoint = decodifica(xml, inicio, bytes);
+        if (codePoint < minimo || codePoint > Character.MAX_CODE_POINT
+                || (codePoint >= Character.MIN_SURROGATE && codePoint <= Character.MAX_SURROGATE)) {
+            return 0;
+        }
+        return bytes;
+    }
+
+    private static int decodifica(byte[] xml, int inicio, int bytes) {
+
+        int codePoint = xml[inicio] & (0xFF >> (bytes + 1));
+        for (int i = 1; i < bytes; i++) {
+            codePoint = (codePoint << 6) | (xml[inicio + i] & 0x3F);
+        }
+        return codePoint;
+    }
+
+    private static char[] decompoe(String caractere) {
+
+        String decomposto = Normalizer.normalize(caractere, Normalizer.Form.NFKD);
+        int ascii = 0;
+        for (int i = 0; i < decomposto.length(); i++) {
+            if (decomposto.charAt(i) < 0x80) {
+                ascii++;
+            }
+        }
+        if (ascii == 0) {
+            return VAZIO;
+        }
+
+        char[] retorno = new char[ascii];
+        int pos = 0;
+        for (int i = 0; i < decomposto.length(); i++) {
+            if (decomposto.charAt(i) < 0x80) {
+                retorno[pos++] = decomposto.charAt(i);
+            }
+        }
+        return retorno;
+    }
+
+}
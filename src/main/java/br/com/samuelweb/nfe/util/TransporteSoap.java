@@ -0,0 +1,310 @@
+package br.com.samuelweb.nfe.util;
+
+import br.com.samuelweb.nfe.dom.ConfiguracoesNfe;
+import br.com.samuelweb.nfe.exception.NfeException;
+import org.apache.axis2.AxisFault;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocketFactory;
+import javax.xml.bind.JAXBException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.rmi.RemoteException;
+
+/**
+ * Transporte SOAP 1.2 sem Axis2: o envelope é escrito em bytes em volta do xml da mensagem e enviado por
+ * HttpsURLConnection com o certificado da configuração. O retorno é lido por StAX direto do stream da conexão para o
+ * Unmarshaller, sem montar OMElement nem String intermediária.
+ * <p>
+ * Usado quando {@link ConfiguracoesNfe#isTransporteSoap()} é true; o Axis2 ({@link StubUtil}) continua sendo o
+ * padrão. As conexões são mantidas abertas (keep-alive) pelo próprio JDK, que só reaproveita a conexão para o mesmo
+ * SSLSocketFactory, ou seja, para o mesmo certificado. O número de conexões ociosas mantidas por host segue a
+ * propriedade de sistema http.maxConnections.
+ * <p>
+ * Os acentos do retorno são removidos durante a leitura, como em {@link XmlUtil#xmlToObject(XMLStreamReader, Class)}.
+ *
+ * @author Samuel Oliveira
+ */
+public class TransporteSoap {
+
+	private static final String NS_SOAP12 = "http://www.w3.org/2003/05/soap-envelope";
+	private static final String NS_SOAP11 = "http://schemas.xmlsoap.org/soap/envelope/";
+	private static final String NS_NFE = "http://www.portalfiscal.inf.br/nfe";
+	private static final String NS_WSDL = "http://www.portalfiscal.inf.br/nfe/wsdl/";
+
+	private static final byte[] INICIO_ENVELOPE = ("<soap12:Envelope xmlns:soap12=\"" + NS_SOAP12
+			+ "\"><soap12:Body>").getBytes(StandardCharsets.UTF_8);
+	private static final byte[] FIM_ENVELOPE = "</soap12:Body></soap12:Envelope>".getBytes(StandardCharsets.UTF_8);
+
+	private static final XMLInputFactory XML_INPUT_FACTORY = XMLInputFactory.newInstance();
+
+	static {
+		XML_INPUT_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+		XML_INPUT_FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+	}
+
+	/**
+	 * Operações dos WebServices da NFe 4.00.
+	 */
+	public enum Operacao {
+
+		STATUS_SERVICO("NFeStatusServico4", "nfeStatusServicoNF", false),
+		AUTORIZACAO("NFeAutorizacao4", "nfeAutorizacaoLote", false),
+		RET_AUTORIZACAO("NFeRetAutorizacao4", "nfeRetAutorizacaoLote", false),
+		CONSULTA_PROTOCOLO("NFeConsultaProtocolo4", "nfeConsultaNF", false),
+		INUTILIZACAO("NFeInutilizacao4", "nfeInutilizacaoNF", false),
+		RECEPCAO_EVENTO("NFeRecepcaoEvento4", "nfeRecepcaoEvento", false),
+		CONSULTA_CADASTRO("CadConsultaCadastro4", "consultaCadastro", false),
+		/**
+		 * Consulta Cadastro da Sefaz RS, com a mensagem dentro do elemento da operação.
+		 */
+		CONSULTA_CADASTRO_RS("CadConsultaCadastro4", "consultaCadastro", true),
+		DISTRIBUICAO_DFE("NFeDistribuicaoDFe", "nfeDistDFeInteresse", true);
+
+		private final String namespace;
+		private final String acao;
+		private final byte[] inicio;
+		private final byte[] fim;
+
+		Operacao(String servico, String operacao, boolean elementoOperacao) {
+			this.namespace = NS_WSDL + servico;
+			this.acao = namespace + "/" + operacao;
+			if (elementoOperacao) {
+				this.inicio = ("<" + operacao + " xmlns=\"" + namespace + "\"><nfeDadosMsg>")
+						.getBytes(StandardCharsets.UTF_8);
+				this.fim = ("</nfeDadosMsg></" + operacao + ">").getBytes(StandardCharsets.UTF_8);
+			} else {
+				this.inicio = ("<nfeDadosMsg xmlns=\"" + namespace + "\">").getBytes(StandardCharsets.UTF_8);
+				this.fim = "</nfeDadosMsg>".getBytes(StandardCharsets.UTF_8);
+			}
+		}
+	}
+
+	private TransporteSoap() {
+	}
+
+	/**
+	 * Envia o xml e transforma o retorno em Objeto.
+	 *
+	 * @param config
+	 * @param servico
+	 *            ConstantesUtil.SERVICOS
+	 * @param operacao
+	 * @param url
+	 * @param xml
+	 *            xml da mensagem (com ou sem declaração)
+	 * @param classe
+	 *            classe do retorno (ex. TRetConsStatServ.class)
+	 * @return T
+	 * @throws RemoteException
+	 *             falha de comunicação, erro HTTP ou SOAP Fault
+	 * @throws XMLStreamException
+	 * @throws JAXBException
+	 */
+	public static <T> T executa(ConfiguracoesNfe config, String servico, Operacao operacao, String url, String xml,
+			Class<T> classe) throws RemoteException, XMLStreamException, JAXBException {
+
+		return executa(config, servico, operacao, url, xml.getBytes(StandardCharsets.UTF_8), classe);
+	}
+
+	/**
+	 * Envia o xml em UTF-8 e transforma o retorno em Objeto.
+	 *
+	 * @see #executa(ConfiguracoesNfe, String, Operacao, String, String, Class)
+	 */
+	public static <T> T executa(ConfiguracoesNfe config, String servico, Operacao operacao, String url, byte[] xml,
+			Class<T> classe) throws RemoteException, XMLStreamException, JAXBException {
+
+		HttpURLConnection conexao = posta(config, servico, operacao, url, xml);
+		// Fechar o stream devolve a conexão ao keep-alive
+		try (InputStream in = conexao.getInputStream()) {
+			return XmlUtil.xmlToObject(leRetorno(in), classe);
+		} catch (AxisFault e) {
+			throw e;
+		} catch (IOException e) {
+			conexao.disconnect();
+			throw new AxisFault(e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * @return conexão com o retorno HTTP 200 para leitura
+	 */
+	private static HttpURLConnection posta(ConfiguracoesNfe config, String servico, Operacao operacao, String url,
+			byte[] xml) throws RemoteException {
+
+		LimiteConsultas.aguarda(config, servico);
+
+		int inicio = inicioConteudo(xml);
+		HttpURLConnection conexao = null;
+		try {
+			URLConnection urlConnection = new URL(url).openConnection();
+			if (!(urlConnection instanceof HttpURLConnection)) {
+				throw new AxisFault("Url inválida para o WebService: " + url);
+			}
+			conexao = (HttpURLConnection) urlConnection;
+			if (conexao instanceof HttpsURLConnection) {
+				((HttpsURLConnection) conexao).setSSLSocketFactory(getSocketFactory(config));
+			}
+			if (!ObjetoUtil.isEmpty(config.getTimeout())) {
+				conexao.setConnectTimeout(config.getTimeout());
+				conexao.setReadTimeout(config.getTimeout());
+			}
+			conexao.setRequestMethod("POST");
+			conexao.setDoOutput(true);
+			conexao.setRequestProperty("Content-Type",
+					"application/soap+xml; charset=utf-8; action=\"" + operacao.acao + "\"");
+			conexao.setFixedLengthStreamingMode(INICIO_ENVELOPE.length + operacao.inicio.length + xml.length - inicio
+					+ operacao.fim.length + FIM_ENVELOPE.length);
+
+			try (OutputStream out = conexao.getOutputStream()) {
+				out.write(INICIO_ENVELOPE);
+				out.write(operacao.inicio);
+				out.write(xml, inicio, xml.length - inicio);
+				out.write(operacao.fim);
+				out.write(FIM_ENVELOPE);
+			}
+
+			int status = conexao.getResponseCode();
+			if (status != HttpURLConnection.HTTP_OK) {
+				InputStream in = status < HttpURLConnection.HTTP_BAD_REQUEST ? conexao.getInputStream()
+						: conexao.getErrorStream();
+				String fault = in == null ? null : fault(le(in));
+				throw new AxisFault(fault != null ? fault : "Erro HTTP " + status + " no WebService " + url);
+			}
+			return conexao;
+
+		} catch (AxisFault e) {
+			throw e;
+		} catch (IOException e) {
+			if (conexao != null) {
+				conexao.disconnect();
+			}
+			throw new AxisFault(e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Posiciona o reader no primeiro elemento do namespace da NFe dentro do Body.
+	 */
+	private static XMLStreamReader leRetorno(InputStream retorno) throws XMLStreamException, AxisFault {
+
+		XMLStreamReader reader = XML_INPUT_FACTORY.createXMLStreamReader(retorno);
+		while (reader.hasNext()) {
+			if (reader.next() == XMLStreamConstants.START_ELEMENT) {
+				if (NS_NFE.equals(reader.getNamespaceURI())) {
+					return reader;
+				}
+				if ("Fault".equals(reader.getLocalName()) && isSoap(reader.getNamespaceURI())) {
+					String fault = textoFault(reader);
+					reader.close();
+					throw new AxisFault(fault);
+				}
+			}
+		}
+		reader.close();
+		throw new AxisFault("Retorno do WebService sem conteúdo.");
+	}
+
+	/**
+	 * @return motivo do SOAP Fault, null se o retorno não for um SOAP Fault
+	 */
+	private static String fault(byte[] retorno) {
+		if (retorno.length == 0) {
+			return null;
+		}
+		try {
+			XMLStreamReader reader = XML_INPUT_FACTORY.createXMLStreamReader(new ByteArrayInputStream(retorno));
+			try {
+				while (reader.hasNext()) {
+					if (reader.next() == XMLStreamConstants.START_ELEMENT && "Fault".equals(reader.getLocalName())
+							&& isSoap(reader.getNamespaceURI())) {
+						return textoFault(reader);
+					}
+				}
+			} finally {
+				reader.close();
+			}
+		} catch (XMLStreamException e) {
+			// Retorno não é xml (ex. página de erro)
+		}
+		return null;
+	}
+
+	/**
+	 * Texto do Reason (SOAP 1.2) ou do faultstring (SOAP 1.1).
+	 */
+	private static String textoFault(XMLStreamReader reader) throws XMLStreamException {
+		int nivel = 1;
+		while (reader.hasNext() && nivel > 0) {
+			int evento = reader.next();
+			if (evento == XMLStreamConstants.START_ELEMENT) {
+				if ("Text".equals(reader.getLocalName()) || "faultstring".equals(reader.getLocalName())) {
+					return reader.getElementText();
+				}
+				nivel++;
+			} else if (evento == XMLStreamConstants.END_ELEMENT) {
+				nivel--;
+			}
+		}
+		return "SOAP Fault sem motivo.";
+	}
+
+	private static boolean isSoap(String namespace) {
+		return NS_SOAP12.equals(namespace) || NS_SOAP11.equals(namespace);
+	}
+
+	/**
+	 * @return posição após a declaração xml, se houver
+	 */
+	private static int inicioConteudo(byte[] xml) {
+		int i = 0;
+		if (xml.length >= 3 && (xml[0] & 0xFF) == 0xEF && (xml[1] & 0xFF) == 0xBB && (xml[2] & 0xFF) == 0xBF) {
+			i = 3;
+		}
+		if (xml.length > i + 5 && xml[i] == '<' && xml[i + 1] == '?' && xml[i + 2] == 'x' && xml[i + 3] == 'm'
+				&& xml[i + 4] == 'l') {
+			for (int j = i + 5; j < xml.length - 1; j++) {
+				if (xml[j] == '?' && xml[j + 1] == '>') {
+					return j + 2;
+				}
+			}
+		}
+		return i;
+	}
+
+	/**
+	 * Lê o corpo inteiro; fechar o stream lido até o fim devolve a conexão ao keep-alive.
+	 */
+	private static byte[] le(InputStream in) throws IOException {
+		try (InputStream stream = in) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream(8192);
+			byte[] buffer = new byte[8192];
+			int lidos;
+			while ((lidos = stream.read(buffer)) != -1) {
+				out.write(buffer, 0, lidos);
+			}
+			return out.toByteArray();
+		}
+	}
+
+	private static SSLSocketFactory getSocketFactory(ConfiguracoesNfe config) throws AxisFault {
+		try {
+			return SslUtil.getSocketFactory(config);
+		} catch (NfeException e) {
+			throw new AxisFault(e.getMessage(), e);
+		}
+	}
+
+}
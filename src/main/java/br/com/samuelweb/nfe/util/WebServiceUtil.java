@@ -5,7 +5,6 @@ package br.com.samuelweb.nfe.util;
 
 import br.com.samuelweb.nfe.dom.ConfiguracoesNfe;
 import br.com.samuelweb.nfe.exception.NfeException;
-import org.ini4j.Wini;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -16,103 +15,133 @@ import java.io.InputStream;
  */
 public class WebServiceUtil {
 
-	public static String getUrl(ConfiguracoesNfe config, String tipo, String servico) throws NfeException {
-
-		try {
-
-			String secao = tipo + "_" + config.getEstado() + "_"
-					+ (config.getAmbiente().equals(ConstantesUtil.AMBIENTE.HOMOLOGACAO) ? "H" : "P");
+	private static final String ARQUIVO_WEBSERVICES = "/WebServicesNfe.ini";
 
-			InputStream is = WebServiceUtil.class.getResourceAsStream("/WebServicesNfe.ini");
+	private static volatile TabelaWebServices tabela;
 
-			Wini ini = new Wini();
-			ini.getConfig().setLowerCaseOption(true);
-			ini.load(is);
-			String url = ini.get(secao, "usar");
+	private static volatile String urlBase;
 
-			if (servico.equals(ConstantesUtil.SERVICOS.DISTRIBUICAO_DFE)
-					|| servico.equals(ConstantesUtil.SERVICOS.MANIFESTACAO)) {
-				secao = config.getAmbiente().equals(ConstantesUtil.AMBIENTE.HOMOLOGACAO) ? "NFe_AN_H" : "NFe_AN_P";
-
-				if (servico.equals(ConstantesUtil.SERVICOS.MANIFESTACAO)) {
-					servico = ConstantesUtil.SERVICOS.EVENTO;
-				}
-
-			} else if (!servico.equals(ConstantesUtil.SERVICOS.URL_CONSULTANFCE)
-					&& !servico.equals(ConstantesUtil.SERVICOS.URL_QRCODE) && ObjetoUtil.differentNull(url)) {
-				secao = url;
-			} else if (config.isContigenciaSCAN()) {
-				// SVC-RS
-				if (config.getEstado().equals(Estados.GO) || config.getEstado().equals(Estados.AM)
-						|| config.getEstado().equals(Estados.BA) || config.getEstado().equals(Estados.CE)
-						|| config.getEstado().equals(Estados.MA) || config.getEstado().equals(Estados.MS)
-						|| config.getEstado().equals(Estados.MT) || config.getEstado().equals(Estados.PA)
-						|| config.getEstado().equals(Estados.PE) || config.getEstado().equals(Estados.PI)
-						|| config.getEstado().equals(Estados.PR)) {
-					secao = tipo + "_SVRS_"
-							+ (config.getAmbiente().equals(ConstantesUtil.AMBIENTE.HOMOLOGACAO) ? "H" : "P");
-					// SVC-AN
-				} else {
-					secao = tipo + "_SVAN_"
-							+ (config.getAmbiente().equals(ConstantesUtil.AMBIENTE.HOMOLOGACAO) ? "H" : "P");
-				}
-			}
+	public static String getUrl(ConfiguracoesNfe config, String tipo, String servico) throws NfeException {
 
-			url = ini.get(secao, servico.toLowerCase());
+		return getUrl(config, tipo, servico, config.isContigenciaSCAN());
 
-			if (ObjetoUtil.isEmpty(url)) {
-				throw new NfeException(
-						"WebService de " + servico + " não encontrado para " + config.getEstado().getNome());
-			}
+	}
 
-			if (config.isLog()) {
-				System.out.println("WebService - " + url);
+	/**
+	 * Url do serviço, informando se deve ser usada a contingência SVC em vez do contigenciaSCAN da configuração.
+	 *
+	 * @param config
+	 * @param tipo
+	 * @param servico
+	 * @param contingencia
+	 * @return url
+	 * @throws NfeException
+	 */
+	public static String getUrl(ConfiguracoesNfe config, String tipo, String servico, boolean contingencia)
+			throws NfeException {
+
+		String url = getTabela().getUrl(tipo, config.getEstado(),
+				config.getAmbiente().equals(ConstantesUtil.AMBIENTE.HOMOLOGACAO), contingencia, servico);
+
+		url = redireciona(url);
+
+		if (ObjetoUtil.isEmpty(url)) {
+			if (servico.equals(ConstantesUtil.SERVICOS.MANIFESTACAO)) {
+				servico = ConstantesUtil.SERVICOS.EVENTO;
 			}
-			return url;
+			throw new NfeException(
+					"WebService de " + servico + " não encontrado para " + config.getEstado().getNome());
+		}
 
-		} catch (IOException e) {
-			throw new NfeException(e.getMessage());
+		if (config.isLog()) {
+			System.out.println("WebService - " + url);
 		}
+		return url;
 
 	}
 
 	public static String getUrlConsultaCadastro(ConfiguracoesNfe config, String uf) throws NfeException {
 
-		String tipo = ConstantesUtil.NFE;
 		String servico = ConstantesUtil.SERVICOS.CONSULTA_CADASTRO;
-		try {
+		String url = getTabela().getUrlConsultaCadastro(
+				config.getAmbiente().equals(ConstantesUtil.AMBIENTE.HOMOLOGACAO), uf);
+		url = redireciona(url);
 
-            String secao;
-            if (uf.toUpperCase().equals(Estados.AC.toString()) || uf.toUpperCase().equals(Estados.RN.toString())
-                    || uf.toUpperCase().equals(Estados.PB.toString()) || uf.toUpperCase().equals(Estados.SC.toString())) {
-                secao = tipo + "_SVRS_"
-                        + (config.getAmbiente().equals(ConstantesUtil.AMBIENTE.HOMOLOGACAO) ? "H" : "P");
-            } else {
+		if (ObjetoUtil.isEmpty(url)) {
+			throw new NfeException("WebService de " + servico + " não encontrado para " + uf);
+		}
 
-                secao = tipo + "_" + uf.toUpperCase() + "_"
-                        + (config.getAmbiente().equals(ConstantesUtil.AMBIENTE.HOMOLOGACAO) ? "H" : "P");
-            }
+		if (config.isLog()) {
+			System.out.println("WebService - " + url);
+		}
+		return url;
 
-			InputStream is = WebServiceUtil.class.getResourceAsStream("/WebServicesNfe.ini");
+	}
 
-			Wini ini = new Wini();
-			ini.getConfig().setLowerCaseOption(true);
-			ini.load(is);
-			String url = ini.get(secao, servico.toLowerCase());
+	/**
+	 * Relê o WebServicesNfe.ini do classpath. As próximas chamadas usam os novos endereços.
+	 *
+	 * @throws NfeException
+	 */
+	public static void recarregaWebServices() throws NfeException {
+		tabela = carrega(WebServiceUtil.class.getResourceAsStream(ARQUIVO_WEBSERVICES));
+	}
 
-			if (ObjetoUtil.isEmpty(url)) {
-				throw new NfeException("WebService de " + servico + " não encontrado para " + uf);
-			}
+	/**
+	 * Substitui os endereços pelos do INI informado (mesmo formato do WebServicesNfe.ini).
+	 *
+	 * @param ini
+	 * @throws NfeException
+	 */
+	public static void recarregaWebServices(InputStream ini) throws NfeException {
+		tabela = carrega(ini);
+	}
 
-			if (config.isLog()) {
-				System.out.println("WebService - " + url);
-			}
+	/**
+	 * Redireciona todos os WebServices para o endereço informado, mantendo o caminho de cada serviço
+	 * (ex. "http://localhost:8080" para o SefazLocal dos testes). Informe null para voltar aos endereços do
+	 * WebServicesNfe.ini.
+	 *
+	 * @param url
+	 *            protocolo, host e porta
+	 */
+	public static void redirecionaPara(String url) {
+		urlBase = url == null ? null : url.replaceAll("/+$", "");
+	}
+
+	private static String redireciona(String url) {
+		String base = urlBase;
+		if (base == null || ObjetoUtil.isEmpty(url)) {
 			return url;
+		}
+		int inicioHost = url.indexOf("://");
+		int inicioCaminho = url.indexOf('/', inicioHost < 0 ? 0 : inicioHost + 3);
+		return inicioCaminho < 0 ? base : base + url.substring(inicioCaminho);
+	}
+
+	private static TabelaWebServices getTabela() throws NfeException {
+		TabelaWebServices atual = tabela;
+		if (atual == null) {
+			synchronized (WebServiceUtil.class) {
+				atual = tabela;
+				if (atual == null) {
+					atual = carrega(WebServiceUtil.class.getResourceAsStream(ARQUIVO_WEBSERVICES));
+					tabela = atual;
+				}
+			}
+		}
+		return atual;
+	}
 
+	private static TabelaWebServices carrega(InputStream is) throws NfeException {
+		if (is == null) {
+			throw new NfeException("Arquivo de WebServices não encontrado.");
+		}
+		try (InputStream ini = is) {
+			return TabelaWebServices.carrega(ini);
 		} catch (IOException e) {
 			throw new NfeException(e.getMessage());
 		}
-
 	}
 
 }
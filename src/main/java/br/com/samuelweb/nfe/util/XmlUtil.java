@@ -20,15 +20,30 @@ import br.inf.portalfiscal.nfe.schema_4.inutNFe.TProcInutNFe;
 import br.inf.portalfiscal.nfe.schema_4.retConsSitNFe.TRetConsSitNFe;
 import br.inf.portalfiscal.nfe.schema_4.util.XsdUtil;
 
+import org.apache.axiom.om.OMElement;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+import javax.xml.XMLConstants;
 import javax.xml.bind.*;
 import javax.xml.datatype.DatatypeConfigurationException;
 import javax.xml.datatype.DatatypeConstants;
 import javax.xml.datatype.DatatypeFactory;
 import javax.xml.datatype.XMLGregorianCalendar;
 import javax.xml.namespace.QName;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.transform.Result;
+import javax.xml.transform.dom.DOMResult;
+import javax.xml.transform.sax.SAXResult;
 import javax.xml.transform.stream.StreamSource;
 import java.io.*;
-import java.text.Normalizer;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.util.GregorianCalendar;
@@ -70,6 +85,8 @@ public class XmlUtil {
     private static final String EPEC = "br.inf.portalfiscal.nfe.schema.envEpec.TEnvEvento";
     private static final String MANIFESTAR = "br.inf.portalfiscal.nfe.schema.envConfRecebto.TEnvEvento";
 
+    private static final String NS_ASSINATURA = "http://www.w3.org/2000/09/xmldsig#";
+
     /**
      * Transforma o String do XML em Objeto
      *
@@ -79,12 +96,72 @@ public class XmlUtil {
      */
     public static <T> T xmlToObject(String xml, Class<T> classe) throws JAXBException {
 
-        JAXBContext context = JAXBContext.newInstance(classe);
-        Unmarshaller unmarshaller = context.createUnmarshaller();
+        Unmarshaller unmarshaller = JaxbUtil.getUnmarshaller(classe);
 
         return unmarshaller.unmarshal(new StreamSource(new StringReader(removeAcentos(xml))), classe).getValue();
     }
 
+    /**
+     * Transforma o XML em UTF-8 em Objeto
+     *
+     * @param xml
+     * @param classe
+     * @return T
+     */
+    public static <T> T xmlToObject(byte[] xml, Class<T> classe) throws JAXBException {
+
+        Unmarshaller unmarshaller = JaxbUtil.getUnmarshaller(classe);
+
+        return unmarshaller.unmarshal(new StreamSource(new ByteArrayInputStream(removeAcentos(xml))), classe).getValue();
+    }
+
+    /**
+     * Transforma o OMElement do retorno do WebService em Objeto, lendo direto do stream do OM, sem gerar a String
+     * do xml. Os acentos são removidos durante a leitura.
+     *
+     * @param element
+     * @param classe
+     * @return T
+     */
+    public static <T> T xmlToObject(OMElement element, Class<T> classe) throws JAXBException, XMLStreamException {
+
+        return xmlToObject(element.getXMLStreamReaderWithoutCaching(), classe);
+    }
+
+    /**
+     * Transforma o XML lido do XMLStreamReader em Objeto, removendo os acentos durante a leitura.
+     * O reader deve estar no início do documento ou no elemento a ser lido, e é fechado ao final.
+     *
+     * @param reader
+     * @param classe
+     * @return T
+     */
+    public static <T> T xmlToObject(XMLStreamReader reader, Class<T> classe) throws JAXBException, XMLStreamException {
+
+        Unmarshaller unmarshaller = JaxbUtil.getUnmarshaller(classe);
+
+        XMLStreamReader semAcentos = new LeitorSemAcentos(reader);
+        try {
+            return unmarshaller.unmarshal(semAcentos, classe).getValue();
+        } finally {
+            semAcentos.close();
+        }
+    }
+
+    /**
+     * Transforma o Node em Objeto, sem remover acentos
+     *
+     * @param node
+     * @param classe
+     * @return T
+     */
+    public static <T> T xmlToObject(Node node, Class<T> classe) throws JAXBException {
+
+        Unmarshaller unmarshaller = JaxbUtil.getUnmarshaller(classe);
+
+        return unmarshaller.unmarshal(node, classe).getValue();
+    }
+
     /**
      * Transforma o Objeto em XML(String)
      *
@@ -95,68 +172,168 @@ public class XmlUtil {
      */
     public static <T> String objectToXml(Object obj) throws JAXBException, NfeException {
 
-        JAXBContext context = null;
+        StringWriter sw = new StringWriter();
+        marshal(obj, new SAXResult(new NfeXmlWriter(sw, isProcEvento(obj))));
+
+        return sw.toString();
+    }
+
+    /**
+     * Transforma o Objeto em XML(UTF-8)
+     *
+     * @param obj
+     * @return
+     * @throws JAXBException
+     * @throws NfeException
+     */
+    public static byte[] objectToXmlBytes(Object obj) throws JAXBException, NfeException {
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(8192);
+        objectToXml(obj, out);
+
+        return out.toByteArray();
+    }
+
+    /**
+     * Grava o Objeto como XML(UTF-8) no OutputStream
+     *
+     * @param obj
+     * @param out
+     * @throws JAXBException
+     * @throws NfeException
+     */
+    public static void objectToXml(Object obj, OutputStream out) throws JAXBException, NfeException {
+
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        marshal(obj, new SAXResult(new NfeXmlWriter(writer, isProcEvento(obj))));
+        try {
+            writer.flush();
+        } catch (IOException e) {
+            throw new NfeException(e.getMessage());
+        }
+    }
+
+    /**
+     * Transforma o Objeto em Document, no mesmo formato do XML gerado por {@link #objectToXml(Object)}:
+     * todos os elementos no namespace da raiz, exceto a assinatura, sem prefixos.
+     *
+     * @param obj
+     * @return Document
+     * @throws JAXBException
+     * @throws NfeException
+     */
+    public static Document objectToDocument(Object obj) throws JAXBException, NfeException {
+
+        Document document;
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setNamespaceAware(true);
+            document = factory.newDocumentBuilder().newDocument();
+        } catch (ParserConfigurationException e) {
+            throw new NfeException(e.getMessage());
+        }
+        marshal(obj, new DOMResult(document));
+
+        Element raiz = document.getDocumentElement();
+        normalizaNamespace(document, raiz, raiz.getNamespaceURI(), null);
+
+        return document;
+    }
+
+    private static void normalizaNamespace(Document document, Element elemento, String namespace, String namespacePai) {
+
+        if ("Signature".equals(elemento.getLocalName()) && NS_ASSINATURA.equals(elemento.getNamespaceURI())) {
+            namespace = NS_ASSINATURA;
+        }
+
+        NamedNodeMap atributos = elemento.getAttributes();
+        for (int i = atributos.getLength() - 1; i >= 0; i--) {
+            Node atributo = atributos.item(i);
+            if (XMLConstants.XMLNS_ATTRIBUTE_NS_URI.equals(atributo.getNamespaceURI())) {
+                elemento.removeAttributeNode((Attr) atributo);
+            }
+        }
+
+        Element renomeado = (Element) document.renameNode(elemento, namespace, elemento.getLocalName());
+        if (!namespace.equals(namespacePai)) {
+            renomeado.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, XMLConstants.XMLNS_ATTRIBUTE, namespace);
+        }
+
+        for (Node filho = renomeado.getFirstChild(); filho != null; filho = filho.getNextSibling()) {
+            if (filho.getNodeType() == Node.ELEMENT_NODE) {
+                normalizaNamespace(document, (Element) filho, namespace, namespace);
+            }
+        }
+    }
+
+    private static boolean isProcEvento(Object obj) {
+        return obj.getClass().getSimpleName().equals(TPROCEVENTO);
+    }
+
+    static void marshal(Object obj, Result result) throws JAXBException, NfeException {
+
+        Class<?> classe = null;
         JAXBElement<?> element = null;
 
         switch (obj.getClass().getSimpleName()) {
 
             case STATUS:
-                context = JAXBContext.newInstance(TConsStatServ.class);
+                classe = TConsStatServ.class;
                 element = new br.inf.portalfiscal.nfe.schema_4.consStatServ.ObjectFactory().createConsStatServ((TConsStatServ) obj);
                 break;
 
             case ENVIO_NFE:
-                context = JAXBContext.newInstance(TEnviNFe.class);
+                classe = TEnviNFe.class;
                 element = new br.inf.portalfiscal.nfe.schema_4.enviNFe.ObjectFactory().createEnviNFe((TEnviNFe) obj);
                 break;
 
             case RETORNO_ENVIO:
-                context = JAXBContext.newInstance(TRetEnviNFe.class);
+                classe = TRetEnviNFe.class;
                 element = XsdUtil.enviNfe.createTRetEnviNFe((TRetEnviNFe) obj);
                 break;
 
             case SITUACAO_NFE:
-                context = JAXBContext.newInstance(TConsSitNFe.class);
+                classe = TConsSitNFe.class;
                 element = new br.inf.portalfiscal.nfe.schema_4.consSitNFe.ObjectFactory().createConsSitNFe((TConsSitNFe) obj);
                 break;
 
             case DIST_DFE:
-                context = JAXBContext.newInstance(DistDFeInt.class);
+                classe = DistDFeInt.class;
                 element = new br.inf.portalfiscal.nfe.schema.distdfeint.ObjectFactory().createDistDFeInt((DistDFeInt) obj);
                 break;
 
             case TCONSRECINFE:
-                context = JAXBContext.newInstance(TConsReciNFe.class);
+                classe = TConsReciNFe.class;
                 element = new br.inf.portalfiscal.nfe.schema_4.consReciNFe.ObjectFactory().createConsReciNFe((TConsReciNFe) obj);
                 break;
 
             case TConsCad:
-                context = JAXBContext.newInstance(TConsCad.class);
+                classe = TConsCad.class;
                 element = new br.inf.portalfiscal.nfe.schema.consCad.ObjectFactory().createConsCad((TConsCad) obj);
                 break;
 
             case INUTILIZACAO:
-                context = JAXBContext.newInstance(TInutNFe.class);
+                classe = TInutNFe.class;
                 element = new br.inf.portalfiscal.nfe.schema_4.inutNFe.ObjectFactory().createInutNFe((TInutNFe) obj);
                 break;
 
             case SITUACAO_NFE_RET:
-                context = JAXBContext.newInstance(TRetConsSitNFe.class);
+                classe = TRetConsSitNFe.class;
                 element = new br.inf.portalfiscal.nfe.schema_4.retConsSitNFe.ObjectFactory().createRetConsSitNFe((TRetConsSitNFe) obj);
                 break;
 
             case TPROCEVENTO:
                 switch (obj.getClass().getName()) {
                     case TPROCCANCELAR:
-                        context = JAXBContext.newInstance(br.inf.portalfiscal.nfe.schema.envEventoCancNFe.TProcEvento.class);
+                        classe = br.inf.portalfiscal.nfe.schema.envEventoCancNFe.TProcEvento.class;
                         element = new br.inf.portalfiscal.nfe.schema.envEventoCancNFe.ObjectFactory().createTProcEvento((br.inf.portalfiscal.nfe.schema.envEventoCancNFe.TProcEvento) obj);
                         break;
                     case TPROCCCE:
-                        context = JAXBContext.newInstance(br.inf.portalfiscal.nfe.schema.envcce.TProcEvento.class);
+                        classe = br.inf.portalfiscal.nfe.schema.envcce.TProcEvento.class;
                         element = new br.inf.portalfiscal.nfe.schema.envcce.ObjectFactory().createTProcEvento((br.inf.portalfiscal.nfe.schema.envcce.TProcEvento) obj);
                         break;
                     case TPROCEPEC:
-                        context = JAXBContext.newInstance(br.inf.portalfiscal.nfe.schema.envEpec.TProcEvento.class);
+                        classe = br.inf.portalfiscal.nfe.schema.envEpec.TProcEvento.class;
                         element = XsdUtil.epec.createTProcEvento((br.inf.portalfiscal.nfe.schema.envEpec.TProcEvento) obj);
                         break;
                 }
@@ -164,36 +341,36 @@ public class XmlUtil {
                 break;
 
             case NFEPROC:
-                context = JAXBContext.newInstance(TNfeProc.class);
+                classe = TNfeProc.class;
                 element = XsdUtil.enviNfe.createTNfeProc((TNfeProc) obj);
                 break;
 
             case NFE:
-                context = JAXBContext.newInstance(TNFe.class);
+                classe = TNFe.class;
                 element = new JAXBElement<>(new QName("http://www.portalfiscal.inf.br/nfe", "NFe"), TNFe.class, null, (br.inf.portalfiscal.nfe.schema_4.enviNFe.TNFe) obj);
                 break;
 
             case TPROCINUT:
-                context = JAXBContext.newInstance(TProcInutNFe.class);
+                classe = TProcInutNFe.class;
                 element = XsdUtil.inutNfe.createTProcInutNFe((TProcInutNFe) obj);
                 break;
 
             case EVENTO:
                 switch (obj.getClass().getName()) {
                     case CANCELAR:
-                        context = JAXBContext.newInstance(TEnvEvento.class);
+                        classe = TEnvEvento.class;
                         element = new br.inf.portalfiscal.nfe.schema.envEventoCancNFe.ObjectFactory().createEnvEvento((TEnvEvento) obj);
                         break;
                     case CCE:
-                        context = JAXBContext.newInstance(br.inf.portalfiscal.nfe.schema.envcce.TEnvEvento.class);
+                        classe = br.inf.portalfiscal.nfe.schema.envcce.TEnvEvento.class;
                         element = new br.inf.portalfiscal.nfe.schema.envcce.ObjectFactory().createEnvEvento((br.inf.portalfiscal.nfe.schema.envcce.TEnvEvento) obj);
                         break;
                     case EPEC:
-                        context = JAXBContext.newInstance(br.inf.portalfiscal.nfe.schema.envEpec.TEnvEvento.class);
+                        classe = br.inf.portalfiscal.nfe.schema.envEpec.TEnvEvento.class;
                         element = new br.inf.portalfiscal.nfe.schema.envEpec.ObjectFactory().createEnvEvento((br.inf.portalfiscal.nfe.schema.envEpec.TEnvEvento) obj);
                         break;
                     case MANIFESTAR:
-                        context = JAXBContext.newInstance(br.inf.portalfiscal.nfe.schema.envConfRecebto.TEnvEvento.class);
+                        classe = br.inf.portalfiscal.nfe.schema.envConfRecebto.TEnvEvento.class;
                         element = new br.inf.portalfiscal.nfe.schema.envConfRecebto.ObjectFactory().createEnvEvento((br.inf.portalfiscal.nfe.schema.envConfRecebto.TEnvEvento) obj);
                         break;
                 }
@@ -202,15 +379,15 @@ public class XmlUtil {
             case TProtNFe:
                 switch (obj.getClass().getName()) {
                     case TProtEnvi:
-                        context = JAXBContext.newInstance(TProtNFe.class);
+                        classe = TProtNFe.class;
                         element = XsdUtil.enviNfe.createTProtNFe((br.inf.portalfiscal.nfe.schema_4.enviNFe.TProtNFe) obj);
                         break;
                     case TProtCons:
-                        context = JAXBContext.newInstance(br.inf.portalfiscal.nfe.schema_4.retConsSitNFe.TProtNFe.class);
+                        classe = br.inf.portalfiscal.nfe.schema_4.retConsSitNFe.TProtNFe.class;
                         element = XsdUtil.retConsSitNfe.createTProtNFe((br.inf.portalfiscal.nfe.schema_4.retConsSitNFe.TProtNFe) obj);
                         break;
                     case TProtReci:
-                        context = JAXBContext.newInstance(br.inf.portalfiscal.nfe.schema_4.retConsReciNFe.TProtNFe.class);
+                        classe = br.inf.portalfiscal.nfe.schema_4.retConsReciNFe.TProtNFe.class;
                         element = XsdUtil.retConsReciNfe.createTProtNFe((br.inf.portalfiscal.nfe.schema_4.retConsReciNFe.TProtNFe) obj);
                         break;
                 }
@@ -219,23 +396,8 @@ public class XmlUtil {
             default:
                 throw new NfeException("Objeto não mapeado no XmlUtil:" + obj.getClass().getSimpleName());
         }
-        Marshaller marshaller = context.createMarshaller();
-
-        marshaller.setProperty("jaxb.encoding", "Unicode");
-        marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, Boolean.FALSE);
-        marshaller.setProperty(Marshaller.JAXB_FRAGMENT, Boolean.TRUE);
-
-        StringWriter sw = new StringWriter();
-
-        marshaller.marshal(element, sw);
-        StringBuilder xml = new StringBuilder();
-        xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>").append(sw.toString());
-
-        if ((obj.getClass().getSimpleName().equals(TPROCEVENTO))) {
-            return replacesNfe(xml.toString().replaceAll("procEvento", "procEventoNFe"));
-        } else {
-            return replacesNfe(xml.toString());
-        }
+        Marshaller marshaller = JaxbUtil.getMarshaller(classe);
+        marshaller.marshal(element, result);
 
     }
 
@@ -257,9 +419,25 @@ public class XmlUtil {
 
     public static String criaNfeProc(TEnviNFe enviNfe, Object retorno) throws JAXBException, NfeException {
 
+        return criaNfeProc(enviNfe.getNFe().get(0), retorno);
+    }
+
+    /**
+     * Cria o nfeProc de uma NFe do lote com o protNFe retornado (do envio síncrono, da consulta recibo ou da
+     * consulta protocolo).
+     *
+     * @param nfe
+     * @param retorno
+     *            protNFe
+     * @return xml do nfeProc
+     * @throws JAXBException
+     * @throws NfeException
+     */
+    public static String criaNfeProc(TNFe nfe, Object retorno) throws JAXBException, NfeException {
+
         TNfeProc nfeProc = new TNfeProc();
         nfeProc.setVersao("4.00");
-        nfeProc.setNFe(enviNfe.getNFe().get(0));
+        nfeProc.setNFe(nfe);
         String xml = XmlUtil.objectToXml(retorno);
         nfeProc.setProtNFe(XmlUtil.xmlToObject(xml, TProtNFe.class));
 
@@ -283,29 +461,13 @@ public class XmlUtil {
 
     public static String removeAcentos(String str) {
 
-        str = str.replaceAll("\r", "");
-        str = str.replaceAll("\t", "");
-        str = str.replaceAll("\n", "");
-        str = str.replaceAll("&", "E");
-        str = str.replaceAll(">\\s+<", "><");
-        return Normalizer.normalize(str, Normalizer.Form.NFKD).replaceAll("\\p{InCombiningDiacriticalMarks}+", "").replaceAll("[^\\p{ASCII}]", "");
+        return TransliteradorUtil.removeAcentos(str);
 
     }
 
-    private static String replacesNfe(String xml) {
-
-        xml = xml.replaceAll("ns2:", "");
-        xml = xml.replaceAll("<!\\[CDATA\\[<!\\[CDATA\\[", "<!\\[CDATA\\[");
-        xml = xml.replaceAll("\\]\\]>\\]\\]>", "\\]\\]>");
-        xml = xml.replaceAll("ns3:", "");
-        xml = xml.replaceAll("&lt;", "<");
-        xml = xml.replaceAll("&amp;", "&");
-        xml = xml.replaceAll("&gt;", ">");
-        xml = xml.replaceAll("<Signature>", "<Signature xmlns=\"http://www.w3.org/2000/09/xmldsig#\">");
-        xml = xml.replaceAll(" xmlns:ns2=\"http://www.w3.org/2000/09/xmldsig#\"", "");
-        xml = xml.replaceAll(" xmlns=\"\" xmlns:ns3=\"http://www.portalfiscal.inf.br/nfe\"", "");
+    public static byte[] removeAcentos(byte[] xml) {
 
-        return xml;
+        return TransliteradorUtil.removeAcentos(xml);
 
     }
 
@@ -0,0 +1,362 @@
+package br.com.samuelweb.nfe.util.annotation.processor;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Gera em tempo de compilação um validador ({@code <Modelo>Validador}) para cada classe do modelo com campos
+ * anotados com NfeCampo, NfeObjeto ou NfeObjetoList.
+ * <p>
+ * O validador gerado chama os getters e setters diretamente e passa as regras da anotação como constantes para
+ * os métodos públicos do NfeValidator, sem nenhuma reflexão na validação. Os campos são percorridos na mesma
+ * ordem da validação por reflexão (campos da classe e depois das superclasses).
+ * <p>
+ * Quando a classe não permite a geração (getter ou setter não público, tipo do getter diferente do tipo da
+ * anotação, classe aninhada ou genérica) nada é gerado e o NfeValidator continua usando a reflexão.
+ */
+@SupportedAnnotationTypes({
+        NfeValidadorProcessor.NFE_CAMPO,
+        NfeValidadorProcessor.NFE_OBJETO,
+        NfeValidadorProcessor.NFE_OBJETO_LIST})
+public class NfeValidadorProcessor extends AbstractProcessor {
+
+    static final String NFE_CAMPO = "br.com.samuelweb.nfe.util.annotation.NfeCampo";
+    static final String NFE_OBJETO = "br.com.samuelweb.nfe.util.annotation.NfeObjeto";
+    static final String NFE_OBJETO_LIST = "br.com.samuelweb.nfe.util.annotation.NfeObjetoList";
+
+    private static final String ENUM_NFE_VALUE = "br.com.samuelweb.nfe.util.enumeration.EnumNfeValue";
+    private static final String NFE_VALIDATOR = "br.com.samuelweb.nfe.util.validators.impl.NfeValidator";
+    private static final String REGRA_CAMPO = "br.com.samuelweb.nfe.util.validators.impl.RegraCampo";
+    private static final String VALIDADOR_MODELO = "br.com.samuelweb.nfe.util.validators.ValidadorModelo";
+
+    private final Set<String> gerados = new HashSet<>();
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        Set<TypeElement> classes = new LinkedHashSet<>();
+        for (TypeElement annotation : annotations) {
+            for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+                if (element.getKind() == ElementKind.FIELD) {
+                    classes.add((TypeElement) element.getEnclosingElement());
+                }
+            }
+        }
+        for (TypeElement classe : classes) {
+            if (gerados.add(classe.getQualifiedName().toString())) {
+                gera(classe);
+            }
+        }
+        return false;
+    }
+
+    private void gera(TypeElement classe) {
+        if (classe.getKind() != ElementKind.CLASS || classe.getNestingKind() != NestingKind.TOP_LEVEL
+                || !classe.getModifiers().contains(Modifier.PUBLIC) || !classe.getTypeParameters().isEmpty()) {
+            nota(classe, "classe não é pública, é aninhada ou genérica");
+            return;
+        }
+
+        String nomeModelo = classe.getSimpleName().toString();
+        String nomeValidador = nomeModelo + "Validador";
+        String pacote = processingEnv.getElementUtils().getPackageOf(classe).getQualifiedName().toString();
+
+        StringBuilder regras = new StringBuilder();
+        StringBuilder corpo = new StringBuilder();
+        Set<String> constantes = new HashSet<>();
+        try {
+            for (TypeElement atual = classe; atual != null; atual = superclasse(atual)) {
+                for (Element element : atual.getEnclosedElements()) {
+                    if (element.getKind() == ElementKind.FIELD) {
+                        geraCampo(classe, (VariableElement) element, constantes, regras, corpo);
+                    }
+                }
+            }
+        } catch (GeracaoException e) {
+            nota(classe, e.getMessage());
+            return;
+        }
+
+        StringBuilder fonte = new StringBuilder();
+        if (!pacote.isEmpty()) {
+            fonte.append("package ").append(pacote).append(";\n\n");
+        }
+        fonte.append("import ").append(VALIDADOR_MODELO).append(";\n")
+                .append("import ").append(NFE_VALIDATOR).append(";\n")
+                .append("import ").append(REGRA_CAMPO).append(";\n\n")
+                .append("import java.lang.reflect.InvocationTargetException;\n\n")
+                .append("/**\n")
+                .append(" * Validador de ").append(nomeModelo).append(" gerado pelo ")
+                .append(getClass().getSimpleName()).append(". Não editar.\n")
+                .append(" */\n")
+                .append("public final class ").append(nomeValidador)
+                .append(" implements ValidadorModelo<").append(nomeModelo).append("> {\n\n")
+                .append(regras).append("\n")
+                .append("    @Override\n")
+                .append("    public Boolean validar(NfeValidator validator, ")
+                .append(nomeModelo).append(" obj, String descricaoGrupo)\n")
+                .append("            throws InvocationTargetException, IllegalAccessException, NoSuchMethodException {\n")
+                .append("        Boolean result = Boolean.TRUE;\n")
+                .append(corpo)
+                .append("        return result;\n")
+                .append("    }\n\n")
+                .append("}\n");
+
+        try (Writer writer = processingEnv.getFiler().createSourceFile(pacote.isEmpty() ? nomeValidador
+                : pacote + "." + nomeValidador, classe).openWriter()) {
+            writer.write(fonte.toString());
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                    "Erro ao gerar " + nomeValidador + ": " + e.getMessage(), classe);
+        }
+    }
+
+    private void geraCampo(TypeElement classe, VariableElement field, Set<String> constantes,
+                           StringBuilder regras, StringBuilder corpo) throws GeracaoException {
+
+        AnnotationMirror nfeCampo = anotacao(field, NFE_CAMPO);
+        AnnotationMirror nfeObjeto = anotacao(field, NFE_OBJETO);
+        AnnotationMirror nfeObjetoList = anotacao(field, NFE_OBJETO_LIST);
+        if (nfeCampo == null && nfeObjeto == null && nfeObjetoList == null) {
+            return;
+        }
+
+        String nome = field.getSimpleName().toString();
+        ExecutableElement get = metodo(classe, "get", nome, null);
+        if (get == null || !get.getModifiers().contains(Modifier.PUBLIC)) {
+            throw new GeracaoException("get público não encontrado para o campo " + nome);
+        }
+        String valor = "obj." + get.getSimpleName() + "()";
+        TypeMirror tipoGet = get.getReturnType();
+
+        if (nfeCampo != null) {
+            Map<String, AnnotationValue> valores = valores(nfeCampo);
+            TypeMirror tipo = (TypeMirror) valores.get("tipo").getValue();
+            String constante = constante(nome, constantes);
+
+            regras.append("    private static final RegraCampo ").append(constante).append(" = new RegraCampo(")
+                    .append(texto(valores, "id")).append(", ")
+                    .append(texto(valores, "tag")).append(", ")
+                    .append(texto(valores, "descricao")).append(", ")
+                    .append(classe(tipo)).append(".class, ")
+                    .append(valores.get("tamanhoMinimo").getValue()).append(", ")
+                    .append(valores.get("tamanhoMaximo").getValue()).append(", ")
+                    .append(valores.get("decimais").getValue()).append(", ")
+                    .append(valores.get("ocorrencias").getValue()).append(", ")
+                    .append(texto(valores, "valorDefault"));
+            for (Object validador : (List<?>) valores.get("validadores").getValue()) {
+                TypeMirror tipoValidador = (TypeMirror) ((AnnotationValue) validador).getValue();
+                if (!publico(tipoValidador)) {
+                    throw new GeracaoException("validador não público no campo " + nome);
+                }
+                regras.append(", ").append(classe(tipoValidador)).append(".class");
+            }
+            regras.append(");\n");
+
+            String tipoNome = classe(tipo);
+            String chamada;
+            if (tipoNome.equals("java.lang.String") || tipoNome.equals("java.lang.Integer")
+                    || tipoNome.equals("java.math.BigDecimal")) {
+                mesmoTipo(tipoGet, tipo, nome);
+                ExecutableElement set = metodo(classe, "set", nome, tipo);
+                if (set == null || !set.getModifiers().contains(Modifier.PUBLIC)) {
+                    throw new GeracaoException("set público não encontrado para o campo " + nome);
+                }
+                chamada = constante + ", " + valor + ", obj, obj::" + set.getSimpleName() + ", descricaoGrupo";
+            } else if (tipoNome.equals("java.time.ZonedDateTime")) {
+                mesmoTipo(tipoGet, tipo, nome);
+                chamada = constante + ", " + valor + ", obj, descricaoGrupo";
+            } else if (enumNfeValue(tipo)) {
+                if (!enumNfeValue(tipoGet)) {
+                    throw new GeracaoException("tipo do get diferente do tipo da anotação no campo " + nome);
+                }
+                chamada = constante + ", (" + ENUM_NFE_VALUE + ") " + valor + ", obj, descricaoGrupo";
+            } else {
+                chamada = constante + ", (Object) " + valor + ", obj, descricaoGrupo";
+            }
+            corpo.append("        result = result & validator.validarCampo(").append(chamada).append(");\n");
+        }
+
+        if (nfeObjeto != null) {
+            Map<String, AnnotationValue> valores = valores(nfeObjeto);
+            if (tipoGet.getKind() != TypeKind.DECLARED) {
+                throw new GeracaoException("tipo do get não é um objeto no campo " + nome);
+            }
+            corpo.append("        result = result & validator.validarObjeto(")
+                    .append(texto(valores, "id")).append(", ")
+                    .append(texto(valores, "tag")).append(", ")
+                    .append(texto(valores, "descricao")).append(", ")
+                    .append(valores.get("ocorrencias").getValue()).append(", ")
+                    .append(valor).append(", descricaoGrupo);\n");
+        }
+
+        if (nfeObjetoList != null) {
+            Map<String, AnnotationValue> valores = valores(nfeObjetoList);
+            TypeElement list = processingEnv.getElementUtils().getTypeElement("java.util.List");
+            if (!processingEnv.getTypeUtils().isAssignable(processingEnv.getTypeUtils().erasure(tipoGet),
+                    processingEnv.getTypeUtils().erasure(list.asType()))) {
+                throw new GeracaoException("tipo do get não é uma List no campo " + nome);
+            }
+            corpo.append("        result = result & validator.validarObjetoList(")
+                    .append(texto(valores, "id")).append(", ")
+                    .append(texto(valores, "tag")).append(", ")
+                    .append(texto(valores, "descricao")).append(", ")
+                    .append(valores.get("ocorrenciaMinima").getValue()).append(", ")
+                    .append(valores.get("ocorrenciaMaxima").getValue()).append(", ")
+                    .append(valor).append(", descricaoGrupo);\n");
+        }
+    }
+
+    /**
+     * Mesma procura feita pelo CampoValidacao: prefixo + NomeCampo e depois prefixo + nomeCampo,
+     * na classe e nas superclasses.
+     */
+    private ExecutableElement metodo(TypeElement classe, String prefixo, String nome, TypeMirror parametro) {
+        String capitalizado = Character.toTitleCase(nome.charAt(0)) + nome.substring(1);
+        for (TypeElement atual = classe; atual != null; atual = superclasse(atual)) {
+            ExecutableElement metodo = metodo(atual, prefixo + capitalizado, parametro);
+            if (metodo == null) {
+                metodo = metodo(atual, prefixo + nome, parametro);
+            }
+            if (metodo != null) {
+                return metodo;
+            }
+        }
+        return null;
+    }
+
+    private ExecutableElement metodo(TypeElement classe, String nome, TypeMirror parametro) {
+        for (Element element : classe.getEnclosedElements()) {
+            if (element.getKind() != ElementKind.METHOD || !element.getSimpleName().contentEquals(nome)) {
+                continue;
+            }
+            ExecutableElement metodo = (ExecutableElement) element;
+            if (parametro == null && metodo.getParameters().isEmpty()) {
+                return metodo;
+            }
+            if (parametro != null && metodo.getParameters().size() == 1
+                    && processingEnv.getTypeUtils().isSameType(
+                    processingEnv.getTypeUtils().erasure(metodo.getParameters().get(0).asType()),
+                    processingEnv.getTypeUtils().erasure(parametro))) {
+                return metodo;
+            }
+        }
+        return null;
+    }
+
+    private TypeElement superclasse(TypeElement classe) {
+        TypeMirror superclasse = classe.getSuperclass();
+        if (superclasse.getKind() != TypeKind.DECLARED) {
+            return null;
+        }
+        TypeElement element = (TypeElement) ((DeclaredType) superclasse).asElement();
+        return element.getQualifiedName().contentEquals("java.lang.Object") ? null : element;
+    }
+
+    private void mesmoTipo(TypeMirror tipoGet, TypeMirror tipo, String nome) throws GeracaoException {
+        if (!processingEnv.getTypeUtils().isSameType(processingEnv.getTypeUtils().erasure(tipoGet), tipo)) {
+            throw new GeracaoException("tipo do get diferente do tipo da anotação no campo " + nome);
+        }
+    }
+
+    private boolean enumNfeValue(TypeMirror tipo) {
+        TypeElement enumNfeValue = processingEnv.getElementUtils().getTypeElement(ENUM_NFE_VALUE);
+        return enumNfeValue != null && tipo.getKind() == TypeKind.DECLARED
+                && processingEnv.getTypeUtils().isAssignable(processingEnv.getTypeUtils().erasure(tipo),
+                processingEnv.getTypeUtils().erasure(enumNfeValue.asType()));
+    }
+
+    private boolean publico(TypeMirror tipo) {
+        if (tipo.getKind() != TypeKind.DECLARED) {
+            return false;
+        }
+        for (Element element = ((DeclaredType) tipo).asElement(); !(element instanceof PackageElement);
+             element = element.getEnclosingElement()) {
+            if (!element.getModifiers().contains(Modifier.PUBLIC)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String classe(TypeMirror tipo) {
+        if (tipo.getKind() != TypeKind.DECLARED) {
+            return tipo.toString();
+        }
+        return processingEnv.getElementUtils().getBinaryName((TypeElement) ((DeclaredType) tipo).asElement())
+                .toString().replace('$', '.');
+    }
+
+    private String texto(Map<String, AnnotationValue> valores, String nome) {
+        return processingEnv.getElementUtils().getConstantExpression(valores.get(nome).getValue());
+    }
+
+    private static String constante(String nome, Set<String> constantes) {
+        String constante = nome.replaceAll("([a-z0-9])([A-Z])", "$1_$2").toUpperCase(Locale.ROOT);
+        String unica = constante;
+        for (int i = 2; !constantes.add(unica); i++) {
+            unica = constante + "_" + i;
+        }
+        return unica;
+    }
+
+    private static AnnotationMirror anotacao(Element element, String nome) {
+        for (AnnotationMirror mirror : element.getAnnotationMirrors()) {
+            if (((TypeElement) mirror.getAnnotationType().asElement()).getQualifiedName().contentEquals(nome)) {
+                return mirror;
+            }
+        }
+        return null;
+    }
+
+    private Map<String, AnnotationValue> valores(AnnotationMirror mirror) {
+        Map<String, AnnotationValue> valores = new HashMap<>();
+        for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry
+                : processingEnv.getElementUtils().getElementValuesWithDefaults(mirror).entrySet()) {
+            valores.put(entry.getKey().getSimpleName().toString(), entry.getValue());
+        }
+        return valores;
+    }
+
+    private void nota(TypeElement classe, String motivo) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE,
+                "Validador não gerado para " + classe.getQualifiedName() + " (" + motivo + "), será usada a reflexão.",
+                classe);
+    }
+
+    private static class GeracaoException extends Exception {
+        GeracaoException(String mensagem) {
+            super(mensagem);
+        }
+    }
+
+}
@@ -0,0 +1,11 @@
+package br.com.samuelweb.nfe.util.validators;
+
+import java.lang.reflect.InvocationTargetException;
+
+/**
+ * Grava no objeto o valor normalizado de um campo (valorDefault, escala, acentos).
+ */
+public interface AlteraCampo<T> {
+
+    void altera(T valor) throws InvocationTargetException, IllegalAccessException;
+}
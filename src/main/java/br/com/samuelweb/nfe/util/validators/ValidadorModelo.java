@@ -0,0 +1,15 @@
+package br.com.samuelweb.nfe.util.validators;
+
+import br.com.samuelweb.nfe.util.validators.impl.NfeValidator;
+
+import java.lang.reflect.InvocationTargetException;
+
+/**
+ * Validador de uma classe do modelo gerado em tempo de compilação pelo NfeValidadorProcessor.
+ * As classes geradas ficam no mesmo pacote do modelo com o nome {@code <Modelo>Validador}.
+ */
+public interface ValidadorModelo<T> {
+
+    Boolean validar(NfeValidator validator, T obj, String descricaoGrupo)
+            throws InvocationTargetException, IllegalAccessException, NoSuchMethodException;
+}
@@ -0,0 +1,155 @@
+package br.com.samuelweb.nfe.util.validators.impl;
+
+import br.com.samuelweb.nfe.util.annotation.NfeCampo;
+import br.com.samuelweb.nfe.util.annotation.NfeObjeto;
+import br.com.samuelweb.nfe.util.annotation.NfeObjetoList;
+import org.apache.commons.lang3.text.WordUtils;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * Campo anotado de uma classe do modelo, com a RegraCampo, as anotações e os MethodHandles de leitura e gravação
+ * já resolvidos.
+ *
+ * @see PlanoValidacao
+ */
+final class CampoValidacao {
+
+    private static final MethodType TIPO_GET = MethodType.methodType(Object.class, Object.class);
+    private static final MethodType TIPO_SET = MethodType.methodType(void.class, Object.class, Object.class);
+
+    private final Field field;
+    private final RegraCampo regra;
+    private final NfeObjeto nfeObjeto;
+    private final NfeObjetoList nfeObjetoList;
+    private final MethodHandle get;
+    private final MethodHandle set;
+    private final MethodHandle setField;
+
+    CampoValidacao(Class<?> classe, Field field) {
+        this.field = field;
+        NfeCampo nfeCampo = field.getAnnotation(NfeCampo.class);
+        this.nfeObjeto = field.getAnnotation(NfeObjeto.class);
+        this.nfeObjetoList = field.getAnnotation(NfeObjetoList.class);
+
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        this.get = handle(lookup, metodo(classe, "get", field.getName()), TIPO_GET);
+
+        if (nfeCampo != null) {
+            this.set = handle(lookup, metodo(classe, "set", field.getName(), nfeCampo.tipo()), TIPO_SET);
+            this.setField = handleField(lookup, field);
+            this.regra = new RegraCampo(nfeCampo);
+        } else {
+            this.set = null;
+            this.setField = null;
+            this.regra = null;
+        }
+    }
+
+    static boolean isAnotado(Field field) {
+        return field.isAnnotationPresent(NfeCampo.class)
+                || field.isAnnotationPresent(NfeObjeto.class)
+                || field.isAnnotationPresent(NfeObjetoList.class);
+    }
+
+    Field getField() {
+        return field;
+    }
+
+    /**
+     * @return RegraCampo do {@link NfeCampo}, ou null quando o campo não tem essa anotação
+     */
+    RegraCampo getRegra() {
+        return regra;
+    }
+
+    NfeObjeto getNfeObjeto() {
+        return nfeObjeto;
+    }
+
+    NfeObjetoList getNfeObjetoList() {
+        return nfeObjetoList;
+    }
+
+    /**
+     * Executa o get do campo.
+     */
+    Object get(Object obj) throws InvocationTargetException {
+        if (get == null) {
+            throw new NullPointerException("Método get não encontrado para o campo " + field.getName());
+        }
+        try {
+            return (Object) get.invokeExact(obj);
+        } catch (Throwable e) {
+            throw new InvocationTargetException(e);
+        }
+    }
+
+    /**
+     * Executa o set do campo. Quando o valor é nulo ou não existe set para o tipo do campo, grava direto no campo.
+     */
+    void set(Object obj, Object value) throws InvocationTargetException, IllegalAccessException {
+        MethodHandle handle = value != null && set != null ? set : setField;
+        if (handle == null) {
+            throw new IllegalAccessException("Campo " + field.getName() + " não pode ser alterado");
+        }
+        try {
+            handle.invokeExact(obj, value);
+        } catch (Throwable e) {
+            if (handle == setField) {
+                if (e instanceof RuntimeException) {
+                    throw (RuntimeException) e;
+                }
+                if (e instanceof Error) {
+                    throw (Error) e;
+                }
+            }
+            throw new InvocationTargetException(e);
+        }
+    }
+
+    /**
+     * Procura o método prefixo + NomeCampo ou prefixo + nomeCampo na classe e nas superclasses.
+     * Feito uma única vez por campo, na criação do plano.
+     */
+    private static Method metodo(Class<?> classe, String prefixo, String fieldName, Class<?>... parameterTypes) {
+        for (Class<?> atual = classe; atual != null && atual != Object.class; atual = atual.getSuperclass()) {
+            try {
+                return atual.getDeclaredMethod(prefixo + WordUtils.capitalize(fieldName), parameterTypes);
+            } catch (NoSuchMethodException e) {
+                try {
+                    return atual.getDeclaredMethod(prefixo + fieldName, parameterTypes);
+                } catch (NoSuchMethodException ex) {
+                    // procura na superclasse
+                }
+            }
+        }
+        return null;
+    }
+
+    private static MethodHandle handle(MethodHandles.Lookup lookup, Method method, MethodType tipo) {
+        if (method == null) {
+            return null;
+        }
+        try {
+            return lookup.unreflect(method).asType(tipo);
+        } catch (IllegalAccessException e) {
+            return null;
+        }
+    }
+
+    private static MethodHandle handleField(MethodHandles.Lookup lookup, Field field) {
+        try {
+            field.setAccessible(true);
+            return lookup.unreflectSetter(field).asType(TIPO_SET);
+        } catch (IllegalAccessException | SecurityException e) {
+            return null;
+        }
+    }
+
+}
@@ -1,22 +1,20 @@
 package br.com.samuelweb.nfe.util.validators.impl;
 
 import br.com.samuelweb.nfe.util.XmlUtil;
-import br.com.samuelweb.nfe.util.annotation.NfeCampo;
 import br.com.samuelweb.nfe.util.annotation.NfeObjeto;
 import br.com.samuelweb.nfe.util.annotation.NfeObjetoList;
 import br.com.samuelweb.nfe.util.consts.DfeConsts;
 import br.com.samuelweb.nfe.util.consts.NfeConsts;
 import br.com.samuelweb.nfe.util.enumeration.EnumNfeValue;
 import br.com.samuelweb.nfe.util.model.InfNFe;
+import br.com.samuelweb.nfe.util.validators.AlteraCampo;
 import br.com.samuelweb.nfe.util.validators.RetornoValidar;
 import br.com.samuelweb.nfe.util.validators.ValidadorCampo;
+import br.com.samuelweb.nfe.util.validators.ValidadorModelo;
 import org.apache.commons.lang3.StringEscapeUtils;
 import org.apache.commons.lang3.StringUtils;
-import org.apache.commons.lang3.text.WordUtils;
 
-import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.time.ZonedDateTime;
@@ -26,6 +24,13 @@ import java.util.List;
 import static java.lang.Boolean.FALSE;
 import static java.lang.Boolean.TRUE;
 
+/**
+ * Valida os campos anotados das classes do modelo.
+ * <p>
+ * Quando existe o validador gerado pelo NfeValidadorProcessor para a classe ({@code <Modelo>Validador}) ele é usado,
+ * chamando os métodos públicos de validação com as regras como constantes. Caso contrário a validação é feita
+ * por reflexão a partir do PlanoValidacao da classe.
+ */
 public class NfeValidator {
 
     private List<ErrosValidacao> errosList;
@@ -49,204 +54,195 @@ public class NfeValidator {
         if (obj == null) {
             return TRUE;
         }
+        PlanoValidacao plano = PlanoValidacao.getPlano(obj.getClass());
+        if (plano.getValidadorGerado() != null) {
+            return plano.getValidadorGerado().validar(this, obj, descricaoGrupo);
+        }
         Boolean result = TRUE;
-        Class<?> persistentClass = obj.getClass();
-        do {
-            for (Field field : persistentClass.getDeclaredFields()) {
-                result = result
-                        & validarCampo(obj, field, descricaoGrupo)
-                        & validarObjeto(obj, field, descricaoGrupo)
-                        & validarObjetoList(obj, field, descricaoGrupo);
-            }
-            persistentClass = persistentClass.getSuperclass();
-        } while (!persistentClass.getName().equals(Object.class.getName()));
+        for (CampoValidacao campo : plano.getCampos()) {
+            result = result
+                    & validarCampo(obj, campo, descricaoGrupo)
+                    & validarObjeto(obj, campo, descricaoGrupo)
+                    & validarObjetoList(obj, campo, descricaoGrupo);
+        }
         return result;
     }
 
-    private Boolean validarObjetoList(Object obj, Field field, String descricaoGrupo) throws NoSuchMethodException, IllegalAccessException, InvocationTargetException {
-        if (field.isAnnotationPresent(NfeObjetoList.class)) {
-            NfeObjetoList nfeObjetoList = field.getAnnotation(NfeObjetoList.class);
-            List<Object> objListRet = (List<Object>) executarMetodoGet(obj, field);
-            Boolean result = TRUE;
-            if (nfeObjetoList.ocorrenciaMinima() > 0 && (objListRet == null || objListRet.isEmpty())) {
-                errosList.add(
-                        new ErrosValidacao(nfeObjetoList.id()
-                                , nfeObjetoList.tag()
-                                , nfeObjetoList.descricao()
-                                , DfeConsts.ERR_MSG_MENOR
-                                , descricaoGrupo));
-            }
-            if (nfeObjetoList.ocorrenciaMaxima() > 0 && objListRet != null && objListRet.size() > nfeObjetoList.ocorrenciaMaxima()) {
-                errosList.add(
-                        new ErrosValidacao(nfeObjetoList.id()
-                                , nfeObjetoList.tag()
-                                , nfeObjetoList.descricao()
-                                , DfeConsts.ERR_MSG_MAIOR
-                                , descricaoGrupo));
-            }
-            if (objListRet != null){
-                for (Object objRet : objListRet) {
-                    result = result & validarObjetoCompleto(objRet, nfeObjetoList.descricao());
-                }
-            }
-            return result;
+    private Boolean validarObjetoList(Object obj, CampoValidacao campo, String descricaoGrupo) throws NoSuchMethodException, IllegalAccessException, InvocationTargetException {
+        if (campo.getNfeObjetoList() != null) {
+            NfeObjetoList nfeObjetoList = campo.getNfeObjetoList();
+            return validarObjetoList(nfeObjetoList.id(), nfeObjetoList.tag(), nfeObjetoList.descricao(),
+                    nfeObjetoList.ocorrenciaMinima(), nfeObjetoList.ocorrenciaMaxima(), (List<?>) campo.get(obj), descricaoGrupo);
         }
         return TRUE;
     }
 
-    private Boolean validarObjeto(Object obj, Field field, String descricaoGrupo) throws NoSuchMethodException, IllegalAccessException, InvocationTargetException {
-        if (field.isAnnotationPresent(NfeObjeto.class)) {
-            NfeObjeto nfeObjeto = field.getAnnotation(NfeObjeto.class);
-            Object objRet = executarMetodoGet(obj, field);
-            Boolean result = TRUE;
-            if (nfeObjeto.ocorrencias() == 1 && objRet == null) {
-                errosList.add(
-                        new ErrosValidacao(nfeObjeto.id()
-                                , nfeObjeto.tag()
-                                , nfeObjeto.descricao()
-                                , DfeConsts.ERR_MSG_VAZIO
-                                , descricaoGrupo));
-                result = FALSE;
+    public Boolean validarObjetoList(String id, String tag, String descricao, int ocorrenciaMinima, int ocorrenciaMaxima,
+                                     List<?> objListRet, String descricaoGrupo) throws NoSuchMethodException, IllegalAccessException, InvocationTargetException {
+        Boolean result = TRUE;
+        if (ocorrenciaMinima > 0 && (objListRet == null || objListRet.isEmpty())) {
+            errosList.add(
+                    new ErrosValidacao(id
+                            , tag
+                            , descricao
+                            , DfeConsts.ERR_MSG_MENOR
+                            , descricaoGrupo));
+        }
+        if (ocorrenciaMaxima > 0 && objListRet != null && objListRet.size() > ocorrenciaMaxima) {
+            errosList.add(
+                    new ErrosValidacao(id
+                            , tag
+                            , descricao
+                            , DfeConsts.ERR_MSG_MAIOR
+                            , descricaoGrupo));
+        }
+        if (objListRet != null){
+            for (Object objRet : objListRet) {
+                result = result & validarObjetoCompleto(objRet, descricao);
             }
-            return result & validarObjetoCompleto(objRet, nfeObjeto.descricao());
+        }
+        return result;
+    }
+
+    private Boolean validarObjeto(Object obj, CampoValidacao campo, String descricaoGrupo) throws NoSuchMethodException, IllegalAccessException, InvocationTargetException {
+        if (campo.getNfeObjeto() != null) {
+            NfeObjeto nfeObjeto = campo.getNfeObjeto();
+            return validarObjeto(nfeObjeto.id(), nfeObjeto.tag(), nfeObjeto.descricao(), nfeObjeto.ocorrencias(),
+                    campo.get(obj), descricaoGrupo);
         }
         return TRUE;
     }
 
-    private Boolean validarCampo(Object obj, Field field, String descricaoGrupo) throws NoSuchMethodException, IllegalAccessException, InvocationTargetException {
+    public Boolean validarObjeto(String id, String tag, String descricao, int ocorrencias, Object objRet, String descricaoGrupo)
+            throws NoSuchMethodException, IllegalAccessException, InvocationTargetException {
         Boolean result = TRUE;
-        if (field.isAnnotationPresent(NfeCampo.class)) {
-            NfeCampo nfeCampo = field.getAnnotation(NfeCampo.class);
-            Object objRet = executarMetodoGet(obj, field);
+        if (ocorrencias == 1 && objRet == null) {
+            errosList.add(
+                    new ErrosValidacao(id
+                            , tag
+                            , descricao
+                            , DfeConsts.ERR_MSG_VAZIO
+                            , descricaoGrupo));
+            result = FALSE;
+        }
+        return result & validarObjetoCompleto(objRet, descricao);
+    }
 
-            if (nfeCampo.tipo().equals(String.class)) {
-                result = validaCampoString(nfeCampo, (String) objRet, obj, field, descricaoGrupo);
-            } else if (nfeCampo.tipo().equals(Integer.class)) {
-                result = validaCampoInteger(nfeCampo, (Integer) objRet, obj, field, descricaoGrupo);
-            } else if (nfeCampo.tipo().equals(ZonedDateTime.class)) {
-                result = validaCampoZonedDateTime(nfeCampo, (ZonedDateTime) objRet, descricaoGrupo);
-            } else if (nfeCampo.tipo().equals(BigDecimal.class)) {
-                result = validaCampoBigDecimalValue(nfeCampo, (BigDecimal) objRet, obj, field, descricaoGrupo);
-            } else if (EnumNfeValue.class.isAssignableFrom(nfeCampo.tipo())) {
-                result = validaCampoEnumNfeValue(nfeCampo, (EnumNfeValue) objRet, descricaoGrupo);
-            }
+    private Boolean validarCampo(Object obj, CampoValidacao campo, String descricaoGrupo) throws NoSuchMethodException, IllegalAccessException, InvocationTargetException {
+        if (campo.getRegra() != null) {
+            RegraCampo regra = campo.getRegra();
+            Object objRet = campo.get(obj);
+            AlteraCampo<Object> altera = valor -> campo.set(obj, valor);
 
-            result = executeValidadores(nfeCampo, obj, objRet, descricaoGrupo) && result;
+            if (regra.getTipo().equals(String.class)) {
+                return validarCampo(regra, (String) objRet, obj, altera::altera, descricaoGrupo);
+            } else if (regra.getTipo().equals(Integer.class)) {
+                return validarCampo(regra, (Integer) objRet, obj, altera::altera, descricaoGrupo);
+            } else if (regra.getTipo().equals(ZonedDateTime.class)) {
+                return validarCampo(regra, (ZonedDateTime) objRet, obj, descricaoGrupo);
+            } else if (regra.getTipo().equals(BigDecimal.class)) {
+                return validarCampo(regra, (BigDecimal) objRet, obj, altera::altera, descricaoGrupo);
+            } else if (EnumNfeValue.class.isAssignableFrom(regra.getTipo())) {
+                return validarCampo(regra, (EnumNfeValue) objRet, obj, descricaoGrupo);
+            }
+            return validarCampo(regra, objRet, obj, descricaoGrupo);
         }
-        return result;
+        return TRUE;
     }
 
-    private Method getMethod(Class<?> persistentClass, String prefixo, String fieldName, Class<?>... parameterTypes) throws NoSuchMethodException, IllegalAccessException, InvocationTargetException {
-        String methodName;
-        try {
-            methodName = prefixo+ WordUtils.capitalize(fieldName);
-            return persistentClass.getDeclaredMethod(methodName, parameterTypes);
-        } catch (NoSuchMethodException e) {
-            methodName = prefixo+ fieldName;
-            return persistentClass.getDeclaredMethod(methodName, parameterTypes);
-        }
+    public Boolean validarCampo(RegraCampo regra, String value, Object obj, AlteraCampo<String> altera, String descricaoGrupo)
+            throws NoSuchMethodException, IllegalAccessException, InvocationTargetException {
+        Boolean result = validaCampoString(regra, value, altera, descricaoGrupo);
+        return executeValidadores(regra, obj, value, descricaoGrupo) && result;
     }
 
-    private Object executarMetodoGet(Object obj, Field field) throws NoSuchMethodException, IllegalAccessException, InvocationTargetException {
-        Class<?> persistentClass = obj.getClass();
-        Method method = null;
-        do {
-            try {
-                method = this.getMethod(persistentClass, "get", field.getName(), null);
-            } catch (NoSuchMethodException e) {
+    public Boolean validarCampo(RegraCampo regra, Integer value, Object obj, AlteraCampo<Integer> altera, String descricaoGrupo)
+            throws NoSuchMethodException, IllegalAccessException, InvocationTargetException {
+        Boolean result = validaCampoInteger(regra, value, altera, descricaoGrupo);
+        return executeValidadores(regra, obj, value, descricaoGrupo) && result;
+    }
 
-            }
-            persistentClass = persistentClass.getSuperclass();
-        } while (method == null && !persistentClass.getName().equals(Object.class.getName()));
-        return method.invoke(obj, null);
+    public Boolean validarCampo(RegraCampo regra, BigDecimal value, Object obj, AlteraCampo<BigDecimal> altera, String descricaoGrupo)
+            throws NoSuchMethodException, IllegalAccessException, InvocationTargetException {
+        Boolean result = validaCampoBigDecimalValue(regra, value, altera, descricaoGrupo);
+        return executeValidadores(regra, obj, value, descricaoGrupo) && result;
     }
 
-    private Object executarMetodoSet(Object obj, Field field, Object value) throws NoSuchMethodException, IllegalAccessException, InvocationTargetException {
-        Class<?> persistentClass = obj.getClass();
-        Method method = null;
-        do {
-            try{
-                if (value != null) {
-                    method = this.getMethod(persistentClass, "set", field.getName(), value.getClass());
-                } else {
-                    method = this.getMethod(persistentClass, "set", field.getName(), null);
-                }
-            } catch (NoSuchMethodException e) {
+    public Boolean validarCampo(RegraCampo regra, ZonedDateTime value, Object obj, String descricaoGrupo) throws IllegalAccessException {
+        Boolean result = validaCampoZonedDateTime(regra, value, descricaoGrupo);
+        return executeValidadores(regra, obj, value, descricaoGrupo) && result;
+    }
 
-            }
-            persistentClass = persistentClass.getSuperclass();
-        } while (method == null && !persistentClass.getName().equals(Object.class.getName()));
-        return method.invoke(obj, value);
+    public Boolean validarCampo(RegraCampo regra, EnumNfeValue value, Object obj, String descricaoGrupo) throws IllegalAccessException {
+        Boolean result = validaCampoEnumNfeValue(regra, value, descricaoGrupo);
+        return executeValidadores(regra, obj, value, descricaoGrupo) && result;
+    }
+
+    /**
+     * Campos de outros tipos (LocalDate, por exemplo) passam apenas pelos validadores.
+     */
+    public Boolean validarCampo(RegraCampo regra, Object value, Object obj, String descricaoGrupo) throws IllegalAccessException {
+        return executeValidadores(regra, obj, value, descricaoGrupo);
     }
 
-    private Boolean validaCampoBigDecimalValue(NfeCampo nfeCampo, BigDecimal value, Object obj, Field field, String descricaoGrupo)
+    private Boolean validaCampoBigDecimalValue(RegraCampo regra, BigDecimal value, AlteraCampo<BigDecimal> altera, String descricaoGrupo)
             throws NoSuchMethodException, IllegalAccessException, InvocationTargetException {
         Boolean result = TRUE;
-        if (!nfeCampo.valorDefault().isEmpty() && value == null) {
-            value = new BigDecimal(nfeCampo.valorDefault());
+        if (!regra.getValorDefault().isEmpty() && value == null) {
+            value = new BigDecimal(regra.getValorDefault());
         }
         if (value != null) {
-            value = value.setScale(nfeCampo.decimais(), RoundingMode.HALF_UP);
-            try {
-                executarMetodoSet(obj, field, value);
-            } catch (NullPointerException e) {
-                field.setAccessible(TRUE);
-                field.set(obj, value);
-            }
+            value = value.setScale(regra.getDecimais(), RoundingMode.HALF_UP);
+            altera.altera(value);
         }
         String valueStr = (value == null? BigDecimal.ZERO.toString(): value.toString());
-        if (value == null && nfeCampo.ocorrencias() >= 1) {
+        if (value == null && regra.getOcorrencias() >= 1) {
             result = FALSE;
             errosList.add(
-                    new ErrosValidacao(nfeCampo.id()
-                            , nfeCampo.tag()
-                            , nfeCampo.descricao()
+                    new ErrosValidacao(regra.getId()
+                            , regra.getTag()
+                            , regra.getDescricao()
                             , DfeConsts.ERR_MSG_VAZIO
                             , descricaoGrupo));
         }
         //valida tamanho campo Mínimo
-        if (valueStr.length() > 1 && nfeCampo.tamanhoMinimo() > 0 && valueStr.length() < nfeCampo.tamanhoMinimo()) {
+        if (valueStr.length() > 1 && regra.getTamanhoMinimo() > 0 && valueStr.length() < regra.getTamanhoMinimo()) {
             result = FALSE;
             errosList.add(
-                    new ErrosValidacao(nfeCampo.id()
-                            , nfeCampo.tag()
-                            , nfeCampo.descricao()
+                    new ErrosValidacao(regra.getId()
+                            , regra.getTag()
+                            , regra.getDescricao()
                             , DfeConsts.ERR_MSG_MENOR
                             , descricaoGrupo));
         }
         //valida tamanho campo máximo
-        if (valueStr.length() > 0 && nfeCampo.tamanhoMaximo() > 0 && valueStr.length() > nfeCampo.tamanhoMaximo())  {
+        if (valueStr.length() > 0 && regra.getTamanhoMaximo() > 0 && valueStr.length() > regra.getTamanhoMaximo())  {
             result = FALSE;
             errosList.add(
-                    new ErrosValidacao(nfeCampo.id()
-                            , nfeCampo.tag()
-                            , nfeCampo.descricao()
+                    new ErrosValidacao(regra.getId()
+                            , regra.getTag()
+                            , regra.getDescricao()
                             , DfeConsts.ERR_MSG_MAIOR
                             , descricaoGrupo));
         }
         //Se o valor do campo é zero e o mesmo não obrigatório envia null para não gerar,
         //ocorria no campo vDesc do produto o problema.
-        if (value != null && value.compareTo(BigDecimal.ZERO) == 0 && nfeCampo.ocorrencias() == 0 && nfeCampo.valorDefault().isEmpty()){
-            try {
-                executarMetodoSet(obj, field, null);
-            } catch (NullPointerException e) {
-                field.setAccessible(TRUE);
-                field.set(obj, null);
-            }
+        if (value != null && value.compareTo(BigDecimal.ZERO) == 0 && regra.getOcorrencias() == 0 && regra.getValorDefault().isEmpty()){
+            altera.altera(null);
         }
         return result;
     }
 
-    private Boolean executeValidadores(NfeCampo nfeCampo, Object obj, Object objRet, String descricaoGrupo) throws IllegalAccessException {
+    private Boolean executeValidadores(RegraCampo regra, Object obj, Object objRet, String descricaoGrupo) throws IllegalAccessException {
         try {
-            for (Class<?> validador : nfeCampo.validadores()) {
-                ValidadorCampo<Object, Object> val = (ValidadorCampo<Object, Object>) validador.newInstance();
+            for (int i = 0; i < regra.getQuantidadeValidadores(); i++) {
+                ValidadorCampo<Object, Object> val = regra.getValidador(i);
                 RetornoValidar retorno = val.validar(objRet, obj);
                 if (!retorno.getValido()) {
                     errosList.add(
-                            new ErrosValidacao(nfeCampo.id()
-                                    , nfeCampo.tag()
-                                    , nfeCampo.descricao()
+                            new ErrosValidacao(regra.getId()
+                                    , regra.getTag()
+                                    , regra.getDescricao()
                                     , retorno.getMensagem()
                                     , descricaoGrupo));
                     return FALSE;
@@ -258,12 +254,12 @@ public class NfeValidator {
         return TRUE;
     }
 
-    private Boolean validaCampoEnumNfeValue(NfeCampo nfeCampo, EnumNfeValue value, String descricaoGrupo) {
-        if (value == null && nfeCampo.ocorrencias() >= 1) {
+    private Boolean validaCampoEnumNfeValue(RegraCampo regra, EnumNfeValue value, String descricaoGrupo) {
+        if (value == null && regra.getOcorrencias() >= 1) {
             errosList.add(
-                    new ErrosValidacao(nfeCampo.id()
-                            , nfeCampo.tag()
-                            , nfeCampo.descricao()
+                    new ErrosValidacao(regra.getId()
+                            , regra.getTag()
+                            , regra.getDescricao()
                             , DfeConsts.ERR_MSG_VAZIO
                             , descricaoGrupo));
             return FALSE;
@@ -271,125 +267,110 @@ public class NfeValidator {
         return TRUE;
     }
 
-    private Boolean validaCampoZonedDateTime(NfeCampo nfeCampo, ZonedDateTime value, String descricaoGrupo) {
+    private Boolean validaCampoZonedDateTime(RegraCampo regra, ZonedDateTime value, String descricaoGrupo) {
         Boolean result = TRUE;
-        if (value == null && nfeCampo.ocorrencias() >= 1) {
+        if (value == null && regra.getOcorrencias() >= 1) {
             result = FALSE;
             errosList.add(
-                    new ErrosValidacao(nfeCampo.id()
-                            , nfeCampo.tag()
-                            , nfeCampo.descricao()
+                    new ErrosValidacao(regra.getId()
+                            , regra.getTag()
+                            , regra.getDescricao()
                             , DfeConsts.ERR_MSG_VAZIO
                             , descricaoGrupo));
         }
         return result;
     }
 
-    private Boolean validaCampoInteger(NfeCampo nfeCampo, Integer value, Object obj, Field field, String descricaoGrupo)
+    private Boolean validaCampoInteger(RegraCampo regra, Integer value, AlteraCampo<Integer> altera, String descricaoGrupo)
             throws NoSuchMethodException, IllegalAccessException, InvocationTargetException {
         Boolean result = TRUE;
-        if (!nfeCampo.valorDefault().isEmpty() && value == null) {
-            value = Integer.parseInt(nfeCampo.valorDefault());
-            try {
-                executarMetodoSet(obj, field, value);
-            } catch (NullPointerException e) {
-                field.setAccessible(TRUE);
-                field.set(obj, value);
-            }
+        if (!regra.getValorDefault().isEmpty() && value == null) {
+            value = Integer.parseInt(regra.getValorDefault());
+            altera.altera(value);
         }
         String valueStr = String.valueOf(value == null? 0: value);
-        if (value == null && nfeCampo.ocorrencias() >= 1) {
+        if (value == null && regra.getOcorrencias() >= 1) {
             result = FALSE;
             errosList.add(
-                    new ErrosValidacao(nfeCampo.id()
-                            , nfeCampo.tag()
-                            , nfeCampo.descricao()
+                    new ErrosValidacao(regra.getId()
+                            , regra.getTag()
+                            , regra.getDescricao()
                             , DfeConsts.ERR_MSG_VAZIO
                             , descricaoGrupo));
         }
         //valida tamanho campo Mínimo
-        if (valueStr.length() > 1 && nfeCampo.tamanhoMinimo() > 0 && valueStr.length() < nfeCampo.tamanhoMinimo()) {
+        if (valueStr.length() > 1 && regra.getTamanhoMinimo() > 0 && valueStr.length() < regra.getTamanhoMinimo()) {
             result = FALSE;
             errosList.add(
-                    new ErrosValidacao(nfeCampo.id()
-                            , nfeCampo.tag()
-                            , nfeCampo.descricao()
+                    new ErrosValidacao(regra.getId()
+                            , regra.getTag()
+                            , regra.getDescricao()
                             , DfeConsts.ERR_MSG_MENOR
                             , descricaoGrupo));
         }
         //valida tamanho campo máximo
-        if (valueStr.length() > 0 && nfeCampo.tamanhoMaximo() > 0 && valueStr.length() > nfeCampo.tamanhoMaximo())  {
+        if (valueStr.length() > 0 && regra.getTamanhoMaximo() > 0 && valueStr.length() > regra.getTamanhoMaximo())  {
             result = FALSE;
             errosList.add(
-                    new ErrosValidacao(nfeCampo.id()
-                            , nfeCampo.tag()
-                            , nfeCampo.descricao()
+                    new ErrosValidacao(regra.getId()
+                            , regra.getTag()
+                            , regra.getDescricao()
                             , DfeConsts.ERR_MSG_MAIOR
                             , descricaoGrupo));
         }
         return result;
     }
 
-    private Boolean validaCampoString(NfeCampo nfeCampo, String value, Object obj, Field field, String descricaoGrupo)
+    private Boolean validaCampoString(RegraCampo regra, String value, AlteraCampo<String> altera, String descricaoGrupo)
             throws NoSuchMethodException, IllegalAccessException, InvocationTargetException {
         Boolean result = TRUE;
-        if (value == null && nfeCampo.ocorrencias() == 0) {
+        if (value == null && regra.getOcorrencias() == 0) {
             return result;
         }
         if (value == null) {
             value = "";
         }
-        if (!nfeCampo.valorDefault().isEmpty() && value.isEmpty()) {
-            value = nfeCampo.valorDefault();
-            try {
-                executarMetodoSet(obj, field, value);
-            } catch (NullPointerException e) {
-                field.setAccessible(TRUE);
-                field.set(obj, value);
-            }
+        if (!regra.getValorDefault().isEmpty() && value.isEmpty()) {
+            value = regra.getValorDefault();
+            altera.altera(value);
         }
         //(Existem tags obrigatórias que podem ser nulas ex. cEAN)  if (ocorrencias = 1) and (EstaVazio) then
-        if (nfeCampo.ocorrencias() == 1 && value.length() ==0 && nfeCampo.tamanhoMinimo() > 0) {
+        if (regra.getOcorrencias() == 1 && value.length() ==0 && regra.getTamanhoMinimo() > 0) {
             result = FALSE;
             errosList.add(
-                    new ErrosValidacao(nfeCampo.id()
-                            , nfeCampo.tag()
-                            , nfeCampo.descricao()
+                    new ErrosValidacao(regra.getId()
+                            , regra.getTag()
+                            , regra.getDescricao()
                             , DfeConsts.ERR_MSG_VAZIO
                             , descricaoGrupo));
         }
         //valida tamanho campo Mínimo
-        if (value.length() > 0 && nfeCampo.tamanhoMinimo() > 0 && value.length() < nfeCampo.tamanhoMinimo()) {
+        if (value.length() > 0 && regra.getTamanhoMinimo() > 0 && value.length() < regra.getTamanhoMinimo()) {
             result = FALSE;
             errosList.add(
-                    new ErrosValidacao(nfeCampo.id()
-                            , nfeCampo.tag()
-                            , nfeCampo.descricao()
+                    new ErrosValidacao(regra.getId()
+                            , regra.getTag()
+                            , regra.getDescricao()
                             , DfeConsts.ERR_MSG_MENOR
                             , descricaoGrupo));
         }
         //valida tamanho campo máximo
-        if (value.length() > 0 && nfeCampo.tamanhoMaximo() > 0 && value.length() > nfeCampo.tamanhoMaximo())  {
+        if (value.length() > 0 && regra.getTamanhoMaximo() > 0 && value.length() > regra.getTamanhoMaximo())  {
             result = FALSE;
             errosList.add(
-                    new ErrosValidacao(nfeCampo.id()
-                            , nfeCampo.tag()
-                            , nfeCampo.descricao()
+                    new ErrosValidacao(regra.getId()
+                            , regra.getTag()
+                            , regra.getDescricao()
                             , DfeConsts.ERR_MSG_MAIOR
                             , descricaoGrupo));
         }
 
         value = XmlUtil.removeAcentos(value).trim();
         value = StringEscapeUtils.escapeHtml4(value);
-        if (value.length() > 0 && nfeCampo.tamanhoMaximo() > 0 && value.length() > nfeCampo.tamanhoMaximo())  {
-            value = value.substring(1, nfeCampo.tamanhoMaximo());
-        }
-        try {
-            executarMetodoSet(obj, field, value);
-        } catch (NullPointerException e) {
-            field.setAccessible(TRUE);
-            field.set(obj, value);
+        if (value.length() > 0 && regra.getTamanhoMaximo() > 0 && value.length() > regra.getTamanhoMaximo())  {
+            value = value.substring(1, regra.getTamanhoMaximo());
         }
+        altera.altera(value);
         return result;
     }
 }
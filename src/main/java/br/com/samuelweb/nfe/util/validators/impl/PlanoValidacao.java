@@ -0,0 +1,79 @@
+package br.com.samuelweb.nfe.util.validators.impl;
+
+import br.com.samuelweb.nfe.util.validators.ValidadorModelo;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Campos anotados de uma classe do modelo, na mesma ordem em que o NfeValidator os percorria
+ * (campos da classe e depois das superclasses).
+ * <p>
+ * O plano é montado uma única vez por classe e guardado em um ClassValue, evitando repetir a reflexão
+ * a cada validação. Quando existe o validador gerado pelo NfeValidadorProcessor ({@code <Modelo>Validador})
+ * ele é usado no lugar dos campos e nenhuma reflexão é feita na validação.
+ */
+final class PlanoValidacao {
+
+    private static final ClassValue<PlanoValidacao> PLANOS = new ClassValue<PlanoValidacao>() {
+        @Override
+        protected PlanoValidacao computeValue(Class<?> classe) {
+            return new PlanoValidacao(classe);
+        }
+    };
+
+    private final ValidadorModelo<Object> validadorGerado;
+
+    private final List<CampoValidacao> campos;
+
+    private PlanoValidacao(Class<?> classe) {
+        this.validadorGerado = validadorGerado(classe);
+        if (validadorGerado != null) {
+            this.campos = Collections.emptyList();
+            return;
+        }
+
+        List<CampoValidacao> lista = new ArrayList<>();
+        Class<?> persistentClass = classe;
+        do {
+            for (Field field : persistentClass.getDeclaredFields()) {
+                if (CampoValidacao.isAnotado(field)) {
+                    lista.add(new CampoValidacao(classe, field));
+                }
+            }
+            persistentClass = persistentClass.getSuperclass();
+        } while (persistentClass != null && persistentClass != Object.class);
+        this.campos = Collections.unmodifiableList(lista);
+    }
+
+    static PlanoValidacao getPlano(Class<?> classe) {
+        return PLANOS.get(classe);
+    }
+
+    /**
+     * @return validador gerado para a classe, ou null quando a validação deve ser feita pelos campos
+     */
+    ValidadorModelo<Object> getValidadorGerado() {
+        return validadorGerado;
+    }
+
+    List<CampoValidacao> getCampos() {
+        return campos;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ValidadorModelo<Object> validadorGerado(Class<?> classe) {
+        try {
+            Class<?> gerado = Class.forName(classe.getName() + "Validador", true, classe.getClassLoader());
+            if (ValidadorModelo.class.isAssignableFrom(gerado)) {
+                return (ValidadorModelo<Object>) gerado.newInstance();
+            }
+        } catch (ClassNotFoundException | InstantiationException | IllegalAccessException | LinkageError e) {
+            // sem validador gerado, usa a reflexão
+        }
+        return null;
+    }
+
+}
@@ -0,0 +1,109 @@
+package br.com.samuelweb.nfe.util.validators.impl;
+
+import br.com.samuelweb.nfe.util.annotation.NfeCampo;
+import br.com.samuelweb.nfe.util.validators.ValidadorCampo;
+
+/**
+ * Regras de um campo anotado com {@link NfeCampo}, com os validadores já instanciados.
+ * <p>
+ * Usada pelo NfeValidator tanto na validação por reflexão quanto pelos validadores gerados
+ * pelo NfeValidadorProcessor, que criam as regras com os valores da anotação como constantes.
+ */
+public final class RegraCampo {
+
+    private final String id;
+    private final String tag;
+    private final String descricao;
+    private final Class<?> tipo;
+    private final int tamanhoMinimo;
+    private final int tamanhoMaximo;
+    private final int decimais;
+    private final int ocorrencias;
+    private final String valorDefault;
+    private final Object[] validadores;
+
+    public RegraCampo(String id, String tag, String descricao, Class<?> tipo, int tamanhoMinimo, int tamanhoMaximo,
+                      int decimais, int ocorrencias, String valorDefault, Class<?>... validadores) {
+        this.id = id;
+        this.tag = tag;
+        this.descricao = descricao;
+        this.tipo = tipo;
+        this.tamanhoMinimo = tamanhoMinimo;
+        this.tamanhoMaximo = tamanhoMaximo;
+        this.decimais = decimais;
+        this.ocorrencias = ocorrencias;
+        this.valorDefault = valorDefault;
+        this.validadores = new Object[validadores.length];
+        for (int i = 0; i < validadores.length; i++) {
+            this.validadores[i] = instancia(validadores[i]);
+        }
+    }
+
+    RegraCampo(NfeCampo nfeCampo) {
+        this(nfeCampo.id(), nfeCampo.tag(), nfeCampo.descricao(), nfeCampo.tipo(), nfeCampo.tamanhoMinimo(),
+                nfeCampo.tamanhoMaximo(), nfeCampo.decimais(), nfeCampo.ocorrencias(), nfeCampo.valorDefault(),
+                nfeCampo.validadores());
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getTag() {
+        return tag;
+    }
+
+    public String getDescricao() {
+        return descricao;
+    }
+
+    public Class<?> getTipo() {
+        return tipo;
+    }
+
+    public int getTamanhoMinimo() {
+        return tamanhoMinimo;
+    }
+
+    public int getTamanhoMaximo() {
+        return tamanhoMaximo;
+    }
+
+    public int getDecimais() {
+        return decimais;
+    }
+
+    public int getOcorrencias() {
+        return ocorrencias;
+    }
+
+    public String getValorDefault() {
+        return valorDefault;
+    }
+
+    /**
+     * Validadores do campo, já instanciados. Quando não foi possível instanciar fica a Class,
+     * instanciada a cada validação como era feito antes.
+     */
+    @SuppressWarnings("unchecked")
+    ValidadorCampo<Object, Object> getValidador(int i) throws InstantiationException, IllegalAccessException {
+        Object validador = validadores[i];
+        if (validador instanceof Class) {
+            return (ValidadorCampo<Object, Object>) ((Class<?>) validador).newInstance();
+        }
+        return (ValidadorCampo<Object, Object>) validador;
+    }
+
+    int getQuantidadeValidadores() {
+        return validadores.length;
+    }
+
+    private static Object instancia(Class<?> validador) {
+        try {
+            return validador.newInstance();
+        } catch (InstantiationException | IllegalAccessException e) {
+            return validador;
+        }
+    }
+
+}
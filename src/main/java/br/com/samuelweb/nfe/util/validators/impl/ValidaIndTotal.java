@@ -9,7 +9,7 @@ import java.util.Map;
 
 public class ValidaIndTotal implements ValidadorCampo<Integer, Prod> {
 
-    private static Map<Integer, String> indicaTotal =  new HashMap<>();
+    private static final Map<Integer, String> indicaTotal =  new HashMap<>();
     static {
         indicaTotal.put(0, "Valor do item (vProd) não compõe o valor total da NF-e");
         indicaTotal.put(1, "Valor do item (vProd) compõe o valor total da NF-e (vProd)");
@@ -8,7 +8,7 @@ import java.util.HashMap;
 import java.util.Map;
 
 public class ValidarAmbiente implements ValidadorCampo<Integer, Ide> {
-    private static Map<Integer, String> tipoDanfeMap =  new HashMap<>();
+    private static final Map<Integer, String> tipoDanfeMap =  new HashMap<>();
     static {
         tipoDanfeMap.put(1, "Produção");
         tipoDanfeMap.put(2, "Homologação");
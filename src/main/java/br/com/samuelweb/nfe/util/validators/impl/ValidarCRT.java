@@ -9,7 +9,7 @@ import java.util.Map;
 
 public class ValidarCRT implements ValidadorCampo<String, Emit> {
 
-    private static Map<String, String> crtMap =  new HashMap<>();
+    private static final Map<String, String> crtMap =  new HashMap<>();
     static {
         inicializarMap(crtMap);
     }
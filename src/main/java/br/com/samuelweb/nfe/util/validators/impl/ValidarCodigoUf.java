@@ -13,7 +13,7 @@ import java.util.Map;
 
 public class ValidarCodigoUf implements ValidadorCampo<Integer, Object> {
 
-    private static Map<String, Estados> estadosMap =  new HashMap<>();
+    private static final Map<String, Estados> estadosMap =  new HashMap<>();
     static {
         for (Estados estado : Estados.values()) {
             estadosMap.put(estado.getCodigoIbge(), estado);
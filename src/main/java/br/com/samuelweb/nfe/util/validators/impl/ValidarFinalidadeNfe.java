@@ -8,7 +8,7 @@ import java.util.HashMap;
 import java.util.Map;
 
 public class ValidarFinalidadeNfe implements ValidadorCampo<Integer, Ide> {
-    private static Map<Integer, String> finalidadeNfeMap =  new HashMap<>();
+    private static final Map<Integer, String> finalidadeNfeMap =  new HashMap<>();
     static {
         inicializarMap(finalidadeNfeMap);
     }
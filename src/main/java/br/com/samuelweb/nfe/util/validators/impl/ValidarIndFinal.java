@@ -8,7 +8,7 @@ import java.util.HashMap;
 import java.util.Map;
 
 public class ValidarIndFinal implements ValidadorCampo<Integer, Ide> {
-    private static Map<Integer, String> inficadorConsumidorFinalMap =  new HashMap<>();
+    private static final Map<Integer, String> inficadorConsumidorFinalMap =  new HashMap<>();
     static {
         inficadorConsumidorFinalMap.put(0, "Normal");
         inficadorConsumidorFinalMap.put(1, "Consumidor final");
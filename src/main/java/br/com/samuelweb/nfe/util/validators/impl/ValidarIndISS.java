@@ -9,7 +9,7 @@ import java.util.Map;
 
 public class ValidarIndISS implements ValidadorCampo<Integer, Object> {
 
-    private static Map<Integer, IndISS> indISSMap = new HashMap<>();
+    private static final Map<Integer, IndISS> indISSMap = new HashMap<>();
     static {
         indISSMap.put(1, IndISS.EXIGIVEL);
         indISSMap.put(2, IndISS.NAO_INCIDENCIA);
@@ -7,7 +7,7 @@ import java.util.HashMap;
 import java.util.Map;
 
 public class ValidarIndIeDestinatario implements ValidadorCampo<Integer, Object> {
-    private static Map<Integer, String> tipoDanfeMap =  new HashMap<>();
+    private static final Map<Integer, String> tipoDanfeMap =  new HashMap<>();
     static {
         tipoDanfeMap.put(1, "Contribuinte ICMS (informar a IE do destinatário)");
         tipoDanfeMap.put(2, "Contribuinte isento de Inscrição no cadastro de Contribuintes do ICMS");
@@ -9,7 +9,7 @@ import java.util.Map;
 
 public class ValidarIndPresencial implements ValidadorCampo<Integer, Ide> {
 
-    private static Map<Integer, String> indicadorPresencialMap =  new HashMap<>();
+    private static final Map<Integer, String> indicadorPresencialMap =  new HashMap<>();
     static {
         indicadorPresencialMap.put(0, "Não se aplica (por exemplo, Nota Fiscal complementar ou de ajuste);");
         indicadorPresencialMap.put(1, "Operação presencial;");
@@ -10,7 +10,7 @@ import java.util.Map;
 
 public class ValidarIndicadorOrigemProcesso implements ValidadorCampo<Integer, ProcRef> {
 
-    private static Map<Integer, IndicadorOrigemProcesso> modBCMap =  new HashMap<>();
+    private static final Map<Integer, IndicadorOrigemProcesso> modBCMap =  new HashMap<>();
 
     static {
         modBCMap.put(0, IndicadorOrigemProcesso.SEFAZ);
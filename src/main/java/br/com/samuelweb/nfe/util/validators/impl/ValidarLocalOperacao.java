@@ -8,7 +8,7 @@ import java.util.Map;
 
 public class ValidarLocalOperacao implements ValidadorCampo<Integer, Object> {
 
-    private static Map<Integer, String> localOperacaoMap =  new HashMap<>();
+    private static final Map<Integer, String> localOperacaoMap =  new HashMap<>();
     static {
         localOperacaoMap.put(1, "Operação interna");
         localOperacaoMap.put(2, "Operação interestadual");
@@ -9,7 +9,7 @@ import java.util.Map;
 
 public class ValidarModeloDocumento implements ValidadorCampo<String, Object> {
 
-    private static Map<String, ModeloDocumento> modeloMap =  new HashMap<>();
+    private static final Map<String, ModeloDocumento> modeloMap =  new HashMap<>();
     static {
 
         modeloMap.put(ModeloDocumento.NFE.getValue(), ModeloDocumento.NFE);
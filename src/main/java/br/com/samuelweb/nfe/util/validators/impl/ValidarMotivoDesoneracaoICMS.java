@@ -8,7 +8,7 @@ import java.util.HashMap;
 import java.util.Map;
 
 public class ValidarMotivoDesoneracaoICMS implements ValidadorCampo<Integer, Object> {
-    private static Map<Integer, MotivoDesoneracaoICMS> motDesonICMSMap =  new HashMap<>();
+    private static final Map<Integer, MotivoDesoneracaoICMS> motDesonICMSMap =  new HashMap<>();
 
     static {
         motDesonICMSMap.put(1, MotivoDesoneracaoICMS.TAXI);
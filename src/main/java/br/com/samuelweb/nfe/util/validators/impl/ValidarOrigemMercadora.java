@@ -9,7 +9,7 @@ import java.util.HashMap;
 import java.util.Map;
 
 public class ValidarOrigemMercadora implements ValidadorCampo<Integer, Object> {
-    private static Map<Integer, OrigemMercadoria> origemMercadoriaMap =  new HashMap<>();
+    private static final Map<Integer, OrigemMercadoria> origemMercadoriaMap =  new HashMap<>();
     static {
         origemMercadoriaMap.put(0, OrigemMercadoria.NACIONAL);
         origemMercadoriaMap.put(1, OrigemMercadoria.ESTRANGEIRA_IMPORTACAO_DIRETA);
@@ -7,7 +7,7 @@ import java.util.HashMap;
 import java.util.Map;
 
 public class ValidarProcEmi implements ValidadorCampo<Integer, Object> {
-    private static Map<Integer, String> procEmiMap =  new HashMap<>();
+    private static final Map<Integer, String> procEmiMap =  new HashMap<>();
     static {
         procEmiMap.put(0, "Emissão de NF-e com aplicativo do contribuinte");
         procEmiMap.put(1, "Emissão de NF-e avulsa pelo Fisco");
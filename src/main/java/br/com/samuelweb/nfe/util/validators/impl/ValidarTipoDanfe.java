@@ -7,7 +7,7 @@ import java.util.HashMap;
 import java.util.Map;
 
 public class ValidarTipoDanfe implements ValidadorCampo<Integer, Object> {
-    private static Map<Integer, String> tipoDanfeMap =  new HashMap<>();
+    private static final Map<Integer, String> tipoDanfeMap =  new HashMap<>();
     static {
         ValidarFinalidadeNfe.inicializarMap(tipoDanfeMap);
     }
@@ -7,7 +7,7 @@ import java.util.HashMap;
 import java.util.Map;
 
 public class ValidarTipoEmissaoNfe implements ValidadorCampo<Integer, Object> {
-    private static Map<Integer, String> tipoEmissaoMap =  new HashMap<>();
+    private static final Map<Integer, String> tipoEmissaoMap =  new HashMap<>();
     static {
         tipoEmissaoMap.put(1, "Emissão normal (não em contingência)");
         tipoEmissaoMap.put(2, "Contingência FS-IA, com impressão do DANFE em formulário de segurança");
@@ -9,7 +9,7 @@ import java.util.Map;
 
 public class ValidarTipoOperacao implements ValidadorCampo<Integer, Ide> {
 
-    private static Map<Integer, String> tipoOperacaoMap =  new HashMap<>();
+    private static final Map<Integer, String> tipoOperacaoMap =  new HashMap<>();
     static {
         tipoOperacaoMap.put(0, "Entrada");
         tipoOperacaoMap.put(1, "Saída");
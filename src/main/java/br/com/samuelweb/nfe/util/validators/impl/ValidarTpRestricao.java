@@ -7,7 +7,7 @@ import java.util.HashMap;
 import java.util.Map;
 
 public class ValidarTpRestricao implements ValidadorCampo<Integer, Object> {
-    private static Map<Integer, String> tipoResticaoMap =  new HashMap<>();
+    private static final Map<Integer, String> tipoResticaoMap =  new HashMap<>();
     static {
         tipoResticaoMap.put(0, "Não há");
         tipoResticaoMap.put(1, "Alienação Fiduciária");
@@ -0,0 +1,195 @@
+package br.com.samuelweb.nfe;
+
+import br.com.samuelweb.nfe.exception.NfeException;
+import br.com.samuelweb.nfe.util.XmlUtil;
+import br.inf.portalfiscal.nfe.schema_4.enviNFe.TEnviNFe;
+import br.inf.portalfiscal.nfe.schema_4.enviNFe.TNFe;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Fechamento dos lotes por quantidade ({@link AgrupadorLote#MAXIMO_NFE}), tamanho
+ * ({@link AgrupadorLote#TAMANHO_MAXIMO_BYTES}), mudança do tpEmis e tempo de espera.
+ */
+public class AgrupadorLoteTest {
+
+    private static final String CNPJ = "10732644000128";
+
+    private final BlockingQueue<TEnviNFe> lotes = new LinkedBlockingQueue<>();
+    private ScheduledThreadPoolExecutor agendador;
+    private int numero;
+
+    @Before
+    public void inicia() {
+        agendador = new ScheduledThreadPoolExecutor(1);
+    }
+
+    @After
+    public void encerra() {
+        agendador.shutdownNow();
+    }
+
+    @Test
+    public void fechaComCinquentaNfes() throws NfeException {
+        AgrupadorLote agrupador = new AgrupadorLote(agendador, 60000, lotes::add);
+
+        for (int i = 0; i < AgrupadorLote.MAXIMO_NFE + 1; i++) {
+            agrupador.adiciona(nfe("1", 0));
+        }
+
+        TEnviNFe lote = lotes.poll();
+        assertNotNull(lote);
+        assertEquals(AgrupadorLote.MAXIMO_NFE, lote.getNFe().size());
+        assertEquals("0", lote.getIndSinc());
+        assertNull(lotes.poll());
+
+        agrupador.descarrega();
+        lote = lotes.poll();
+        assertEquals(1, lote.getNFe().size());
+        assertEquals("1", lote.getIndSinc());
+    }
+
+    @Test
+    public void fechaAntesDoTamanhoMaximo() throws Exception {
+        AgrupadorLote agrupador = new AgrupadorLote(agendador, 60000, lotes::add);
+
+        // ~120 KB cada: a quinta NFe ultrapassaria os 500 KB
+        for (int i = 0; i < 5; i++) {
+            agrupador.adiciona(nfe("1", 120 * 1024));
+        }
+
+        TEnviNFe lote = lotes.poll();
+        assertNotNull(lote);
+        assertEquals(4, lote.getNFe().size());
+        assertTrue(tamanho(lote) <= AgrupadorLote.TAMANHO_MAXIMO_BYTES);
+        assertNull(lotes.poll());
+
+        agrupador.descarrega();
+        assertEquals(1, lotes.poll().getNFe().size());
+    }
+
+    @Test
+    public void rejeitaNfeMaiorQueOLote() throws NfeException {
+        AgrupadorLote agrupador = new AgrupadorLote(agendador, 60000, lotes::add);
+        agrupador.adiciona(nfe("1", 0));
+
+        try {
+            agrupador.adiciona(nfe("1", AgrupadorLote.TAMANHO_MAXIMO_BYTES));
+            fail("NFe acima do tamanho máximo agrupada.");
+        } catch (NfeException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("tamanho máximo"));
+        }
+
+        // O lote atual não é afetado
+        assertNull(lotes.poll());
+        agrupador.descarrega();
+        assertEquals(1, lotes.poll().getNFe().size());
+    }
+
+    @Test
+    public void separaPorTpEmis() throws NfeException {
+        AgrupadorLote agrupador = new AgrupadorLote(agendador, 60000, lotes::add);
+
+        agrupador.adiciona(nfe("1", 0));
+        agrupador.adiciona(nfe("1", 0));
+        agrupador.adiciona(nfe("6", 0));
+        agrupador.adiciona(nfe("6", 0));
+
+        TEnviNFe normal = lotes.poll();
+        assertNotNull(normal);
+        assertEquals(2, normal.getNFe().size());
+        for (TNFe nfe : normal.getNFe()) {
+            assertEquals("1", nfe.getInfNFe().getIde().getTpEmis());
+        }
+        assertNull(lotes.poll());
+
+        agrupador.adiciona(nfe("1", 0));
+        TEnviNFe svc = lotes.poll();
+        assertNotNull(svc);
+        assertEquals(2, svc.getNFe().size());
+        for (TNFe nfe : svc.getNFe()) {
+            assertEquals("6", nfe.getInfNFe().getIde().getTpEmis());
+        }
+    }
+
+    @Test
+    public void fechaPeloTempoDeEspera() throws Exception {
+        AgrupadorLote agrupador = new AgrupadorLote(agendador, 100, lotes::add);
+
+        agrupador.adiciona(nfe("1", 0));
+        agrupador.adiciona(nfe("1", 0));
+        assertNull(lotes.poll());
+
+        TEnviNFe lote = lotes.poll(5, TimeUnit.SECONDS);
+        assertNotNull("Lote não fechado pelo tempo de espera", lote);
+        assertEquals(2, lote.getNFe().size());
+        assertEquals("0", lote.getIndSinc());
+
+        // A espera do lote já enviado não fecha o próximo antes do tempo dele
+        agrupador.adiciona(nfe("1", 0));
+        assertNull(lotes.poll(50, TimeUnit.MILLISECONDS));
+        lote = lotes.poll(5, TimeUnit.SECONDS);
+        assertNotNull(lote);
+        assertEquals("1", lote.getIndSinc());
+    }
+
+    @Test
+    public void naoAgrupaOutroEmitente() throws NfeException {
+        AgrupadorLote agrupador = new AgrupadorLote(agendador, 60000, lotes::add);
+        agrupador.adiciona(nfe("1", 0));
+
+        TNFe outro = nfe("1", 0);
+        outro.getInfNFe().getEmit().setCNPJ("11222333000181");
+        try {
+            agrupador.adiciona(outro);
+            fail("NFe de outro emitente agrupada.");
+        } catch (NfeException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("não pode ser agrupada"));
+        }
+    }
+
+    private TNFe nfe(String tpEmis, int tamanhoInfCpl) {
+        TNFe.InfNFe.Ide ide = new TNFe.InfNFe.Ide();
+        ide.setMod("55");
+        ide.setTpEmis(tpEmis);
+
+        TNFe.InfNFe.Emit emit = new TNFe.InfNFe.Emit();
+        emit.setCNPJ(CNPJ);
+
+        TNFe.InfNFe infNFe = new TNFe.InfNFe();
+        infNFe.setVersao("4.00");
+        infNFe.setId("NFe" + (++numero));
+        infNFe.setIde(ide);
+        infNFe.setEmit(emit);
+        if (tamanhoInfCpl > 0) {
+            TNFe.InfNFe.InfAdic infAdic = new TNFe.InfNFe.InfAdic();
+            infAdic.setInfCpl(new String(new char[tamanhoInfCpl]).replace('\0', 'x'));
+            infNFe.setInfAdic(infAdic);
+        }
+
+        TNFe nfe = new TNFe();
+        nfe.setInfNFe(infNFe);
+        return nfe;
+    }
+
+    private static int tamanho(TEnviNFe lote) throws Exception {
+        int tamanho = 0;
+        for (TNFe nfe : lote.getNFe()) {
+            tamanho += XmlUtil.objectToXmlBytes(nfe).length;
+        }
+        return tamanho;
+    }
+
+}
@@ -0,0 +1,251 @@
+package br.com.samuelweb.nfe;
+
+import br.com.samuelweb.certificado.Certificado;
+import br.com.samuelweb.certificado.CertificadoService;
+import br.com.samuelweb.nfe.dom.ConfiguracoesIniciaisNfe;
+import br.com.samuelweb.nfe.dom.ConfiguracoesNfe;
+import br.com.samuelweb.nfe.dom.ConfiguracoesWebNfe;
+import br.com.samuelweb.nfe.util.ConstantesUtil;
+import br.com.samuelweb.nfe.util.Estados;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import javax.xml.crypto.dsig.XMLSignature;
+import javax.xml.crypto.dsig.XMLSignatureFactory;
+import javax.xml.crypto.dsig.dom.DOMValidateContext;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.KeyStore;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Assinatura e configuração usadas por várias threads ao mesmo tempo. A assinatura RSA-SHA1 é determinística, por
+ * isso o xml assinado sob concorrência deve ser idêntico ao assinado sequencialmente.
+ * <p>
+ * Protege o {@link Assinador}: o SignatureMethod e o CanonicalizationMethod do JDK guardam o java.security.Signature e
+ * o canonicalizador, e quando eram compartilhados pelas threads geravam assinaturas trocadas ou inválidas.
+ * <p>
+ * O certificado de teste é gerado pelo keytool do JDK em execução.
+ */
+public class AssinarConcorrenteTest {
+
+    private static final String SENHA = "123456";
+    private static final int NOTAS = 40;
+    private static final int THREADS = 8;
+    private static final int ASSINATURAS = 2000;
+
+    private static File pasta;
+    private static Certificado certificado;
+    private static PublicKey chavePublica;
+
+    @BeforeClass
+    public static void geraCertificado() throws Exception {
+        pasta = Files.createTempDirectory("assinar").toFile();
+        File pfx = new File(pasta, "teste.pfx");
+        String keytool = System.getProperty("java.home") + File.separator + "bin" + File.separator + "keytool";
+        Process processo = new ProcessBuilder(keytool, "-genkeypair", "-alias", "teste", "-keyalg", "RSA",
+                "-keysize", "2048", "-dname", "CN=EMPRESA TESTE:00261729000111", "-validity", "30",
+                "-storetype", "PKCS12", "-keystore", pfx.getPath(), "-storepass", SENHA, "-keypass", SENHA)
+                .redirectErrorStream(true).start();
+        assertTrue("keytool não terminou", processo.waitFor(60, TimeUnit.SECONDS));
+        assertEquals("keytool falhou", 0, processo.exitValue());
+
+        certificado = CertificadoService.certificadoPfx(pfx.getPath(), SENHA);
+
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        try (InputStream in = new FileInputStream(pfx)) {
+            keyStore.load(in, SENHA.toCharArray());
+        }
+        chavePublica = keyStore.getCertificate("teste").getPublicKey();
+    }
+
+    @AfterClass
+    public static void removeCertificado() {
+        File[] arquivos = pasta.listFiles();
+        if (arquivos != null) {
+            for (File arquivo : arquivos) {
+                arquivo.delete();
+            }
+        }
+        pasta.delete();
+    }
+
+    @Test
+    public void assinaturaConcorrenteIgualASequencial() throws Exception {
+        ConfiguracoesNfe config = ConfiguracoesWebNfe.iniciaConfiguracoes(Estados.GO,
+                ConstantesUtil.AMBIENTE.HOMOLOGACAO, certificado, null, false);
+
+        String[] xmls = new String[NOTAS];
+        String[] esperados = new String[NOTAS];
+        for (int i = 0; i < NOTAS; i++) {
+            xmls[i] = enviNFe(i);
+            esperados[i] = Assinar.assinaNfe(config, xmls[i], ConstantesUtil.NFE);
+            assertTrue("Assinatura inválida da nota " + i, assinaturaValida(esperados[i]));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch largada = new CountDownLatch(1);
+        try {
+            List<Future<?>> tarefas = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                tarefas.add(executor.submit(() -> {
+                    largada.await();
+                    for (int n = 0; n < ASSINATURAS / THREADS; n++) {
+                        int i = ThreadLocalRandom.current().nextInt(NOTAS);
+                        assertEquals("Nota " + i, esperados[i], Assinar.assinaNfe(config, xmls[i], ConstantesUtil.NFE));
+                    }
+                    return null;
+                }));
+            }
+            largada.countDown();
+            for (Future<?> tarefa : tarefas) {
+                tarefa.get(5, TimeUnit.MINUTES);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void loteAssinadoEmParaleloIgualAoSequencial() throws Exception {
+        Assinador assinador = Assinador.getAssinador(certificado);
+        String lote = enviNFe(0, NOTAS);
+
+        Document sequencial = documento(lote);
+        assinador.assina(sequencial, ConstantesUtil.NFE, null);
+
+        Document paralelo = documento(lote);
+        ForkJoinPool pool = new ForkJoinPool(THREADS);
+        try {
+            assinador.assina(paralelo, ConstantesUtil.NFE, pool);
+        } finally {
+            pool.shutdown();
+        }
+
+        assertEquals(xml(sequencial), xml(paralelo));
+        assertEquals(NOTAS, assinaturasValidas(paralelo));
+    }
+
+    @Test
+    public void configuracaoPublicadaCompleta() throws Exception {
+        ConfiguracoesIniciaisNfe.iniciaConfiguracoes(Estados.GO, ConstantesUtil.AMBIENTE.HOMOLOGACAO, certificado,
+                null, false);
+
+        AtomicBoolean executando = new AtomicBoolean(true);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<?>> leitores = new ArrayList<>();
+            for (int t = 0; t < THREADS - 1; t++) {
+                leitores.add(executor.submit(() -> {
+                    while (executando.get()) {
+                        ConfiguracoesIniciaisNfe config = ConfiguracoesIniciaisNfe.getInstance();
+                        assertNotNull(config.getEstado());
+                        assertNotNull(config.getAmbiente());
+                        assertNotNull(config.getCertificado());
+                        assertNotNull(config.getVersaoNfe());
+                    }
+                    return null;
+                }));
+            }
+
+            Estados[] estados = {Estados.GO, Estados.SP, Estados.RS, Estados.PR};
+            for (int i = 0; i < 20000; i++) {
+                ConfiguracoesIniciaisNfe.iniciaConfiguracoes(estados[i % estados.length],
+                        ConstantesUtil.AMBIENTE.HOMOLOGACAO, certificado, null, false);
+            }
+            executando.set(false);
+            for (Future<?> leitor : leitores) {
+                leitor.get(1, TimeUnit.MINUTES);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static String enviNFe(int numero) {
+        return enviNFe(numero, 1);
+    }
+
+    private static String enviNFe(int numero, int notas) {
+        StringBuilder xml = new StringBuilder("<enviNFe xmlns=\"http://www.portalfiscal.inf.br/nfe\" versao=\"4.00\">"
+                + "<idLote>" + (numero + 1) + "</idLote><indSinc>" + (notas == 1 ? 1 : 0) + "</indSinc>");
+        for (int n = numero; n < numero + notas; n++) {
+            String chave = String.format("5218050026172900011155001%09d1%08d0", n, n);
+            xml.append("<NFe><infNFe Id=\"NFe").append(chave).append("\" versao=\"4.00\"><ide><cUF>52</cUF><cNF>")
+                    .append(String.format("%08d", n)).append("</cNF><natOp>Venda de mercadoria nº ").append(n)
+                    .append("</natOp></ide></infNFe></NFe>");
+        }
+        return xml.append("</enviNFe>").toString();
+    }
+
+    private static Document documento(String xml) throws Exception {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        return factory.newDocumentBuilder().parse(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static String xml(Node no) throws Exception {
+        Transformer transformer = TransformerFactory.newInstance().newTransformer();
+        transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+        StringWriter xml = new StringWriter();
+        transformer.transform(new DOMSource(no), new StreamResult(xml));
+        return xml.toString();
+    }
+
+    private static boolean assinaturaValida(String xml) throws Exception {
+        Document document = documento(xml);
+        return document.getElementsByTagNameNS(XMLSignature.XMLNS, "Signature").getLength() == 1
+                && assinaturasValidas(document) == 1;
+    }
+
+    private static int assinaturasValidas(Document document) throws Exception {
+        NodeList infNFes = document.getElementsByTagNameNS("*", "infNFe");
+        for (int i = 0; i < infNFes.getLength(); i++) {
+            ((Element) infNFes.item(i)).setIdAttribute("Id", true);
+        }
+
+        int validas = 0;
+        NodeList assinaturas = document.getElementsByTagNameNS(XMLSignature.XMLNS, "Signature");
+        for (int i = 0; i < assinaturas.getLength(); i++) {
+            DOMValidateContext contexto = new DOMValidateContext(chavePublica, assinaturas.item(i));
+            // Assinatura NFe usa SHA1, que o JDK recente só aceita com a validação segura desligada
+            contexto.setProperty("org.jcp.xml.dsig.secureValidation", Boolean.FALSE);
+            XMLSignature assinatura = XMLSignatureFactory.getInstance("DOM").unmarshalXMLSignature(contexto);
+            if (assinatura.validate(contexto)) {
+                validas++;
+            }
+        }
+        return validas;
+    }
+
+}
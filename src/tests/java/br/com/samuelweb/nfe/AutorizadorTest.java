@@ -0,0 +1,218 @@
+package br.com.samuelweb.nfe;
+
+import br.com.samuelweb.certificado.Certificado;
+import br.com.samuelweb.nfe.dom.ConfiguracoesWebNfe;
+import br.com.samuelweb.nfe.exception.NfeException;
+import br.com.samuelweb.nfe.util.ConstantesUtil;
+import br.com.samuelweb.nfe.util.Estados;
+import br.com.samuelweb.nfe.util.ExecutorSefaz;
+import br.com.samuelweb.nfe.util.WebServiceUtil;
+import br.inf.portalfiscal.nfe.schema_4.enviNFe.TEnviNFe;
+import br.inf.portalfiscal.nfe.schema_4.enviNFe.TNFe;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Envio síncrono e assíncrono pelo Autorizador contra o SefazLocal: intervalo das consultas do recibo a partir do
+ * tMed, limitado a {@link Autorizador#INTERVALO_MAXIMO_SEGUNDOS}, e desistência após
+ * {@link Autorizador#MAXIMO_CONSULTAS}.
+ */
+public class AutorizadorTest {
+
+    private static final String CHAVE = "5218051073264400012855001000000001";
+
+    private SefazLocal sefaz;
+    private ConfiguracoesWebNfe config;
+    private ExecutorService threads;
+    private AgendadorImediato agendador;
+    private Resultado resultado;
+    private Autorizador autorizador;
+    private int numero;
+
+    @Before
+    public void inicia() throws IOException {
+        sefaz = SefazLocal.http(0);
+        WebServiceUtil.redirecionaPara(sefaz.getUrl());
+
+        config = ConfiguracoesWebNfe.iniciaConfiguracoes(Estados.GO, ConstantesUtil.AMBIENTE.HOMOLOGACAO,
+                new Certificado(), null, false);
+        config.setTransporteSoap(true);
+
+        threads = Executors.newFixedThreadPool(4);
+        agendador = new AgendadorImediato();
+        resultado = new Resultado();
+        autorizador = new Autorizador(config, ConstantesUtil.NFE, new ExecutorSefaz(threads, 4, 4), agendador,
+                resultado);
+    }
+
+    @After
+    public void encerra() {
+        agendador.shutdownNow();
+        threads.shutdownNow();
+        WebServiceUtil.redirecionaPara(null);
+        sefaz.close();
+    }
+
+    @Test
+    public void envioSincrono() throws InterruptedException {
+        TNFe nfe = nfe();
+        autorizador.envia(lote("1", nfe));
+        aguardaFinalizacao();
+
+        String nfeProc = resultado.autorizadas.get(chave(nfe));
+        assertNotNull(resultado.toString(), nfeProc);
+        assertTrue(nfeProc, nfeProc.contains("<protNFe"));
+        assertEquals(0, sefaz.getChamadas("NFeRetAutorizacao4"));
+        assertTrue(agendador.esperas.isEmpty());
+    }
+
+    @Test
+    public void envioAssincronoDobraOIntervaloAteOMaximo() throws InterruptedException {
+        sefaz.tMed(4).emProcessamento(4);
+
+        TNFe primeira = nfe();
+        TNFe segunda = nfe();
+        autorizador.envia(lote("0", primeira, segunda));
+        aguardaFinalizacao();
+
+        assertEquals(resultado.toString(), 2, resultado.autorizadas.size());
+        assertTrue(resultado.autorizadas.containsKey(chave(primeira)));
+        assertTrue(resultado.autorizadas.containsKey(chave(segunda)));
+        assertEquals(5, sefaz.getChamadas("NFeRetAutorizacao4"));
+        assertEquals(Arrays.asList(4L, 8L, 16L, 30L, 30L), agendador.esperas);
+    }
+
+    @Test
+    public void desisteAposMaximoDeConsultas() throws InterruptedException {
+        sefaz.emProcessamento(Autorizador.MAXIMO_CONSULTAS + 1);
+
+        TNFe primeira = nfe();
+        TNFe segunda = nfe();
+        autorizador.envia(lote("0", primeira, segunda));
+        aguardaFinalizacao();
+
+        assertTrue(resultado.autorizadas.isEmpty());
+        assertEquals(2, resultado.erros.size());
+        NfeException erro = resultado.erros.get(chave(primeira));
+        assertTrue(erro.getMessage(), erro.getMessage().contains("ainda em processamento"));
+        assertNotNull("Recibo não informado para consulta posterior", resultado.recibos.get(chave(primeira)));
+        assertEquals(Autorizador.MAXIMO_CONSULTAS, sefaz.getChamadas("NFeRetAutorizacao4"));
+        assertEquals(Autorizador.MAXIMO_CONSULTAS, agendador.esperas.size());
+    }
+
+    @Test
+    public void falhaNoEnvioEntregaErroSemRecibo() throws InterruptedException {
+        sefaz.taxaErro(1);
+
+        TNFe nfe = nfe();
+        autorizador.envia(lote("1", nfe));
+        aguardaFinalizacao();
+
+        assertTrue(resultado.erros.containsKey(chave(nfe)));
+        assertTrue(resultado.recibos.isEmpty());
+    }
+
+    private void aguardaFinalizacao() throws InterruptedException {
+        long limite = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (autorizador.getEmProcessamento() > 0 && System.nanoTime() < limite) {
+            Thread.sleep(20);
+        }
+        assertEquals("Lote não finalizado", 0, autorizador.getEmProcessamento());
+    }
+
+    private TNFe nfe() {
+        TNFe.InfNFe.Ide ide = new TNFe.InfNFe.Ide();
+        ide.setMod("55");
+        ide.setTpEmis(ConstantesUtil.TIPO_EMISSAO.NORMAL);
+
+        TNFe.InfNFe infNFe = new TNFe.InfNFe();
+        infNFe.setVersao("4.00");
+        infNFe.setId("NFe" + CHAVE + String.format("%010d", ++numero));
+        infNFe.setIde(ide);
+
+        TNFe nfe = new TNFe();
+        nfe.setInfNFe(infNFe);
+        return nfe;
+    }
+
+    private static TEnviNFe lote(String indSinc, TNFe... nfes) {
+        TEnviNFe enviNFe = new TEnviNFe();
+        enviNFe.setVersao(ConstantesUtil.VERSAO.NFE);
+        enviNFe.setIdLote("1");
+        enviNFe.setIndSinc(indSinc);
+        enviNFe.getNFe().addAll(Arrays.asList(nfes));
+        return enviNFe;
+    }
+
+    private static String chave(TNFe nfe) {
+        return nfe.getInfNFe().getId().substring(3);
+    }
+
+    /**
+     * Registra a espera pedida pelo Autorizador e executa a consulta sem aguardar.
+     */
+    private static class AgendadorImediato extends ScheduledThreadPoolExecutor {
+
+        private final List<Long> esperas = Collections.synchronizedList(new ArrayList<>());
+
+        AgendadorImediato() {
+            super(1);
+        }
+
+        @Override
+        public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+            esperas.add(unit.toSeconds(delay));
+            return super.schedule(command, 0, unit);
+        }
+    }
+
+    private static class Resultado implements Autorizador.Retorno {
+
+        private final Map<String, String> autorizadas = new ConcurrentHashMap<>();
+        private final Map<String, String> rejeitadas = new ConcurrentHashMap<>();
+        private final Map<String, NfeException> erros = new ConcurrentHashMap<>();
+        private final Map<String, String> recibos = new ConcurrentHashMap<>();
+
+        @Override
+        public void autorizada(String chave, String nfeProc) {
+            autorizadas.put(chave, nfeProc);
+        }
+
+        @Override
+        public void rejeitada(String chave, String cStat, String xMotivo) {
+            rejeitadas.put(chave, cStat + " - " + xMotivo);
+        }
+
+        @Override
+        public void erro(String chave, String recibo, NfeException e) {
+            erros.put(chave, e);
+            if (recibo != null) {
+                recibos.put(chave, recibo);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "autorizadas " + autorizadas.keySet() + ", rejeitadas " + rejeitadas + ", erros " + erros;
+        }
+    }
+
+}
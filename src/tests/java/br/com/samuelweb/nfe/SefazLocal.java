@@ -0,0 +1,648 @@
+package br.com.samuelweb.nfe;
+
+import br.com.samuelweb.nfe.util.Estados;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsExchange;
+import com.sun.net.httpserver.HttpsParameters;
+import com.sun.net.httpserver.HttpsServer;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sefaz local para testes de carga e regressão, sem passar pela homologação.
+ * <p>
+ * Atende as operações SOAP 1.2 usadas pela api (NFeAutorizacao4, NFeRetAutorizacao4, NFeStatusServico4,
+ * NFeConsultaProtocolo4, NFeRecepcaoEvento4, NFeInutilizacao4, CadConsultaCadastro4 e NFeDistribuicaoDFe) com
+ * retornos no formato dos schemas. O serviço é identificado pelo namespace do nfeDadosMsg, por isso qualquer caminho
+ * é aceito: use {@code WebServiceUtil.redirecionaPara(sefaz.getUrl())} para apontar a api para o servidor.
+ * <p>
+ * As NFes enviadas são autorizadas (100) e passam a constar na consulta protocolo. É possível simular latência,
+ * falhas (SOAP Fault com HTTP 500), a rejeição 656 por consumo indevido e o lote em processamento (105).
+ * <p>
+ * Para HTTPS informe um SSLContext com o certificado do servidor, ex. gerado com
+ * {@code keytool -genkeypair -alias sefazlocal -keyalg RSA -keystore sefazlocal.jks -dname CN=localhost}. O servidor
+ * pede o certificado do cliente, mas não o exige.
+ *
+ * @author Samuel Oliveira
+ */
+public class SefazLocal implements Closeable {
+
+    private static final String NS_SOAP12 = "http://www.w3.org/2003/05/soap-envelope";
+    private static final String NS_NFE = "http://www.portalfiscal.inf.br/nfe";
+    private static final String NS_WSDL = "http://www.portalfiscal.inf.br/nfe/wsdl/";
+    private static final String VER_APLIC = "SEFAZ_LOCAL";
+
+    private static final DateTimeFormatter DATA_HORA = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ssXXX");
+
+    private final HttpServer servidor;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final String protocolo;
+
+    private volatile long latenciaMillis;
+    private volatile long variacaoMillis;
+    private volatile double taxaErro;
+    private volatile int consultasPorJanela;
+    private volatile long janelaMillis;
+    private volatile int tMed = 1;
+    private volatile int emProcessamento;
+
+    private final Map<String, Deque<Long>> consultas = new ConcurrentHashMap<>();
+    private final Map<String, List<Protocolo>> recibos = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> consultasRecibo = new ConcurrentHashMap<>();
+    private final Map<String, Protocolo> autorizadas = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> chamadas = new ConcurrentHashMap<>();
+    private final Set<String> clientes = ConcurrentHashMap.newKeySet();
+    private final AtomicLong sequencia = new AtomicLong();
+
+    private SefazLocal(HttpServer servidor, String protocolo) {
+        this.servidor = servidor;
+        this.protocolo = protocolo;
+        servidor.createContext("/", this::atende);
+        servidor.setExecutor(executor);
+        servidor.start();
+    }
+
+    /**
+     * Inicia o servidor HTTP.
+     *
+     * @param porta 0 para uma porta livre
+     */
+    public static SefazLocal http(int porta) throws IOException {
+        return new SefazLocal(HttpServer.create(new InetSocketAddress("localhost", porta), 0), "http");
+    }
+
+    /**
+     * Inicia o servidor HTTPS.
+     *
+     * @param porta      0 para uma porta livre
+     * @param sslContext contexto com o certificado do servidor
+     */
+    public static SefazLocal https(int porta, SSLContext sslContext) throws IOException {
+        HttpsServer servidor = HttpsServer.create(new InetSocketAddress("localhost", porta), 0);
+        servidor.setHttpsConfigurator(new HttpsConfigurator(sslContext) {
+            @Override
+            public void configure(HttpsParameters params) {
+                // Com SSLParameters informado o HttpsServer ignora o setWantClientAuth dos HttpsParameters
+                SSLParameters parametros = sslContext.getDefaultSSLParameters();
+                parametros.setWantClientAuth(true);
+                params.setSSLParameters(parametros);
+            }
+        });
+        return new SefazLocal(servidor, "https");
+    }
+
+    /**
+     * @return protocolo, host e porta do servidor
+     */
+    public String getUrl() {
+        return protocolo + "://localhost:" + servidor.getAddress().getPort();
+    }
+
+    /**
+     * Tempo de resposta de cada chamada: latência mais um valor aleatório até a variação.
+     */
+    public SefazLocal latencia(long latenciaMillis, long variacaoMillis) {
+        this.latenciaMillis = latenciaMillis;
+        this.variacaoMillis = variacaoMillis;
+        return this;
+    }
+
+    /**
+     * Fração das chamadas (0 a 1) respondidas com SOAP Fault e HTTP 500.
+     */
+    public SefazLocal taxaErro(double taxaErro) {
+        this.taxaErro = taxaErro;
+        return this;
+    }
+
+    /**
+     * tMed informado no recibo dos lotes assíncronos.
+     */
+    public SefazLocal tMed(int tMed) {
+        this.tMed = tMed;
+        return this;
+    }
+
+    /**
+     * Consultas de cada recibo respondidas com 105 (lote em processamento) antes do processamento do lote.
+     */
+    public SefazLocal emProcessamento(int consultas) {
+        this.emProcessamento = consultas;
+        return this;
+    }
+
+    /**
+     * Rejeita com 656 as chamadas do mesmo cliente e serviço acima do limite na janela.
+     *
+     * @param consultas    chamadas permitidas na janela, 0 para não limitar
+     * @param janelaMillis tamanho da janela
+     */
+    public SefazLocal consumoIndevido(int consultas, long janelaMillis) {
+        this.consultasPorJanela = consultas;
+        this.janelaMillis = janelaMillis;
+        this.consultas.clear();
+        return this;
+    }
+
+    /**
+     * @param servico ex. NFeStatusServico4
+     * @return chamadas recebidas pelo serviço
+     */
+    public long getChamadas(String servico) {
+        AtomicLong total = chamadas.get(servico);
+        return total == null ? 0 : total.get();
+    }
+
+    /**
+     * @return clientes que chamaram o servidor: o subject do certificado no HTTPS, ou o endereço de origem
+     */
+    public Set<String> getClientes() {
+        return clientes;
+    }
+
+    @Override
+    public void close() {
+        servidor.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void atende(HttpExchange exchange) throws IOException {
+        try {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                responde(exchange, 405, "text/plain", "Metodo nao permitido".getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+
+            Document requisicao = le(exchange.getRequestBody());
+            Element operacao = primeiroElemento(requisicao.getDocumentElement(), NS_WSDL, true);
+            Element dados = primeiroElemento(requisicao.getDocumentElement(), NS_NFE, false);
+            if (operacao == null || dados == null) {
+                fault(exchange, "Mensagem sem nfeDadosMsg.");
+                return;
+            }
+            String servico = operacao.getNamespaceURI().substring(NS_WSDL.length());
+            chamadas.computeIfAbsent(servico, k -> new AtomicLong()).incrementAndGet();
+
+            aguardaLatencia();
+
+            if (taxaErro > 0 && ThreadLocalRandom.current().nextDouble() < taxaErro) {
+                fault(exchange, "Erro simulado pelo SefazLocal.");
+                return;
+            }
+
+            String cliente = cliente(exchange);
+            clientes.add(cliente);
+            boolean consumoIndevido = isConsumoIndevido(cliente + "|" + servico);
+            String cStat = consumoIndevido ? "656" : null;
+            String xMotivo = consumoIndevido ? "Rejeicao: Consumo Indevido" : null;
+
+            String retorno;
+            switch (servico) {
+                case "NFeStatusServico4":
+                    retorno = statusServico(dados, cStat, xMotivo);
+                    break;
+                case "NFeAutorizacao4":
+                    retorno = autorizacao(dados, cStat, xMotivo);
+                    break;
+                case "NFeRetAutorizacao4":
+                    retorno = retAutorizacao(dados, cStat, xMotivo);
+                    break;
+                case "NFeConsultaProtocolo4":
+                    retorno = consultaProtocolo(dados, cStat, xMotivo);
+                    break;
+                case "NFeInutilizacao4":
+                    retorno = inutilizacao(dados, cStat, xMotivo);
+                    break;
+                case "NFeRecepcaoEvento4":
+                    retorno = recepcaoEvento(dados, cStat, xMotivo);
+                    break;
+                case "CadConsultaCadastro4":
+                    retorno = consultaCadastro(dados, cStat, xMotivo);
+                    break;
+                case "NFeDistribuicaoDFe":
+                    retorno = distribuicaoDFe(dados, cStat, xMotivo);
+                    break;
+                default:
+                    fault(exchange, "Servico " + servico + " nao atendido pelo SefazLocal.");
+                    return;
+            }
+
+            responde(exchange, 200, "application/soap+xml; charset=utf-8",
+                    envelope(resultado(operacao, retorno)).getBytes(StandardCharsets.UTF_8));
+
+        } catch (SAXException | ParserConfigurationException e) {
+            fault(exchange, "Xml invalido: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            fault(exchange, "Interrompido.");
+        } catch (RuntimeException e) {
+            fault(exchange, "Erro no SefazLocal: " + e);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private String statusServico(Element dados, String cStat, String xMotivo) {
+        StringBuilder sb = new StringBuilder("<retConsStatServ versao=\"4.00\" xmlns=\"" + NS_NFE + "\">");
+        tag(sb, "tpAmb", texto(dados, "tpAmb"));
+        tag(sb, "verAplic", VER_APLIC);
+        tag(sb, "cStat", cStat != null ? cStat : "107");
+        tag(sb, "xMotivo", xMotivo != null ? xMotivo : "Servico em Operacao");
+        tag(sb, "cUF", texto(dados, "cUF"));
+        tag(sb, "dhRecbto", agora());
+        if (cStat == null) {
+            tag(sb, "tMed", "1");
+        }
+        return sb.append("</retConsStatServ>").toString();
+    }
+
+    private String autorizacao(Element dados, String cStat, String xMotivo) {
+        List<Protocolo> protocolos = new ArrayList<>();
+        NodeList nfes = dados.getElementsByTagNameNS("*", "infNFe");
+        for (int i = 0; i < nfes.getLength(); i++) {
+            Element infNFe = (Element) nfes.item(i);
+            Element nfe = (Element) infNFe.getParentNode();
+            protocolos.add(new Protocolo(infNFe.getAttribute("Id").substring(3), texto(nfe, "DigestValue"),
+                    numero(), agora()));
+        }
+        String cUF = protocolos.isEmpty() ? "" : protocolos.get(0).chave.substring(0, 2);
+
+        StringBuilder sb = new StringBuilder("<retEnviNFe versao=\"4.00\" xmlns=\"" + NS_NFE + "\">");
+        tag(sb, "tpAmb", texto(dados, "tpAmb"));
+        tag(sb, "verAplic", VER_APLIC);
+        if (cStat != null) {
+            tag(sb, "cStat", cStat);
+            tag(sb, "xMotivo", xMotivo);
+            tag(sb, "cUF", cUF);
+            tag(sb, "dhRecbto", agora());
+
+        } else if ("1".equals(texto(dados, "indSinc")) && protocolos.size() == 1) {
+            Protocolo protocolo = protocolos.get(0);
+            autorizadas.put(protocolo.chave, protocolo);
+            tag(sb, "cStat", "104");
+            tag(sb, "xMotivo", "Lote processado");
+            tag(sb, "cUF", cUF);
+            tag(sb, "dhRecbto", agora());
+            protNFe(sb, texto(dados, "tpAmb"), protocolo);
+
+        } else {
+            String recibo = cUF + "1" + numero().substring(3);
+            recibos.put(recibo, protocolos);
+            tag(sb, "cStat", "103");
+            tag(sb, "xMotivo", "Lote recebido com sucesso");
+            tag(sb, "cUF", cUF);
+            tag(sb, "dhRecbto", agora());
+            sb.append("<infRec>");
+            tag(sb, "nRec", recibo);
+            tag(sb, "tMed", String.valueOf(tMed));
+            sb.append("</infRec>");
+        }
+        return sb.append("</retEnviNFe>").toString();
+    }
+
+    private String retAutorizacao(Element dados, String cStat, String xMotivo) {
+        String recibo = texto(dados, "nRec");
+        if (cStat == null && recibos.containsKey(recibo)
+                && consultasRecibo.computeIfAbsent(recibo, k -> new AtomicLong()).incrementAndGet() <= emProcessamento) {
+            cStat = "105";
+            xMotivo = "Lote em processamento";
+        }
+        List<Protocolo> protocolos = cStat == null ? recibos.remove(recibo) : null;
+
+        StringBuilder sb = new StringBuilder("<retConsReciNFe versao=\"4.00\" xmlns=\"" + NS_NFE + "\">");
+        tag(sb, "tpAmb", texto(dados, "tpAmb"));
+        tag(sb, "verAplic", VER_APLIC);
+        tag(sb, "nRec", recibo);
+        if (cStat != null) {
+            tag(sb, "cStat", cStat);
+            tag(sb, "xMotivo", xMotivo);
+        } else if (protocolos == null) {
+            tag(sb, "cStat", "106");
+            tag(sb, "xMotivo", "Lote nao localizado");
+        } else {
+            tag(sb, "cStat", "104");
+            tag(sb, "xMotivo", "Lote processado");
+        }
+        tag(sb, "cUF", recibo.length() >= 2 ? recibo.substring(0, 2) : "");
+        tag(sb, "dhRecbto", agora());
+        if (protocolos != null) {
+            for (Protocolo protocolo : protocolos) {
+                autorizadas.put(protocolo.chave, protocolo);
+                protNFe(sb, texto(dados, "tpAmb"), protocolo);
+            }
+        }
+        return sb.append("</retConsReciNFe>").toString();
+    }
+
+    private String consultaProtocolo(Element dados, String cStat, String xMotivo) {
+        String chave = texto(dados, "chNFe");
+        Protocolo protocolo = cStat == null ? autorizadas.get(chave) : null;
+
+        StringBuilder sb = new StringBuilder("<retConsSitNFe versao=\"4.00\" xmlns=\"" + NS_NFE + "\">");
+        tag(sb, "tpAmb", texto(dados, "tpAmb"));
+        tag(sb, "verAplic", VER_APLIC);
+        if (cStat != null) {
+            tag(sb, "cStat", cStat);
+            tag(sb, "xMotivo", xMotivo);
+        } else if (protocolo == null) {
+            tag(sb, "cStat", "217");
+            tag(sb, "xMotivo", "Rejeicao: NF-e nao consta na base de dados da SEFAZ");
+        } else {
+            tag(sb, "cStat", "100");
+            tag(sb, "xMotivo", "Autorizado o uso da NF-e");
+        }
+        tag(sb, "cUF", chave.length() >= 2 ? chave.substring(0, 2) : "");
+        tag(sb, "dhRecbto", agora());
+        tag(sb, "chNFe", chave);
+        if (protocolo != null) {
+            protNFe(sb, texto(dados, "tpAmb"), protocolo);
+        }
+        return sb.append("</retConsSitNFe>").toString();
+    }
+
+    private String inutilizacao(Element dados, String cStat, String xMotivo) {
+        StringBuilder sb = new StringBuilder("<retInutNFe versao=\"4.00\" xmlns=\"" + NS_NFE + "\"><infInut>");
+        tag(sb, "tpAmb", texto(dados, "tpAmb"));
+        tag(sb, "verAplic", VER_APLIC);
+        tag(sb, "cStat", cStat != null ? cStat : "102");
+        tag(sb, "xMotivo", xMotivo != null ? xMotivo : "Inutilizacao de numero homologado");
+        tag(sb, "cUF", texto(dados, "cUF"));
+        if (cStat == null) {
+            tag(sb, "ano", texto(dados, "ano"));
+            tag(sb, "CNPJ", texto(dados, "CNPJ"));
+            tag(sb, "mod", texto(dados, "mod"));
+            tag(sb, "serie", texto(dados, "serie"));
+            tag(sb, "nNFIni", texto(dados, "nNFIni"));
+            tag(sb, "nNFFin", texto(dados, "nNFFin"));
+            tag(sb, "dhRecbto", agora());
+            tag(sb, "nProt", numero());
+        } else {
+            tag(sb, "dhRecbto", agora());
+        }
+        return sb.append("</infInut></retInutNFe>").toString();
+    }
+
+    private String recepcaoEvento(Element dados, String cStat, String xMotivo) {
+        NodeList eventos = dados.getElementsByTagNameNS("*", "infEvento");
+        String cOrgao = eventos.getLength() > 0 ? texto((Element) eventos.item(0), "cOrgao") : "";
+
+        StringBuilder sb = new StringBuilder("<retEnvEvento versao=\"1.00\" xmlns=\"" + NS_NFE + "\">");
+        tag(sb, "idLote", texto(dados, "idLote"));
+        tag(sb, "tpAmb", texto(dados, "tpAmb"));
+        tag(sb, "verAplic", VER_APLIC);
+        tag(sb, "cOrgao", cOrgao);
+        tag(sb, "cStat", cStat != null ? cStat : "128");
+        tag(sb, "xMotivo", xMotivo != null ? xMotivo : "Lote de Evento Processado");
+        if (cStat == null) {
+            for (int i = 0; i < eventos.getLength(); i++) {
+                Element evento = (Element) eventos.item(i);
+                sb.append("<retEvento versao=\"1.00\"><infEvento>");
+                tag(sb, "tpAmb", texto(evento, "tpAmb"));
+                tag(sb, "verAplic", VER_APLIC);
+                tag(sb, "cOrgao", texto(evento, "cOrgao"));
+                tag(sb, "cStat", "135");
+                tag(sb, "xMotivo", "Evento registrado e vinculado a NF-e");
+                tag(sb, "chNFe", texto(evento, "chNFe"));
+                tag(sb, "tpEvento", texto(evento, "tpEvento"));
+                tag(sb, "xEvento", texto(evento, "descEvento"));
+                tag(sb, "nSeqEvento", texto(evento, "nSeqEvento"));
+                tag(sb, "dhRegEvento", agora());
+                tag(sb, "nProt", numero());
+                sb.append("</infEvento></retEvento>");
+            }
+        }
+        return sb.append("</retEnvEvento>").toString();
+    }
+
+    private String consultaCadastro(Element dados, String cStat, String xMotivo) {
+        String uf = texto(dados, "UF");
+        String documento = !texto(dados, "CNPJ").isEmpty() ? "CNPJ" : "CPF";
+
+        StringBuilder sb = new StringBuilder("<retConsCad versao=\"2.00\" xmlns=\"" + NS_NFE + "\"><infCons>");
+        tag(sb, "verAplic", VER_APLIC);
+        tag(sb, "cStat", cStat != null ? cStat : "111");
+        tag(sb, "xMotivo", xMotivo != null ? xMotivo : "Consulta cadastro com uma ocorrencia");
+        tag(sb, "UF", uf);
+        tag(sb, documento, texto(dados, documento));
+        tag(sb, "dhCons", agora());
+        tag(sb, "cUF", Estados.valueOf(uf).getCodigoIbge());
+        if (cStat == null) {
+            sb.append("<infCad>");
+            tag(sb, "IE", "ISENTO");
+            tag(sb, documento, texto(dados, documento));
+            tag(sb, "UF", uf);
+            tag(sb, "cSit", "1");
+            tag(sb, "indCredNFe", "1");
+            tag(sb, "indCredCTe", "4");
+            tag(sb, "xNome", "CONTRIBUINTE SEFAZ LOCAL");
+            sb.append("</infCad>");
+        }
+        return sb.append("</infCons></retConsCad>").toString();
+    }
+
+    private String distribuicaoDFe(Element dados, String cStat, String xMotivo) {
+        String ultNSU = texto(dados, "ultNSU");
+        StringBuilder sb = new StringBuilder("<retDistDFeInt versao=\"1.01\" xmlns=\"" + NS_NFE + "\">");
+        tag(sb, "tpAmb", texto(dados, "tpAmb"));
+        tag(sb, "verAplic", VER_APLIC);
+        tag(sb, "cStat", cStat != null ? cStat : "137");
+        tag(sb, "xMotivo", xMotivo != null ? xMotivo : "Nenhum documento localizado");
+        tag(sb, "dhResp", agora());
+        tag(sb, "ultNSU", ultNSU.isEmpty() ? "000000000000000" : ultNSU);
+        tag(sb, "maxNSU", ultNSU.isEmpty() ? "000000000000000" : ultNSU);
+        return sb.append("</retDistDFeInt>").toString();
+    }
+
+    private static void protNFe(StringBuilder sb, String tpAmb, Protocolo protocolo) {
+        sb.append("<protNFe versao=\"4.00\"><infProt>");
+        tag(sb, "tpAmb", tpAmb);
+        tag(sb, "verAplic", VER_APLIC);
+        tag(sb, "chNFe", protocolo.chave);
+        tag(sb, "dhRecbto", protocolo.dhRecbto);
+        tag(sb, "nProt", protocolo.numero);
+        if (!protocolo.digVal.isEmpty()) {
+            tag(sb, "digVal", protocolo.digVal);
+        }
+        tag(sb, "cStat", "100");
+        tag(sb, "xMotivo", "Autorizado o uso da NF-e");
+        sb.append("</infProt></protNFe>");
+    }
+
+    /**
+     * Elemento de retorno da operação: nfeResultMsg, ou o Response/Result quando a requisição veio dentro do
+     * elemento da operação (NFeDistribuicaoDFe e Consulta Cadastro da RS).
+     */
+    private static String resultado(Element operacao, String retorno) {
+        String namespace = operacao.getNamespaceURI();
+        String nome = operacao.getLocalName();
+        if ("nfeDadosMsg".equals(nome)) {
+            return "<nfeResultMsg xmlns=\"" + namespace + "\">" + retorno + "</nfeResultMsg>";
+        }
+        return "<" + nome + "Response xmlns=\"" + namespace + "\"><" + nome + "Result>" + retorno + "</" + nome
+                + "Result></" + nome + "Response>";
+    }
+
+    private static String envelope(String corpo) {
+        return "<?xml version=\"1.0\" encoding=\"utf-8\"?><soap:Envelope xmlns:soap=\"" + NS_SOAP12 + "\"><soap:Body>"
+                + corpo + "</soap:Body></soap:Envelope>";
+    }
+
+    private static void fault(HttpExchange exchange, String motivo) throws IOException {
+        String corpo = "<soap:Fault><soap:Code><soap:Value>soap:Receiver</soap:Value></soap:Code><soap:Reason>"
+                + "<soap:Text xml:lang=\"pt\">" + motivo + "</soap:Text></soap:Reason></soap:Fault>";
+        responde(exchange, 500, "application/soap+xml; charset=utf-8",
+                envelope(corpo).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void responde(HttpExchange exchange, int status, String contentType, byte[] corpo)
+            throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, corpo.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(corpo);
+        }
+    }
+
+    private void aguardaLatencia() throws InterruptedException {
+        long espera = latenciaMillis
+                + (variacaoMillis > 0 ? ThreadLocalRandom.current().nextLong(variacaoMillis + 1) : 0);
+        if (espera > 0) {
+            TimeUnit.MILLISECONDS.sleep(espera);
+        }
+    }
+
+    /**
+     * Janela deslizante de chamadas por cliente e serviço.
+     */
+    private boolean isConsumoIndevido(String chave) {
+        int limite = consultasPorJanela;
+        if (limite <= 0) {
+            return false;
+        }
+        long agora = System.currentTimeMillis();
+        Deque<Long> janela = consultas.computeIfAbsent(chave, k -> new ArrayDeque<>());
+        synchronized (janela) {
+            while (!janela.isEmpty() && agora - janela.peekFirst() >= janelaMillis) {
+                janela.pollFirst();
+            }
+            if (janela.size() >= limite) {
+                return true;
+            }
+            janela.addLast(agora);
+            return false;
+        }
+    }
+
+    /**
+     * Certificado do cliente no HTTPS, ou o endereço de origem.
+     */
+    private static String cliente(HttpExchange exchange) {
+        if (exchange instanceof HttpsExchange) {
+            try {
+                return ((HttpsExchange) exchange).getSSLSession().getPeerPrincipal().getName();
+            } catch (SSLPeerUnverifiedException e) {
+                // Cliente sem certificado
+            }
+        }
+        return exchange.getRemoteAddress().getAddress().getHostAddress();
+    }
+
+    private static Document le(InputStream in) throws IOException, SAXException, ParserConfigurationException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int lidos;
+        while ((lidos = in.read(buffer)) != -1) {
+            out.write(buffer, 0, lidos);
+        }
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+        return factory.newDocumentBuilder().parse(new ByteArrayInputStream(out.toByteArray()));
+    }
+
+    private static Element primeiroElemento(Element raiz, String namespace, boolean prefixo) {
+        String ns = raiz.getNamespaceURI();
+        if (ns != null && (prefixo ? ns.startsWith(namespace) : ns.equals(namespace))) {
+            return raiz;
+        }
+        for (Node filho = raiz.getFirstChild(); filho != null; filho = filho.getNextSibling()) {
+            if (filho instanceof Element) {
+                Element encontrado = primeiroElemento((Element) filho, namespace, prefixo);
+                if (encontrado != null) {
+                    return encontrado;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static String texto(Element elemento, String nome) {
+        NodeList nodes = elemento.getElementsByTagNameNS("*", nome);
+        return nodes.getLength() == 0 ? "" : nodes.item(0).getTextContent().trim();
+    }
+
+    private static void tag(StringBuilder sb, String nome, String valor) {
+        sb.append('<').append(nome).append('>').append(valor).append("</").append(nome).append('>');
+    }
+
+    private static String agora() {
+        return OffsetDateTime.now(ZoneOffset.ofHours(-3)).format(DATA_HORA);
+    }
+
+    /**
+     * Número de 15 dígitos para protocolos e recibos.
+     */
+    private String numero() {
+        return String.format("%015d", 100000000000000L + sequencia.incrementAndGet());
+    }
+
+    private static class Protocolo {
+
+        private final String chave;
+        private final String digVal;
+        private final String numero;
+        private final String dhRecbto;
+
+        Protocolo(String chave, String digVal, String numero, String dhRecbto) {
+            this.chave = chave;
+            this.digVal = digVal;
+            this.numero = numero;
+            this.dhRecbto = dhRecbto;
+        }
+    }
+
+}
@@ -0,0 +1,167 @@
+package br.com.samuelweb.nfe;
+
+import br.com.samuelweb.certificado.Certificado;
+import br.com.samuelweb.certificado.CertificadoService;
+import br.com.samuelweb.nfe.dom.ConfiguracoesEmitente;
+import br.com.samuelweb.nfe.dom.ConfiguracoesWebNfe;
+import br.com.samuelweb.nfe.exception.NfeException;
+import br.com.samuelweb.nfe.util.ConstantesUtil;
+import br.com.samuelweb.nfe.util.Estados;
+import br.com.samuelweb.nfe.util.SslUtil;
+import br.com.samuelweb.nfe.util.WebServiceUtil;
+import br.inf.portalfiscal.nfe.schema_4.retConsStatServ.TRetConsStatServ;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.security.KeyStore;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Chamadas da api ao SefazLocal por HTTPS pelo TransporteSoap, com o certificado do cliente. O certificado do servidor
+ * não está no /Cacert e é aceito pelo truststore informado em {@link SslUtil#atualizaTruststore(KeyStore)} ou pelo
+ * SSLContext próprio do emitente.
+ * <p>
+ * Os certificados de teste são gerados pelo keytool do JDK em execução.
+ */
+public class SefazLocalHttpsTest {
+
+    private static final String SENHA = "123456";
+
+    @ClassRule
+    public static final TemporaryFolder PASTA = new TemporaryFolder();
+
+    private static KeyStore servidor;
+    private static KeyStore cliente;
+    private static File pfxCliente;
+
+    private SefazLocal sefaz;
+    private Certificado certificado;
+    private ConfiguracoesWebNfe config;
+
+    @BeforeClass
+    public static void geraCertificados() throws Exception {
+        servidor = carrega(gera("sefazlocal", "CN=localhost", "SAN=dns:localhost,ip:127.0.0.1"));
+        pfxCliente = gera("cliente", "CN=EMPRESA TESTE:00261729000111", null);
+        cliente = carrega(pfxCliente);
+    }
+
+    @Before
+    public void inicia() throws Exception {
+        KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        kmf.init(servidor, SENHA.toCharArray());
+        TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        tmf.init(confia(cliente, "cliente"));
+        SSLContext contexto = SSLContext.getInstance("TLS");
+        contexto.init(kmf.getKeyManagers(), tmf.getTrustManagers(), null);
+
+        sefaz = SefazLocal.https(0, contexto);
+        WebServiceUtil.redirecionaPara(sefaz.getUrl());
+
+        certificado = CertificadoService.certificadoPfx(pfxCliente.getPath(), SENHA);
+        config = ConfiguracoesWebNfe.iniciaConfiguracoes(Estados.GO, ConstantesUtil.AMBIENTE.HOMOLOGACAO,
+                certificado, null, false);
+        config.setTransporteSoap(true);
+    }
+
+    @After
+    public void encerra() throws NfeException {
+        SslUtil.atualizaTruststore(null);
+        WebServiceUtil.redirecionaPara(null);
+        sefaz.close();
+    }
+
+    @Test
+    public void statusServicoComTruststoreDoServidor() throws Exception {
+        SslUtil.atualizaTruststore(confia(servidor, "sefazlocal"));
+
+        TRetConsStatServ retorno = Status.statusServico(config, ConstantesUtil.NFE);
+
+        assertEquals("107", retorno.getCStat());
+        assertEquals(1, sefaz.getChamadas("NFeStatusServico4"));
+        assertTrue(sefaz.getClientes().toString(),
+                sefaz.getClientes().contains("CN=EMPRESA TESTE:00261729000111"));
+    }
+
+    @Test
+    public void statusServicoComSslContextDoEmitente() throws Exception {
+        KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        kmf.init(cliente, SENHA.toCharArray());
+        TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        tmf.init(confia(servidor, "sefazlocal"));
+        SSLContext contexto = SSLContext.getInstance("TLS");
+        contexto.init(kmf.getKeyManagers(), tmf.getTrustManagers(), null);
+
+        ConfiguracoesEmitente emitente = ConfiguracoesEmitente.builder("00261729000111", Estados.GO,
+                ConstantesUtil.AMBIENTE.HOMOLOGACAO, certificado).sslContext(contexto).transporteSoap(true)
+                .log(false).build();
+
+        TRetConsStatServ retorno = Status.statusServico(emitente, ConstantesUtil.NFE);
+
+        assertEquals("107", retorno.getCStat());
+        assertEquals(1, sefaz.getChamadas("NFeStatusServico4"));
+        assertTrue(sefaz.getClientes().toString(),
+                sefaz.getClientes().contains("CN=EMPRESA TESTE:00261729000111"));
+    }
+
+    @Test
+    public void servidorForaDoCacert() {
+        try {
+            Status.statusServico(config, ConstantesUtil.NFE);
+            fail("Certificado do servidor aceito sem estar no truststore");
+        } catch (NfeException e) {
+            assertEquals(0, sefaz.getChamadas("NFeStatusServico4"));
+        }
+    }
+
+    /**
+     * Gera o par de chaves em um PKCS12.
+     */
+    private static File gera(String alias, String dname, String san) throws Exception {
+        File pfx = new File(PASTA.getRoot(), alias + ".pfx");
+        String keytool = System.getProperty("java.home") + File.separator + "bin" + File.separator + "keytool";
+        ProcessBuilder builder = san == null
+                ? new ProcessBuilder(keytool, "-genkeypair", "-alias", alias, "-keyalg", "RSA", "-keysize", "2048",
+                        "-dname", dname, "-validity", "30", "-storetype", "PKCS12", "-keystore", pfx.getPath(),
+                        "-storepass", SENHA, "-keypass", SENHA)
+                : new ProcessBuilder(keytool, "-genkeypair", "-alias", alias, "-keyalg", "RSA", "-keysize", "2048",
+                        "-dname", dname, "-ext", san, "-validity", "30", "-storetype", "PKCS12", "-keystore",
+                        pfx.getPath(), "-storepass", SENHA, "-keypass", SENHA);
+        Process processo = builder.redirectErrorStream(true).start();
+        assertTrue("keytool não terminou", processo.waitFor(60, TimeUnit.SECONDS));
+        assertEquals("keytool falhou", 0, processo.exitValue());
+        return pfx;
+    }
+
+    private static KeyStore carrega(File pfx) throws Exception {
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        try (InputStream in = new FileInputStream(pfx)) {
+            keyStore.load(in, SENHA.toCharArray());
+        }
+        return keyStore;
+    }
+
+    /**
+     * Truststore só com o certificado do alias.
+     */
+    private static KeyStore confia(KeyStore keyStore, String alias) throws Exception {
+        KeyStore trustStore = KeyStore.getInstance(KeyStore.getDefaultType());
+        trustStore.load(null, null);
+        trustStore.setCertificateEntry(alias, keyStore.getCertificate(alias));
+        return trustStore;
+    }
+
+}
@@ -0,0 +1,92 @@
+package br.com.samuelweb.nfe;
+
+import br.com.samuelweb.certificado.Certificado;
+import br.com.samuelweb.nfe.dom.ConfiguracoesWebNfe;
+import br.com.samuelweb.nfe.exception.NfeException;
+import br.com.samuelweb.nfe.util.ConstantesUtil;
+import br.com.samuelweb.nfe.util.Estados;
+import br.com.samuelweb.nfe.util.WebServiceUtil;
+import br.inf.portalfiscal.nfe.schema.retdistdfeint.RetDistDFeInt;
+import br.inf.portalfiscal.nfe.schema_4.retConsSitNFe.TRetConsSitNFe;
+import br.inf.portalfiscal.nfe.schema_4.retConsStatServ.TRetConsStatServ;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Chamadas da api ao SefazLocal pelo TransporteSoap.
+ */
+public class SefazLocalTest {
+
+    private SefazLocal sefaz;
+    private ConfiguracoesWebNfe config;
+
+    @Before
+    public void inicia() throws IOException {
+        sefaz = SefazLocal.http(0);
+        WebServiceUtil.redirecionaPara(sefaz.getUrl());
+
+        config = ConfiguracoesWebNfe.iniciaConfiguracoes(Estados.GO, ConstantesUtil.AMBIENTE.HOMOLOGACAO,
+                new Certificado(), null, false);
+        config.setTransporteSoap(true);
+    }
+
+    @After
+    public void encerra() {
+        WebServiceUtil.redirecionaPara(null);
+        sefaz.close();
+    }
+
+    @Test
+    public void statusServico() throws NfeException {
+        TRetConsStatServ retorno = Status.statusServico(config, ConstantesUtil.NFE);
+
+        assertEquals("107", retorno.getCStat());
+        assertEquals(Estados.GO.getCodigoIbge(), retorno.getCUF());
+        assertEquals(1, sefaz.getChamadas("NFeStatusServico4"));
+    }
+
+    @Test
+    public void consumoIndevido() throws NfeException {
+        sefaz.consumoIndevido(2, 60000);
+
+        assertEquals("107", Status.statusServico(config, ConstantesUtil.NFE).getCStat());
+        assertEquals("107", Status.statusServico(config, ConstantesUtil.NFE).getCStat());
+        assertEquals("656", Status.statusServico(config, ConstantesUtil.NFE).getCStat());
+    }
+
+    @Test
+    public void falhaDeComunicacao() {
+        sefaz.taxaErro(1);
+        try {
+            Status.statusServico(config, ConstantesUtil.NFE);
+            fail("SOAP Fault não gerou NfeException");
+        } catch (NfeException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("Erro simulado"));
+        }
+    }
+
+    @Test
+    public void consultaNfeInexistente() throws NfeException {
+        TRetConsSitNFe retorno = ConsultaXml.consultaXml(config, "52180500261729000111550010000000011000000010",
+                ConstantesUtil.NFE);
+
+        assertEquals("217", retorno.getCStat());
+    }
+
+    @Test
+    public void distribuicaoDFe() throws NfeException {
+        RetDistDFeInt retorno = DistribuicaoDFe.consultaNfe(config, ConstantesUtil.TIPOS.CNPJ, "00261729000111",
+                ConstantesUtil.TIPOS.NSU, "000000000000000");
+
+        assertEquals("137", retorno.getCStat());
+        assertEquals(1, sefaz.getChamadas("NFeDistribuicaoDFe"));
+    }
+
+}
@@ -0,0 +1,189 @@
+package br.com.samuelweb.nfe;
+
+import br.com.samuelweb.certificado.Certificado;
+import br.com.samuelweb.nfe.dom.ConfiguracoesWebNfe;
+import br.com.samuelweb.nfe.exception.NfeException;
+import br.com.samuelweb.nfe.util.ConstantesUtil;
+import br.com.samuelweb.nfe.util.Estados;
+import br.com.samuelweb.nfe.util.WebServiceUtil;
+import br.inf.portalfiscal.nfe.schema_4.retConsStatServ.TRetConsStatServ;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Intervalo entre as consultas (tMed, dhRetorno e a espera do 656), validade do status e o monitoramento em segundo
+ * plano contra o SefazLocal.
+ */
+public class StatusServicoCacheTest {
+
+    private static final Instant AGORA = Instant.parse("2018-05-28T13:00:00Z");
+
+    private SefazLocal sefaz;
+    private ConfiguracoesWebNfe config;
+    private ScheduledThreadPoolExecutor agendador;
+    private StatusServicoCache cache;
+
+    @Before
+    public void inicia() throws IOException {
+        sefaz = SefazLocal.http(0);
+        WebServiceUtil.redirecionaPara(sefaz.getUrl());
+
+        config = ConfiguracoesWebNfe.iniciaConfiguracoes(Estados.GO, ConstantesUtil.AMBIENTE.HOMOLOGACAO,
+                new Certificado(), null, false);
+        config.setTransporteSoap(true);
+
+        agendador = new ScheduledThreadPoolExecutor(1);
+    }
+
+    @After
+    public void encerra() {
+        if (cache != null) {
+            cache.encerra();
+        }
+        agendador.shutdownNow();
+        WebServiceUtil.redirecionaPara(null);
+        sefaz.close();
+    }
+
+    @Test
+    public void intervaloNuncaMenorQueOTMed() {
+        StatusServicoCache status = new StatusServicoCache(agendador, 30);
+
+        assertEquals(30, status.proximaConsulta(retorno("107", "5", null), AGORA));
+        assertEquals(45, status.proximaConsulta(retorno("107", "45", null), AGORA));
+        assertEquals(30, status.proximaConsulta(retorno("107", "x", null), AGORA));
+    }
+
+    @Test
+    public void servicoParalisadoAguardaODhRetorno() {
+        StatusServicoCache status = new StatusServicoCache(agendador, 30);
+        String dhRetorno = OffsetDateTime.ofInstant(AGORA.plusSeconds(600), ZoneOffset.ofHours(-3)).toString();
+
+        assertEquals(600, status.proximaConsulta(retorno("108", "1", dhRetorno), AGORA));
+        // dhRetorno já passado ou inválido: mantém o intervalo
+        assertEquals(30, status.proximaConsulta(retorno("108", "1", "2018-05-28T09:00:00-03:00"), AGORA));
+        assertEquals(30, status.proximaConsulta(retorno("108", "1", "28/05/2018"), AGORA));
+    }
+
+    @Test
+    public void consumoIndevidoAguardaUmaHora() {
+        StatusServicoCache status = new StatusServicoCache(agendador, 30);
+
+        assertEquals(StatusServicoCache.ESPERA_CONSUMO_INDEVIDO_SEGUNDOS,
+                status.proximaConsulta(retorno("656", "1", null), AGORA));
+    }
+
+    @Test
+    public void emOperacaoApenasDentroDaValidade() {
+        Instant consultadoEm = Instant.now().minusSeconds(10);
+
+        assertTrue(new StatusServicoCache.Situacao(retorno("107", "1", null), consultadoEm, null, 60)
+                .isEmOperacao());
+        assertFalse(new StatusServicoCache.Situacao(retorno("107", "1", null), consultadoEm, null, 5)
+                .isEmOperacao());
+        assertFalse(new StatusServicoCache.Situacao(retorno("108", "1", null), consultadoEm, null, 60)
+                .isEmOperacao());
+        assertFalse(new StatusServicoCache.Situacao(retorno("107", "1", null), consultadoEm,
+                new NfeException("Erro simulado"), 60).isEmOperacao());
+        assertFalse(new StatusServicoCache.Situacao(null, null, null, 60).isEmOperacao());
+    }
+
+    @Test
+    public void monitoraEmSegundoPlano() throws InterruptedException {
+        cache = new StatusServicoCache(agendador, 30);
+        cache.monitora(config, ConstantesUtil.NFE);
+
+        StatusServicoCache.Situacao situacao = aguardaConsulta(1);
+
+        assertEquals("107", situacao.getRetorno().getCStat());
+        assertNull(situacao.getErro());
+        assertTrue(cache.isEmOperacao(Estados.GO, ConstantesUtil.AMBIENTE.HOMOLOGACAO, ConstantesUtil.NFE));
+        assertTrue(proximoAgendamentoSegundos() > 25);
+
+        cache.para(Estados.GO, ConstantesUtil.AMBIENTE.HOMOLOGACAO, ConstantesUtil.NFE);
+        assertNull(cache.getSituacao(Estados.GO, ConstantesUtil.AMBIENTE.HOMOLOGACAO, ConstantesUtil.NFE));
+    }
+
+    @Test
+    public void consumoIndevidoMantemOUltimoStatus() throws InterruptedException {
+        sefaz.consumoIndevido(1, 60000);
+        cache = new StatusServicoCache(agendador, 0);
+        cache.monitora(config, ConstantesUtil.NFE);
+
+        StatusServicoCache.Situacao situacao = aguardaConsulta(2);
+
+        assertEquals("107", situacao.getRetorno().getCStat());
+        assertNotNull(situacao.getErro());
+        assertTrue(situacao.getErro().getMessage(), situacao.getErro().getMessage().startsWith("656"));
+        assertFalse(situacao.isEmOperacao());
+        assertTrue(proximoAgendamentoSegundos() > StatusServicoCache.ESPERA_CONSUMO_INDEVIDO_SEGUNDOS - 60);
+
+        Thread.sleep(200);
+        assertEquals(2, sefaz.getChamadas("NFeStatusServico4"));
+    }
+
+    @Test
+    public void falhaDeComunicacaoInvalidaOStatus() throws InterruptedException {
+        cache = new StatusServicoCache(agendador, 1);
+        cache.monitora(config, ConstantesUtil.NFE);
+        aguardaConsulta(1);
+
+        sefaz.taxaErro(1);
+        StatusServicoCache.Situacao situacao = aguardaConsulta(2);
+
+        assertEquals("107", situacao.getRetorno().getCStat());
+        assertNotNull(situacao.getErro());
+        assertFalse(cache.isEmOperacao(Estados.GO, ConstantesUtil.AMBIENTE.HOMOLOGACAO, ConstantesUtil.NFE));
+    }
+
+    /**
+     * Aguarda o SefazLocal receber as consultas e o cache registrar o retorno da última.
+     */
+    private StatusServicoCache.Situacao aguardaConsulta(int consultas) throws InterruptedException {
+        long limite = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (System.nanoTime() < limite) {
+            StatusServicoCache.Situacao situacao = cache.getSituacao(Estados.GO,
+                    ConstantesUtil.AMBIENTE.HOMOLOGACAO, ConstantesUtil.NFE);
+            if (sefaz.getChamadas("NFeStatusServico4") >= consultas && situacao.getRetorno() != null
+                    && (consultas == 1 || situacao.getErro() != null)) {
+                return situacao;
+            }
+            Thread.sleep(20);
+        }
+        throw new AssertionError("Sem retorno de " + consultas + " consultas.");
+    }
+
+    private long proximoAgendamentoSegundos() throws InterruptedException {
+        long limite = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (agendador.getQueue().isEmpty() && System.nanoTime() < limite) {
+            Thread.sleep(10);
+        }
+        Delayed proximo = (Delayed) agendador.getQueue().peek();
+        assertNotNull("Próxima consulta não agendada", proximo);
+        return proximo.getDelay(TimeUnit.SECONDS);
+    }
+
+    private static TRetConsStatServ retorno(String cStat, String tMed, String dhRetorno) {
+        TRetConsStatServ retorno = new TRetConsStatServ();
+        retorno.setCStat(cStat);
+        retorno.setTMed(tMed);
+        retorno.setDhRetorno(dhRetorno);
+        return retorno;
+    }
+
+}
@@ -0,0 +1,75 @@
+package br.com.samuelweb.nfe.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Transições do circuito: NORMAL -> CONTINGENCIA após as falhas seguidas, CONTINGENCIA -> TESTANDO após a espera e
+ * TESTANDO -> NORMAL ou CONTINGENCIA conforme o envio de teste.
+ */
+public class CircuitoContingenciaTest {
+
+    @Test
+    public void entraEmContingenciaAposFalhasSeguidas() {
+        CircuitoContingencia circuito = new CircuitoContingencia(3, 60);
+
+        circuito.registraFalha(Estados.GO);
+        circuito.registraFalha(Estados.GO);
+        assertFalse(circuito.isContingencia(Estados.GO));
+
+        // O sucesso zera as falhas: só falhas seguidas abrem o circuito
+        circuito.registraSucesso(Estados.GO);
+        circuito.registraFalha(Estados.GO);
+        circuito.registraFalha(Estados.GO);
+        assertFalse(circuito.usaContingencia(Estados.GO));
+
+        circuito.registraFalha(Estados.GO);
+        assertTrue(circuito.isContingencia(Estados.GO));
+        assertTrue(circuito.usaContingencia(Estados.GO));
+
+        // Cada UF tem o seu circuito
+        assertFalse(circuito.isContingencia(Estados.SP));
+        assertFalse(circuito.usaContingencia(Estados.SP));
+    }
+
+    @Test
+    public void voltaAoNormalComSucessoDoTeste() {
+        CircuitoContingencia circuito = new CircuitoContingencia(1, 0);
+
+        circuito.registraFalha(Estados.GO);
+        assertTrue(circuito.isContingencia(Estados.GO));
+
+        // Espera encerrada: a NFe é emitida normal para testar a UF, que continua em contingência até o retorno
+        assertFalse(circuito.usaContingencia(Estados.GO));
+        assertTrue(circuito.isContingencia(Estados.GO));
+
+        circuito.registraSucesso(Estados.GO);
+        assertFalse(circuito.isContingencia(Estados.GO));
+        assertFalse(circuito.usaContingencia(Estados.GO));
+    }
+
+    @Test
+    public void falhaNoTesteVoltaParaContingencia() throws InterruptedException {
+        CircuitoContingencia circuito = new CircuitoContingencia(1, 1);
+
+        circuito.registraFalha(Estados.GO);
+        assertTrue(circuito.usaContingencia(Estados.GO));
+
+        Thread.sleep(1100);
+        // Uma única NFe de teste por espera
+        assertFalse(circuito.usaContingencia(Estados.GO));
+        assertTrue(circuito.usaContingencia(Estados.GO));
+
+        circuito.registraFalha(Estados.GO);
+        assertTrue(circuito.isContingencia(Estados.GO));
+        assertTrue(circuito.usaContingencia(Estados.GO));
+
+        // Em contingência novas falhas não reiniciam a espera
+        Thread.sleep(1100);
+        circuito.registraFalha(Estados.GO);
+        assertFalse(circuito.usaContingencia(Estados.GO));
+    }
+
+}
@@ -0,0 +1,127 @@
+package br.com.samuelweb.nfe.util;
+
+import br.inf.portalfiscal.nfe.schema.envEventoCancNFe.TEnvEvento;
+import br.inf.portalfiscal.nfe.schema.envEventoCancNFe.TProcEvento;
+import br.inf.portalfiscal.nfe.schema_4.enviNFe.TEnviNFe;
+import br.inf.portalfiscal.nfe.schema_4.enviNFe.TNFe;
+import br.inf.portalfiscal.nfe.schema_4.inutNFe.TInutNFe;
+import org.junit.Test;
+
+import javax.xml.transform.stream.StreamResult;
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * O XML gerado pelo NfeXmlWriter deve ser idêntico ao da cadeia de replaceAll (replacesNfe) usada antes dele, aplicada
+ * sobre a saída do Marshaller.
+ */
+public class NfeXmlWriterTest {
+
+    private static final String NS = " xmlns=\"http://www.portalfiscal.inf.br/nfe\"";
+    private static final String CHAVE = "52180500261729000111650010000000041785017890";
+
+    private static final String ASSINATURA = "<Signature xmlns=\"http://www.w3.org/2000/09/xmldsig#\"><SignedInfo>"
+            + "<CanonicalizationMethod Algorithm=\"http://www.w3.org/TR/2001/REC-xml-c14n-20010315\"/>"
+            + "<SignatureMethod Algorithm=\"http://www.w3.org/2000/09/xmldsig#rsa-sha1\"/>"
+            + "<Reference URI=\"#ID\"><Transforms>"
+            + "<Transform Algorithm=\"http://www.w3.org/2000/09/xmldsig#enveloped-signature\"/>"
+            + "<Transform Algorithm=\"http://www.w3.org/TR/2001/REC-xml-c14n-20010315\"/></Transforms>"
+            + "<DigestMethod Algorithm=\"http://www.w3.org/2000/09/xmldsig#sha1\"/>"
+            + "<DigestValue>2jmj7l5rSw0yVb/vlWAYkK/YBwk=</DigestValue></Reference></SignedInfo>"
+            + "<SignatureValue>c2lnbmF0dXJl</SignatureValue>"
+            + "<KeyInfo><X509Data><X509Certificate>Y2VydGlmaWNhZG8=</X509Certificate></X509Data></KeyInfo>"
+            + "</Signature>";
+
+    private static final String EVENTO = "<evento versao=\"1.00\"><infEvento Id=\"ID110111" + CHAVE + "01\">"
+            + "<cOrgao>52</cOrgao><tpAmb>2</tpAmb><CNPJ>00261729000111</CNPJ><chNFe>" + CHAVE + "</chNFe>"
+            + "<dhEvento>2018-05-28T10:00:00-03:00</dhEvento><tpEvento>110111</tpEvento><nSeqEvento>1</nSeqEvento>"
+            + "<verEvento>1.00</verEvento><detEvento versao=\"1.00\"><descEvento>Cancelamento</descEvento>"
+            + "<nProt>152180000000001</nProt><xJust>Cancelamento por erro de digitacao &amp; valor</xJust>"
+            + "</detEvento></infEvento>" + ASSINATURA.replace("#ID", "#ID110111" + CHAVE + "01") + "</evento>";
+
+    @Test
+    public void enviNFeComAssinaturaEQrCode() throws Exception {
+        TEnviNFe enviNFe = XmlUtil.xmlToObject("<enviNFe" + NS + " versao=\"4.00\"><idLote>1</idLote>"
+                + "<indSinc>1</indSinc><NFe><infNFe Id=\"NFe" + CHAVE + "\" versao=\"4.00\"><ide><cUF>52</cUF>"
+                + "<cNF>78501789</cNF><natOp>Venda &amp; devolucao &lt;teste&gt; \"aspas\"</natOp><mod>65</mod>"
+                + "<serie>1</serie><nNF>4</nNF><dhEmi>2018-05-28T10:00:00-03:00</dhEmi><tpNF>1</tpNF>"
+                + "<tpEmis>1</tpEmis></ide><emit><CNPJ>00261729000111</CNPJ><xNome>Empresa A&amp;B LTDA</xNome>"
+                + "<xFant></xFant></emit><det nItem=\"1\"><prod><cProd>1</cProd><xProd>Produto 1</xProd></prod>"
+                + "</det><infAdic><infCpl>Valor &gt; 10</infCpl></infAdic></infNFe><infNFeSupl>"
+                + "<qrCode>http://homolog.sefaz.go.gov.br/nfeweb/sites/nfce/danfeNFCe?p=" + CHAVE + "|2|2|1|ABC</qrCode>"
+                + "<urlChave>http://www.sefaz.go.gov.br/nfce/consulta</urlChave></infNFeSupl>"
+                + ASSINATURA.replace("#ID", "#NFe" + CHAVE) + "</NFe></enviNFe>", TEnviNFe.class);
+
+        // Como no Enviar: o qrCode da NFC-e vai como CDATA
+        TNFe nfe = enviNFe.getNFe().get(0);
+        nfe.getInfNFeSupl().setQrCode("<![CDATA[" + nfe.getInfNFeSupl().getQrCode() + "]]>");
+
+        confere(enviNFe);
+    }
+
+    @Test
+    public void envEvento() throws Exception {
+        confere(XmlUtil.xmlToObject("<envEvento" + NS + " versao=\"1.00\"><idLote>1</idLote>" + EVENTO
+                + "</envEvento>", TEnvEvento.class));
+    }
+
+    @Test
+    public void procEvento() throws Exception {
+        confere(XmlUtil.xmlToObject("<procEventoNFe" + NS + " versao=\"1.00\">" + EVENTO
+                + "<retEvento versao=\"1.00\"><infEvento><tpAmb>2</tpAmb><verAplic>GO4.0</verAplic>"
+                + "<cOrgao>52</cOrgao><cStat>135</cStat><xMotivo>Evento registrado e vinculado a NF-e</xMotivo>"
+                + "<chNFe>" + CHAVE + "</chNFe><tpEvento>110111</tpEvento><nSeqEvento>1</nSeqEvento>"
+                + "<dhRegEvento>2018-05-28T10:00:01-03:00</dhRegEvento><nProt>152180000000002</nProt>"
+                + "</infEvento></retEvento></procEventoNFe>", TProcEvento.class));
+    }
+
+    @Test
+    public void inutilizacao() throws Exception {
+        confere(XmlUtil.xmlToObject("<inutNFe" + NS + " versao=\"4.00\"><infInut Id=\"ID52180026172900011155001"
+                + "000000001000000001\"><tpAmb>2</tpAmb><xServ>INUTILIZAR</xServ><cUF>52</cUF><ano>18</ano>"
+                + "<CNPJ>00261729000111</CNPJ><mod>55</mod><serie>1</serie><nNFIni>1</nNFIni><nNFFin>1</nNFFin>"
+                + "<xJust>Numeracao pulada por falha &amp; teste</xJust></infInut>"
+                + ASSINATURA.replace("#ID", "#ID52180026172900011155001000000001000000001") + "</inutNFe>",
+                TInutNFe.class));
+    }
+
+    private static void confere(Object objeto) throws Exception {
+        String esperado = anterior(objeto);
+        assertEquals(esperado, XmlUtil.objectToXml(objeto));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        XmlUtil.objectToXml(objeto, bytes);
+        assertEquals(esperado, new String(bytes.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * objectToXml anterior ao NfeXmlWriter.
+     */
+    private static String anterior(Object objeto) throws Exception {
+        StringWriter sw = new StringWriter();
+        XmlUtil.marshal(objeto, new StreamResult(sw));
+        String xml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" + sw.toString();
+        if (objeto.getClass().getSimpleName().equals("TProcEvento")) {
+            xml = xml.replaceAll("procEvento", "procEventoNFe");
+        }
+        return replacesNfe(xml);
+    }
+
+    private static String replacesNfe(String xml) {
+        xml = xml.replaceAll("ns2:", "");
+        xml = xml.replaceAll("<!\\[CDATA\\[<!\\[CDATA\\[", "<!\\[CDATA\\[");
+        xml = xml.replaceAll("\\]\\]>\\]\\]>", "\\]\\]>");
+        xml = xml.replaceAll("ns3:", "");
+        xml = xml.replaceAll("&lt;", "<");
+        xml = xml.replaceAll("&amp;", "&");
+        xml = xml.replaceAll("&gt;", ">");
+        xml = xml.replaceAll("<Signature>", "<Signature xmlns=\"http://www.w3.org/2000/09/xmldsig#\">");
+        xml = xml.replaceAll(" xmlns:ns2=\"http://www.w3.org/2000/09/xmldsig#\"", "");
+        xml = xml.replaceAll(" xmlns=\"\" xmlns:ns3=\"http://www.portalfiscal.inf.br/nfe\"", "");
+        return xml;
+    }
+
+}
@@ -0,0 +1,87 @@
+package br.com.samuelweb.nfe.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.text.Normalizer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compara o removeAcentos anterior (replaceAll + Normalizer) com o TransliteradorUtil
+ * em XMLs de Nfe com 1, 50 e 990 itens.
+ * <p>
+ * Executar com {@code mvn -Pjmh -DskipTests test}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RemoveAcentosBenchmark {
+
+    @Param({"1", "50", "990"})
+    public int itens;
+
+    private String xml;
+
+    @Setup
+    public void setup() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<enviNFe xmlns=\"http://www.portalfiscal.inf.br/nfe\" versao=\"4.00\">\n")
+                .append("  <idLote>1</idLote>\n  <indSinc>1</indSinc>\n")
+                .append("  <NFe>\n    <infNFe Id=\"NFe41180500261729000111555000000000041785017890\" versao=\"4.00\">\n")
+                .append("      <ide><cUF>41</cUF><cNF>78501789</cNF><natOp>Venda de mercadoria adquirida ou recebida de terceiros</natOp>")
+                .append("<mod>55</mod><serie>500</serie><nNF>4</nNF><dhEmi>2018-05-28T00:00:00-03:00</dhEmi></ide>\n")
+                .append("      <emit><CNPJ>00261729000111</CNPJ><xNome>Razão Social da Empresa Indústria & Comércio</xNome>")
+                .append("<enderEmit><xLgr>Avenida João Gualberto</xLgr><nro>123</nro><xBairro>Alto da Glória</xBairro>")
+                .append("<cMun>4106902</cMun><xMun>Curitiba</xMun><UF>PR</UF></enderEmit></emit>\n");
+        for (int i = 1; i <= itens; i++) {
+            sb.append("      <det nItem=\"").append(i).append("\">\n")
+                    .append("        <prod><cProd>").append(862875 + i).append("</cProd><cEAN>5601010111240</cEAN>")
+                    .append("<xProd>SARDINHA RAMIREZ EM TOMATE 125G - AÇÃO PROMOÇÃO Nº ").append(i).append("</xProd>")
+                    .append("<NCM>16041310</NCM><CFOP>5102</CFOP><uCom>UN</uCom><qCom>5.0000</qCom>")
+                    .append("<vUnCom>4.9700000000</vUnCom><vProd>24.85</vProd></prod>\n")
+                    .append("        <imposto><ICMS><ICMS00><orig>0</orig><CST>00</CST><modBC>3</modBC><vBC>24.85</vBC>")
+                    .append("<pICMS>7.00</pICMS><vICMS>1.74</vICMS></ICMS00></ICMS></imposto>\n")
+                    .append("        <infAdProd>Informação adicional do produto – lote ").append(i).append("</infAdProd>\n")
+                    .append("      </det>\n");
+        }
+        sb.append("      <infAdic><infCpl>Documento emitido por ME ou EPP optante pelo Simples Nacional</infCpl></infAdic>\n")
+                .append("    </infNFe>\n  </NFe>\n</enviNFe>\n");
+        xml = sb.toString();
+    }
+
+    @Benchmark
+    public String regex() {
+        String str = xml;
+        str = str.replaceAll("\r", "");
+        str = str.replaceAll("\t", "");
+        str = str.replaceAll("\n", "");
+        str = str.replaceAll("&", "E");
+        str = str.replaceAll(">\\s+<", "><");
+        return Normalizer.normalize(str, Normalizer.Form.NFKD).replaceAll("\\p{InCombiningDiacriticalMarks}+", "").replaceAll("[^\\p{ASCII}]", "");
+    }
+
+    @Benchmark
+    public String transliterador() {
+        return TransliteradorUtil.removeAcentos(xml);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(RemoveAcentosBenchmark.class.getSimpleName()).build()).run();
+    }
+
+}
@@ -0,0 +1,137 @@
+package br.com.samuelweb.nfe.util;
+
+import org.ini4j.Wini;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * A TabelaWebServices deve retornar as mesmas urls da busca no WebServicesNfe.ini feita pelo WebServiceUtil a cada
+ * chamada antes dela, para todos os modelos, estados, ambientes, contingência e serviços.
+ */
+public class TabelaWebServicesTest {
+
+    private static final String ARQUIVO = "/WebServicesNfe.ini";
+
+    private static Wini ini;
+    private static TabelaWebServices tabela;
+    private static List<String> servicos;
+
+    @BeforeClass
+    public static void carrega() throws Exception {
+        ini = new Wini();
+        ini.getConfig().setLowerCaseOption(true);
+        try (InputStream is = TabelaWebServicesTest.class.getResourceAsStream(ARQUIVO)) {
+            ini.load(is);
+        }
+        try (InputStream is = TabelaWebServicesTest.class.getResourceAsStream(ARQUIVO)) {
+            tabela = TabelaWebServices.carrega(is);
+        }
+        servicos = new ArrayList<>();
+        for (Field campo : ConstantesUtil.SERVICOS.class.getFields()) {
+            servicos.add((String) campo.get(null));
+        }
+    }
+
+    @Test
+    public void mesmaUrlQueABuscaNoIni() {
+        int encontradas = 0;
+        for (String modelo : new String[] { ConstantesUtil.NFE, ConstantesUtil.NFCE }) {
+            for (Estados estado : Estados.values()) {
+                for (boolean homologacao : new boolean[] { true, false }) {
+                    for (boolean contingencia : new boolean[] { false, true }) {
+                        for (String servico : servicos) {
+                            String esperada = anterior(modelo, estado, homologacao, contingencia, servico);
+                            assertEquals(modelo + " " + estado + " " + (homologacao ? "H" : "P")
+                                    + (contingencia ? " SVC " : " ") + servico, esperada,
+                                    vazia(tabela.getUrl(modelo, estado, homologacao, contingencia, servico)));
+                            if (esperada != null) {
+                                encontradas++;
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        assertTrue("Nenhuma url encontrada no " + ARQUIVO, encontradas > 0);
+    }
+
+    @Test
+    public void mesmaUrlDeConsultaCadastro() {
+        for (Estados estado : Estados.values()) {
+            for (boolean homologacao : new boolean[] { true, false }) {
+                for (String uf : new String[] { estado.toString(), estado.toString().toLowerCase() }) {
+                    assertEquals(uf + (homologacao ? " H" : " P"), anteriorConsultaCadastro(homologacao, uf),
+                            vazia(tabela.getUrlConsultaCadastro(homologacao, uf)));
+                }
+            }
+        }
+    }
+
+    /**
+     * Busca do WebServiceUtil.getUrl anterior à TabelaWebServices, sem o log e com o INI já carregado.
+     *
+     * @return url, ou null quando o WebServiceUtil lançava "WebService não encontrado"
+     */
+    private static String anterior(String tipo, Estados estado, boolean homologacao, boolean contingencia,
+            String servico) {
+
+        String secao = tipo + "_" + estado + "_" + (homologacao ? "H" : "P");
+
+        String url = ini.get(secao, "usar");
+
+        if (servico.equals(ConstantesUtil.SERVICOS.DISTRIBUICAO_DFE)
+                || servico.equals(ConstantesUtil.SERVICOS.MANIFESTACAO)) {
+            secao = homologacao ? "NFe_AN_H" : "NFe_AN_P";
+
+            if (servico.equals(ConstantesUtil.SERVICOS.MANIFESTACAO)) {
+                servico = ConstantesUtil.SERVICOS.EVENTO;
+            }
+
+        } else if (!servico.equals(ConstantesUtil.SERVICOS.URL_CONSULTANFCE)
+                && !servico.equals(ConstantesUtil.SERVICOS.URL_QRCODE) && ObjetoUtil.differentNull(url)) {
+            secao = url;
+        } else if (contingencia) {
+            // SVC-RS
+            if (estado.equals(Estados.GO) || estado.equals(Estados.AM) || estado.equals(Estados.BA)
+                    || estado.equals(Estados.CE) || estado.equals(Estados.MA) || estado.equals(Estados.MS)
+                    || estado.equals(Estados.MT) || estado.equals(Estados.PA) || estado.equals(Estados.PE)
+                    || estado.equals(Estados.PI) || estado.equals(Estados.PR)) {
+                secao = tipo + "_SVRS_" + (homologacao ? "H" : "P");
+                // SVC-AN
+            } else {
+                secao = tipo + "_SVAN_" + (homologacao ? "H" : "P");
+            }
+        }
+
+        return vazia(ini.get(secao, servico.toLowerCase()));
+    }
+
+    /**
+     * Busca do WebServiceUtil.getUrlConsultaCadastro anterior à TabelaWebServices.
+     */
+    private static String anteriorConsultaCadastro(boolean homologacao, String uf) {
+
+        String secao;
+        if (uf.toUpperCase().equals(Estados.AC.toString()) || uf.toUpperCase().equals(Estados.RN.toString())
+                || uf.toUpperCase().equals(Estados.PB.toString()) || uf.toUpperCase().equals(Estados.SC.toString())) {
+            secao = ConstantesUtil.NFE + "_SVRS_" + (homologacao ? "H" : "P");
+        } else {
+            secao = ConstantesUtil.NFE + "_" + uf.toUpperCase() + "_" + (homologacao ? "H" : "P");
+        }
+
+        return vazia(ini.get(secao, ConstantesUtil.SERVICOS.CONSULTA_CADASTRO.toLowerCase()));
+    }
+
+    private static String vazia(String url) {
+        return ObjetoUtil.isEmpty(url) ? null : url;
+    }
+
+}